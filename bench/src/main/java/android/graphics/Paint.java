@@ -0,0 +1,26 @@
+/*
+ * Stand-in for the Android class, whose android.jar version only throws
+ * on the desktop JVM. Used by the benchmarks alone.
+ */
+package android.graphics;
+
+public class Paint {
+
+    public static final int FILTER_BITMAP_FLAG = 2;
+
+    private final int mFlags;
+    private Xfermode mXfermode;
+
+    public Paint() {
+        this(0);
+    }
+
+    public Paint(int flags) {
+        mFlags = flags;
+    }
+
+    public Xfermode setXfermode(Xfermode xfermode) {
+        mXfermode = xfermode;
+        return xfermode;
+    }
+}
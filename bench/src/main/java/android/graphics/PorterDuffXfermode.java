@@ -0,0 +1,14 @@
+/*
+ * Stand-in for the Android class, whose android.jar version only throws
+ * on the desktop JVM. Used by the benchmarks alone.
+ */
+package android.graphics;
+
+public class PorterDuffXfermode extends Xfermode {
+
+    private final PorterDuff.Mode mMode;
+
+    public PorterDuffXfermode(PorterDuff.Mode mode) {
+        mMode = mode;
+    }
+}
@@ -0,0 +1,8 @@
+/*
+ * Stand-in for the Android class, whose android.jar version only throws
+ * on the desktop JVM. Used by the benchmarks alone.
+ */
+package android.graphics;
+
+public class Xfermode {
+}
@@ -0,0 +1,35 @@
+/*
+ * Stand-in for the Android class, whose android.jar version only throws
+ * on the desktop JVM. Used by the benchmarks alone.
+ */
+package android.util;
+
+public class Pair<F, S> {
+
+    public final F first;
+    public final S second;
+
+    public Pair(F first, S second) {
+        this.first = first;
+        this.second = second;
+    }
+
+    public static <A, B> Pair<A, B> create(A a, B b) {
+        return new Pair<A, B>(a, b);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (!(o instanceof Pair)) {
+            return false;
+        }
+        Pair<?, ?> other = (Pair<?, ?>) o;
+        return (null == first ? null == other.first : first.equals(other.first))
+                && (null == second ? null == other.second : second.equals(other.second));
+    }
+
+    @Override
+    public int hashCode() {
+        return (null == first ? 0 : first.hashCode()) ^ (null == second ? 0 : second.hashCode());
+    }
+}
@@ -0,0 +1,61 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import android.util.Pair;
+
+/**
+ * Measures the size computations run before decoding and scaling every
+ * picture of {@link CatchoomImageUtil}.
+ * @author Catchoom
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatchoomImageUtilBenchmark {
+
+	/** Camera picture resolutions, from a preview frame to a 8 megapixel shot. */
+	@Param({ "640x480", "1920x1080", "3264x2448" })
+	public String resolution;
+	
+	private int mWidth;
+	private int mHeight;
+	private int mPictureSize = CatchoomImageUtil.Config.PICTURE_MIN_SIZE;
+	
+	@Setup
+	public void setUp() {
+		int separator = resolution.indexOf('x');
+		mWidth = Integer.parseInt(resolution.substring(0, separator));
+		mHeight = Integer.parseInt(resolution.substring(separator + 1));
+	}
+	
+	@Benchmark
+	public int resolveSampleSize() {
+		return CatchoomImageUtil.resolveSampleSize(mWidth, mHeight, mPictureSize);
+	}
+	
+	@Benchmark
+	public Pair<Integer, Integer> resolveDesiredSize() {
+		return CatchoomImageUtil.resolveDesiredSize(mWidth, mHeight, mPictureSize);
+	}
+}
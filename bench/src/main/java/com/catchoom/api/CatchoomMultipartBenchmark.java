@@ -0,0 +1,101 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.entity.mime.FormBodyPart;
+import org.apache.http.entity.mime.HttpMultipart;
+import org.apache.http.entity.mime.HttpMultipartMode;
+import org.apache.http.entity.mime.MultipartEntity;
+import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.entity.mime.content.StringBody;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the multipart body of a search request: building it from the
+ * collection token and the encoded image, computing its length and writing
+ * it out.
+ * @author Catchoom
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatchoomMultipartBenchmark {
+
+	private static final String TOKEN = "collection-token";
+	private static final String BOUNDARY = "sBaUeEZsJwNUg2lNvxGvcF5mHDrp1SJeC";
+	// About the size of a 640 pixel JPEG
+	private static final int IMAGE_BYTES = 60 * 1024;
+	
+	private byte[] mImage;
+	private HttpMultipart mMultipart;
+	private final DiscardingStream mOut = new DiscardingStream();
+	
+	@Setup
+	public void setUp() throws UnsupportedEncodingException {
+		mImage = new byte[IMAGE_BYTES];
+		new Random(42).nextBytes(mImage);
+		mMultipart = new HttpMultipart("form-data", null, BOUNDARY, HttpMultipartMode.BROWSER_COMPATIBLE);
+		mMultipart.addBodyPart(new FormBodyPart("token", new StringBody(TOKEN)));
+		mMultipart.addBodyPart(new FormBodyPart("image", new ByteArrayBody(mImage, "image/jpeg", "query.jpg")));
+	}
+	
+	@Benchmark
+	public long writeTo() throws IOException {
+		mOut.mCount = 0;
+		mMultipart.writeTo(mOut);
+		return mOut.mCount;
+	}
+	
+	@Benchmark
+	public long getTotalLength() {
+		return mMultipart.getTotalLength();
+	}
+	
+	@Benchmark
+	public MultipartEntity buildEntity() throws UnsupportedEncodingException {
+		MultipartEntity entity = new MultipartEntity(HttpMultipartMode.BROWSER_COMPATIBLE);
+		entity.addPart("token", new StringBody(TOKEN));
+		entity.addPart("image", new ByteArrayBody(mImage, "image/jpeg", "query.jpg"));
+		return entity;
+	}
+	
+	/**
+	 * Stream counting the bytes written to it, so that only the cost of the
+	 * multipart writer is measured.
+	 */
+	private static final class DiscardingStream extends OutputStream {
+		
+		long mCount = 0;
+		
+		@Override
+		public void write(int b) {
+			mCount++;
+		}
+		
+		@Override
+		public void write(byte[] b, int off, int len) {
+			mCount += len;
+		}
+	}
+}
@@ -0,0 +1,80 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the parsing of search responses into
+ * {@link CatchoomSearchResponseItem} objects, with responses shaped like the
+ * server ones.
+ * @author Catchoom
+ *
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CatchoomSearchResponseParserBenchmark {
+
+	@Param({ "1", "10", "100" })
+	public int itemCount;
+	
+	/** Approximate size of the metadata of each item. */
+	@Param({ "256" })
+	public int metadataBytes;
+	
+	private String mResponse;
+	private final CatchoomSearchOptions mTopFive = new CatchoomSearchOptions(5, 0);
+	
+	@Setup
+	public void setUp() {
+		StringBuilder padding = new StringBuilder(metadataBytes);
+		for (int i = 0; i < metadataBytes; i++) {
+			padding.append((char) ('a' + i % 26));
+		}
+		StringBuilder json = new StringBuilder();
+		json.append('[');
+		for (int i = 0; i < itemCount; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			json.append("{\"item_id\":\"").append(Integer.toHexString(0x5f3a0000 + i * 7919))
+					.append("\",\"score\":").append(Math.max(100 - i, 1))
+					.append(",\"metadata\":{\"name\":\"Item ").append(i)
+					.append("\",\"url\":\"http:\\/\\/example.com\\/items\\/").append(i)
+					.append("\",\"description\":\"").append(padding).append("\"}}");
+		}
+		json.append(']');
+		mResponse = json.toString();
+	}
+	
+	@Benchmark
+	public ArrayList<CatchoomSearchResponseItem> parseAll() throws IOException {
+		return CatchoomSearchResponseParser.parse(new StringReader(mResponse), CatchoomSearchOptions.DEFAULT);
+	}
+	
+	@Benchmark
+	public ArrayList<CatchoomSearchResponseItem> parseTopFive() throws IOException {
+		return CatchoomSearchResponseParser.parse(new StringReader(mResponse), mTopFive);
+	}
+}
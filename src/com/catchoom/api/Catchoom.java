@@ -10,33 +10,40 @@ import java.io.IOException;
 import java.io.UnsupportedEncodingException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
+import org.apache.http.HttpConnection;
+import org.apache.http.HttpEntity;
 import org.apache.http.HttpResponse;
 import org.apache.http.NameValuePair;
 import org.apache.http.StatusLine;
 import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.entity.UrlEncodedFormEntity;
 import org.apache.http.client.methods.HttpPost;
-import org.apache.http.conn.ClientConnectionManager;
-import org.apache.http.conn.scheme.PlainSocketFactory;
-import org.apache.http.conn.scheme.Scheme;
-import org.apache.http.conn.scheme.SchemeRegistry;
-import org.apache.http.conn.ssl.SSLSocketFactory;
 import org.apache.http.entity.mime.HttpMultipartMode;
 import org.apache.http.entity.mime.MultipartEntity;
-import org.apache.http.entity.mime.content.ByteArrayBody;
 import org.apache.http.entity.mime.content.StringBody;
 import org.apache.http.impl.client.DefaultHttpClient;
-import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
 import org.apache.http.message.BasicNameValuePair;
-import org.apache.http.params.BasicHttpParams;
+import org.apache.http.protocol.BasicHttpContext;
+import org.apache.http.protocol.ExecutionContext;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
-import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
 import android.graphics.Bitmap;
-import android.os.AsyncTask;
+import android.graphics.Rect;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 
@@ -57,19 +64,70 @@ public class Catchoom {
 	
 	static final class Config {
 		public static final String BASE_URL = "https://r.catchoom.com/v0/";
+		// Frames waiting in front of each image processing stage, scanned
+		// frames only in front of the first one
+		public static final int PIPELINE_QUEUE_CAPACITY = 1;
+		// Encoded frames handed to the request engine and not uploaded yet
+		public static final int PIPELINE_MAX_PENDING_UPLOADS = 2;
+		// Offline searches sent at the same time when draining the queue
+		public static final int OFFLINE_DRAIN_BATCH_SIZE = 2;
 	}
 	
+	private static final CatchoomEncoderPolicy.Encoding DEFAULT_ENCODING = new CatchoomEncoderPolicy.Encoding(
+			CatchoomImageUtil.Config.PICTURE_MIN_SIZE, CatchoomImageUtil.Config.PICTURE_COMPRESSION_QUALITY);
+	
+	private static CatchoomPipeline<SearchJob> sSearchPipeline = null;
+	private static ScheduledExecutorService sHedgeTimer = null;
+	private static ThreadPoolExecutor sHedgeExecutor = null;
+	
 	private DefaultHttpClient mHttpClient = null;
+	private CatchoomConnectionPool mConnectionPool = null;
 	private CatchoomResponseHandler mCatchoomResponseHandler = null;
+	private CatchoomRequestEngine mRequestEngine = null;
+	private volatile CatchoomFrameScheduler mScanScheduler = null;
+	private volatile CatchoomResultCache mResultCache = null;
+	private volatile CatchoomRetryPolicy mRetryPolicy = CatchoomRetryPolicy.DEFAULT;
+	private volatile CatchoomHedgingPolicy mHedgingPolicy = null;
+	private volatile CatchoomOfflineQueue mOfflineQueue = null;
+	private volatile CatchoomSearchMetricsListener mMetricsListener = null;
+	private volatile CatchoomEncoderPolicy mEncoderPolicy = null;
+	private volatile CatchoomBitmapPool mBitmapPool = CatchoomBitmapPool.getDefault();
+	private volatile CatchoomPipeline<SearchJob> mSearchPipeline = null;
+	private volatile String mBaseUrl = Config.BASE_URL;
+	private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+	private final CatchoomRequestEngine.Listener mEngineListener = new EngineListener();
 	
+	/**
+	 * Creates a Catchoom object whose requests are executed by the shared
+	 * {@link CatchoomRequestEngine#getDefault()} engine over the shared
+	 * {@link CatchoomConnectionPool#getDefault()} connections.
+	 */
 	public Catchoom() {
-    	BasicHttpParams params = new BasicHttpParams();
-    	SchemeRegistry schemeRegistry = new SchemeRegistry();
-    	schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
-    	final SSLSocketFactory sslSocketFactory = SSLSocketFactory.getSocketFactory();
-    	schemeRegistry.register(new Scheme("https", sslSocketFactory, 443));
-    	ClientConnectionManager cm = new ThreadSafeClientConnManager(params, schemeRegistry);
-    	mHttpClient = new DefaultHttpClient(cm, params);
+		this(CatchoomRequestEngine.getDefault());
+	}
+	
+	/**
+	 * Creates a Catchoom object whose requests are executed by the given engine
+	 * over the shared {@link CatchoomConnectionPool#getDefault()} connections.
+	 * @param requestEngine The engine that will execute the requests.
+	 */
+	public Catchoom(CatchoomRequestEngine requestEngine) {
+		this(requestEngine, CatchoomConnectionPool.getDefault());
+	}
+	
+	/**
+	 * Creates a Catchoom object whose requests are executed by the given engine
+	 * over the connections of the given pool.
+	 * @param requestEngine The engine that will execute the requests.
+	 * @param connectionPool The pool of connections to the server.
+	 */
+	public Catchoom(CatchoomRequestEngine requestEngine, CatchoomConnectionPool connectionPool) {
+		if (null == connectionPool) {
+			throw new IllegalArgumentException("Connection pool may not be null");
+		}
+		setRequestEngine(requestEngine);
+		mConnectionPool = connectionPool;
+		mHttpClient = connectionPool.getHttpClient();
 	}
 	
 	/**
@@ -81,6 +139,134 @@ public class Catchoom {
 		this.mCatchoomResponseHandler = responseHandler;
 	}
 	
+	/**
+	 * Sets the engine that will execute the requests performed from now on.
+	 * @param requestEngine The request engine.
+	 */
+	public void setRequestEngine(CatchoomRequestEngine requestEngine) {
+		if (null == requestEngine) {
+			throw new IllegalArgumentException("Request engine may not be null");
+		}
+		this.mRequestEngine = requestEngine;
+	}
+	
+	/**
+	 * Sets the cache used to answer searches of near-duplicate images without
+	 * reaching the server. Searches are not cached by default.
+	 * @param resultCache The result cache, or null to disable caching.
+	 */
+	public void setResultCache(CatchoomResultCache resultCache) {
+		this.mResultCache = resultCache;
+	}
+	
+	/**
+	 * Sets the policy deciding which failed requests are sent again. Requests
+	 * are retried with the {@link CatchoomRetryPolicy#DEFAULT} policy unless
+	 * another one is set.
+	 * @param retryPolicy The retry policy, or {@link CatchoomRetryPolicy#NONE}
+	 * to disable retries.
+	 */
+	public void setRetryPolicy(CatchoomRetryPolicy retryPolicy) {
+		if (null == retryPolicy) {
+			throw new IllegalArgumentException("Retry policy may not be null");
+		}
+		this.mRetryPolicy = retryPolicy;
+	}
+	
+	/**
+	 * Sets the policy sending a second request for the searches that get no
+	 * response in time. Searches are not hedged by default.
+	 * @param hedgingPolicy The hedging policy, or null to disable hedging.
+	 */
+	public void setHedgingPolicy(CatchoomHedgingPolicy hedgingPolicy) {
+		this.mHedgingPolicy = hedgingPolicy;
+	}
+	
+	/**
+	 * Sets the policy choosing the size and the JPEG quality of the query
+	 * images from the measured network conditions. Images are scaled to 240
+	 * pixels shortest edge and compressed at 75% quality unless a policy is set.
+	 * @param encoderPolicy The encoder policy, or null to use fixed settings.
+	 */
+	public void setEncoderPolicy(CatchoomEncoderPolicy encoderPolicy) {
+		this.mEncoderPolicy = encoderPolicy;
+	}
+	
+	/**
+	 * Sets the pool the query images are decoded and scaled into. All the
+	 * Catchoom objects share the {@link CatchoomBitmapPool#getDefault()} pool
+	 * unless they are given another one.
+	 * @param bitmapPool The bitmap pool, or null to allocate new bitmaps for
+	 * every search. Intermediate bitmaps are recycled either way.
+	 */
+	public void setBitmapPool(CatchoomBitmapPool bitmapPool) {
+		this.mBitmapPool = bitmapPool;
+	}
+	
+	/**
+	 * Sets the listener receiving the {@link CatchoomSearchMetrics} of every
+	 * search. Searches are not measured unless a listener is set.
+	 * @param metricsListener The metrics listener, for instance a
+	 * {@link CatchoomSearchMetricsAggregator}, or null to stop measuring.
+	 */
+	public void setSearchMetricsListener(CatchoomSearchMetricsListener metricsListener) {
+		this.mMetricsListener = metricsListener;
+	}
+	
+	/**
+	 * Sets the address of the server receiving the requests performed from
+	 * now on, for instance a {@link CatchoomStandInServer} while testing. The
+	 * Catchoom Recognition Server is used unless another one is set.
+	 * @param baseUrl The URL the request paths are appended to, such as
+	 * <code>http://10.0.2.2:8080/v0/</code>.
+	 */
+	public void setBaseUrl(String baseUrl) {
+		if (null == baseUrl) {
+			throw new IllegalArgumentException("Base URL may not be null");
+		}
+		this.mBaseUrl = baseUrl.endsWith("/") ? baseUrl : baseUrl + "/";
+	}
+	
+	/**
+	 * Sets the pipeline processing the images of the searches performed from
+	 * now on, instead of the one shared by all the Catchoom objects.
+	 * @param searchPipeline A pipeline made by {@link #createSearchPipeline(String, int)},
+	 * or null to use the shared one.
+	 */
+	void setSearchPipeline(CatchoomPipeline<SearchJob> searchPipeline) {
+		this.mSearchPipeline = searchPipeline;
+	}
+	
+	/**
+	 * Gets the address of the server receiving the requests.
+	 * @return The base URL, ending with a slash.
+	 */
+	public String getBaseUrl() {
+		return mBaseUrl;
+	}
+	
+	/**
+	 * Sets the queue storing the searches that cannot reach the server. Such
+	 * searches are reported through <code>requestFailedResponse</code> with
+	 * the {@link CatchoomErrorResponseItem#REQUEST_QUEUED} error code, and
+	 * their results are delivered once the queue is drained. Searches
+	 * performed while scanning continuously are never queued. The searches
+	 * already in the queue are performed right away.
+	 * @param offlineQueue The offline queue, or null to deliver the failures
+	 * right away. A queue can only be set to one Catchoom object.
+	 */
+	public void setOfflineQueue(CatchoomOfflineQueue offlineQueue) {
+		CatchoomOfflineQueue previous = mOfflineQueue;
+		if (null != previous) {
+			previous.setListener(null);
+		}
+		mOfflineQueue = offlineQueue;
+		if (null != offlineQueue) {
+			offlineQueue.setListener(new OfflineDrain(offlineQueue));
+			offlineQueue.drain();
+		}
+	}
+	
 	/**
 	 * Performs a connection against the Catchoom server. This request is
 	 * asynchronous and will trigger a callback to a {@link CatchoomResponseHandler}
@@ -89,16 +275,55 @@ public class Catchoom {
 	 * @param token The token to access the collection.
 	 */
 	public void connect(String token) {
+		connect(token, false);
+	}
+	
+	/**
+	 * Performs a connection against the Catchoom server, optionally pre-warming
+	 * the transport for the following searches. This request is asynchronous
+	 * and will trigger a callback to a {@link CatchoomResponseHandler} once it
+	 * completes. If it succeeds, the server will respond with its timestamp.
+	 * If the request fails, a {@link CatchoomErrorResponseItem} will be sent.
+	 * <p>
+	 * When pre-warming, the DNS lookup and the TLS handshake are completed and
+	 * the connection is left in the pool, ready for the first search. A second
+	 * request is then sent over it to measure the round trip time and the clock
+	 * skew, available afterwards through {@link #getRoundTripTime()} and
+	 * {@link #getClockSkew()}.
+	 * @param token The token to access the collection.
+	 * @param prewarm Whether to pre-warm the transport.
+	 */
+	public void connect(String token, boolean prewarm) {
 		if (null != mCatchoomResponseHandler) {
-			Connect connectImpl = new Connect();
-			connectImpl.execute(token);
+			mRequestEngine.submit(new Connect(token, prewarm), mEngineListener);
 		}
 	}
 	
+	/**
+	 * Gets the round trip time to the server over a warm connection, measured
+	 * by {@link #connect(String, boolean)} when pre-warming.
+	 * @return The smoothed round trip time in milliseconds, or -1 if it has
+	 * not been measured yet.
+	 */
+	public long getRoundTripTime() {
+		return mConnectionPool.getRoundTripTime();
+	}
+	
+	/**
+	 * Gets the difference between the server clock and the device clock,
+	 * measured by {@link #connect(String, boolean)} when pre-warming.
+	 * @return The server time minus the device time, in milliseconds, or 0 if
+	 * it has not been measured yet.
+	 */
+	public long getClockSkew() {
+		return mConnectionPool.getClockSkew();
+	}
+	
 	/**
 	 * Searches the image specified in a collection. This request is
 	 * asynchronous and will trigger a callback to a {@link CatchoomResponseHandler}
-	 * once it completes. If it succeeds, the server will respond with an {@link ArrayList<CatchoomSearchResponseItem>}.
+	 * once it completes. If it succeeds, the server will respond with an {@link ArrayList<CatchoomSearchResponseItem>}
+	 * sorted by descending score.
 	 * This list can either contain several {@link CatchoomSearchResponseItem} or be
 	 * empty depending on the number of coincidences found.
 	 * If the request fails, a {@link CatchoomErrorResponseItem} will be sent.
@@ -106,81 +331,761 @@ public class Catchoom {
 	 * @param image
 	 */
 	public void search(String token, File image) {
+		search(token, image, CatchoomSearchOptions.DEFAULT);
+	}
+	
+	/**
+	 * Searches the image specified in a collection, delivering only the
+	 * results allowed by the options. This request is asynchronous and will
+	 * trigger a callback to a {@link CatchoomResponseHandler} once it completes.
+	 * If it succeeds, the server will respond with an {@link ArrayList<CatchoomSearchResponseItem>}
+	 * sorted by descending score.
+	 * If the request fails, a {@link CatchoomErrorResponseItem} will be sent.
+	 * @param token
+	 * @param image
+	 * @param options The maximum number of results and their minimum score.
+	 */
+	public void search(String token, File image, CatchoomSearchOptions options) {
 		if (null != mCatchoomResponseHandler) {
-			Search searchImpl = new Search();
-			ByteArrayOutputStream processedImage = CatchoomImageUtil.processPicture(image.getPath());
-			searchImpl.execute(token, processedImage);
+			submitSearch(new SearchJob(token, image.getPath(), options));
 		}
 	}
 
 	/**
 	 * Searches the image specified in a collection. This request is
 	 * asynchronous and will trigger a callback to a {@link CatchoomResponseHandler}
-	 * once it completes. If it succeeds, the server will respond with an {@link ArrayList<CatchoomSearchResponseItem>}.
+	 * once it completes. If it succeeds, the server will respond with an {@link ArrayList<CatchoomSearchResponseItem>}
+	 * sorted by descending score.
 	 * This list can either contain several {@link CatchoomSearchResponseItem} or be
 	 * empty depending on the number of coincidences found.
 	 * If the request fails, a {@link CatchoomErrorResponseItem} will be sent.
+	 * <p>
+	 * The image is scaled and compressed in the background, so it must not be
+	 * recycled or modified until the request completes.
 	 * @param token
 	 * @param image
 	 */
 	public void search(String token, Bitmap image) {
+		search(token, image, CatchoomSearchOptions.DEFAULT);
+	}
+	
+	/**
+	 * Searches the image specified in a collection, delivering only the
+	 * results allowed by the options. This request is asynchronous and will
+	 * trigger a callback to a {@link CatchoomResponseHandler} once it completes.
+	 * If it succeeds, the server will respond with an {@link ArrayList<CatchoomSearchResponseItem>}
+	 * sorted by descending score.
+	 * If the request fails, a {@link CatchoomErrorResponseItem} will be sent.
+	 * <p>
+	 * The image is scaled and compressed in the background, so it must not be
+	 * recycled or modified until the request completes.
+	 * @param token
+	 * @param image
+	 * @param options The maximum number of results and their minimum score.
+	 */
+	public void search(String token, Bitmap image, CatchoomSearchOptions options) {
+		if (null != mCatchoomResponseHandler) {
+			submitSearch(new SearchJob(token, image, options));
+		}
+	}
+	
+	/**
+	 * Searches a camera preview frame in a collection. This request is
+	 * asynchronous and will trigger a callback to a {@link CatchoomResponseHandler}
+	 * once it completes. If it succeeds, the server will respond with an
+	 * {@link ArrayList<CatchoomSearchResponseItem>} sorted by descending score.
+	 * If the request fails, a {@link CatchoomErrorResponseItem} will be sent.
+	 * <p>
+	 * The frame is downsampled before this method returns, so its buffer can
+	 * be given back to the camera right away, and compressed in the background
+	 * without being converted to a {@link Bitmap}.
+	 * @param token The collection token.
+	 * @param frame The frame data.
+	 * @param width The frame width.
+	 * @param height The frame height.
+	 * @param format The frame format, {@link android.graphics.ImageFormat#NV21}
+	 * or <code>ImageFormat.YV12</code>.
+	 */
+	public void search(String token, byte[] frame, int width, int height, int format) {
+		search(token, frame, width, height, format, null, null);
+	}
+	
+	/**
+	 * Searches an area of a camera preview frame in a collection, delivering
+	 * only the results allowed by the options. This request is asynchronous
+	 * and will trigger a callback to a {@link CatchoomResponseHandler} once it
+	 * completes. If it succeeds, the server will respond with an
+	 * {@link ArrayList<CatchoomSearchResponseItem>} sorted by descending score.
+	 * If the request fails, a {@link CatchoomErrorResponseItem} will be sent.
+	 * <p>
+	 * The frame is cropped and downsampled before this method returns, so its
+	 * buffer can be given back to the camera right away, and compressed in the
+	 * background without being converted to a {@link Bitmap}.
+	 * @param token The collection token.
+	 * @param frame The frame data.
+	 * @param width The frame width.
+	 * @param height The frame height.
+	 * @param format The frame format, {@link android.graphics.ImageFormat#NV21}
+	 * or <code>ImageFormat.YV12</code>.
+	 * @param crop The area of the frame searched, or null to search it whole.
+	 * @param options The maximum number of results and their minimum score.
+	 */
+	public void search(String token, byte[] frame, int width, int height, int format, Rect crop,
+			CatchoomSearchOptions options) {
 		if (null != mCatchoomResponseHandler) {
-			Search searchImpl = new Search();
-			ByteArrayOutputStream processedImage = CatchoomImageUtil.processPicture(image);
-			searchImpl.execute(token, processedImage);
+			submitSearch(new SearchJob(token, frame, width, height, format, crop, options));
+		}
+	}
+	
+	/**
+	 * Starts the continuous scan mode, meant to search every camera frame.
+	 * While scanning, at most <code>maxInFlightSearches</code> searches are
+	 * performed at the same time and only the newest frame waits for a free
+	 * slot: older waiting frames are dropped without any callback. Once a search
+	 * succeeds, the searches of older frames still in progress are aborted and
+	 * their outcome is never delivered.
+	 * @param maxInFlightSearches Maximum number of searches performed at the
+	 * same time.
+	 */
+	public void startContinuousScan(int maxInFlightSearches) {
+		CatchoomFrameScheduler previous = mScanScheduler;
+		mScanScheduler = new CatchoomFrameScheduler(maxInFlightSearches);
+		if (null != previous) {
+			previous.cancelAll();
+		}
+	}
+	
+	/**
+	 * Stops the continuous scan mode. Searches in progress are aborted and
+	 * subsequent searches are performed one by one as usual.
+	 */
+	public void stopContinuousScan() {
+		CatchoomFrameScheduler previous = mScanScheduler;
+		mScanScheduler = null;
+		if (null != previous) {
+			previous.cancelAll();
 		}
 	}
 	
+	/**
+	 * Checks if the continuous scan mode is on.
+	 * @return true if scanning continuously.
+	 */
+	public boolean isContinuousScanning() {
+		return null != mScanScheduler;
+	}
+	
 	// Private inner implementation of the API
 	
 	/**
-	 * Inner class to perform asynchronous connection easily in Android.
+	 * Sends a search to the search pipeline, through the frame scheduler if
+	 * scanning continuously.
+	 * @param job The search to perform.
+	 */
+	private void submitSearch(SearchJob job) {
+		CatchoomFrameScheduler scheduler = job.getScheduler();
+		if (null != scheduler) {
+			scheduler.submit(job);
+		} else {
+			job.start();
+		}
+	}
+	
+	/**
+	 * Gets the pipeline shared by all the Catchoom objects to decode, scale and
+	 * encode the query images before uploading them.
+	 * @return The search pipeline.
+	 */
+	private static synchronized CatchoomPipeline<SearchJob> getSearchPipeline() {
+		if (null == sSearchPipeline) {
+			sSearchPipeline = createSearchPipeline("Catchoom search", Config.PIPELINE_MAX_PENDING_UPLOADS);
+		}
+		return sSearchPipeline;
+	}
+	
+	/**
+	 * Creates a pipeline to decode, scale and encode the query images before
+	 * uploading them.
+	 * @param name Name used for the worker threads.
+	 * @param maxPendingUploads Number of encoded images that can be uploaded
+	 * at the same time.
+	 * @return The search pipeline.
+	 */
+	static CatchoomPipeline<SearchJob> createSearchPipeline(String name, int maxPendingUploads) {
+		List<CatchoomPipeline.Stage<SearchJob>> stages = new ArrayList<CatchoomPipeline.Stage<SearchJob>>(4);
+		stages.add(new CatchoomPipeline.Stage<SearchJob>() {
+			public void process(SearchJob job) throws IOException {
+				job.decode();
+			}
+		});
+		stages.add(new CatchoomPipeline.Stage<SearchJob>() {
+			public void process(SearchJob job) {
+				job.scale();
+			}
+		});
+		stages.add(new CatchoomPipeline.Stage<SearchJob>() {
+			public void process(SearchJob job) throws IOException {
+				job.encode();
+			}
+		});
+		stages.add(new CatchoomPipeline.Stage<SearchJob>() {
+			public void process(SearchJob job) {
+				job.upload();
+			}
+		});
+		
+		return new CatchoomPipeline<SearchJob>(name, stages, Config.PIPELINE_QUEUE_CAPACITY, maxPendingUploads,
+				new CatchoomPipeline.Listener<SearchJob>() {
+					public void onJobDropped(SearchJob job) {
+						job.reject();
+					}
+
+					public void onJobFailed(SearchJob job, Exception e) {
+						if (!job.isAborted()) {
+							Log.e(TAG, "Error processing the search image", e);
+						}
+						job.fail();
+					}
+				});
+	}
+	
+	/**
+	 * Gets the timer firing the hedging delays, shared by all the Catchoom
+	 * objects. Its thread only hands the hedges to the hedge executor, so a
+	 * hedge never waits for another one to be sent.
+	 * @return The hedge timer.
+	 */
+	private static synchronized ScheduledExecutorService getHedgeTimer() {
+		if (null == sHedgeTimer) {
+			sHedgeTimer = new ScheduledThreadPoolExecutor(1, new HedgeThreadFactory("Catchoom hedge timer #"));
+		}
+		return sHedgeTimer;
+	}
+	
+	/**
+	 * Gets the executor sending the hedge requests, shared by all the Catchoom
+	 * objects. Each hedge gets a thread of its own. A search has at most one
+	 * hedge in flight and its worker waits for it, so there are never more
+	 * hedge threads than request engine workers.
+	 * @return The hedge executor.
+	 */
+	private static synchronized ThreadPoolExecutor getHedgeExecutor() {
+		if (null == sHedgeExecutor) {
+			sHedgeExecutor = new ThreadPoolExecutor(0, Integer.MAX_VALUE, 60L, TimeUnit.SECONDS,
+					new SynchronousQueue<Runnable>(), new HedgeThreadFactory("Catchoom hedge #"));
+		}
+		return sHedgeExecutor;
+	}
+	
+	/**
+	 * Factory of the daemon threads timing and sending the hedge requests.
+	 * @author Catchoom
+	 *
+	 */
+	private static final class HedgeThreadFactory implements ThreadFactory {
+		
+		private final String mPrefix;
+		private final AtomicInteger mCount = new AtomicInteger(1);
+		
+		HedgeThreadFactory(String prefix) {
+			mPrefix = prefix;
+		}
+		
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, mPrefix + mCount.getAndIncrement());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+	
+	/**
+	 * Delivers a request outcome to the response handler. Must be called from
+	 * the main thread.
+	 * @param requestCode The code of the request that has finished.
+	 * @param response The object returned by {@link CatchoomRequest#perform()}.
+	 */
+	private void dispatchResponse(int requestCode, Object response) {
+		if (null == mCatchoomResponseHandler) {
+			return;
+		}
+		
+		if (null == response) {
+			mCatchoomResponseHandler.requestFailedResponse(null);
+		} else if (response instanceof CatchoomErrorResponseItem) {
+			mCatchoomResponseHandler.requestFailedResponse((CatchoomErrorResponseItem) response);
+		} else {
+			mCatchoomResponseHandler.requestCompletedResponse(requestCode, response);
+		}
+	}
+	
+	/**
+	 * Moves a request outcome to the main thread and delivers it there to the
+	 * response handler.
+	 * @param requestCode The code of the request that has finished.
+	 * @param response The response, error item or null.
+	 */
+	private void postResponse(final int requestCode, final Object response) {
+		mMainHandler.post(new Runnable() {
+			public void run() {
+				dispatchResponse(requestCode, response);
+			}
+		});
+	}
+	
+	/**
+	 * Builds the error delivered when a request is dropped before reaching
+	 * the server.
+	 * @return The rejection error item.
+	 */
+	private static CatchoomErrorResponseItem createRejectionError() {
+		Log.w(TAG, "Request rejected, the request queue is full");
+		return new CatchoomErrorResponseItem(CatchoomErrorResponseItem.REQUEST_REJECTED,
+				"Request Rejected", "The request queue is full");
+	}
+	
+	/**
+	 * Builds the error delivered when a search is stored in the offline queue.
+	 * @return The queued error item.
+	 */
+	private static CatchoomErrorResponseItem createQueuedError() {
+		Log.w(TAG, "Server not reachable, search stored in the offline queue");
+		return new CatchoomErrorResponseItem(CatchoomErrorResponseItem.REQUEST_QUEUED,
+				"Request Queued", "The search will be performed when the server is reachable");
+	}
+	
+	/**
+	 * Adapter moving the outcome of the engine requests to the main thread.
 	 * @author Catchoom
 	 *
 	 */
-	private class Connect extends AsyncTask<String, Void, Object> {
+	private class EngineListener implements CatchoomRequestEngine.Listener {
+
+		public void onRequestFinished(CatchoomRequest request, Object response) {
+			postResponse(request.getRequestCode(), response);
+		}
 
-		private static final String URL = Config.BASE_URL + "timestamp";
+		public void onRequestRejected(CatchoomRequest request) {
+			postResponse(request.getRequestCode(), createRejectionError());
+		}
+	}
+	
+	/**
+	 * Inner class holding a search while its image goes through the search
+	 * pipeline stages, and receiving the outcome of its request.
+	 * @author Catchoom
+	 *
+	 */
+	class SearchJob extends CatchoomFrameScheduler.Frame implements CatchoomRequestEngine.Listener {
+		
+		private final String mToken;
+		private final String mImagePath;
+		private final CatchoomSearchOptions mOptions;
+		private final CatchoomFrameScheduler mScheduler = mScanScheduler;
+		private final CatchoomPipeline<SearchJob> mPipeline = null != mSearchPipeline ? mSearchPipeline
+				: getSearchPipeline();
+		private final CatchoomResultCache mCache = mResultCache;
+		private final CatchoomOfflineQueue mQueue = mOfflineQueue;
+		private final CatchoomSearchMetricsListener mMetricsListener = Catchoom.this.mMetricsListener;
+		private final CatchoomEncoderPolicy mEncoderPolicy = Catchoom.this.mEncoderPolicy;
+		// The encoder policy learns from the metrics too
+		private final CatchoomSearchMetrics mMetrics = null != mMetricsListener || null != mEncoderPolicy
+				? new CatchoomSearchMetrics() : null;
+		private final CatchoomEncoderPolicy.Encoding mEncoding = chooseEncoding(mEncoderPolicy);
+		private final CatchoomBitmapPool mBitmapPool = Catchoom.this.mBitmapPool;
+		private Bitmap mPicture;
+		// Whether mPicture was allocated by the pipeline, not by the caller
+		private boolean mOwnsPicture = false;
+		// Downsampled camera frame, searched instead of a picture
+		private CatchoomYuvEncoder.Planes mPlanes = null;
+		private long mHash = 0;
+		private ArrayList<CatchoomSearchResponseItem> mCachedItems = null;
+		private ByteArrayOutputStream mProcessedImage = null;
+		private volatile Search mSearch = null;
+		private volatile boolean mAborted = false;
+		
+		SearchJob(String token, String imagePath, CatchoomSearchOptions options) {
+			mToken = token;
+			mImagePath = imagePath;
+			mOptions = null != options ? options : CatchoomSearchOptions.DEFAULT;
+			mPicture = null;
+		}
+		
+		SearchJob(String token, Bitmap picture, CatchoomSearchOptions options) {
+			mToken = token;
+			mImagePath = null;
+			mOptions = null != options ? options : CatchoomSearchOptions.DEFAULT;
+			mPicture = picture;
+		}
+		
+		SearchJob(String token, byte[] frame, int width, int height, int format, Rect crop,
+				CatchoomSearchOptions options) {
+			mToken = token;
+			mImagePath = null;
+			mOptions = null != options ? options : CatchoomSearchOptions.DEFAULT;
+			mPicture = null;
+			
+			long startTime = startStage();
+			CatchoomYuvEncoder.Planes planes = CatchoomYuvEncoder.obtainPlanes();
+			try {
+				if (null != crop) {
+					CatchoomYuvEncoder.downsample(frame, width, height, format, crop.left, crop.top,
+							crop.width(), crop.height(), mEncoding.mPictureSize, planes);
+				} else {
+					CatchoomYuvEncoder.downsample(frame, width, height, format, 0, 0,
+							width, height, mEncoding.mPictureSize, planes);
+				}
+			} catch (IllegalArgumentException e) {
+				CatchoomYuvEncoder.releasePlanes(planes);
+				throw e;
+			}
+			mPlanes = planes;
+			endStage(CatchoomSearchMetrics.Stage.SCALE, startTime);
+		}
+		
+		CatchoomFrameScheduler getScheduler() {
+			return mScheduler;
+		}
+		
+		boolean isAborted() {
+			return mAborted;
+		}
+		
+		@Override
+		void start() {
+			if (null != mScheduler) {
+				// Only the newest frames are worth searching
+				mPipeline.submitLatest(this);
+			} else {
+				mPipeline.submit(this);
+			}
+		}
+		
+		@Override
+		void drop() {
+			// Never started, the pipeline will not release the frame planes
+			releasePicture();
+		}
+		
+		@Override
+		void abort() {
+			mAborted = true;
+			Search search = mSearch;
+			if (null != search) {
+				search.abort();
+			}
+		}
+		
+		void decode() throws IOException {
+			checkAborted();
+			if (null != mImagePath) {
+				long startTime = startStage();
+				mPicture = CatchoomImageUtil.decodePicture(mImagePath, mEncoding.mPictureSize, mBitmapPool);
+				mOwnsPicture = true;
+				endStage(CatchoomSearchMetrics.Stage.DECODE, startTime);
+				if (null == mPicture) {
+					throw new IOException("Unable to decode " + mImagePath);
+				}
+			}
+		}
+		
+		void scale() {
+			checkAborted();
+			long startTime = startStage();
+			if (null != mPlanes) {
+				// Downsampled when the search was requested
+				if (null != mCache) {
+					mHash = CatchoomYuvEncoder.hash(mPlanes);
+					mCachedItems = mCache.get(mToken, mOptions, mHash);
+				}
+				endStage(CatchoomSearchMetrics.Stage.SCALE, startTime);
+				return;
+			}
+			Bitmap scaled = CatchoomImageUtil.scalePicture(mPicture, mEncoding.mPictureSize, mBitmapPool);
+			if (scaled != mPicture) {
+				releasePicture();
+				mPicture = scaled;
+				mOwnsPicture = true;
+			}
+			if (null != mCache) {
+				mHash = CatchoomImageUtil.hashPicture(mPicture, mBitmapPool);
+				mCachedItems = mCache.get(mToken, mOptions, mHash);
+			}
+			endStage(CatchoomSearchMetrics.Stage.SCALE, startTime);
+		}
+		
+		void encode() throws IOException {
+			checkAborted();
+			if (null != mCachedItems) {
+				releasePicture();
+				return;
+			}
+			long startTime = startStage();
+			long pixels;
+			if (null != mPlanes) {
+				mProcessedImage = CatchoomYuvEncoder.encode(mPlanes, mEncoding.mQuality);
+				pixels = (long) mPlanes.getWidth() * mPlanes.getHeight();
+			} else {
+				mProcessedImage = CatchoomImageUtil.encodePicture(mPicture, mEncoding.mQuality);
+				pixels = (long) mPicture.getWidth() * mPicture.getHeight();
+			}
+			endStage(CatchoomSearchMetrics.Stage.ENCODE, startTime);
+			if (null != mEncoderPolicy && null != mProcessedImage) {
+				mEncoderPolicy.recordCompression(pixels, mProcessedImage.size(), mEncoding.mQuality);
+			}
+			releasePicture();
+			if (null == mProcessedImage) {
+				throw new IOException("Unable to compress the image");
+			}
+		}
+		
+		void upload() {
+			checkAborted();
+			if (null != mCachedItems) {
+				// No request will release the pipeline
+				mPipeline.release();
+				finish(mCachedItems, false);
+				return;
+			}
+			mSearch = new Search(mToken, mProcessedImage, mOptions, mPipeline, mMetrics);
+			if (mAborted) {
+				// Aborted while the request was being created
+				mSearch.abort();
+			}
+			mRequestEngine.submit(mSearch, this);
+		}
+		
+		void reject() {
+			releasePicture();
+			finish(createRejectionError(), false);
+		}
+		
+		void fail() {
+			releasePicture();
+			finish(null, false);
+		}
+		
+		public void onRequestFinished(CatchoomRequest request, Object response) {
+			finish(response, ((Search) request).isUnreachable());
+		}
+		
+		public void onRequestRejected(CatchoomRequest request) {
+			finish(createRejectionError(), false);
+		}
+		
+		private CatchoomEncoderPolicy.Encoding chooseEncoding(CatchoomEncoderPolicy encoderPolicy) {
+			if (null == encoderPolicy) {
+				return DEFAULT_ENCODING;
+			}
+			return encoderPolicy.choose(mConnectionPool.getRoundTripTime());
+		}
+		
+		/**
+		 * Gives the current picture back to the pool if the pipeline allocated
+		 * it, and the frame planes back to the encoder. The pictures given by
+		 * the caller are never recycled.
+		 */
+		private void releasePicture() {
+			if (null != mPicture && mOwnsPicture) {
+				if (null != mBitmapPool) {
+					mBitmapPool.release(mPicture);
+				} else {
+					mPicture.recycle();
+				}
+			}
+			mPicture = null;
+			mOwnsPicture = false;
+			if (null != mPlanes) {
+				CatchoomYuvEncoder.releasePlanes(mPlanes);
+				mPlanes = null;
+			}
+		}
+		
+		private long startStage() {
+			return null != mMetrics ? System.nanoTime() : 0;
+		}
+		
+		private void endStage(CatchoomSearchMetrics.Stage stage, long startTime) {
+			if (null != mMetrics) {
+				mMetrics.setStageNanos(stage, System.nanoTime() - startTime);
+			}
+		}
+		
+		/**
+		 * Lets the encoder policy learn the throughput from the upload of the
+		 * last attempt.
+		 */
+		private void recordUpload() {
+			long uploadNanos = mMetrics.getStageNanos(CatchoomSearchMetrics.Stage.UPLOAD);
+			long waitNanos = mMetrics.getStageNanos(CatchoomSearchMetrics.Stage.TIME_TO_FIRST_BYTE);
+			if (uploadNanos >= 0 && waitNanos >= 0) {
+				mEncoderPolicy.recordUpload(mMetrics.getRequestBytes(), (uploadNanos + waitNanos) / 1000000L,
+						mConnectionPool.getRoundTripTime());
+			}
+		}
+		
+		private void checkAborted() {
+			if (mAborted) {
+				throw new CancellationException("Search superseded by a newer frame");
+			}
+		}
+		
+		/**
+		 * Delivers the outcome of the search.
+		 * @param response The results, an error item or null.
+		 * @param unreachable Whether the server could not be reached, the only
+		 * case in which the search is stored in the offline queue.
+		 */
+		@SuppressWarnings("unchecked")
+		private void finish(Object response, boolean unreachable) {
+			if (unreachable && null != mQueue && null == mScheduler && null != mProcessedImage && !mAborted
+					&& mQueue.offer(mToken, mOptions, mProcessedImage)) {
+				response = createQueuedError();
+			}
+			boolean succeeded = null != response && !(response instanceof CatchoomErrorResponseItem);
+			if (succeeded && null != mCache && null == mCachedItems) {
+				mCache.put(mToken, mOptions, mHash, (ArrayList<CatchoomSearchResponseItem>) response);
+			}
+			if (null != mMetrics && !mAborted) {
+				mMetrics.setCacheHit(null != mCachedItems);
+				mMetrics.setSucceeded(succeeded);
+				mMetrics.setPicture(mEncoding.mPictureSize, mEncoding.mQuality);
+				if (null != mEncoderPolicy) {
+					recordUpload();
+				}
+				if (null != mMetricsListener) {
+					mMetricsListener.onSearchMetrics(mMetrics);
+				}
+			}
+			if (null != mScheduler && !mScheduler.finish(this, succeeded)) {
+				return;
+			}
+			postResponse(Catchoom.Request.SEARCH_REQUEST, response);
+		}
+	}
+	
+	/**
+	 * Inner class sending the searches stored in an offline queue, a batch at
+	 * a time. Draining stops at the first search that cannot reach the server
+	 * or that the server asks to send again later, with a status the
+	 * {@link CatchoomRetryPolicy} still finds retryable once it gives up.
+	 * Other searches are removed from the queue whatever the outcome, so that
+	 * a rejected search or a response that cannot be read does not block the
+	 * queue.
+	 * @author Catchoom
+	 *
+	 */
+	private class OfflineDrain implements CatchoomOfflineQueue.Listener {
+		
+		private final CatchoomOfflineQueue mQueue;
+		private int mInFlight = 0;
+		private boolean mFailed = false;
+		
+		OfflineDrain(CatchoomOfflineQueue queue) {
+			mQueue = queue;
+		}
+		
+		public void onDrainRequested() {
+			List<CatchoomSearchJournal.Record> batch;
+			synchronized (this) {
+				if (mInFlight > 0 || mOfflineQueue != mQueue) {
+					return;
+				}
+				try {
+					batch = mQueue.take(Config.OFFLINE_DRAIN_BATCH_SIZE);
+				} catch (IOException e) {
+					Log.e(TAG, "Unable to read the offline queue", e);
+					return;
+				}
+				mInFlight = batch.size();
+				mFailed = false;
+			}
+			
+			for (final CatchoomSearchJournal.Record record : batch) {
+				final Search search = new Search(record.mToken, record.mImage, record.mOptions, null, null);
+				mRequestEngine.submit(search, new CatchoomRequestEngine.Listener() {
+					public void onRequestFinished(CatchoomRequest request, Object response) {
+						boolean retry = search.isUnreachable() || mRetryPolicy.isRetryable(search.getStatusCode());
+						onSearchFinished(record, response, retry);
+					}
+					
+					public void onRequestRejected(CatchoomRequest request) {
+						// Not sent, keep it for the next drain
+						onSearchFinished(record, null, true);
+					}
+				});
+			}
+		}
+		
+		/**
+		 * @param retry Whether the search must stay in the queue, because it
+		 * could not be sent, the server could not be reached or it answered
+		 * with a transient error.
+		 */
+		private void onSearchFinished(CatchoomSearchJournal.Record record, Object response, boolean retry) {
+			if (retry) {
+				mQueue.retry(record.mSequence);
+			} else {
+				mQueue.complete(record.mSequence);
+				postResponse(Catchoom.Request.SEARCH_REQUEST, response);
+			}
+			
+			boolean drainMore;
+			synchronized (this) {
+				mFailed |= retry;
+				drainMore = 0 == --mInFlight && !mFailed;
+			}
+			if (drainMore) {
+				mQueue.drain();
+			}
+		}
+	}
+	
+	/**
+	 * Inner class to perform a connection request.
+	 * @author Catchoom
+	 *
+	 */
+	private class Connect extends CatchoomRequest {
+
+		private static final String PATH = "timestamp";
 		private static final String REQUEST_TOKEN_PARAM = "token";
 		
+		private final String mUrl = mBaseUrl + PATH;
+		private final String mToken;
+		private final boolean mPrewarm;
+		
+		Connect(String token, boolean prewarm) {
+			mToken = token;
+			mPrewarm = prewarm;
+		}
+		
 		@Override
-		protected Object doInBackground(String... params) {
+		int getRequestCode() {
+			return Catchoom.Request.CONNECT_REQUEST;
+		}
+		
+		@Override
+		Object perform() {
 			
-			if (null != params && params.length > 0) {
-				
-				String token = params[0];
-				
-				// Create the request and execute it
-				List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(2);
-		        nameValuePairs.add(new BasicNameValuePair(REQUEST_TOKEN_PARAM, token));
+			if (null != mToken) {
+				Object result = requestTimestamp(mRetryPolicy);
 				
-				HttpPost request = new HttpPost(URL);
-				try {
-					request.setEntity(new UrlEncodedFormEntity(nameValuePairs));
-					HttpResponse response = mHttpClient.execute(request);
+				if (mPrewarm && result instanceof Long) {
+					// The connection is pooled now, time a request over it
+					long sentTime = System.currentTimeMillis();
+					long startTime = System.nanoTime();
+					Object warmResult = requestTimestamp(CatchoomRetryPolicy.NONE);
+					long roundTripTime = (System.nanoTime() - startTime) / 1000000L;
 					
-					if (null != response) {
-						StatusLine status = response.getStatusLine();
-						String stringResponse = EntityUtils.toString(response.getEntity());
-						JSONObject json = new JSONObject(stringResponse);
-
-						if (200 == status.getStatusCode()) {
-							long timestamp = json.getLong("timestamp");
-							return Long.valueOf(timestamp);
-						} else {
-							String error = json.getString("message");
-							return new CatchoomErrorResponseItem(status.getStatusCode(), status.getReasonPhrase(), error);
-						}
+					if (warmResult instanceof Long) {
+						long serverTime = toMillis((Long) warmResult);
+						long clockSkew = serverTime - (sentTime + roundTripTime / 2);
+						mConnectionPool.recordRoundTrip(roundTripTime, clockSkew);
+						result = warmResult;
 					}
-				} catch (UnsupportedEncodingException e1) {
-					e1.printStackTrace();
-				} catch (ClientProtocolException e) {
-					e.printStackTrace();
-				} catch (IOException e) {
-					e.printStackTrace();
-				} catch (JSONException e) {
-					e.printStackTrace();
 				}
+				
+				return result;
 			} else {
 				Log.e(TAG, "Error sending the parameters to the request");
 			}
@@ -188,88 +1093,171 @@ public class Catchoom {
 			return null;
 		}
 		
-		@Override
-		protected void onPostExecute(Object response) {
-			super.onPostExecute(response);
+		/**
+		 * Requests the server timestamp.
+		 * @param retryPolicy The policy deciding which failures are retried.
+		 * @return The timestamp, a {@link CatchoomErrorResponseItem} or null.
+		 */
+		private Object requestTimestamp(CatchoomRetryPolicy retryPolicy) {
+			// Create the request and execute it
+			List<NameValuePair> nameValuePairs = new ArrayList<NameValuePair>(2);
+	        nameValuePairs.add(new BasicNameValuePair(REQUEST_TOKEN_PARAM, mToken));
 			
-			if (null == response) {
-				mCatchoomResponseHandler.requestFailedResponse(null);
-			} else if (response instanceof CatchoomErrorResponseItem) {
-				mCatchoomResponseHandler.requestFailedResponse((CatchoomErrorResponseItem) response);
-			} else {
-				long timestamp = (Long) response;
-				mCatchoomResponseHandler.requestCompletedResponse(Catchoom.Request.CONNECT_REQUEST, timestamp);
+			HttpPost request = new HttpPost(mUrl);
+			try {
+				request.setEntity(new UrlEncodedFormEntity(nameValuePairs));
+				HttpResponse response = execute(mHttpClient, request, retryPolicy);
+				
+				if (null != response) {
+					StatusLine status = response.getStatusLine();
+					String stringResponse = EntityUtils.toString(response.getEntity());
+					JSONObject json = new JSONObject(stringResponse);
+
+					if (200 == status.getStatusCode()) {
+						long timestamp = json.getLong("timestamp");
+						return Long.valueOf(timestamp);
+					} else {
+						String error = json.getString("message");
+						return new CatchoomErrorResponseItem(status.getStatusCode(), status.getReasonPhrase(), error);
+					}
+				}
+			} catch (UnsupportedEncodingException e1) {
+				e1.printStackTrace();
+			} catch (ClientProtocolException e) {
+				e.printStackTrace();
+			} catch (IOException e) {
+				if (!isRetryDeferred()) {
+					e.printStackTrace();
+				}
+			} catch (JSONException e) {
+				e.printStackTrace();
 			}
+			
+			return null;
+		}
+		
+		/**
+		 * Converts a server timestamp to milliseconds.
+		 * @param timestamp A Unix timestamp in seconds or milliseconds.
+		 * @return The timestamp in milliseconds.
+		 */
+		private long toMillis(long timestamp) {
+			// Seconds since 1970 stay below this value for the next millennia
+			return timestamp < 100000000000L ? timestamp * 1000 : timestamp;
 		}
 	}
 	
 	/**
-	 * Inner class to perform asynchronous search easily in Android.
+	 * Inner class to perform a search request.
 	 * @author Catchoom
 	 *
 	 */
-	private class Search extends AsyncTask<Object, Void, Object> {
+	private class Search extends CatchoomRequest {
 
-		private static final String URL = Config.BASE_URL + "search";
+		private static final String PATH = "search";
 		private static final String REQUEST_TOKEN_PARAM = "token";
 		private static final String REQUEST_IMAGE_PARAM = "image";
 		
+		private final String mUrl = mBaseUrl + PATH;
+		private final String mCollectionToken;
+		private final ByteArrayOutputStream mPicture;
+		private final CatchoomSearchOptions mOptions;
+		private final CatchoomPipeline<SearchJob> mPipeline;
+		private final CatchoomSearchMetrics mMetrics;
+		private Hedge mHedge = null;
+		private volatile boolean mUnreachable = false;
+		private volatile int mStatusCode = 0;
+		
+		/**
+		 * @param pipeline The search pipeline the image comes from, which must
+		 * be released once the request finishes, or null.
+		 * @param metrics The metrics to fill, or null if not measured.
+		 */
+		Search(String collectionToken, ByteArrayOutputStream picture, CatchoomSearchOptions options,
+				CatchoomPipeline<SearchJob> pipeline, CatchoomSearchMetrics metrics) {
+			mCollectionToken = collectionToken;
+			mPicture = picture;
+			mOptions = options;
+			mPipeline = pipeline;
+			mMetrics = metrics;
+		}
+		
+		@Override
+		int getRequestCode() {
+			return Catchoom.Request.SEARCH_REQUEST;
+		}
+		
+		@Override
+		void abort() {
+			super.abort();
+			Hedge hedge;
+			synchronized (this) {
+				hedge = mHedge;
+			}
+			if (null != hedge) {
+				hedge.abort();
+			}
+		}
+		
+		@Override
+		void onFinished() {
+			if (null != mPipeline) {
+				// Let the next encoded image in
+				mPipeline.release();
+			}
+		}
+		
+		/**
+		 * Checks if the search failed without getting any response from the
+		 * server, so that it may succeed once the device is connected again.
+		 * A response that cannot be read does not count.
+		 * @return true if the server could not be reached.
+		 */
+		boolean isUnreachable() {
+			return mUnreachable;
+		}
+		
+		/**
+		 * Gets the HTTP status of the response the search finished with.
+		 * @return The status code, or 0 if no response was read.
+		 */
+		int getStatusCode() {
+			return mStatusCode;
+		}
+		
 		@Override
-		protected Object doInBackground(Object... params) {
+		Object perform() {
 			
 			// Upload the photo and wait for the response
-			if (null != params && params.length > 1) {
-				// Get params
-				String collectionToken = (String) params[0];
-				ByteArrayOutputStream picture = (ByteArrayOutputStream) params[1];
+			if (null != mCollectionToken && null != mPicture) {
 				
 	            MultipartEntity multipartEntity = new MultipartEntity(HttpMultipartMode.BROWSER_COMPATIBLE);  
 	            
 	            try {
-		            multipartEntity.addPart(REQUEST_TOKEN_PARAM, new StringBody(collectionToken));
-		            multipartEntity.addPart(REQUEST_IMAGE_PARAM, new ByteArrayBody(picture.toByteArray(), "query.img"));
+		            multipartEntity.addPart(REQUEST_TOKEN_PARAM, new StringBody(mCollectionToken));
+		            multipartEntity.addPart(REQUEST_IMAGE_PARAM, new CatchoomImageBody(mPicture));
 	            } catch (UnsupportedEncodingException e) {
 	            	e.printStackTrace();
 	            }
 		        
-	            HttpPost request = new HttpPost(URL);
+	            HttpPost request = new HttpPost(mUrl);
 	            request.setEntity(multipartEntity);
+	            
+	            CatchoomHedgingPolicy hedgingPolicy = mHedgingPolicy;
+	            if (null != hedgingPolicy) {
+	            	return performHedged(request, multipartEntity, hedgingPolicy);
+	            }
+	            if (null != mMetrics) {
+	            	return performMetered(request, multipartEntity);
+	            }
 				
 	            try {
-	            	HttpResponse response = mHttpClient.execute(request);
-	            	
-	    			if (null != response) {
-						StatusLine status = response.getStatusLine();
-						String stringResponse = EntityUtils.toString(response.getEntity());
-						
-						if (200 == status.getStatusCode()) {
-							JSONArray results = new JSONArray(stringResponse);
-							ArrayList<CatchoomSearchResponseItem> items = new ArrayList<CatchoomSearchResponseItem>();
-							
-							for (int i = 0; i < results.length(); i++) {
-								try {
-									CatchoomSearchResponseItem parsedItem = CatchoomSearchResponseItem.parseFromJSON(results.getJSONObject(i));
-									if (null != parsedItem) {
-										items.add(parsedItem);
-									}
-								} catch (JSONException e) {
-									e.printStackTrace();
-								}
-							}
-							
-							return items;
-						} else {
-							JSONObject json = new JSONObject(stringResponse);
-							String error = json.getString("message");
-							return new CatchoomErrorResponseItem(status.getStatusCode(), status.getReasonPhrase(), error);
-						}
-					}
+	            	// Retries send the same entity, the image is not encoded again
+	            	return readResponse(execute(mHttpClient, request, mRetryPolicy));
 				} catch (ClientProtocolException e) {
 					e.printStackTrace();
 				} catch (IOException e) {
-					e.printStackTrace();
-				} catch (JSONException e) {
-					e.printStackTrace();
+					onUnreachable(e);
 				}
 			} else {
 				// Error
@@ -279,17 +1267,342 @@ public class Catchoom {
 			return null;
 		}
 		
-		@Override
-		protected void onPostExecute(Object response) {
-			super.onPostExecute(response);
+		/**
+		 * Performs the request, measuring its network stages.
+		 * @param request The request.
+		 * @param entity The request entity.
+		 * @return The outcome of the request.
+		 */
+		private Object performMetered(HttpPost request, HttpEntity entity) {
+			CatchoomMeteredEntity requestEntity = new CatchoomMeteredEntity(entity);
+			request.setEntity(requestEntity);
+			mMetrics.setRequestBytes(entity.getContentLength());
+			HttpContext context = new BasicHttpContext();
 			
-			if (null == response) {
-				mCatchoomResponseHandler.requestFailedResponse(null);
-			} else if (response instanceof CatchoomErrorResponseItem) {
-				mCatchoomResponseHandler.requestFailedResponse((CatchoomErrorResponseItem) response);
-			} else {
-				ArrayList<CatchoomSearchResponseItem> items = (ArrayList<CatchoomSearchResponseItem>) response;
-				mCatchoomResponseHandler.requestCompletedResponse(Catchoom.Request.SEARCH_REQUEST, items);
+			HttpResponse response;
+			try {
+				response = execute(mHttpClient, request, mRetryPolicy, context);
+			} catch (IOException e) {
+				onUnreachable(e);
+				return null;
+			} finally {
+				mMetrics.setAttemptCount(getAttemptCount());
+			}
+			return readMetered(response, requestEntity, context);
+		}
+		
+		/**
+		 * Reads the outcome of a search from its response, measuring the
+		 * network stages of the attempt that got it.
+		 * @param response The response.
+		 * @param requestEntity The metered entity the attempt sent.
+		 * @param context The execution context of the attempt.
+		 * @return The results, an error item or null if the response could not
+		 * be read.
+		 */
+		private Object readMetered(HttpResponse response, CatchoomMeteredEntity requestEntity, HttpContext context) {
+			long responseTime = System.nanoTime();
+			if (requestEntity.getWriteEnd() > 0) {
+				mMetrics.setStageNanos(CatchoomSearchMetrics.Stage.UPLOAD,
+						requestEntity.getWriteEnd() - requestEntity.getWriteStart());
+				mMetrics.setStageNanos(CatchoomSearchMetrics.Stage.TIME_TO_FIRST_BYTE,
+						responseTime - requestEntity.getWriteEnd());
+			}
+			try {
+				// A connection serving its second request or later was reused
+				HttpConnection connection = (HttpConnection) context.getAttribute(ExecutionContext.HTTP_CONNECTION);
+				mMetrics.setConnectionReused(null != connection && connection.getMetrics().getRequestCount() > 1);
+			} catch (IllegalStateException e) {
+				// Connection already released, no body to read
+			}
+			
+			CatchoomMeteredEntity responseEntity = null;
+			if (null != response.getEntity()) {
+				responseEntity = new CatchoomMeteredEntity(response.getEntity());
+				response.setEntity(responseEntity);
+			}
+			Object result = readResponse(response);
+			mMetrics.setStageNanos(CatchoomSearchMetrics.Stage.PARSE, System.nanoTime() - responseTime);
+			mMetrics.setResponseBytes(null != responseEntity ? responseEntity.getReadBytes() : 0);
+			return result;
+		}
+		
+		/**
+		 * Performs the request, sending a hedge request if it gets no response
+		 * within the hedging delay. The first response is delivered. The
+		 * policy records the latency of the original request, or how long it
+		 * had been waiting when the hedge answered first.
+		 * @param request The request.
+		 * @param entity The request entity.
+		 * @param hedgingPolicy The hedging policy.
+		 * @return The outcome of the first request that got a response.
+		 */
+		private Object performHedged(HttpPost request, HttpEntity entity, CatchoomHedgingPolicy hedgingPolicy) {
+			Hedge hedge = new Hedge(entity, hedgingPolicy);
+			long delay = hedgingPolicy.getDelayMillis();
+			if (delay >= 0) {
+				synchronized (this) {
+					mHedge = hedge;
+				}
+				hedge.schedule(delay);
+			}
+			
+			CatchoomMeteredEntity requestEntity = null;
+			HttpContext context = null;
+			if (null != mMetrics) {
+				requestEntity = new CatchoomMeteredEntity(entity);
+				request.setEntity(requestEntity);
+				context = new BasicHttpContext();
+				mMetrics.setRequestBytes(entity.getContentLength());
+			}
+			
+			HttpResponse response = null;
+			IOException failure = null;
+			try {
+				response = execute(mHttpClient, request, mRetryPolicy, context);
+			} catch (IOException e) {
+				failure = e;
+			}
+			long responseTime = System.nanoTime();
+			
+			if (null != mMetrics) {
+				mMetrics.setAttemptCount(getAttemptCount());
+			}
+			if (!hedge.onPrimaryFinished(null != response)) {
+				// The hedge answered first, or is the only one still in flight
+				if (null != response) {
+					request.abort();
+				}
+				if (null != mMetrics) {
+					mMetrics.setHedged(true);
+				}
+				Object result = hedge.awaitResult();
+				if (null == response && !hedge.hasWon()) {
+					// Neither request got a response
+					onUnreachable(failure);
+				}
+				return result;
+			}
+			
+			if (null != response) {
+				// Without the waits between attempts, which are not the server's
+				hedgingPolicy.recordLatency((responseTime - getAttemptStart()) / 1000000L);
+				return null != mMetrics ? readMetered(response, requestEntity, context) : readResponse(response);
+			}
+			onUnreachable(failure);
+			return null;
+		}
+		
+		/**
+		 * Records that the request got no response, unless it was aborted, will
+		 * be performed again after the retry delay or failed in a way that will
+		 * not change once connected.
+		 * @param e The exception thrown by the last attempt.
+		 */
+		private void onUnreachable(IOException e) {
+			if (isAborted() || isRetryDeferred()) {
+				return;
+			}
+			e.printStackTrace();
+			mUnreachable = mRetryPolicy.isRetryable(e);
+		}
+		
+		/**
+		 * Reads the outcome of a search from its response.
+		 * @param response The response.
+		 * @return The results, an error item or null if the response could not
+		 * be read.
+		 */
+		private Object readResponse(HttpResponse response) {
+			try {
+				if (null != response) {
+					StatusLine status = response.getStatusLine();
+					mStatusCode = status.getStatusCode();
+					
+					if (200 == status.getStatusCode()) {
+						return CatchoomSearchResponseParser.parse(response.getEntity(), mOptions);
+					} else {
+						String stringResponse = EntityUtils.toString(response.getEntity());
+						JSONObject json = new JSONObject(stringResponse);
+						String error = json.getString("message");
+						return new CatchoomErrorResponseItem(status.getStatusCode(), status.getReasonPhrase(), error);
+					}
+				}
+			} catch (IOException e) {
+				if (!isAborted()) {
+					e.printStackTrace();
+				}
+			} catch (JSONException e) {
+				e.printStackTrace();
+			}
+			return null;
+		}
+		
+		/**
+		 * Duplicate of the search request, sent over another pooled connection
+		 * when the original one is slow to answer. Whichever gets a response
+		 * first wins and the other one is aborted.
+		 */
+		private class Hedge implements Runnable {
+			
+			private final HttpEntity mEntity;
+			private final CatchoomHedgingPolicy mPolicy;
+			private Future<?> mFuture = null;
+			private HttpPost mRequest = null;
+			private boolean mStarted = false;
+			private boolean mCancelled = false;
+			private boolean mPrimaryWon = false;
+			private boolean mWon = false;
+			private boolean mDone = false;
+			private Object mResult = null;
+			
+			Hedge(HttpEntity entity, CatchoomHedgingPolicy policy) {
+				mEntity = entity;
+				mPolicy = policy;
+			}
+			
+			/**
+			 * Sends the hedge once the delay has elapsed, unless the original
+			 * request has finished by then.
+			 * @param delay The hedging delay in milliseconds.
+			 */
+			synchronized void schedule(long delay) {
+				if (!mCancelled) {
+					mFuture = getHedgeTimer().schedule(new Runnable() {
+						public void run() {
+							// The timer thread only times, the request blocks another one
+							getHedgeExecutor().execute(Hedge.this);
+						}
+					}, delay, TimeUnit.MILLISECONDS);
+				}
+			}
+			
+			public void run() {
+				HttpPost request;
+				CatchoomMeteredEntity requestEntity = null;
+				HttpContext context = null;
+				synchronized (this) {
+					if (mCancelled || mPrimaryWon || isAborted()) {
+						return;
+					}
+					// The entity is repeatable, both requests send the same bytes
+					request = new HttpPost(mUrl);
+					if (null != mMetrics) {
+						requestEntity = new CatchoomMeteredEntity(mEntity);
+						request.setEntity(requestEntity);
+						context = new BasicHttpContext();
+					} else {
+						request.setEntity(mEntity);
+					}
+					mRequest = request;
+					mStarted = true;
+				}
+				mPolicy.recordHedge();
+				
+				HttpResponse response = null;
+				try {
+					response = null != context ? mHttpClient.execute(request, context) : mHttpClient.execute(request);
+				} catch (IOException e) {
+					// Lost the race or failed, the original request decides
+				}
+				long responseTime = System.nanoTime();
+				
+				boolean won;
+				synchronized (this) {
+					won = null != response && !mPrimaryWon && !mCancelled;
+					mWon = won;
+				}
+				
+				Object result = null;
+				if (won) {
+					mPolicy.recordHedgeWin();
+					// The original request would have taken at least this long,
+					// recording the hedge's own latency would bias the delay down
+					mPolicy.recordLatency((responseTime - getAttemptStart()) / 1000000L);
+					// Abort only the original request, not this one
+					Search.super.abort();
+					result = null != mMetrics ? readMetered(response, requestEntity, context) : readResponse(response);
+				} else if (null != response) {
+					request.abort();
+				}
+				
+				synchronized (this) {
+					mResult = result;
+					mDone = true;
+					notifyAll();
+				}
+			}
+			
+			/**
+			 * Reports that the original request has finished.
+			 * @param responded Whether it got a response.
+			 * @return true if the original request wins, false if the outcome
+			 * of the hedge must be awaited instead.
+			 */
+			boolean onPrimaryFinished(boolean responded) {
+				HttpPost request;
+				synchronized (this) {
+					if (mWon) {
+						return false;
+					}
+					if (!responded && mStarted && !mCancelled) {
+						// Give the hedge in flight a chance
+						return false;
+					}
+					mPrimaryWon = responded;
+					mCancelled = true;
+					request = mRequest;
+					if (null != mFuture) {
+						mFuture.cancel(false);
+					}
+				}
+				if (null != request) {
+					request.abort();
+				}
+				return true;
+			}
+			
+			/**
+			 * Checks if the hedge got a response before the original request.
+			 * @return true if the outcome of the hedge is the one delivered.
+			 */
+			synchronized boolean hasWon() {
+				return mWon;
+			}
+			
+			/**
+			 * Waits for the hedge to finish.
+			 * @return The outcome of the hedge, or null if it failed.
+			 */
+			synchronized Object awaitResult() {
+				while (!mDone) {
+					try {
+						wait();
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+						return null;
+					}
+				}
+				return mResult;
+			}
+			
+			void abort() {
+				HttpPost request;
+				synchronized (this) {
+					mCancelled = true;
+					request = mRequest;
+					if (null != mFuture) {
+						mFuture.cancel(false);
+					}
+					if (!mStarted) {
+						// Nobody else will complete it
+						mDone = true;
+						notifyAll();
+					}
+				}
+				if (null != request) {
+					request.abort();
+				}
 			}
 		}
 	}
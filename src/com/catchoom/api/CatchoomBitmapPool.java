@@ -0,0 +1,195 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import android.graphics.Bitmap;
+
+/**
+ * CatchoomBitmapPool keeps the pixel buffers of the query images once they
+ * have been encoded, so the next images of the same size are scaled, and on
+ * Android 3.0 and later decoded, into them instead of allocating new ones.
+ * While scanning continuously all the frames have the same size, so the
+ * search pipeline stops allocating pixel memory once the pool is warm.
+ * <p>
+ * The pool holds up to a memory ceiling, recycling the least recently
+ * released bitmaps beyond it. All the {@link Catchoom} objects share the
+ * {@link #getDefault()} pool unless they are given their own one through
+ * setBitmapPool.
+ * @author Catchoom
+ *
+ */
+public class CatchoomBitmapPool {
+
+	public static final int DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+
+	private static CatchoomBitmapPool sDefaultPool = null;
+
+	private final int mMaxBytes;
+	// Least recently released first
+	private final List<Bitmap> mBitmaps = new ArrayList<Bitmap>();
+	private long mBytes = 0;
+	private long mHitCount = 0;
+	private long mMissCount = 0;
+
+	/**
+	 * Gets the pool shared by all the {@link Catchoom} objects that have not
+	 * been given their own one.
+	 * @return The process-wide pool.
+	 */
+	public static synchronized CatchoomBitmapPool getDefault() {
+		if (null == sDefaultPool) {
+			sDefaultPool = new CatchoomBitmapPool(DEFAULT_MAX_BYTES);
+		}
+		return sDefaultPool;
+	}
+
+	/**
+	 * Creates a pool.
+	 * @param maxBytes Maximum pixel memory held by the pool.
+	 */
+	public CatchoomBitmapPool(int maxBytes) {
+		if (maxBytes < 0) {
+			throw new IllegalArgumentException("Memory ceiling may not be negative");
+		}
+		mMaxBytes = maxBytes;
+	}
+
+	/**
+	 * Gets the maximum pixel memory held by the pool.
+	 * @return The memory ceiling in bytes.
+	 */
+	public int getMaxBytes() {
+		return mMaxBytes;
+	}
+
+	/**
+	 * Gets the pixel memory currently held by the pool.
+	 * @return The size in bytes.
+	 */
+	public synchronized long getSizeBytes() {
+		return mBytes;
+	}
+
+	/**
+	 * Gets the number of bitmaps reused from the pool.
+	 * @return The hit count.
+	 */
+	public synchronized long getHitCount() {
+		return mHitCount;
+	}
+
+	/**
+	 * Gets the number of bitmaps that had to be allocated.
+	 * @return The miss count.
+	 */
+	public synchronized long getMissCount() {
+		return mMissCount;
+	}
+
+	/**
+	 * Recycles all the bitmaps held by the pool.
+	 */
+	public synchronized void clear() {
+		for (Bitmap bitmap : mBitmaps) {
+			bitmap.recycle();
+		}
+		mBitmaps.clear();
+		mBytes = 0;
+	}
+
+	/**
+	 * Gets a mutable bitmap, reused from the pool if one has the same size
+	 * and configuration.
+	 * @param width The width.
+	 * @param height The height.
+	 * @param config The configuration.
+	 * @return The bitmap, whose pixels are undefined.
+	 */
+	Bitmap obtain(int width, int height, Bitmap.Config config) {
+		synchronized (this) {
+			// The most recently released ones are the most likely to match
+			for (int i = mBitmaps.size() - 1; i >= 0; i--) {
+				Bitmap bitmap = mBitmaps.get(i);
+				if (bitmap.getWidth() == width && bitmap.getHeight() == height && bitmap.getConfig() == config) {
+					mBitmaps.remove(i);
+					mBytes -= getBytes(bitmap);
+					mHitCount++;
+					return bitmap;
+				}
+			}
+			mMissCount++;
+		}
+		return Bitmap.createBitmap(width, height, config);
+	}
+
+	/**
+	 * Takes from the pool the smallest bitmap holding at least the given
+	 * memory, to decode into it on platforms reconfiguring the bitmaps they
+	 * decode into.
+	 * @param bytes The memory needed.
+	 * @param config The configuration.
+	 * @return The bitmap, or null if none is large enough.
+	 */
+	synchronized Bitmap obtainAtLeast(long bytes, Bitmap.Config config) {
+		Bitmap best = null;
+		for (Bitmap bitmap : mBitmaps) {
+			long size = getBytes(bitmap);
+			if (bitmap.getConfig() == config && size >= bytes && (null == best || size < getBytes(best))) {
+				best = bitmap;
+			}
+		}
+		if (null == best) {
+			mMissCount++;
+			return null;
+		}
+		mBitmaps.remove(best);
+		mBytes -= getBytes(best);
+		mHitCount++;
+		return best;
+	}
+
+	/**
+	 * Gives a bitmap that is no longer used back to the pool. Immutable
+	 * bitmaps cannot be reused and are recycled right away.
+	 * @param bitmap The bitmap, owned by the pool from now on.
+	 */
+	void release(Bitmap bitmap) {
+		if (bitmap.isRecycled()) {
+			return;
+		}
+		long size = getBytes(bitmap);
+		if (!bitmap.isMutable() || size > mMaxBytes) {
+			bitmap.recycle();
+			return;
+		}
+
+		List<Bitmap> evicted = null;
+		synchronized (this) {
+			mBitmaps.add(bitmap);
+			mBytes += size;
+			while (mBytes > mMaxBytes) {
+				Bitmap oldest = mBitmaps.remove(0);
+				mBytes -= getBytes(oldest);
+				if (null == evicted) {
+					evicted = new ArrayList<Bitmap>();
+				}
+				evicted.add(oldest);
+			}
+		}
+
+		if (null != evicted) {
+			for (Bitmap oldest : evicted) {
+				oldest.recycle();
+			}
+		}
+	}
+
+	private static long getBytes(Bitmap bitmap) {
+		return (long) bitmap.getRowBytes() * bitmap.getHeight();
+	}
+}
@@ -0,0 +1,197 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.conn.ClientConnectionManager;
+import org.apache.http.conn.params.ConnManagerParams;
+import org.apache.http.conn.params.ConnPerRouteBean;
+import org.apache.http.conn.scheme.PlainSocketFactory;
+import org.apache.http.conn.scheme.Scheme;
+import org.apache.http.conn.scheme.SchemeRegistry;
+import org.apache.http.conn.ssl.SSLSocketFactory;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
+import org.apache.http.impl.client.DefaultHttpClient;
+import org.apache.http.impl.client.DefaultHttpRequestRetryHandler;
+import org.apache.http.impl.conn.tsccm.ThreadSafeClientConnManager;
+import org.apache.http.params.BasicHttpParams;
+import org.apache.http.params.HttpConnectionParams;
+import org.apache.http.protocol.HttpContext;
+
+/**
+ * CatchoomConnectionPool holds the HTTP client and the pool of persistent
+ * connections used to reach the Catchoom Recognition Server. All the
+ * {@link Catchoom} objects share the {@link #getDefault()} pool unless they are
+ * given their own one, so they reuse the same warm TLS connections.
+ * <p>
+ * Connections are kept alive for the time announced by the server, bounded by
+ * the configured keep-alive time, and a background reaper closes the ones
+ * that expire or stay idle for that long.
+ * @author Catchoom
+ *
+ */
+public class CatchoomConnectionPool {
+
+	public static final int DEFAULT_MAX_CONNECTIONS = 8;
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 4;
+	public static final int DEFAULT_CONNECT_TIMEOUT_MILLIS = 10000;
+	public static final int DEFAULT_SOCKET_TIMEOUT_MILLIS = 30000;
+	public static final long DEFAULT_KEEP_ALIVE_MILLIS = 60000;
+
+	private static final int SOCKET_BUFFER_SIZE = 8192;
+
+	private static CatchoomConnectionPool sDefaultPool = null;
+
+	private final ClientConnectionManager mConnectionManager;
+	private final DefaultHttpClient mHttpClient;
+	private final long mKeepAliveMillis;
+	private final Thread mReaper;
+	private long mRoundTripTime = -1;
+	private long mClockSkew = 0;
+
+	/**
+	 * Gets the pool shared by all the {@link Catchoom} objects that have not
+	 * been given their own one.
+	 * @return The process-wide pool.
+	 */
+	public static synchronized CatchoomConnectionPool getDefault() {
+		if (null == sDefaultPool) {
+			sDefaultPool = new CatchoomConnectionPool();
+		}
+		return sDefaultPool;
+	}
+
+	/**
+	 * Creates a pool with the default limits and timeouts.
+	 */
+	public CatchoomConnectionPool() {
+		this(DEFAULT_MAX_CONNECTIONS, DEFAULT_MAX_CONNECTIONS_PER_ROUTE, DEFAULT_CONNECT_TIMEOUT_MILLIS,
+				DEFAULT_SOCKET_TIMEOUT_MILLIS, DEFAULT_KEEP_ALIVE_MILLIS);
+	}
+
+	/**
+	 * Creates a pool.
+	 * @param maxConnections Maximum number of open connections.
+	 * @param maxConnectionsPerRoute Maximum number of open connections to
+	 * the same host.
+	 * @param connectTimeoutMillis Time to wait for a connection to be
+	 * established, or for a free connection of the pool.
+	 * @param socketTimeoutMillis Time to wait for data once connected.
+	 * @param keepAliveMillis Maximum time an unused connection is kept open.
+	 */
+	public CatchoomConnectionPool(int maxConnections, int maxConnectionsPerRoute, int connectTimeoutMillis,
+			int socketTimeoutMillis, long keepAliveMillis) {
+		if (maxConnections < 1 || maxConnectionsPerRoute < 1) {
+			throw new IllegalArgumentException("Connection limits must be at least 1");
+		}
+		if (keepAliveMillis <= 0) {
+			throw new IllegalArgumentException("Keep-alive time must be positive");
+		}
+		mKeepAliveMillis = keepAliveMillis;
+
+		BasicHttpParams params = new BasicHttpParams();
+		ConnManagerParams.setMaxTotalConnections(params, maxConnections);
+		ConnManagerParams.setMaxConnectionsPerRoute(params, new ConnPerRouteBean(maxConnectionsPerRoute));
+		ConnManagerParams.setTimeout(params, connectTimeoutMillis);
+		HttpConnectionParams.setConnectionTimeout(params, connectTimeoutMillis);
+		HttpConnectionParams.setSoTimeout(params, socketTimeoutMillis);
+		HttpConnectionParams.setStaleCheckingEnabled(params, true);
+		HttpConnectionParams.setTcpNoDelay(params, true);
+		HttpConnectionParams.setSocketBufferSize(params, SOCKET_BUFFER_SIZE);
+
+		SchemeRegistry schemeRegistry = new SchemeRegistry();
+		schemeRegistry.register(new Scheme("http", PlainSocketFactory.getSocketFactory(), 80));
+		schemeRegistry.register(new Scheme("https", SSLSocketFactory.getSocketFactory(), 443));
+		mConnectionManager = new ThreadSafeClientConnManager(params, schemeRegistry);
+
+		mHttpClient = new DefaultHttpClient(mConnectionManager, params);
+		// Retries are decided by the CatchoomRetryPolicy of each request alone
+		mHttpClient.setHttpRequestRetryHandler(new DefaultHttpRequestRetryHandler(0, false));
+		mHttpClient.setKeepAliveStrategy(new DefaultConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				// Use the server timeout if it announces a shorter one
+				long duration = super.getKeepAliveDuration(response, context);
+				return duration > 0 ? Math.min(duration, mKeepAliveMillis) : mKeepAliveMillis;
+			}
+		});
+
+		mReaper = new Thread(new Reaper(), "Catchoom connection reaper");
+		mReaper.setDaemon(true);
+		mReaper.start();
+	}
+
+	/**
+	 * Closes all the connections and stops the reaper. The pool cannot be
+	 * used afterwards.
+	 */
+	public void shutdown() {
+		mReaper.interrupt();
+		mConnectionManager.shutdown();
+	}
+
+	/**
+	 * Gets the round trip time to the server over a warm connection.
+	 * @return The smoothed round trip time in milliseconds, or -1 if it has
+	 * not been measured yet.
+	 */
+	public synchronized long getRoundTripTime() {
+		return mRoundTripTime;
+	}
+
+	/**
+	 * Gets the difference between the server clock and the device clock.
+	 * @return The server time minus the device time, in milliseconds, or 0 if
+	 * it has not been measured yet.
+	 */
+	public synchronized long getClockSkew() {
+		return mClockSkew;
+	}
+
+	/**
+	 * Records a round trip measured over a warm connection.
+	 * @param roundTripTime The round trip time in milliseconds.
+	 * @param clockSkew The server time minus the device time in milliseconds.
+	 */
+	synchronized void recordRoundTrip(long roundTripTime, long clockSkew) {
+		if (mRoundTripTime < 0) {
+			mRoundTripTime = roundTripTime;
+		} else {
+			// Exponentially weighted, as TCP smooths its own estimate
+			mRoundTripTime = (7 * mRoundTripTime + roundTripTime) / 8;
+		}
+		mClockSkew = clockSkew;
+	}
+
+	/**
+	 * Gets the HTTP client using the pool.
+	 * @return The HTTP client.
+	 */
+	DefaultHttpClient getHttpClient() {
+		return mHttpClient;
+	}
+
+	/**
+	 * Periodically closes the expired connections and the ones idle for longer
+	 * than the keep-alive time.
+	 */
+	private final class Reaper implements Runnable {
+
+		public void run() {
+			long period = Math.max(mKeepAliveMillis / 2, 1000);
+			try {
+				while (true) {
+					Thread.sleep(period);
+					mConnectionManager.closeExpiredConnections();
+					mConnectionManager.closeIdleConnections(mKeepAliveMillis, TimeUnit.MILLISECONDS);
+				}
+			} catch (InterruptedException e) {
+				// Pool shut down
+			}
+		}
+	}
+}
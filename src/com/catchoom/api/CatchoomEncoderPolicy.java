@@ -0,0 +1,215 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+/**
+ * CatchoomEncoderPolicy adapts the size and the JPEG quality of the query
+ * images to the network. It measures the effective upload throughput of the
+ * recent searches and, together with the round trip time to the server,
+ * predicts how long the upload of each candidate image would take. The
+ * largest and best quality image expected to be uploaded within the target
+ * time is chosen, so slow links send small images and fast links send larger
+ * ones that are recognized better.
+ * <p>
+ * Until a search has been measured, the images keep the default 240 pixels
+ * shortest edge and 75% quality, within the configured bounds. The choice
+ * made for each search is reported by {@link CatchoomSearchMetrics}. Set the
+ * policy to your {@link Catchoom} object through setEncoderPolicy.
+ * @author Catchoom
+ *
+ */
+public class CatchoomEncoderPolicy {
+
+	public static final int DEFAULT_MIN_PICTURE_SIZE = 160;
+	public static final int DEFAULT_MAX_PICTURE_SIZE = 480;
+	public static final int DEFAULT_MIN_QUALITY = 50;
+	public static final int DEFAULT_MAX_QUALITY = 90;
+	public static final long DEFAULT_TARGET_UPLOAD_MILLIS = 1000;
+
+	// Candidate encodings, evenly spread between the bounds
+	private static final int LEVELS = 8;
+	// Bytes sent before the first acknowledgement, ten segments as in RFC 6928
+	private static final int INITIAL_WINDOW_BYTES = 14600;
+	// Weight of a new throughput sample in the smoothed estimate
+	private static final double SAMPLE_WEIGHT = 0.25;
+	// Query images are usually 4:3, the longest edge being 4/3 of the size
+	private static final double ASPECT_RATIO = 4.0 / 3;
+	// JPEG size relative to 75% quality, interpolated between these qualities
+	private static final int[] QUALITIES = { 1, 50, 60, 75, 85, 90, 95, 100 };
+	private static final double[] RELATIVE_SIZES = { 0.3, 0.65, 0.75, 1, 1.35, 1.7, 2.6, 5 };
+
+	private final int mMinPictureSize;
+	private final int mMaxPictureSize;
+	private final int mMinQuality;
+	private final int mMaxQuality;
+	private final long mTargetUploadMillis;
+	private double mThroughput = -1;
+	// Compressed bytes per pixel at 75% quality
+	private double mBytesPerPixel = 1.0 / CatchoomImageUtil.Config.PICTURE_PIXELS_PER_BYTE;
+	private long mSampleCount = 0;
+
+	/**
+	 * Creates a policy with the default bounds and target upload time.
+	 */
+	public CatchoomEncoderPolicy() {
+		this(DEFAULT_MIN_PICTURE_SIZE, DEFAULT_MAX_PICTURE_SIZE, DEFAULT_MIN_QUALITY, DEFAULT_MAX_QUALITY,
+				DEFAULT_TARGET_UPLOAD_MILLIS);
+	}
+
+	/**
+	 * Creates a policy.
+	 * @param minPictureSize Smallest shortest edge of the images, in pixels.
+	 * @param maxPictureSize Largest shortest edge of the images, in pixels.
+	 * @param minQuality Lowest JPEG quality, from 1 to 100.
+	 * @param maxQuality Highest JPEG quality, from 1 to 100.
+	 * @param targetUploadMillis Time the upload of an image should take,
+	 * waiting for the response included.
+	 */
+	public CatchoomEncoderPolicy(int minPictureSize, int maxPictureSize, int minQuality, int maxQuality,
+			long targetUploadMillis) {
+		if (minPictureSize < 1 || maxPictureSize < minPictureSize) {
+			throw new IllegalArgumentException("Invalid picture size bounds");
+		}
+		if (minQuality < 1 || maxQuality > 100 || maxQuality < minQuality) {
+			throw new IllegalArgumentException("Invalid quality bounds");
+		}
+		if (targetUploadMillis <= 0) {
+			throw new IllegalArgumentException("Target upload time must be positive");
+		}
+		mMinPictureSize = minPictureSize;
+		mMaxPictureSize = maxPictureSize;
+		mMinQuality = minQuality;
+		mMaxQuality = maxQuality;
+		mTargetUploadMillis = targetUploadMillis;
+	}
+
+	/**
+	 * Gets the smoothed effective upload throughput. It includes the time the
+	 * server takes to answer, so it is lower than the raw link speed.
+	 * @return The throughput in bytes per second, or -1 if no search has been
+	 * measured yet.
+	 */
+	public synchronized double getThroughput() {
+		return mThroughput;
+	}
+
+	/**
+	 * Gets the number of searches measured.
+	 * @return The sample count.
+	 */
+	public synchronized long getSampleCount() {
+		return mSampleCount;
+	}
+
+	/**
+	 * Chooses the encoding of a new query image.
+	 * @param roundTripTime The round trip time to the server in milliseconds,
+	 * or -1 if unknown.
+	 * @return The encoding.
+	 */
+	synchronized Encoding choose(long roundTripTime) {
+		if (mThroughput <= 0) {
+			return new Encoding(clamp(CatchoomImageUtil.Config.PICTURE_MIN_SIZE, mMinPictureSize, mMaxPictureSize),
+					clamp(CatchoomImageUtil.Config.PICTURE_COMPRESSION_QUALITY, mMinQuality, mMaxQuality));
+		}
+
+		for (int level = LEVELS - 1; level > 0; level--) {
+			Encoding encoding = getLevel(level);
+			double pixels = (double) encoding.mPictureSize * encoding.mPictureSize * ASPECT_RATIO;
+			long bytes = (long) (pixels * mBytesPerPixel * getRelativeSize(encoding.mQuality));
+			if (predictMillis(bytes, roundTripTime) <= mTargetUploadMillis) {
+				return encoding;
+			}
+		}
+		return getLevel(0);
+	}
+
+	/**
+	 * Records how well an image compressed.
+	 * @param pixels The number of pixels of the image.
+	 * @param bytes The size of the compressed image.
+	 * @param quality The JPEG quality used.
+	 */
+	synchronized void recordCompression(long pixels, long bytes, int quality) {
+		if (pixels > 0 && bytes > 0) {
+			double bytesPerPixel = bytes / (pixels * getRelativeSize(quality));
+			mBytesPerPixel += SAMPLE_WEIGHT * (bytesPerPixel - mBytesPerPixel);
+		}
+	}
+
+	/**
+	 * Records the upload of a search request.
+	 * @param bytes The size of the request body.
+	 * @param uploadMillis Time from the start of the upload to the response
+	 * headers.
+	 * @param roundTripTime The round trip time to the server in milliseconds,
+	 * or -1 if unknown.
+	 */
+	synchronized void recordUpload(long bytes, long uploadMillis, long roundTripTime) {
+		if (bytes <= 0 || uploadMillis < 0) {
+			return;
+		}
+		// What is left once the round trips waited for are taken out
+		long transferMillis = Math.max(uploadMillis - Math.max(roundTripTime, 0) * getRoundTrips(bytes), 1);
+		double throughput = bytes * 1000.0 / transferMillis;
+		mThroughput = mThroughput < 0 ? throughput : mThroughput + SAMPLE_WEIGHT * (throughput - mThroughput);
+		mSampleCount++;
+	}
+
+	private Encoding getLevel(int level) {
+		double position = (double) level / (LEVELS - 1);
+		return new Encoding((int) Math.round(mMinPictureSize + position * (mMaxPictureSize - mMinPictureSize)),
+				(int) Math.round(mMinQuality + position * (mMaxQuality - mMinQuality)));
+	}
+
+	private long predictMillis(long bytes, long roundTripTime) {
+		return (long) (bytes * 1000.0 / mThroughput) + Math.max(roundTripTime, 0) * getRoundTrips(bytes);
+	}
+
+	/**
+	 * Gets the number of round trips needed to send a request when the
+	 * congestion window starts from its initial size, as it does again after
+	 * the connection stays idle. The round trip of the response is included.
+	 */
+	private static int getRoundTrips(long bytes) {
+		int roundTrips = 1;
+		long window = INITIAL_WINDOW_BYTES;
+		long sent = window;
+		while (sent < bytes) {
+			window *= 2;
+			sent += window;
+			roundTrips++;
+		}
+		return roundTrips;
+	}
+
+	private static double getRelativeSize(int quality) {
+		for (int i = 1; i < QUALITIES.length; i++) {
+			if (quality <= QUALITIES[i]) {
+				double position = (double) (quality - QUALITIES[i - 1]) / (QUALITIES[i] - QUALITIES[i - 1]);
+				return RELATIVE_SIZES[i - 1] + position * (RELATIVE_SIZES[i] - RELATIVE_SIZES[i - 1]);
+			}
+		}
+		return RELATIVE_SIZES[RELATIVE_SIZES.length - 1];
+	}
+
+	private static int clamp(int value, int min, int max) {
+		return Math.max(min, Math.min(max, value));
+	}
+
+	/**
+	 * Size and quality chosen for a query image.
+	 */
+	static final class Encoding {
+
+		final int mPictureSize;
+		final int mQuality;
+
+		Encoding(int pictureSize, int quality) {
+			mPictureSize = pictureSize;
+			mQuality = quality;
+		}
+	}
+}
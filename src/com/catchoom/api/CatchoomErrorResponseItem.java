@@ -12,6 +12,18 @@ package com.catchoom.api;
  */
 public class CatchoomErrorResponseItem {
 	
+	/**
+	 * Error code used when the request was dropped by the
+	 * {@link CatchoomRequestEngine} before reaching the server.
+	 */
+	public static final int REQUEST_REJECTED = -2;
+	
+	/**
+	 * Error code used when the server was not reachable and the search was
+	 * stored in a {@link CatchoomOfflineQueue}, to be performed later.
+	 */
+	public static final int REQUEST_QUEUED = -3;
+	
 	private int errorCode = -1;
 	private String errorPhrase = null;
 	private String errorDescription = null;
@@ -23,7 +35,8 @@ public class CatchoomErrorResponseItem {
 	}
 	
 	/**
-	 * Gets the HTTP error code.
+	 * Gets the HTTP error code, {@link #REQUEST_REJECTED} if the request was
+	 * never sent or {@link #REQUEST_QUEUED} if it will be sent later.
 	 * @return The error code.
 	 */
 	public int getErrorCode() {
@@ -0,0 +1,176 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * CatchoomFrameScheduler implements the latest-frame-wins policy used while
+ * scanning continuously. At most a fixed number of frames are in flight; a
+ * frame submitted while all the slots are busy waits in a single pending slot,
+ * replacing any older frame waiting there. Once a frame succeeds, the frames
+ * submitted before it that are still in flight are aborted and their outcome
+ * is never delivered.
+ * @author Catchoom
+ *
+ */
+class CatchoomFrameScheduler {
+
+	/**
+	 * A frame handled by the scheduler.
+	 */
+	static abstract class Frame {
+
+		private long mSequence = 0;
+
+		/**
+		 * Starts processing the frame. Called without holding any lock.
+		 */
+		abstract void start();
+
+		/**
+		 * Aborts the frame, whose outcome is no longer relevant. Called without
+		 * holding any lock.
+		 */
+		abstract void abort();
+
+		/**
+		 * Called instead of {@link #start()} when the frame is dropped before
+		 * being started, so it can free what it holds. Called without holding
+		 * any lock. Does nothing by default.
+		 */
+		void drop() {
+		}
+	}
+
+	private final int mMaxInFlight;
+	// Sorted by sequence, as frames only start in submission order
+	private final List<Frame> mInFlight;
+	private Frame mPending = null;
+	private long mNextSequence = 1;
+	private long mLastDeliveredSequence = 0;
+
+	/**
+	 * Creates a scheduler.
+	 * @param maxInFlight Maximum number of frames processed at the same time.
+	 */
+	CatchoomFrameScheduler(int maxInFlight) {
+		if (maxInFlight < 1) {
+			throw new IllegalArgumentException("At least one frame must be allowed in flight");
+		}
+		mMaxInFlight = maxInFlight;
+		mInFlight = new ArrayList<Frame>(maxInFlight);
+	}
+
+	/**
+	 * Gets the maximum number of frames processed at the same time.
+	 * @return The maximum in flight frames.
+	 */
+	int getMaxInFlight() {
+		return mMaxInFlight;
+	}
+
+	/**
+	 * Submits a new frame. It starts immediately if a slot is free, otherwise
+	 * it replaces the pending frame, which is dropped without being started.
+	 * @param frame The newest frame.
+	 */
+	void submit(Frame frame) {
+		Frame toStart = null;
+		Frame dropped = null;
+		synchronized (this) {
+			frame.mSequence = mNextSequence++;
+			if (mInFlight.size() < mMaxInFlight) {
+				mInFlight.add(frame);
+				toStart = frame;
+			} else {
+				dropped = mPending;
+				mPending = frame;
+			}
+		}
+
+		if (null != dropped) {
+			dropped.drop();
+		}
+		if (null != toStart) {
+			toStart.start();
+		}
+	}
+
+	/**
+	 * Reports that a frame has finished and decides if its outcome is still
+	 * relevant.
+	 * @param frame The frame that has finished.
+	 * @param succeeded Whether the frame produced a result.
+	 * @return true if the outcome must be delivered, false if a newer frame
+	 * already superseded it.
+	 */
+	boolean finish(Frame frame, boolean succeeded) {
+		boolean deliver = false;
+		List<Frame> stale = null;
+		Frame toStart = null;
+
+		synchronized (this) {
+			boolean wasInFlight = mInFlight.remove(frame);
+			deliver = wasInFlight && frame.mSequence > mLastDeliveredSequence;
+
+			if (deliver && succeeded) {
+				mLastDeliveredSequence = frame.mSequence;
+				for (Iterator<Frame> it = mInFlight.iterator(); it.hasNext();) {
+					Frame older = it.next();
+					if (older.mSequence >= frame.mSequence) {
+						break;
+					}
+					if (null == stale) {
+						stale = new ArrayList<Frame>(mInFlight.size());
+					}
+					stale.add(older);
+					it.remove();
+				}
+			}
+
+			if (null != mPending && mInFlight.size() < mMaxInFlight) {
+				toStart = mPending;
+				mPending = null;
+				mInFlight.add(toStart);
+			}
+		}
+
+		if (null != stale) {
+			for (Frame older : stale) {
+				older.abort();
+			}
+		}
+		if (null != toStart) {
+			toStart.start();
+		}
+
+		return deliver;
+	}
+
+	/**
+	 * Drops the pending frame and aborts all the frames in flight. None of
+	 * their outcomes will be delivered.
+	 */
+	void cancelAll() {
+		Frame dropped;
+		List<Frame> inFlight;
+		synchronized (this) {
+			dropped = mPending;
+			mPending = null;
+			inFlight = new ArrayList<Frame>(mInFlight);
+			mInFlight.clear();
+		}
+
+		if (null != dropped) {
+			dropped.drop();
+		}
+		for (Frame frame : inFlight) {
+			frame.abort();
+		}
+	}
+}
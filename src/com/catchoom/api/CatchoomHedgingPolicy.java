@@ -0,0 +1,137 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CatchoomHedgingPolicy enables hedged searches: if a search gets no response
+ * within the hedging delay, the same request is sent again over another
+ * pooled connection. The first response is delivered and the other request is
+ * aborted. By default the delay is the 95th percentile of the search
+ * latencies observed so far, so about one search in twenty is hedged; no
+ * search is hedged until enough latencies have been observed.
+ * <p>
+ * The policy counts the hedges sent and the ones that answered first, so the
+ * extra load on the server can be kept in check. Set it to your
+ * {@link Catchoom} object through setHedgingPolicy.
+ * @author Catchoom
+ *
+ */
+public class CatchoomHedgingPolicy {
+
+	public static final double DEFAULT_PERCENTILE = 95;
+	public static final int DEFAULT_MIN_SAMPLES = 20;
+	
+	private final long mFixedDelayMillis;
+	private final double mPercentile;
+	private final int mMinSamples;
+	private final CatchoomLatencyHistogram mLatencies = new CatchoomLatencyHistogram();
+	private final AtomicLong mHedgeCount = new AtomicLong();
+	private final AtomicLong mHedgeWinCount = new AtomicLong();
+	
+	/**
+	 * Creates a policy hedging the searches slower than the observed 95th
+	 * percentile.
+	 */
+	public CatchoomHedgingPolicy() {
+		this(DEFAULT_PERCENTILE, DEFAULT_MIN_SAMPLES);
+	}
+	
+	/**
+	 * Creates a policy hedging the searches slower than an observed percentile.
+	 * @param percentile The latency percentile used as delay, from 0 to 100.
+	 * @param minSamples Number of latencies to observe before hedging.
+	 */
+	public CatchoomHedgingPolicy(double percentile, int minSamples) {
+		if (percentile <= 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100");
+		}
+		if (minSamples < 1) {
+			throw new IllegalArgumentException("At least one sample is needed");
+		}
+		mFixedDelayMillis = -1;
+		mPercentile = percentile;
+		mMinSamples = minSamples;
+	}
+	
+	/**
+	 * Creates a policy hedging the searches after a fixed delay.
+	 * @param delayMillis The delay after which a search is hedged.
+	 */
+	public CatchoomHedgingPolicy(long delayMillis) {
+		if (delayMillis < 0) {
+			throw new IllegalArgumentException("Delay may not be negative");
+		}
+		mFixedDelayMillis = delayMillis;
+		mPercentile = DEFAULT_PERCENTILE;
+		mMinSamples = 0;
+	}
+	
+	/**
+	 * Gets the current hedging delay.
+	 * @return The delay in milliseconds, or -1 if not enough latencies have
+	 * been observed yet.
+	 */
+	public long getDelayMillis() {
+		if (mFixedDelayMillis >= 0) {
+			return mFixedDelayMillis;
+		}
+		if (mLatencies.getCount() < mMinSamples) {
+			return -1;
+		}
+		return mLatencies.getPercentile(mPercentile);
+	}
+	
+	/**
+	 * Gets the latencies of the searches performed with this policy, from
+	 * the sending of the original request to its response. When a hedge
+	 * answers first, the time the original request had been waiting by then
+	 * is recorded. The waits between the attempts of a retried search are not
+	 * included.
+	 * @return The latency histogram, in milliseconds.
+	 */
+	public CatchoomLatencyHistogram getLatencies() {
+		return mLatencies;
+	}
+	
+	/**
+	 * Gets the number of hedge requests sent.
+	 * @return The hedge count.
+	 */
+	public long getHedgeCount() {
+		return mHedgeCount.get();
+	}
+	
+	/**
+	 * Gets the number of hedge requests that answered before the original
+	 * ones.
+	 * @return The hedge win count.
+	 */
+	public long getHedgeWinCount() {
+		return mHedgeWinCount.get();
+	}
+	
+	/**
+	 * Gets the fraction of hedge requests that answered first.
+	 * @return The win rate, from 0 to 1, or 0 if no hedge has been sent.
+	 */
+	public double getHedgeWinRate() {
+		long hedges = mHedgeCount.get();
+		return hedges > 0 ? (double) mHedgeWinCount.get() / hedges : 0;
+	}
+	
+	void recordLatency(long latencyMillis) {
+		mLatencies.record(latencyMillis);
+	}
+	
+	void recordHedge() {
+		mHedgeCount.incrementAndGet();
+	}
+	
+	void recordHedgeWin() {
+		mHedgeWinCount.incrementAndGet();
+	}
+}
@@ -0,0 +1,96 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.entity.mime.MIME;
+import org.apache.http.entity.mime.content.AbstractContentBody;
+import org.apache.http.entity.mime.content.RepeatableContentBody;
+
+/**
+ * Multipart body streaming a processed query image. The encoded JPEG is
+ * written straight from the buffer it was compressed into, so no copy of the
+ * image is made while building, sending or re-reading the request.
+ * @author Catchoom
+ *
+ */
+class CatchoomImageBody extends AbstractContentBody implements RepeatableContentBody {
+
+	private static final String MIME_TYPE = "application/octet-stream";
+	private static final String FILENAME = "query.img";
+	
+	private final ByteArrayOutputStream mImage;
+	
+	/**
+	 * Creates a body for an image processed by {@link CatchoomImageUtil}.
+	 * @param image The encoded image. It must not be modified afterwards.
+	 */
+	CatchoomImageBody(ByteArrayOutputStream image) {
+		super(MIME_TYPE);
+		if (null == image) {
+			throw new IllegalArgumentException("Image may not be null");
+		}
+		mImage = image;
+	}
+	
+	public String getFilename() {
+		return FILENAME;
+	}
+
+	public void writeTo(OutputStream out) throws IOException {
+		if (null == out) {
+			throw new IllegalArgumentException("Output stream may not be null");
+		}
+		// ByteArrayOutputStream hands its internal buffer to the stream
+		mImage.writeTo(out);
+	}
+
+	public InputStream openStream() throws IOException {
+		// Capture the internal buffer handed by writeTo instead of copying it
+		BufferCapture capture = new BufferCapture();
+		mImage.writeTo(capture);
+		return new ByteArrayInputStream(capture.mBuffer, capture.mOffset, capture.mLength);
+	}
+
+	public String getCharset() {
+		return null;
+	}
+
+	public String getTransferEncoding() {
+		return MIME.ENC_BINARY;
+	}
+
+	public long getContentLength() {
+		return mImage.size();
+	}
+	
+	/**
+	 * Output stream keeping a reference to the array written to it.
+	 */
+	private static final class BufferCapture extends OutputStream {
+		
+		private byte[] mBuffer = new byte[0];
+		private int mOffset = 0;
+		private int mLength = 0;
+		
+		@Override
+		public void write(byte[] buffer, int offset, int length) {
+			mBuffer = buffer;
+			mOffset = offset;
+			mLength = length;
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			// ByteArrayOutputStream always writes its buffer at once
+			throw new IOException("Unexpected single byte write");
+		}
+	}
+}
@@ -0,0 +1,73 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+/**
+ * CatchoomImageHash computes difference hashes (dHash) of query images, a
+ * 64 bit perceptual hash that changes little between near-duplicate frames.
+ * Similar images have hashes with a small Hamming distance.
+ * @author Catchoom
+ *
+ */
+final class CatchoomImageHash {
+	
+	/** Width of the gray image the hash is computed on. */
+	static final int HASH_WIDTH = 9;
+	/** Height of the gray image the hash is computed on. */
+	static final int HASH_HEIGHT = 8;
+	
+	private CatchoomImageHash() {
+	}
+	
+	/**
+	 * Computes the hash of an ARGB image already scaled to
+	 * {@link #HASH_WIDTH}x{@link #HASH_HEIGHT} pixels. Each bit tells whether
+	 * a pixel is brighter than its right neighbour.
+	 * @param pixels The ARGB pixels, row by row.
+	 * @return The 64 bit hash.
+	 */
+	static long computeHash(int[] pixels) {
+		if (null == pixels || pixels.length < HASH_WIDTH * HASH_HEIGHT) {
+			throw new IllegalArgumentException("Hash needs a " + HASH_WIDTH + "x" + HASH_HEIGHT + " image");
+		}
+		
+		long hash = 0;
+		for (int y = 0; y < HASH_HEIGHT; y++) {
+			int row = y * HASH_WIDTH;
+			int left = luminance(pixels[row]);
+			for (int x = 1; x < HASH_WIDTH; x++) {
+				int right = luminance(pixels[row + x]);
+				hash <<= 1;
+				if (left > right) {
+					hash |= 1;
+				}
+				left = right;
+			}
+		}
+		return hash;
+	}
+	
+	/**
+	 * Computes the Hamming distance between two hashes.
+	 * @param first A hash.
+	 * @param second Another hash.
+	 * @return The number of different bits, from 0 to 64.
+	 */
+	static int distance(long first, long second) {
+		return Long.bitCount(first ^ second);
+	}
+	
+	/**
+	 * Approximates the luminance of an ARGB pixel with integer arithmetic.
+	 * @param pixel The ARGB pixel.
+	 * @return The luminance, from 0 to 255.
+	 */
+	private static int luminance(int pixel) {
+		int red = (pixel >> 16) & 0xff;
+		int green = (pixel >> 8) & 0xff;
+		int blue = pixel & 0xff;
+		return (red * 77 + green * 150 + blue * 29) >> 8;
+	}
+}
@@ -5,54 +5,236 @@
 package com.catchoom.api;
 
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
+import java.lang.reflect.Field;
+
 import android.graphics.Bitmap;
 import android.graphics.Bitmap.CompressFormat;
 import android.graphics.BitmapFactory;
 import android.graphics.BitmapFactory.Options;
+import android.graphics.Canvas;
+import android.graphics.Paint;
+import android.graphics.PorterDuff;
+import android.graphics.PorterDuffXfermode;
+import android.graphics.Rect;
+import android.os.Build;
+import android.util.Log;
 import android.util.Pair;
 
 class CatchoomImageUtil {
 	
-	private static final class Config {
-		private static final int PICTURE_COMPRESSION_QUALITY = 75;
-		private static final int PICTURE_MIN_SIZE = 240;
+	static final class Config {
+		public static final int PICTURE_COMPRESSION_QUALITY = 75;
+		public static final int PICTURE_MIN_SIZE = 240;
+		// Expected compressed bytes per pixel, used to size the output buffer
+		public static final int PICTURE_PIXELS_PER_BYTE = 4;
+	}
+
+	// Platforms decoding into bitmaps of any size, not only of the same size
+	private static final int SDK_DECODE_INTO_ANY_SIZE = 19;
+	// Options fields added in Android 3.0, looked up as the SDK targets 2.2
+	private static final Field OPTIONS_IN_BITMAP = getOptionsField("inBitmap");
+	private static final Field OPTIONS_IN_MUTABLE = getOptionsField("inMutable");
+
+	// Each pipeline stage draws with its own canvas
+	private static final ThreadLocal<Canvas> sCanvas = new ThreadLocal<Canvas>() {
+		@Override
+		protected Canvas initialValue() {
+			return new Canvas();
+		}
+	};
+	private static final Paint SCALE_PAINT = createScalePaint(false);
+	private static final Paint FILTER_SCALE_PAINT = createScalePaint(true);
+
+	/**
+	 * Decodes the image to the size used by the server.
+	 * First stage of the search pipeline.
+	 * @param imagePath Path to the original file to use.
+	 * @return The decoded {@link Bitmap}, or null if it cannot be decoded.
+	 */
+	static Bitmap decodePicture(String imagePath) {
+		return decodePicture(imagePath, Config.PICTURE_MIN_SIZE);
 	}
 
 	/**
-	 * Processes the image to optimize it for server consumption.
+	 * Decodes the image to the given shortest edge.
 	 * @param imagePath Path to the original file to use.
-	 * @return The image {@link File} processed.
+	 * @param pictureSize Shortest edge the image will be scaled to.
+	 * @return The decoded {@link Bitmap}, or null if it cannot be decoded.
 	 */
-	static ByteArrayOutputStream processPicture(String imagePath) {
+	static Bitmap decodePicture(String imagePath, int pictureSize) {
+		return decodePicture(imagePath, pictureSize, null);
+	}
+
+	/**
+	 * Decodes the image to the given shortest edge in a single pass. The
+	 * decoder subsamples it by the largest power of two keeping the shortest
+	 * edge at least that size, so the sampled image is less than twice as large
+	 * as needed, and scales it down to the exact size through the density
+	 * options. The image is decoded into a bitmap of the pool where the
+	 * platform allows it.
+	 * @param imagePath Path to the original file to use.
+	 * @param pictureSize Shortest edge the image will be scaled to.
+	 * @param pool The pool of reusable bitmaps, or null.
+	 * @return The decoded {@link Bitmap}, or null if it cannot be decoded.
+	 */
+	static Bitmap decodePicture(String imagePath, int pictureSize, CatchoomBitmapPool pool) {
 		// Just query the bitmap without allocating its space in memory
 		Options options = new Options();
 		options.inJustDecodeBounds = true;
-		Bitmap picture = BitmapFactory.decodeFile(imagePath, options);
+		BitmapFactory.decodeFile(imagePath, options);
+		if (options.outWidth <= 0 || options.outHeight <= 0) {
+			return null;
+		}
 
-		int sampleSize = resolveSampleSize(options.outWidth, options.outHeight);
+		int width = options.outWidth;
+		int height = options.outHeight;
+		int sampleSize = resolveSampleSize(width, height, pictureSize);
+		// JPEG decoders round the sampled size up
+		int sampledEdge = (Math.min(width, height) + sampleSize - 1) / sampleSize;
+		boolean scaled = sampledEdge > pictureSize;
 
 		options.inJustDecodeBounds = false;
 		options.inSampleSize = sampleSize;
-		picture = BitmapFactory.decodeFile(imagePath, options);
+		if (scaled) {
+			// Scaled by the decoder itself on Android 4.4 and later
+			options.inScaled = true;
+			options.inDensity = sampledEdge;
+			options.inTargetDensity = pictureSize;
+		}
+		if (null == pool || null == OPTIONS_IN_BITMAP) {
+			return BitmapFactory.decodeFile(imagePath, options);
+		}
 
-		return processPicture(picture);
+		Bitmap reusable = obtainDecodeTarget(pool, width, height, sampleSize, scaled ? pictureSize : 0);
+		try {
+			// Mutable, so that it can be reused in turn
+			OPTIONS_IN_MUTABLE.setBoolean(options, true);
+			OPTIONS_IN_BITMAP.set(options, reusable);
+		} catch (IllegalAccessException e) {
+			return BitmapFactory.decodeFile(imagePath, options);
+		}
+		Bitmap decoded;
+		try {
+			decoded = BitmapFactory.decodeFile(imagePath, options);
+		} catch (IllegalArgumentException e) {
+			// The platform refused the bitmap, decode into a new one
+			try {
+				OPTIONS_IN_BITMAP.set(options, null);
+			} catch (IllegalAccessException e1) {
+				// Cannot happen, the field was just set
+			}
+			decoded = BitmapFactory.decodeFile(imagePath, options);
+		}
+		if (null != reusable && reusable != decoded) {
+			pool.release(reusable);
+		}
+		return decoded;
 	}
 
 	/**
-	 * Processes the image to optimize it for server consumption.
-	 * @param imagePath Path to the original file to use.
-	 * @return The image {@link File} processed.
+	 * Scales the image to PICTURE_MIN_SIZE shortest edge keeping its aspect
+	 * ratio. Second stage of the search pipeline.
+	 * @param image The image to scale.
+	 * @return The scaled {@link Bitmap}.
+	 */
+	static Bitmap scalePicture(Bitmap image) {
+		return scalePicture(image, Config.PICTURE_MIN_SIZE);
+	}
+
+	/**
+	 * Scales the image to the given shortest edge keeping its aspect ratio.
+	 * @param image The image to scale.
+	 * @param pictureSize The shortest edge of the scaled image.
+	 * @return The scaled {@link Bitmap}.
+	 */
+	static Bitmap scalePicture(Bitmap image, int pictureSize) {
+		Pair<Integer, Integer> desiredSize = resolveDesiredSize(image.getWidth(), image.getHeight(), pictureSize);
+		return Bitmap.createScaledBitmap(image, desiredSize.first, desiredSize.second, false);
+	}
+
+	/**
+	 * Scales the image to the given shortest edge keeping its aspect ratio,
+	 * into a bitmap of the pool.
+	 * @param image The image to scale.
+	 * @param pictureSize The shortest edge of the scaled image.
+	 * @param pool The pool of reusable bitmaps, or null.
+	 * @return The scaled {@link Bitmap}, the image itself if it already has
+	 * the size.
+	 */
+	static Bitmap scalePicture(Bitmap image, int pictureSize, CatchoomBitmapPool pool) {
+		if (null == pool) {
+			return scalePicture(image, pictureSize);
+		}
+		Pair<Integer, Integer> desiredSize = resolveDesiredSize(image.getWidth(), image.getHeight(), pictureSize);
+		if (desiredSize.first == image.getWidth() && desiredSize.second == image.getHeight()) {
+			return image;
+		}
+		return drawScaled(image, desiredSize.first, desiredSize.second, pool, SCALE_PAINT);
+	}
+
+	/**
+	 * Computes the perceptual hash of a scaled image, used to find
+	 * near-duplicate queries in the {@link CatchoomResultCache}.
+	 * @param image The scaled image.
+	 * @return The {@link CatchoomImageHash} of the image.
+	 */
+	static long hashPicture(Bitmap image) {
+		return hashPicture(image, null);
+	}
+
+	/**
+	 * Computes the perceptual hash of a scaled image, drawing its thumbnail
+	 * into a bitmap of the pool.
+	 * @param image The scaled image.
+	 * @param pool The pool of reusable bitmaps, or null.
+	 * @return The {@link CatchoomImageHash} of the image.
+	 */
+	static long hashPicture(Bitmap image, CatchoomBitmapPool pool) {
+		int[] pixels = new int[CatchoomImageHash.HASH_WIDTH * CatchoomImageHash.HASH_HEIGHT];
+		Bitmap thumbnail;
+		if (null != pool) {
+			thumbnail = drawScaled(image, CatchoomImageHash.HASH_WIDTH, CatchoomImageHash.HASH_HEIGHT, pool,
+					FILTER_SCALE_PAINT);
+		} else {
+			thumbnail = Bitmap.createScaledBitmap(image,
+					CatchoomImageHash.HASH_WIDTH, CatchoomImageHash.HASH_HEIGHT, true);
+		}
+		thumbnail.getPixels(pixels, 0, CatchoomImageHash.HASH_WIDTH,
+				0, 0, CatchoomImageHash.HASH_WIDTH, CatchoomImageHash.HASH_HEIGHT);
+		if (null != pool) {
+			pool.release(thumbnail);
+		} else {
+			thumbnail.recycle();
+		}
+		return CatchoomImageHash.computeHash(pixels);
+	}
+
+	/**
+	 * Compresses the image as JPEG PICTURE_COMPRESSION_QUALITY % quality.
+	 * Third stage of the search pipeline.
+	 * @param image The scaled image.
+	 * @return The encoded image, or null if the compression fails.
+	 */
+	static ByteArrayOutputStream encodePicture(Bitmap image) {
+		return encodePicture(image, Config.PICTURE_COMPRESSION_QUALITY);
+	}
+
+	/**
+	 * Compresses the image as JPEG.
+	 * @param image The scaled image.
+	 * @param quality The JPEG quality, from 1 to 100.
+	 * @return The encoded image, or null if the compression fails.
 	 */
-	static ByteArrayOutputStream processPicture(Bitmap image) {
-		// Compress JPEG PICTURE_COMPRESSION_QUALITY % quality and PICTURE_MIN_SIZE min size		
+	static ByteArrayOutputStream encodePicture(Bitmap image, int quality) {
 		try {
-			ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+			// Presize the buffer so that compressing does not keep reallocating it
+			int expectedLength = image.getWidth() * image.getHeight() / Config.PICTURE_PIXELS_PER_BYTE;
+			ByteArrayOutputStream outputStream = new ByteArrayOutputStream(expectedLength);
 
-			Pair<Integer, Integer> desiredSize = resolveDesiredSize(image.getWidth(), image.getHeight());
-			Bitmap resized = Bitmap.createScaledBitmap(image, desiredSize.first, desiredSize.second, false);
-			resized.compress(CompressFormat.JPEG, Config.PICTURE_COMPRESSION_QUALITY, outputStream);
+			if (!image.compress(CompressFormat.JPEG, quality, outputStream)) {
+				return null;
+			}
 			outputStream.close();
 
 			return outputStream;
@@ -64,19 +246,80 @@ class CatchoomImageUtil {
 	}
 	
 	/**
-	 * Resolves the sample size nearest to the desired minimal size.
+	 * Draws an image scaled into a bitmap of the pool, as
+	 * {@link Bitmap#createScaledBitmap(Bitmap, int, int, boolean)} would.
+	 */
+	private static Bitmap drawScaled(Bitmap image, int width, int height, CatchoomBitmapPool pool, Paint paint) {
+		Bitmap.Config config = null != image.getConfig() ? image.getConfig() : Bitmap.Config.ARGB_8888;
+		Bitmap scaled = pool.obtain(width, height, config);
+		Canvas canvas = sCanvas.get();
+		canvas.setBitmap(scaled);
+		canvas.drawBitmap(image, null, new Rect(0, 0, width, height), paint);
+		return scaled;
+	}
+
+	/**
+	 * Takes from the pool a bitmap the platform can decode a sampled image
+	 * into.
+	 * @param pictureSize The shortest edge the sampled image is scaled to, or
+	 * 0 if it is not scaled.
+	 * @return The bitmap, or null if none can be reused.
+	 */
+	private static Bitmap obtainDecodeTarget(CatchoomBitmapPool pool, int width, int height, int sampleSize,
+			int pictureSize) {
+		Bitmap.Config config = Bitmap.Config.ARGB_8888;
+		if (Build.VERSION.SDK_INT >= SDK_DECODE_INTO_ANY_SIZE) {
+			// Any bitmap large enough is reconfigured to the decoded size. The
+			// size is underestimated, a bitmap too small is refused, not misused.
+			long sampledWidth = width / sampleSize;
+			long sampledHeight = height / sampleSize;
+			if (pictureSize > 0) {
+				long sampledEdge = Math.min(sampledWidth, sampledHeight);
+				sampledWidth = sampledWidth * pictureSize / sampledEdge;
+				sampledHeight = sampledHeight * pictureSize / sampledEdge;
+			}
+			return pool.obtainAtLeast(sampledWidth * sampledHeight * 4, config);
+		} else if (1 == sampleSize && 0 == pictureSize) {
+			// Older platforms only decode unsampled images into the same size
+			return pool.obtain(width, height, config);
+		}
+		return null;
+	}
+
+	private static Field getOptionsField(String name) {
+		try {
+			return Options.class.getField(name);
+		} catch (NoSuchFieldException e) {
+			return null;
+		} catch (SecurityException e) {
+			Log.w(Catchoom.TAG, "Unable to access BitmapFactory.Options." + name, e);
+			return null;
+		}
+	}
+
+	private static Paint createScalePaint(boolean filter) {
+		Paint paint = new Paint(filter ? Paint.FILTER_BITMAP_FLAG : 0);
+		// The pooled bitmap is overwritten, not blended with what it held
+		paint.setXfermode(new PorterDuffXfermode(PorterDuff.Mode.SRC));
+		return paint;
+	}
+
+	/**
+	 * Resolves the largest sample size keeping the shortest edge at least the
+	 * desired minimal size. Decoders only sample by powers of 2, rounding any
+	 * other value down.
 	 * @param width Original width.
 	 * @param height Original height.
+	 * @param pictureSize Desired shortest edge.
 	 * @return Optimal sample size.
 	 */
-	private static int resolveSampleSize(int width, int height) {
+	static int resolveSampleSize(int width, int height, int pictureSize) {
 		int shortestEdge = Math.min(width, height);
-		int sampleSize = 0;
+		int sampleSize = 1;
 		
-		do {
-			// Powers of 2 are more efficient when decoding
-			sampleSize += 2;
-		} while ((shortestEdge / (sampleSize + 2)) > Config.PICTURE_MIN_SIZE);
+		while (shortestEdge / (sampleSize * 2) >= pictureSize) {
+			sampleSize *= 2;
+		}
 		
 		return sampleSize;
 	}
@@ -86,19 +329,20 @@ class CatchoomImageUtil {
 	 * ratio.
 	 * @param width Original width.
 	 * @param height Original height.
+	 * @param pictureSize Desired shortest edge.
 	 * @return Desired size.
 	 */
-	private static Pair<Integer, Integer> resolveDesiredSize(int width, int height) {
+	static Pair<Integer, Integer> resolveDesiredSize(int width, int height, int pictureSize) {
 		int desiredWidth = 0;
 		int desiredHeight = 0;
 		float resizeFactor = 1;
 		if (width < height) {
-			desiredWidth = Config.PICTURE_MIN_SIZE;
-			resizeFactor = (float) width / Config.PICTURE_MIN_SIZE;
+			desiredWidth = pictureSize;
+			resizeFactor = (float) width / pictureSize;
 			desiredHeight = Math.round(height / resizeFactor);
 		} else {
-			desiredHeight = Config.PICTURE_MIN_SIZE;
-			resizeFactor = (float) height / Config.PICTURE_MIN_SIZE;
+			desiredHeight = pictureSize;
+			resizeFactor = (float) height / pictureSize;
 			desiredWidth = Math.round(width / resizeFactor);
 		}
 		
@@ -0,0 +1,566 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.io.IOException;
+import java.io.Reader;
+
+/**
+ * CatchoomJsonReader is a pull parser reading a JSON document token by token
+ * straight from a {@link Reader}, without building the document in memory.
+ * Its interface follows the one of <code>android.util.JsonReader</code>, which
+ * is not available on the platform versions supported by the SDK.
+ * @author Catchoom
+ *
+ */
+class CatchoomJsonReader {
+
+	/**
+	 * The kinds of tokens found in a JSON document.
+	 */
+	enum Token {
+		BEGIN_ARRAY,
+		END_ARRAY,
+		BEGIN_OBJECT,
+		END_OBJECT,
+		NAME,
+		STRING,
+		NUMBER,
+		BOOLEAN,
+		NULL,
+		END_DOCUMENT
+	}
+
+	// Nesting scopes, telling which separators are expected next
+	private static final int EMPTY_DOCUMENT = 0;
+	private static final int NONEMPTY_DOCUMENT = 1;
+	private static final int EMPTY_ARRAY = 2;
+	private static final int NONEMPTY_ARRAY = 3;
+	private static final int EMPTY_OBJECT = 4;
+	private static final int DANGLING_NAME = 5;
+	private static final int NONEMPTY_OBJECT = 6;
+
+	private static final int BUFFER_SIZE = 1024;
+
+	private final Reader mIn;
+	private final char[] mBuffer = new char[BUFFER_SIZE];
+	private int mPos = 0;
+	private int mLimit = 0;
+
+	private int[] mStack = new int[16];
+	private int mStackSize = 0;
+
+	// Token returned by peek() and not consumed yet
+	private Token mPeeked = null;
+	private final StringBuilder mValue = new StringBuilder();
+
+	/**
+	 * Creates a reader.
+	 * @param in The source of the JSON document.
+	 */
+	CatchoomJsonReader(Reader in) {
+		if (null == in) {
+			throw new IllegalArgumentException("Reader may not be null");
+		}
+		mIn = in;
+		push(EMPTY_DOCUMENT);
+	}
+
+	/**
+	 * Gets the type of the next token without consuming it.
+	 * @return The next token.
+	 * @throws IOException If the document cannot be read or is malformed.
+	 */
+	Token peek() throws IOException {
+		if (null != mPeeked) {
+			return mPeeked;
+		}
+
+		int scope = mStack[mStackSize - 1];
+		int c;
+		switch (scope) {
+		case EMPTY_ARRAY:
+			mStack[mStackSize - 1] = NONEMPTY_ARRAY;
+			if (']' == nextNonWhitespace()) {
+				return mPeeked = Token.END_ARRAY;
+			}
+			mPos--;
+			break;
+		case NONEMPTY_ARRAY:
+			c = nextNonWhitespace();
+			if (']' == c) {
+				return mPeeked = Token.END_ARRAY;
+			} else if (',' != c) {
+				throw syntaxError("Unterminated array");
+			}
+			break;
+		case EMPTY_OBJECT:
+		case NONEMPTY_OBJECT:
+			mStack[mStackSize - 1] = DANGLING_NAME;
+			c = nextNonWhitespace();
+			if (NONEMPTY_OBJECT == scope) {
+				if ('}' == c) {
+					return mPeeked = Token.END_OBJECT;
+				} else if (',' != c) {
+					throw syntaxError("Unterminated object");
+				}
+				c = nextNonWhitespace();
+			}
+			if ('"' == c) {
+				return mPeeked = Token.NAME;
+			} else if ('}' == c && EMPTY_OBJECT == scope) {
+				return mPeeked = Token.END_OBJECT;
+			}
+			throw syntaxError("Expected name");
+		case DANGLING_NAME:
+			mStack[mStackSize - 1] = NONEMPTY_OBJECT;
+			if (':' != nextNonWhitespace()) {
+				throw syntaxError("Expected ':'");
+			}
+			break;
+		case EMPTY_DOCUMENT:
+			mStack[mStackSize - 1] = NONEMPTY_DOCUMENT;
+			break;
+		default:
+			if (-1 == nextNonWhitespaceOrEnd()) {
+				return mPeeked = Token.END_DOCUMENT;
+			}
+			throw syntaxError("Expected end of document");
+		}
+
+		c = nextNonWhitespace();
+		switch (c) {
+		case '{':
+			return mPeeked = Token.BEGIN_OBJECT;
+		case '[':
+			return mPeeked = Token.BEGIN_ARRAY;
+		case '"':
+			return mPeeked = Token.STRING;
+		case 't':
+		case 'f':
+			mPos--;
+			return mPeeked = Token.BOOLEAN;
+		case 'n':
+			mPos--;
+			return mPeeked = Token.NULL;
+		default:
+			if ('-' == c || (c >= '0' && c <= '9')) {
+				mPos--;
+				return mPeeked = Token.NUMBER;
+			}
+			throw syntaxError("Unexpected character '" + (char) c + "'");
+		}
+	}
+
+	/**
+	 * Checks if the current array or object has more elements.
+	 * @return true if there are more elements.
+	 * @throws IOException If the document cannot be read or is malformed.
+	 */
+	boolean hasNext() throws IOException {
+		Token token = peek();
+		return Token.END_ARRAY != token && Token.END_OBJECT != token && Token.END_DOCUMENT != token;
+	}
+
+	void beginArray() throws IOException {
+		expect(Token.BEGIN_ARRAY);
+		push(EMPTY_ARRAY);
+	}
+
+	void endArray() throws IOException {
+		expect(Token.END_ARRAY);
+		mStackSize--;
+	}
+
+	void beginObject() throws IOException {
+		expect(Token.BEGIN_OBJECT);
+		push(EMPTY_OBJECT);
+	}
+
+	void endObject() throws IOException {
+		expect(Token.END_OBJECT);
+		mStackSize--;
+	}
+
+	/**
+	 * Consumes the next property name.
+	 * @return The name.
+	 * @throws IOException If the next token is not a name.
+	 */
+	String nextName() throws IOException {
+		expect(Token.NAME);
+		mValue.setLength(0);
+		readString(mValue, false);
+		return mValue.toString();
+	}
+
+	/**
+	 * Consumes the next string value. Numbers are returned as they are
+	 * written in the document.
+	 * @return The string.
+	 * @throws IOException If the next token is neither a string nor a number.
+	 */
+	String nextString() throws IOException {
+		Token token = peek();
+		mValue.setLength(0);
+		if (Token.STRING == token) {
+			mPeeked = null;
+			readString(mValue, false);
+		} else if (Token.NUMBER == token) {
+			mPeeked = null;
+			readLiteral(mValue);
+		} else {
+			throw syntaxError("Expected a string but was " + token);
+		}
+		return mValue.toString();
+	}
+
+	/**
+	 * Consumes the next number, or string holding a number, as a long.
+	 * @return The value, truncated if it has a fractional part.
+	 * @throws IOException If the next token is not a number.
+	 */
+	long nextLong() throws IOException {
+		String value = nextString();
+		try {
+			return Long.parseLong(value);
+		} catch (NumberFormatException e) {
+			try {
+				return (long) Double.parseDouble(value);
+			} catch (NumberFormatException e1) {
+				throw syntaxError("Expected a number but was \"" + value + "\"");
+			}
+		}
+	}
+
+	/**
+	 * Consumes the next number, or string holding a number, as an int.
+	 * @return The value, truncated if it has a fractional part.
+	 * @throws IOException If the next token is not a number.
+	 */
+	int nextInt() throws IOException {
+		return (int) nextLong();
+	}
+
+	/**
+	 * Consumes the next number, or string holding a number, as a double.
+	 * @return The value.
+	 * @throws IOException If the next token is not a number.
+	 */
+	double nextDouble() throws IOException {
+		String value = nextString();
+		try {
+			return Double.parseDouble(value);
+		} catch (NumberFormatException e) {
+			throw syntaxError("Expected a number but was \"" + value + "\"");
+		}
+	}
+
+	boolean nextBoolean() throws IOException {
+		expect(Token.BOOLEAN);
+		mValue.setLength(0);
+		readLiteral(mValue);
+		if ("true".contentEquals(mValue)) {
+			return true;
+		} else if ("false".contentEquals(mValue)) {
+			return false;
+		}
+		throw syntaxError("Expected a boolean but was " + mValue);
+	}
+
+	void nextNull() throws IOException {
+		expect(Token.NULL);
+		mValue.setLength(0);
+		readLiteral(mValue);
+		if (!"null".contentEquals(mValue)) {
+			throw syntaxError("Expected null but was " + mValue);
+		}
+	}
+
+	/**
+	 * Consumes the next value, including nested arrays and objects, without
+	 * decoding it.
+	 * @throws IOException If the document cannot be read or is malformed.
+	 */
+	void skipValue() throws IOException {
+		consumeValue(null);
+	}
+
+	/**
+	 * Consumes the next value, including nested arrays and objects, and
+	 * returns its compact JSON text.
+	 * @return The JSON text of the value.
+	 * @throws IOException If the document cannot be read or is malformed.
+	 */
+	String nextRawValue() throws IOException {
+		StringBuilder raw = new StringBuilder();
+		consumeValue(raw);
+		return raw.toString();
+	}
+
+	/**
+	 * Closes the underlying reader.
+	 * @throws IOException If it cannot be closed.
+	 */
+	void close() throws IOException {
+		mIn.close();
+	}
+
+	private void consumeValue(StringBuilder raw) throws IOException {
+		int depth = 0;
+		do {
+			Token token = peek();
+			mPeeked = null;
+			switch (token) {
+			case BEGIN_ARRAY:
+				appendSeparator(raw);
+				push(EMPTY_ARRAY);
+				append(raw, '[');
+				depth++;
+				break;
+			case BEGIN_OBJECT:
+				appendSeparator(raw);
+				push(EMPTY_OBJECT);
+				append(raw, '{');
+				depth++;
+				break;
+			case END_ARRAY:
+				mStackSize--;
+				append(raw, ']');
+				depth--;
+				break;
+			case END_OBJECT:
+				mStackSize--;
+				append(raw, '}');
+				depth--;
+				break;
+			case NAME:
+				appendSeparator(raw);
+				append(raw, '"');
+				readString(raw, true);
+				append(raw, '"');
+				append(raw, ':');
+				break;
+			case STRING:
+				appendSeparator(raw);
+				append(raw, '"');
+				readString(raw, true);
+				append(raw, '"');
+				break;
+			case NUMBER:
+			case BOOLEAN:
+			case NULL:
+				appendSeparator(raw);
+				readLiteral(raw);
+				break;
+			default:
+				throw syntaxError("Unexpected end of document");
+			}
+		} while (depth > 0);
+	}
+
+	private static void append(StringBuilder raw, char c) {
+		if (null != raw) {
+			raw.append(c);
+		}
+	}
+
+	/**
+	 * Appends the ',' preceding an element of an array or object, whose
+	 * opening bracket or previous name has already been written otherwise.
+	 */
+	private static void appendSeparator(StringBuilder raw) {
+		if (null != raw && raw.length() > 0) {
+			char last = raw.charAt(raw.length() - 1);
+			if ('[' != last && '{' != last && ':' != last) {
+				raw.append(',');
+			}
+		}
+	}
+
+	private void expect(Token expected) throws IOException {
+		Token token = peek();
+		if (expected != token) {
+			throw syntaxError("Expected " + expected + " but was " + token);
+		}
+		mPeeked = null;
+	}
+
+	private void push(int scope) {
+		if (mStackSize == mStack.length) {
+			int[] stack = new int[mStackSize * 2];
+			System.arraycopy(mStack, 0, stack, 0, mStackSize);
+			mStack = stack;
+		}
+		mStack[mStackSize++] = scope;
+	}
+
+	/**
+	 * Reads a string whose opening quote has been consumed.
+	 * @param out Where to append the string, or null to skip it.
+	 * @param escaped Whether to keep the escape sequences as they are written.
+	 */
+	private void readString(StringBuilder out, boolean escaped) throws IOException {
+		while (true) {
+			int start = mPos;
+			while (mPos < mLimit) {
+				char c = mBuffer[mPos++];
+				if ('"' == c) {
+					append(out, start, mPos - start - 1);
+					return;
+				} else if ('\\' == c) {
+					append(out, start, mPos - start - 1);
+					readEscape(out, escaped);
+					start = mPos;
+				}
+			}
+			append(out, start, mPos - start);
+			if (!fill()) {
+				throw syntaxError("Unterminated string");
+			}
+		}
+	}
+
+	private void append(StringBuilder out, int start, int count) {
+		if (null != out) {
+			out.append(mBuffer, start, count);
+		}
+	}
+
+	private void readEscape(StringBuilder out, boolean escaped) throws IOException {
+		int c = read();
+		if (null == out) {
+			if ('u' == c) {
+				for (int i = 0; i < 4; i++) {
+					read();
+				}
+			}
+			return;
+		}
+		if (escaped) {
+			out.append('\\').append((char) c);
+			if ('u' == c) {
+				for (int i = 0; i < 4; i++) {
+					out.append((char) read());
+				}
+			}
+			return;
+		}
+		switch (c) {
+		case 'b':
+			out.append('\b');
+			break;
+		case 'f':
+			out.append('\f');
+			break;
+		case 'n':
+			out.append('\n');
+			break;
+		case 'r':
+			out.append('\r');
+			break;
+		case 't':
+			out.append('\t');
+			break;
+		case 'u':
+			int value = 0;
+			for (int i = 0; i < 4; i++) {
+				int digit = Character.digit((char) read(), 16);
+				if (digit < 0) {
+					throw syntaxError("Malformed unicode escape");
+				}
+				value = (value << 4) | digit;
+			}
+			out.append((char) value);
+			break;
+		default:
+			// '"', '\\', '/' and any other character stand for themselves
+			out.append((char) c);
+			break;
+		}
+	}
+
+	/**
+	 * Reads a number or a true, false or null literal.
+	 * @param out Where to append the literal, or null to skip it.
+	 */
+	private void readLiteral(StringBuilder out) throws IOException {
+		while (true) {
+			int start = mPos;
+			while (mPos < mLimit) {
+				char c = mBuffer[mPos];
+				if (isLiteralEnd(c)) {
+					append(out, start, mPos - start);
+					return;
+				}
+				mPos++;
+			}
+			append(out, start, mPos - start);
+			if (!fill()) {
+				return;
+			}
+		}
+	}
+
+	private static boolean isLiteralEnd(char c) {
+		switch (c) {
+		case ',':
+		case ']':
+		case '}':
+		case ':':
+		case ' ':
+		case '\t':
+		case '\n':
+		case '\r':
+			return true;
+		default:
+			return false;
+		}
+	}
+
+	private int read() throws IOException {
+		if (mPos == mLimit && !fill()) {
+			throw syntaxError("Unexpected end of document");
+		}
+		return mBuffer[mPos++];
+	}
+
+	private int nextNonWhitespace() throws IOException {
+		int c = nextNonWhitespaceOrEnd();
+		if (-1 == c) {
+			throw syntaxError("Unexpected end of document");
+		}
+		return c;
+	}
+
+	private int nextNonWhitespaceOrEnd() throws IOException {
+		while (mPos < mLimit || fill()) {
+			char c = mBuffer[mPos++];
+			if (' ' != c && '\t' != c && '\n' != c && '\r' != c) {
+				return c;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Refills the buffer once all its characters have been consumed.
+	 * @return false at the end of the document.
+	 */
+	private boolean fill() throws IOException {
+		int read = mIn.read(mBuffer, 0, mBuffer.length);
+		if (read <= 0) {
+			mPos = mLimit = 0;
+			return false;
+		}
+		mPos = 0;
+		mLimit = read;
+		return true;
+	}
+
+	private IOException syntaxError(String message) {
+		return new IOException(message + " in JSON document");
+	}
+}
@@ -0,0 +1,121 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * CatchoomLatencyHistogram counts latencies in logarithmic buckets, four per
+ * power of two, so any percentile is known within 25% of its value with a
+ * fixed, small memory footprint. Recording is lock-free and can be done from
+ * any thread while percentiles are being read.
+ * @author Catchoom
+ *
+ */
+public class CatchoomLatencyHistogram {
+
+	// Values below this are counted exactly
+	private static final int LINEAR_BUCKETS = 4;
+	private static final int SUB_BUCKET_BITS = 2;
+	private static final int MAX_OCTAVE = 40;
+	private static final int BUCKET_COUNT = LINEAR_BUCKETS + (MAX_OCTAVE - 1) * (1 << SUB_BUCKET_BITS);
+	
+	private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKET_COUNT);
+	
+	/**
+	 * Records a latency.
+	 * @param value The latency, negative values are counted as 0.
+	 */
+	public void record(long value) {
+		mBuckets.incrementAndGet(getBucket(Math.max(value, 0)));
+	}
+	
+	/**
+	 * Gets the number of recorded latencies.
+	 * @return The count.
+	 */
+	public long getCount() {
+		long count = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			count += mBuckets.get(i);
+		}
+		return count;
+	}
+	
+	/**
+	 * Gets a percentile of the recorded latencies.
+	 * @param percentile The percentile, from 0 to 100.
+	 * @return The upper bound of the bucket holding the percentile, or -1 if
+	 * nothing has been recorded.
+	 */
+	public long getPercentile(double percentile) {
+		if (percentile < 0 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 0 and 100");
+		}
+		long[] counts = new long[BUCKET_COUNT];
+		long total = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			counts[i] = mBuckets.get(i);
+			total += counts[i];
+		}
+		if (0 == total) {
+			return -1;
+		}
+		long rank = Math.max(1, (long) Math.ceil(total * percentile / 100));
+		long seen = 0;
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			seen += counts[i];
+			if (seen >= rank) {
+				return getUpperBound(i);
+			}
+		}
+		return getUpperBound(BUCKET_COUNT - 1);
+	}
+	
+	/**
+	 * Adds the latencies recorded by another histogram to this one.
+	 * @param other The histogram to merge.
+	 */
+	public void add(CatchoomLatencyHistogram other) {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			long count = other.mBuckets.get(i);
+			if (count > 0) {
+				mBuckets.addAndGet(i, count);
+			}
+		}
+	}
+	
+	/**
+	 * Forgets all the recorded latencies.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKET_COUNT; i++) {
+			mBuckets.set(i, 0);
+		}
+	}
+	
+	private static int getBucket(long value) {
+		if (value < LINEAR_BUCKETS) {
+			return (int) value;
+		}
+		int octave = 63 - Long.numberOfLeadingZeros(value);
+		if (octave > MAX_OCTAVE) {
+			return BUCKET_COUNT - 1;
+		}
+		int shift = octave - SUB_BUCKET_BITS;
+		int subBucket = (int) (value >>> shift) & ((1 << SUB_BUCKET_BITS) - 1);
+		return LINEAR_BUCKETS + (shift << SUB_BUCKET_BITS) + subBucket;
+	}
+	
+	private static long getUpperBound(int bucket) {
+		if (bucket < LINEAR_BUCKETS) {
+			return bucket;
+		}
+		int shift = (bucket - LINEAR_BUCKETS) >> SUB_BUCKET_BITS;
+		int subBucket = (bucket - LINEAR_BUCKETS) & ((1 << SUB_BUCKET_BITS) - 1);
+		long lower = (long) ((1 << SUB_BUCKET_BITS) + subBucket) << shift;
+		return lower + (1L << shift) - 1;
+	}
+}
@@ -0,0 +1,333 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.io.File;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.graphics.Bitmap;
+import android.os.Looper;
+
+/**
+ * CatchoomLoadGenerator drives a number of concurrent clients through the
+ * real {@link Catchoom} search path against a server, usually a
+ * {@link CatchoomStandInServer}, and reports the throughput and the latency
+ * percentiles observed. Each client sends a new search as soon as the previous
+ * one completes, so the clients keep exactly one search in flight each. The
+ * images of the clients go through a search pipeline of their own, letting
+ * as many uploads in flight as there are clients, instead of the one shared
+ * by the other {@link Catchoom} objects.
+ * <p>
+ * Responses are delivered on the main thread, so {@link #run(long)} must be
+ * called from a background thread while the main looper runs.
+ * @author Catchoom
+ *
+ */
+public class CatchoomLoadGenerator {
+
+	// Time allowed to the searches in flight once the run is over
+	private static final long DRAIN_TIMEOUT_MILLIS = 60000;
+
+	private final String mBaseUrl;
+	private final String mToken;
+	private final File mImageFile;
+	private final Bitmap mImage;
+	private final int mClientCount;
+	private CatchoomRequestEngine mRequestEngine = null;
+	private CatchoomConnectionPool mConnectionPool = null;
+	private CatchoomSearchMetricsListener mMetricsListener = null;
+
+	/**
+	 * Creates a load generator searching an image file.
+	 * @param baseUrl The base URL of the server.
+	 * @param token The collection token sent with the searches.
+	 * @param image The query image.
+	 * @param clientCount The number of concurrent clients.
+	 */
+	public CatchoomLoadGenerator(String baseUrl, String token, File image, int clientCount) {
+		this(baseUrl, token, image, null, clientCount);
+	}
+
+	/**
+	 * Creates a load generator searching a bitmap, which must not be recycled
+	 * while the generator runs.
+	 * @param baseUrl The base URL of the server.
+	 * @param token The collection token sent with the searches.
+	 * @param image The query image.
+	 * @param clientCount The number of concurrent clients.
+	 */
+	public CatchoomLoadGenerator(String baseUrl, String token, Bitmap image, int clientCount) {
+		this(baseUrl, token, null, image, clientCount);
+	}
+
+	private CatchoomLoadGenerator(String baseUrl, String token, File imageFile, Bitmap image, int clientCount) {
+		if (null == baseUrl || null == token) {
+			throw new IllegalArgumentException("Base URL and token may not be null");
+		}
+		if (null == imageFile && null == image) {
+			throw new IllegalArgumentException("Image may not be null");
+		}
+		if (clientCount < 1) {
+			throw new IllegalArgumentException("At least one client is needed");
+		}
+		mBaseUrl = baseUrl;
+		mToken = token;
+		mImageFile = imageFile;
+		mImage = image;
+		mClientCount = clientCount;
+	}
+
+	/**
+	 * Sets the engine executing the searches of all the clients. The shared
+	 * {@link CatchoomRequestEngine#getDefault()} engine is used by default. Up
+	 * to one search per client reaches the engine at the same time, so give it
+	 * at least as many threads as clients to avoid measuring its queue, and a
+	 * queue holding the rest so that no search is rejected.
+	 * @param requestEngine The request engine.
+	 */
+	public void setRequestEngine(CatchoomRequestEngine requestEngine) {
+		mRequestEngine = requestEngine;
+	}
+
+	/**
+	 * Sets the pool of connections used by all the clients. The shared
+	 * {@link CatchoomConnectionPool#getDefault()} pool is used by default.
+	 * @param connectionPool The connection pool.
+	 */
+	public void setConnectionPool(CatchoomConnectionPool connectionPool) {
+		mConnectionPool = connectionPool;
+	}
+
+	/**
+	 * Sets a listener receiving the metrics of every search, for instance a
+	 * {@link CatchoomSearchMetricsAggregator} to break the latency down by stage.
+	 * @param metricsListener The metrics listener, or null.
+	 */
+	public void setSearchMetricsListener(CatchoomSearchMetricsListener metricsListener) {
+		mMetricsListener = metricsListener;
+	}
+
+	/**
+	 * Runs the clients for a while and waits for their last searches.
+	 * @param durationMillis Time during which new searches are sent.
+	 * @return The report of the run.
+	 * @throws InterruptedException If the calling thread is interrupted.
+	 */
+	public Report run(long durationMillis) throws InterruptedException {
+		if (Looper.myLooper() == Looper.getMainLooper()) {
+			throw new IllegalStateException("Load generator may not run on the main thread");
+		}
+		if (durationMillis <= 0) {
+			throw new IllegalArgumentException("Duration must be positive");
+		}
+
+		CatchoomRequestEngine requestEngine = null != mRequestEngine ? mRequestEngine : CatchoomRequestEngine.getDefault();
+		CatchoomConnectionPool connectionPool = null != mConnectionPool ? mConnectionPool : CatchoomConnectionPool.getDefault();
+		Run run = new Run(System.nanoTime() + durationMillis * 1000000L);
+		// One upload in flight per client, not the few allowed by the shared pipeline
+		CatchoomPipeline<Catchoom.SearchJob> searchPipeline = Catchoom.createSearchPipeline(
+				"Catchoom load generator", mClientCount);
+
+		try {
+			Client[] clients = new Client[mClientCount];
+			for (int i = 0; i < clients.length; i++) {
+				Catchoom catchoom = new Catchoom(requestEngine, connectionPool);
+				catchoom.setBaseUrl(mBaseUrl);
+				catchoom.setSearchMetricsListener(mMetricsListener);
+				catchoom.setSearchPipeline(searchPipeline);
+				clients[i] = new Client(catchoom, run);
+			}
+
+			long startTime = System.nanoTime();
+			for (Client client : clients) {
+				client.search();
+			}
+			boolean drained = run.mFinishedClients.await(durationMillis + DRAIN_TIMEOUT_MILLIS,
+					TimeUnit.MILLISECONDS);
+			long elapsedNanos = System.nanoTime() - startTime;
+
+			return new Report(run, elapsedNanos, drained);
+		} finally {
+			searchPipeline.shutdown();
+		}
+	}
+
+	/**
+	 * State shared by the clients of a run.
+	 */
+	private final class Run {
+
+		private final long mDeadline;
+		private final CountDownLatch mFinishedClients = new CountDownLatch(mClientCount);
+		private final CatchoomLatencyHistogram mLatencies = new CatchoomLatencyHistogram();
+		private final AtomicLong mCompletedCount = new AtomicLong();
+		private final AtomicLong mFailedCount = new AtomicLong();
+		private final AtomicLong mRejectedCount = new AtomicLong();
+
+		Run(long deadline) {
+			mDeadline = deadline;
+		}
+	}
+
+	/**
+	 * Client keeping one search in flight until the run is over.
+	 */
+	private final class Client implements CatchoomResponseHandler {
+
+		private final Catchoom mCatchoom;
+		private final Run mRun;
+		private long mSearchStart;
+
+		Client(Catchoom catchoom, Run run) {
+			mCatchoom = catchoom;
+			mRun = run;
+			catchoom.setResponseHandler(this);
+		}
+
+		void search() {
+			mSearchStart = System.nanoTime();
+			if (null != mImageFile) {
+				mCatchoom.search(mToken, mImageFile);
+			} else {
+				mCatchoom.search(mToken, mImage);
+			}
+		}
+
+		public void requestCompletedResponse(int requestCode, Object responseData) {
+			mRun.mCompletedCount.incrementAndGet();
+			onSearchFinished(true);
+		}
+
+		public void requestFailedResponse(CatchoomErrorResponseItem responseError) {
+			boolean rejected = null != responseError
+					&& CatchoomErrorResponseItem.REQUEST_REJECTED == responseError.getErrorCode();
+			if (rejected) {
+				mRun.mRejectedCount.incrementAndGet();
+			} else {
+				mRun.mFailedCount.incrementAndGet();
+			}
+			// Rejected searches never reached the server
+			onSearchFinished(!rejected);
+		}
+
+		private void onSearchFinished(boolean measured) {
+			long now = System.nanoTime();
+			if (measured) {
+				mRun.mLatencies.record((now - mSearchStart) / 1000000L);
+			}
+			if (now < mRun.mDeadline) {
+				search();
+			} else {
+				mRun.mFinishedClients.countDown();
+			}
+		}
+	}
+
+	/**
+	 * Outcome of a run.
+	 * @author Catchoom
+	 *
+	 */
+	public static final class Report {
+
+		private final long mCompletedCount;
+		private final long mFailedCount;
+		private final long mRejectedCount;
+		private final long mElapsedMillis;
+		private final boolean mDrained;
+		private final CatchoomLatencyHistogram mLatencies;
+
+		private Report(Run run, long elapsedNanos, boolean drained) {
+			mCompletedCount = run.mCompletedCount.get();
+			mFailedCount = run.mFailedCount.get();
+			mRejectedCount = run.mRejectedCount.get();
+			mElapsedMillis = elapsedNanos / 1000000L;
+			mDrained = drained;
+			mLatencies = new CatchoomLatencyHistogram();
+			mLatencies.add(run.mLatencies);
+		}
+
+		/**
+		 * Gets the number of searches that completed successfully.
+		 * @return The completed search count.
+		 */
+		public long getCompletedCount() {
+			return mCompletedCount;
+		}
+
+		/**
+		 * Gets the number of searches reported through
+		 * <code>requestFailedResponse</code>, the rejected ones excluded.
+		 * @return The failed search count.
+		 */
+		public long getFailedCount() {
+			return mFailedCount;
+		}
+
+		/**
+		 * Gets the number of searches rejected by the client before reaching
+		 * the server, with the {@link CatchoomErrorResponseItem#REQUEST_REJECTED}
+		 * error code.
+		 * @return The rejected search count.
+		 */
+		public long getRejectedCount() {
+			return mRejectedCount;
+		}
+
+		/**
+		 * Gets the time from the first search sent to the last one finished.
+		 * @return The elapsed time in milliseconds.
+		 */
+		public long getElapsedMillis() {
+			return mElapsedMillis;
+		}
+
+		/**
+		 * Checks if all the searches in flight finished once the run was over.
+		 * @return false if some clients were still waiting for a response.
+		 */
+		public boolean isDrained() {
+			return mDrained;
+		}
+
+		/**
+		 * Gets the number of searches finished per second, failed ones
+		 * included and rejected ones excluded.
+		 * @return The throughput.
+		 */
+		public double getThroughput() {
+			return mElapsedMillis > 0 ? (mCompletedCount + mFailedCount) * 1000.0 / mElapsedMillis : 0;
+		}
+
+		/**
+		 * Gets a percentile of the search latencies, measured from the call to
+		 * <code>search</code> to the delivery of its response. Rejected
+		 * searches are not measured.
+		 * @param percentile The percentile, from 0 to 100.
+		 * @return The latency in milliseconds, or -1 if no search finished.
+		 */
+		public long getLatencyPercentileMillis(double percentile) {
+			return mLatencies.getPercentile(percentile);
+		}
+
+		/**
+		 * Gets the histogram of the search latencies, in milliseconds.
+		 * @return The latencies.
+		 */
+		public CatchoomLatencyHistogram getLatencies() {
+			return mLatencies;
+		}
+
+		@Override
+		public String toString() {
+			return String.format("%d completed, %d failed, %d rejected in %d ms, %.1f searches/s, "
+					+ "p50 %d ms, p95 %d ms, p99 %d ms",
+					mCompletedCount, mFailedCount, mRejectedCount, mElapsedMillis, getThroughput(),
+					getLatencyPercentileMillis(50), getLatencyPercentileMillis(95), getLatencyPercentileMillis(99));
+		}
+	}
+}
@@ -0,0 +1,340 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * CatchoomMetadata gives typed access to the metadata of a search result. It
+ * keeps the metadata as received from the server and only decodes it the
+ * first time one of its values is read, so the metadata of results that are
+ * never looked at costs no parsing. Nested objects are decoded lazily too.
+ * @author Catchoom
+ *
+ */
+public class CatchoomMetadata {
+
+	private final String mJson;
+	private Map<String, Object> mValues = null;
+
+	/**
+	 * Creates the metadata view of a JSON object.
+	 * @param json The compact JSON text of the object, as returned by
+	 * {@link CatchoomJsonReader#nextRawValue()}.
+	 */
+	CatchoomMetadata(String json) {
+		mJson = json;
+	}
+
+	/**
+	 * Gets the metadata as JSON text.
+	 * @return The JSON object.
+	 */
+	public String toJSON() {
+		return mJson;
+	}
+
+	/**
+	 * Gets the metadata keys.
+	 * @return The keys, in the order sent by the server.
+	 */
+	public Set<String> keySet() {
+		return Collections.unmodifiableSet(getValues().keySet());
+	}
+
+	/**
+	 * Checks if the metadata has a key.
+	 * @param key The key.
+	 * @return true if the key exists, even if its value is null.
+	 */
+	public boolean has(String key) {
+		return getValues().containsKey(key);
+	}
+
+	/**
+	 * Gets a value as a string, the way {@link org.json.JSONObject#getString(String)}
+	 * converts it. Numbers and booleans are converted to their text, and
+	 * arrays and objects to their JSON text, where whole numbers lose their
+	 * fractional part.
+	 * @param key The key.
+	 * @return The value, "null" for a null value or null if the key does not
+	 * exist.
+	 */
+	public String getString(String key) {
+		Map<String, Object> values = getValues();
+		if (!values.containsKey(key)) {
+			return null;
+		}
+		return toString(values.get(key));
+	}
+
+	/**
+	 * Gets a number, or a string holding a number, as a long.
+	 * @param key The key.
+	 * @param defaultValue Value returned if the key does not exist or is not
+	 * a number.
+	 * @return The value, truncated if it has a fractional part.
+	 */
+	public long getLong(String key, long defaultValue) {
+		Object value = getValues().get(key);
+		if (value instanceof Number) {
+			return ((Number) value).longValue();
+		} else if (value instanceof String) {
+			try {
+				return (long) Double.parseDouble((String) value);
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Gets a number, or a string holding a number, as a double.
+	 * @param key The key.
+	 * @param defaultValue Value returned if the key does not exist or is not
+	 * a number.
+	 * @return The value.
+	 */
+	public double getDouble(String key, double defaultValue) {
+		Object value = getValues().get(key);
+		if (value instanceof Number) {
+			return ((Number) value).doubleValue();
+		} else if (value instanceof String) {
+			try {
+				return Double.parseDouble((String) value);
+			} catch (NumberFormatException e) {
+				return defaultValue;
+			}
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Gets a boolean, or a string holding "true" or "false".
+	 * @param key The key.
+	 * @param defaultValue Value returned if the key does not exist or is not
+	 * a boolean.
+	 * @return The value.
+	 */
+	public boolean getBoolean(String key, boolean defaultValue) {
+		Object value = getValues().get(key);
+		if (value instanceof Boolean) {
+			return (Boolean) value;
+		} else if ("true".equalsIgnoreCase(String.valueOf(value))) {
+			return true;
+		} else if ("false".equalsIgnoreCase(String.valueOf(value))) {
+			return false;
+		}
+		return defaultValue;
+	}
+
+	/**
+	 * Gets a nested object.
+	 * @param key The key.
+	 * @return The nested metadata, or null if the key does not exist or is not
+	 * an object.
+	 */
+	public CatchoomMetadata getMetadata(String key) {
+		Object value = getValues().get(key);
+		if (value instanceof CatchoomMetadata) {
+			return (CatchoomMetadata) value;
+		}
+		return null;
+	}
+
+	/**
+	 * Gets the elements of an array. They can be {@link String}s, {@link Long}s,
+	 * {@link Double}s, {@link Boolean}s, nested {@link CatchoomMetadata} objects,
+	 * nested {@link List}s or null.
+	 * @param key The key.
+	 * @return The elements, or null if the key does not exist or is not an
+	 * array.
+	 */
+	public List<Object> getList(String key) {
+		Object value = getValues().get(key);
+		if (value instanceof JsonArray) {
+			return ((JsonArray) value).getElements();
+		}
+		return null;
+	}
+
+	@Override
+	public String toString() {
+		return mJson;
+	}
+
+	/**
+	 * Decodes the keys and values of the object, the first time it is called.
+	 * @return The values by key.
+	 */
+	private synchronized Map<String, Object> getValues() {
+		if (null == mValues) {
+			Map<String, Object> values = new LinkedHashMap<String, Object>();
+			try {
+				CatchoomJsonReader reader = new CatchoomJsonReader(new StringReader(mJson));
+				reader.beginObject();
+				while (reader.hasNext()) {
+					String key = reader.nextName();
+					values.put(key, readValue(reader));
+				}
+				reader.endObject();
+			} catch (IOException e) {
+				// The text was validated when received, it cannot be malformed
+				throw new IllegalStateException("Malformed metadata", e);
+			}
+			mValues = values;
+		}
+		return mValues;
+	}
+
+	private static Object readValue(CatchoomJsonReader reader) throws IOException {
+		switch (reader.peek()) {
+		case STRING:
+			return reader.nextString();
+		case NUMBER:
+			String number = reader.nextString();
+			try {
+				return Long.valueOf(number);
+			} catch (NumberFormatException e) {
+				return Double.valueOf(number);
+			}
+		case BOOLEAN:
+			return Boolean.valueOf(reader.nextBoolean());
+		case NULL:
+			reader.nextNull();
+			return null;
+		case BEGIN_OBJECT:
+			return new CatchoomMetadata(reader.nextRawValue());
+		default:
+			return new JsonArray(reader.nextRawValue());
+		}
+	}
+
+	private static String toString(Object value) {
+		if (null == value) {
+			return "null";
+		} else if (value instanceof CatchoomMetadata || value instanceof JsonArray) {
+			return toOrgJsonText(value.toString());
+		}
+		return value.toString();
+	}
+
+	/**
+	 * Writes the numbers of a compact JSON text as org.json writes them, so
+	 * that the nested values read as strings do not change with the parser.
+	 * @param json The compact JSON text.
+	 * @return The text with its numbers converted.
+	 */
+	private static String toOrgJsonText(String json) {
+		int length = json.length();
+		StringBuilder out = new StringBuilder(length);
+		boolean inString = false;
+		int i = 0;
+		while (i < length) {
+			char c = json.charAt(i);
+			if (inString) {
+				out.append(c);
+				if ('\\' == c && i + 1 < length) {
+					out.append(json.charAt(++i));
+				} else if ('"' == c) {
+					inString = false;
+				}
+				i++;
+			} else if ('-' == c || (c >= '0' && c <= '9')) {
+				int end = i + 1;
+				while (end < length && isNumberPart(json.charAt(end))) {
+					end++;
+				}
+				out.append(numberToString(json.substring(i, end)));
+				i = end;
+			} else {
+				inString = '"' == c;
+				out.append(c);
+				i++;
+			}
+		}
+		return out.toString();
+	}
+
+	private static boolean isNumberPart(char c) {
+		return (c >= '0' && c <= '9') || '.' == c || 'e' == c || 'E' == c || '+' == c || '-' == c;
+	}
+
+	/**
+	 * Converts a number token as org.json's <code>numberToString</code> does:
+	 * decimal numbers lose their trailing zeros, and their point if nothing
+	 * follows it.
+	 * @param token The number as written in the JSON text.
+	 * @return The number text.
+	 */
+	private static String numberToString(String token) {
+		String text;
+		try {
+			text = Long.valueOf(token).toString();
+		} catch (NumberFormatException e) {
+			try {
+				text = Double.valueOf(token).toString();
+			} catch (NumberFormatException e1) {
+				return token;
+			}
+		}
+		if (text.indexOf('.') > 0 && text.indexOf('e') < 0 && text.indexOf('E') < 0) {
+			int end = text.length();
+			while ('0' == text.charAt(end - 1)) {
+				end--;
+			}
+			if ('.' == text.charAt(end - 1)) {
+				end--;
+			}
+			text = text.substring(0, end);
+		}
+		return text;
+	}
+
+	/**
+	 * Array value, kept as JSON text until its elements are requested.
+	 */
+	private static final class JsonArray {
+
+		private final String mJson;
+		private List<Object> mElements = null;
+
+		JsonArray(String json) {
+			mJson = json;
+		}
+
+		synchronized List<Object> getElements() {
+			if (null == mElements) {
+				List<Object> elements = new ArrayList<Object>();
+				try {
+					CatchoomJsonReader reader = new CatchoomJsonReader(new StringReader(mJson));
+					reader.beginArray();
+					while (reader.hasNext()) {
+						Object element = readValue(reader);
+						elements.add(element instanceof JsonArray ? ((JsonArray) element).getElements() : element);
+					}
+					reader.endArray();
+				} catch (IOException e) {
+					throw new IllegalStateException("Malformed metadata", e);
+				}
+				mElements = Collections.unmodifiableList(elements);
+			}
+			return mElements;
+		}
+
+		@Override
+		public String toString() {
+			return mJson;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.HttpEntityWrapper;
+
+/**
+ * Entity wrapper measuring the time spent writing a request body and counting
+ * the bytes read from a response body. Only used when search metrics are
+ * collected.
+ * @author Catchoom
+ *
+ */
+class CatchoomMeteredEntity extends HttpEntityWrapper {
+
+	private volatile long mWriteStart = 0;
+	private volatile long mWriteEnd = 0;
+	private volatile long mReadBytes = 0;
+	
+	CatchoomMeteredEntity(HttpEntity entity) {
+		super(entity);
+	}
+	
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		mWriteStart = System.nanoTime();
+		super.writeTo(out);
+		mWriteEnd = System.nanoTime();
+	}
+	
+	@Override
+	public InputStream getContent() throws IOException {
+		return new FilterInputStream(super.getContent()) {
+			@Override
+			public int read() throws IOException {
+				int b = super.read();
+				if (b >= 0) {
+					mReadBytes++;
+				}
+				return b;
+			}
+			
+			@Override
+			public int read(byte[] buffer, int offset, int count) throws IOException {
+				int read = super.read(buffer, offset, count);
+				if (read > 0) {
+					mReadBytes += read;
+				}
+				return read;
+			}
+		};
+	}
+	
+	/**
+	 * Gets when the last write of the body started.
+	 * @return The {@link System#nanoTime()} of the start, 0 if never written.
+	 */
+	long getWriteStart() {
+		return mWriteStart;
+	}
+	
+	/**
+	 * Gets when the last write of the body finished.
+	 * @return The {@link System#nanoTime()} of the end, 0 if never completed.
+	 */
+	long getWriteEnd() {
+		return mWriteEnd;
+	}
+	
+	/**
+	 * Gets the number of bytes read from the body.
+	 * @return The byte count.
+	 */
+	long getReadBytes() {
+		return mReadBytes;
+	}
+}
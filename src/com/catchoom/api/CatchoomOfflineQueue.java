@@ -0,0 +1,247 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.net.ConnectivityManager;
+import android.util.Log;
+
+/**
+ * CatchoomOfflineQueue keeps the searches that could not reach the server and
+ * performs them once the connectivity returns. The encoded query images are
+ * stored with their tokens in a journal file, so pending searches survive the
+ * app being killed; if the journal exceeds its size limit the oldest searches
+ * are dropped.
+ * <p>
+ * Set the queue to your {@link Catchoom} object through setOfflineQueue and
+ * call {@link #registerConnectivityReceiver(Context)} to drain it as soon as
+ * the device gets connected. Pending searches are sent in small batches and
+ * their results are delivered to the response handler of the Catchoom object
+ * as any other search. A search may be delivered twice if the app is killed
+ * right after it completes.
+ * @author Catchoom
+ *
+ */
+public class CatchoomOfflineQueue {
+
+	public static final long DEFAULT_MAX_BYTES = 4 * 1024 * 1024;
+	
+	/**
+	 * Receives the requests to perform the pending searches.
+	 */
+	interface Listener {
+		
+		/**
+		 * Called from the queue thread when the pending searches should be
+		 * performed.
+		 */
+		void onDrainRequested();
+	}
+	
+	private final CatchoomSearchJournal mJournal;
+	private final ExecutorService mExecutor;
+	private final BroadcastReceiver mConnectivityReceiver = new ConnectivityReceiver();
+	// Searches completed while older ones are still in progress
+	private final Set<Long> mCompleted = new HashSet<Long>();
+	private long mNextSequence;
+	private volatile Listener mListener = null;
+	
+	/**
+	 * Opens a queue stored in the app's files directory with the default size
+	 * limit.
+	 * @param context The context of the app.
+	 * @param name Name of the journal file.
+	 * @throws IOException If the journal cannot be opened.
+	 */
+	public CatchoomOfflineQueue(Context context, String name) throws IOException {
+		this(new File(context.getFilesDir(), name), DEFAULT_MAX_BYTES);
+	}
+	
+	/**
+	 * Opens a queue, recovering the searches stored by a previous run.
+	 * @param journalFile The journal file, created if it does not exist.
+	 * @param maxBytes Maximum size of the journal file.
+	 * @throws IOException If the journal cannot be opened.
+	 */
+	public CatchoomOfflineQueue(File journalFile, long maxBytes) throws IOException {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("Size limit must be positive");
+		}
+		mJournal = new CatchoomSearchJournal(journalFile, maxBytes);
+		mNextSequence = mJournal.getFirstSequence();
+		mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable runnable) {
+				Thread thread = new Thread(runnable, "Catchoom offline queue");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+	}
+	
+	/**
+	 * Gets the number of pending searches, including the ones being sent.
+	 * @return The search count.
+	 */
+	public int size() {
+		return mJournal.size();
+	}
+	
+	/**
+	 * Gets the size of the journal file.
+	 * @return The size in bytes.
+	 */
+	public long getSizeBytes() {
+		return mJournal.getSizeBytes();
+	}
+	
+	/**
+	 * Gets the number of searches dropped to respect the size limit.
+	 * @return The eviction count.
+	 */
+	public long getEvictionCount() {
+		return mJournal.getEvictionCount();
+	}
+	
+	/**
+	 * Performs the pending searches now, if the queue is set to a
+	 * {@link Catchoom} object.
+	 */
+	public void drain() {
+		mExecutor.execute(new Runnable() {
+			public void run() {
+				Listener listener = mListener;
+				if (null != listener) {
+					listener.onDrainRequested();
+				}
+			}
+		});
+	}
+	
+	/**
+	 * Drops all the pending searches.
+	 * @throws IOException If the journal cannot be reset.
+	 */
+	public synchronized void clear() throws IOException {
+		mJournal.clear();
+		mCompleted.clear();
+		mNextSequence = mJournal.getFirstSequence();
+	}
+	
+	/**
+	 * Registers a receiver draining the queue whenever the device gets
+	 * connected.
+	 * @param context The context to register the receiver with.
+	 */
+	public void registerConnectivityReceiver(Context context) {
+		context.registerReceiver(mConnectivityReceiver, new IntentFilter(ConnectivityManager.CONNECTIVITY_ACTION));
+	}
+	
+	/**
+	 * Unregisters the receiver registered with
+	 * {@link #registerConnectivityReceiver(Context)}.
+	 * @param context The context the receiver was registered with.
+	 */
+	public void unregisterConnectivityReceiver(Context context) {
+		context.unregisterReceiver(mConnectivityReceiver);
+	}
+	
+	void setListener(Listener listener) {
+		mListener = listener;
+	}
+	
+	/**
+	 * Stores a search that could not reach the server.
+	 * @param token The collection token.
+	 * @param options The search options.
+	 * @param image The encoded query image.
+	 * @return true if stored, false if it could not be written or is too
+	 * large.
+	 */
+	boolean offer(String token, CatchoomSearchOptions options, ByteArrayOutputStream image) {
+		try {
+			return mJournal.append(token, options, image) >= 0;
+		} catch (IOException e) {
+			Log.e(Catchoom.TAG, "Unable to store the search in the offline queue", e);
+			return false;
+		}
+	}
+	
+	/**
+	 * Takes the oldest pending searches that are not being sent yet.
+	 * @param maxCount Maximum number of searches to take.
+	 * @return The searches, possibly none.
+	 * @throws IOException If the searches cannot be read.
+	 */
+	synchronized List<CatchoomSearchJournal.Record> take(int maxCount) throws IOException {
+		mNextSequence = Math.max(mNextSequence, mJournal.getFirstSequence());
+		long end = mJournal.getEndSequence();
+		List<CatchoomSearchJournal.Record> records = new ArrayList<CatchoomSearchJournal.Record>(maxCount);
+		while (records.size() < maxCount && mNextSequence < end) {
+			CatchoomSearchJournal.Record record = mJournal.read(mNextSequence++);
+			if (null != record) {
+				records.add(record);
+			}
+		}
+		return records;
+	}
+	
+	/**
+	 * Removes a search that has been performed.
+	 * @param sequence The sequence of the search.
+	 */
+	synchronized void complete(long sequence) {
+		long first = mJournal.getFirstSequence();
+		if (sequence < first) {
+			// Evicted while it was being sent
+			return;
+		}
+		mCompleted.add(sequence);
+		int count = 0;
+		while (mCompleted.remove(first + count)) {
+			count++;
+		}
+		try {
+			mJournal.removeFirst(count);
+		} catch (IOException e) {
+			Log.e(Catchoom.TAG, "Unable to remove the search from the offline queue", e);
+		}
+	}
+	
+	/**
+	 * Puts back a search that could not be performed, to be taken again in
+	 * the next drain.
+	 * @param sequence The sequence of the search.
+	 */
+	synchronized void retry(long sequence) {
+		mNextSequence = Math.min(mNextSequence, sequence);
+	}
+	
+	/**
+	 * Drains the queue when the device gets connected.
+	 */
+	private class ConnectivityReceiver extends BroadcastReceiver {
+
+		@Override
+		public void onReceive(Context context, Intent intent) {
+			if (!intent.getBooleanExtra(ConnectivityManager.EXTRA_NO_CONNECTIVITY, false)) {
+				drain();
+			}
+		}
+	}
+}
@@ -0,0 +1,209 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+/**
+ * CatchoomPipeline runs jobs through a sequence of stages, each one on its own
+ * background worker. Stages are connected by bounded queues and a worker
+ * blocks when the next queue is full, so a slow stage holds back the ones
+ * before it instead of letting their output pile up.
+ * <p>
+ * The last stage usually hands the job to an asynchronous consumer: the
+ * number of jobs that went through it without being {@link #release()}d is
+ * bounded as well. Submitting never blocks: jobs submitted through
+ * {@link #submit(Object)} wait in front of the first stage for as long as
+ * needed, while of the jobs submitted through {@link #submitLatest(Object)}
+ * only the newest ones wait there, the oldest being dropped.
+ * @author Catchoom
+ *
+ * @param <J> The type of the jobs.
+ */
+class CatchoomPipeline<J> {
+
+	/**
+	 * A step of the pipeline.
+	 */
+	interface Stage<J> {
+		/**
+		 * Processes the job. Called from the stage worker.
+		 * @param job The job to process.
+		 * @throws Exception If the job cannot go on to the next stage.
+		 */
+		void process(J job) throws Exception;
+	}
+	
+	/**
+	 * Receives the jobs that leave the pipeline before going through all
+	 * its stages.
+	 */
+	interface Listener<J> {
+		void onJobDropped(J job);
+		void onJobFailed(J job, Exception e);
+	}
+	
+	private final List<BlockingQueue<J>> mQueues;
+	private final List<Thread> mWorkers;
+	// Jobs waiting in front of the first stage that may be dropped, oldest first
+	private final List<J> mLatestJobs;
+	private final int mQueueCapacity;
+	private final Semaphore mPendingJobs;
+	private final Listener<J> mListener;
+	
+	/**
+	 * Creates a pipeline and starts its workers.
+	 * @param name Name used for the worker threads.
+	 * @param stages The stages, in execution order.
+	 * @param queueCapacity Number of jobs that can wait in front of each stage
+	 * but the first, and number of jobs submitted through
+	 * {@link #submitLatest(Object)} that can wait in front of the first one.
+	 * @param maxPendingJobs Number of jobs that can be past the last stage
+	 * without having been released.
+	 * @param listener The listener of dropped and failed jobs.
+	 */
+	CatchoomPipeline(String name, List<Stage<J>> stages, int queueCapacity, int maxPendingJobs, Listener<J> listener) {
+		if (null == stages || stages.isEmpty()) {
+			throw new IllegalArgumentException("Pipeline needs at least one stage");
+		}
+		if (queueCapacity < 1 || maxPendingJobs < 1) {
+			throw new IllegalArgumentException("Pipeline capacities must be at least 1");
+		}
+		mListener = listener;
+		mQueueCapacity = queueCapacity;
+		mLatestJobs = new ArrayList<J>(queueCapacity);
+		mPendingJobs = new Semaphore(maxPendingJobs);
+		mQueues = new ArrayList<BlockingQueue<J>>(stages.size());
+		mQueues.add(new LinkedBlockingQueue<J>());
+		for (int i = 1; i < stages.size(); i++) {
+			mQueues.add(new ArrayBlockingQueue<J>(queueCapacity));
+		}
+		mWorkers = new ArrayList<Thread>(stages.size());
+		for (int i = 0; i < stages.size(); i++) {
+			Thread worker = new Thread(new Worker(i, stages.get(i)), name + " stage #" + (i + 1));
+			worker.setDaemon(true);
+			mWorkers.add(worker);
+			worker.start();
+		}
+	}
+	
+	/**
+	 * Queues a job at the beginning of the pipeline. Never blocks, and the
+	 * job is never dropped.
+	 * @param job The job to process.
+	 */
+	void submit(J job) {
+		mQueues.get(0).add(job);
+	}
+	
+	/**
+	 * Queues a job at the beginning of the pipeline, dropping the oldest job
+	 * submitted this way if too many of them are waiting already. Never
+	 * blocks.
+	 * @param job The job to process.
+	 */
+	void submitLatest(J job) {
+		List<J> dropped = null;
+		synchronized (mLatestJobs) {
+			while (mLatestJobs.size() >= mQueueCapacity) {
+				J oldest = mLatestJobs.remove(0);
+				// Unless the first stage took it in the meantime
+				if (mQueues.get(0).remove(oldest)) {
+					if (null == dropped) {
+						dropped = new ArrayList<J>(1);
+					}
+					dropped.add(oldest);
+				}
+			}
+			mLatestJobs.add(job);
+			mQueues.get(0).add(job);
+		}
+		
+		if (null != dropped) {
+			for (J oldest : dropped) {
+				mListener.onJobDropped(oldest);
+			}
+		}
+	}
+	
+	/**
+	 * Signals that a job that went through the last stage has been consumed,
+	 * letting another one in.
+	 */
+	void release() {
+		mPendingJobs.release();
+	}
+	
+	/**
+	 * Stops the workers. The jobs still waiting for a stage are dropped, and
+	 * the pipeline cannot be used afterwards.
+	 */
+	void shutdown() {
+		for (Thread worker : mWorkers) {
+			worker.interrupt();
+		}
+		for (BlockingQueue<J> queue : mQueues) {
+			J job;
+			while (null != (job = queue.poll())) {
+				mListener.onJobDropped(job);
+			}
+		}
+	}
+	
+	private final class Worker implements Runnable {
+		
+		private final int mIndex;
+		private final Stage<J> mStage;
+		private final boolean mLast;
+		
+		Worker(int index, Stage<J> stage) {
+			mIndex = index;
+			mStage = stage;
+			mLast = index == mQueues.size() - 1;
+		}
+		
+		public void run() {
+			BlockingQueue<J> input = mQueues.get(mIndex);
+			J job = null;
+			try {
+				while (true) {
+					job = input.take();
+					if (0 == mIndex) {
+						synchronized (mLatestJobs) {
+							mLatestJobs.remove(job);
+						}
+					}
+					if (mLast) {
+						mPendingJobs.acquire();
+					}
+					try {
+						mStage.process(job);
+					} catch (Exception e) {
+						if (mLast) {
+							mPendingJobs.release();
+						}
+						mListener.onJobFailed(job, e);
+						job = null;
+						continue;
+					}
+					if (!mLast) {
+						mQueues.get(mIndex + 1).put(job);
+					}
+					job = null;
+				}
+			} catch (InterruptedException e) {
+				// Worker stopped
+				if (null != job) {
+					mListener.onJobDropped(job);
+				}
+			}
+		}
+	}
+}
@@ -0,0 +1,299 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.io.IOException;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.HttpClient;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.protocol.HttpContext;
+
+import android.util.Log;
+
+/**
+ * CatchoomRequest is a unit of work executed by a {@link CatchoomRequestEngine}.
+ * Implementations perform the blocking network operation and return the object
+ * that will be delivered to the {@link CatchoomResponseHandler}.
+ * <p>
+ * When run by an engine, a request does not wait between attempts on the
+ * worker thread: {@link #execute} gives up the worker and the engine performs
+ * the request again once the retry delay has elapsed, so a server asking to
+ * back off does not stall the other requests.
+ * @author Catchoom
+ *
+ */
+abstract class CatchoomRequest {
+
+	private HttpUriRequest mRequest = null;
+	private boolean mAborted = false;
+	private int mAttemptCount = 0;
+	private long mAttemptStart = 0;
+	private boolean mDeferRetries = false;
+	private int mNextAttempt = 1;
+	private long mRetryDelay = -1;
+	private Runnable mPendingRetry = null;
+
+	/**
+	 * Gets the request type, one of {@link Catchoom.Request} codes.
+	 * @return The request code.
+	 */
+	abstract int getRequestCode();
+	
+	/**
+	 * Performs the request. Called from a worker thread.
+	 * @return The response data, a {@link CatchoomErrorResponseItem} if the
+	 * server answered with an error, or null if the server was not reachable.
+	 */
+	abstract Object perform();
+	
+	/**
+	 * Called once the outcome of the request, or its rejection, has been
+	 * handed to the engine listener.
+	 */
+	void onFinished() {
+	}
+	
+	/**
+	 * Aborts the request, closing its connection if it is in progress and
+	 * cancelling any pending retry.
+	 */
+	void abort() {
+		HttpUriRequest request;
+		Runnable pendingRetry;
+		synchronized (this) {
+			mAborted = true;
+			request = mRequest;
+			pendingRetry = mPendingRetry;
+			mPendingRetry = null;
+			notifyAll();
+		}
+		if (null != request) {
+			request.abort();
+		}
+		if (null != pendingRetry) {
+			// Finish now rather than when the delay elapses
+			pendingRetry.run();
+		}
+	}
+	
+	synchronized boolean isAborted() {
+		return mAborted;
+	}
+	
+	/**
+	 * Gets the number of times the request has been sent.
+	 * @return The attempt count.
+	 */
+	synchronized int getAttemptCount() {
+		return mAttemptCount;
+	}
+	
+	/**
+	 * Gets when the last attempt was sent, so that its latency can be told
+	 * apart from the waits between attempts.
+	 * @return The {@link System#nanoTime()} of the start of the attempt, 0
+	 * if the request has not been sent.
+	 */
+	synchronized long getAttemptStart() {
+		return mAttemptStart;
+	}
+	
+	/**
+	 * Makes {@link #execute} give up the worker instead of waiting between
+	 * attempts. Set by the engine before the request is performed.
+	 */
+	synchronized void setDeferRetries() {
+		mDeferRetries = true;
+	}
+	
+	/**
+	 * Checks if the last attempt failed and the request must be performed
+	 * again later, in which case its outcome must be ignored.
+	 * @return true if a retry is deferred.
+	 */
+	synchronized boolean isRetryDeferred() {
+		return mRetryDelay >= 0;
+	}
+	
+	/**
+	 * Takes the delay of the deferred retry.
+	 * @return The delay in milliseconds, or -1 if no retry is deferred or
+	 * the request was aborted.
+	 */
+	synchronized long takeRetryDelay() {
+		long delay = mAborted ? -1 : mRetryDelay;
+		mRetryDelay = -1;
+		return delay;
+	}
+	
+	/**
+	 * Holds the action performing the request again until the retry delay
+	 * elapses. It is run at once if the request is aborted meanwhile.
+	 * @param retry The action.
+	 * @return false if the request was aborted and nothing is held.
+	 */
+	synchronized boolean setPendingRetry(Runnable retry) {
+		if (mAborted) {
+			return false;
+		}
+		mPendingRetry = retry;
+		return true;
+	}
+	
+	/**
+	 * Takes the held retry, so that it runs only once.
+	 * @return The action performing the request again, or null if it was
+	 * already taken.
+	 */
+	synchronized Runnable takePendingRetry() {
+		Runnable retry = mPendingRetry;
+		mPendingRetry = null;
+		return retry;
+	}
+	
+	/**
+	 * Executes an HTTP request, sending it again while the retry policy
+	 * allows it. The request entity must be repeatable.
+	 * @param client The client executing the request.
+	 * @param request The request.
+	 * @param retryPolicy The policy deciding which failures are retried.
+	 * @return The response of the last attempt, which may be an error.
+	 * @throws IOException If the last attempt failed or the request was
+	 * aborted.
+	 */
+	HttpResponse execute(HttpClient client, HttpUriRequest request, CatchoomRetryPolicy retryPolicy)
+			throws IOException {
+		return execute(client, request, retryPolicy, null);
+	}
+	
+	/**
+	 * Executes an HTTP request in the given context, sending it again while
+	 * the retry policy allows it. The request entity must be repeatable.
+	 * <p>
+	 * Outside an engine the calling thread waits between attempts. Within
+	 * one, a {@link RetryDeferredException} is thrown instead and the
+	 * attempt count goes on when the request is performed again.
+	 * @param client The client executing the request.
+	 * @param request The request.
+	 * @param retryPolicy The policy deciding which failures are retried.
+	 * @param context The execution context, or null to use the default one.
+	 * @return The response of the last attempt, which may be an error.
+	 * @throws IOException If the last attempt failed or the request was
+	 * aborted.
+	 */
+	HttpResponse execute(HttpClient client, HttpUriRequest request, CatchoomRetryPolicy retryPolicy,
+			HttpContext context) throws IOException {
+		int firstAttempt;
+		synchronized (this) {
+			firstAttempt = mNextAttempt;
+			mNextAttempt = 1;
+		}
+		for (int attempt = firstAttempt; ; attempt++) {
+			synchronized (this) {
+				if (mAborted) {
+					throw new IOException("Request aborted");
+				}
+				mRequest = request;
+				mAttemptCount = attempt;
+				mAttemptStart = System.nanoTime();
+			}
+			
+			HttpResponse response = null;
+			IOException failure = null;
+			long retryAfter = -1;
+			try {
+				response = null != context ? client.execute(request, context) : client.execute(request);
+			} catch (IOException e) {
+				failure = e;
+			}
+			
+			if (null != response) {
+				int statusCode = response.getStatusLine().getStatusCode();
+				if (!retryPolicy.isRetryable(statusCode)) {
+					return response;
+				}
+				if (429 == statusCode || 503 == statusCode) {
+					retryAfter = CatchoomRetryPolicy.parseRetryAfter(response.getFirstHeader("Retry-After"));
+				}
+			} else if (isAborted() || !retryPolicy.isRetryable(failure)) {
+				throw failure;
+			}
+			
+			long delay = retryPolicy.getDelay(attempt, retryAfter);
+			if (delay < 0) {
+				if (null != response) {
+					return response;
+				}
+				throw failure;
+			}
+			
+			if (null != response) {
+				// Release the connection before waiting
+				HttpEntity entity = response.getEntity();
+				if (null != entity) {
+					entity.consumeContent();
+				}
+				Log.w(Catchoom.TAG, "Attempt " + attempt + " failed with "
+						+ response.getStatusLine() + ", retrying in " + delay + " ms");
+			} else {
+				Log.w(Catchoom.TAG, "Attempt " + attempt + " failed with " + failure
+						+ ", retrying in " + delay + " ms");
+			}
+			if (deferRetry(attempt + 1, delay)) {
+				throw new RetryDeferredException();
+			}
+			waitBeforeRetry(delay);
+		}
+	}
+	
+	/**
+	 * Records the retry for the engine to perform, if it defers them.
+	 * @param nextAttempt The number of the next attempt.
+	 * @param delay The wait in milliseconds.
+	 * @return true if the retry is deferred.
+	 */
+	private synchronized boolean deferRetry(int nextAttempt, long delay) {
+		if (!mDeferRetries) {
+			return false;
+		}
+		mNextAttempt = nextAttempt;
+		mRetryDelay = delay;
+		return true;
+	}
+	
+	/**
+	 * Waits before the next attempt, returning early if the request is
+	 * aborted.
+	 * @param delay The wait in milliseconds.
+	 */
+	private synchronized void waitBeforeRetry(long delay) throws IOException {
+		long deadline = System.currentTimeMillis() + delay;
+		long remaining = delay;
+		while (!mAborted && remaining > 0) {
+			try {
+				wait(remaining);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new IOException("Interrupted while waiting to retry");
+			}
+			remaining = deadline - System.currentTimeMillis();
+		}
+	}
+	
+	/**
+	 * Thrown by {@link CatchoomRequest#execute} when the engine will send the
+	 * request again after the retry delay.
+	 */
+	static final class RetryDeferredException extends IOException {
+		
+		private static final long serialVersionUID = 1L;
+		
+		RetryDeferredException() {
+			super("Retry deferred");
+		}
+	}
+}
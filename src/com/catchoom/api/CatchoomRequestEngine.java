@@ -0,0 +1,258 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * CatchoomRequestEngine executes the requests of one or more {@link Catchoom}
+ * objects on a fixed pool of worker threads fed by a bounded queue. When the
+ * queue is full, the configured {@link RejectionPolicy} decides which request
+ * is dropped, so a burst of searches can never pile up unbounded.
+ * <p>
+ * The engine does not depend on the Android framework: results are handed to
+ * a {@link Listener} on the worker thread and it is up to the caller to move
+ * them to the thread it wants.
+ * <p>
+ * A request waiting to be retried does not hold a worker. Once its retry
+ * delay elapses it goes back to the end of the queue, subject to the
+ * rejection policy like a new request.
+ * @author Catchoom
+ *
+ */
+public class CatchoomRequestEngine {
+
+	/**
+	 * Policies applied when a request is submitted and the queue is full.
+	 */
+	public enum RejectionPolicy {
+		/** The new request is rejected and the queued ones are kept. */
+		REJECT_NEWEST,
+		/** The oldest queued request is rejected to make room for the new one. */
+		DISCARD_OLDEST
+	}
+
+	public static final int DEFAULT_POOL_SIZE = 2;
+	public static final int DEFAULT_QUEUE_CAPACITY = 4;
+
+	/**
+	 * Receives the outcome of the submitted requests. Methods are called from
+	 * the worker threads, from the submitting or retry timer thread when a
+	 * request is rejected straight away, or from the aborting thread when a
+	 * request is aborted while waiting to be retried.
+	 */
+	interface Listener {
+		void onRequestFinished(CatchoomRequest request, Object response);
+		void onRequestRejected(CatchoomRequest request);
+	}
+
+	private static CatchoomRequestEngine sDefaultEngine = null;
+	private static ScheduledExecutorService sRetryTimer = null;
+
+	private final ThreadPoolExecutor mExecutor;
+	private final BlockingQueue<Runnable> mQueue;
+	private final RejectionPolicy mRejectionPolicy;
+
+	/**
+	 * Gets the engine shared by all the {@link Catchoom} objects that have not
+	 * been given their own one.
+	 * @return The process-wide engine.
+	 */
+	public static synchronized CatchoomRequestEngine getDefault() {
+		if (null == sDefaultEngine) {
+			sDefaultEngine = new CatchoomRequestEngine();
+		}
+		return sDefaultEngine;
+	}
+
+	/**
+	 * Gets the timer resubmitting the requests whose retry delay has elapsed.
+	 * It only queues them, so a single thread serves every engine.
+	 * @return The process-wide retry timer.
+	 */
+	private static synchronized ScheduledExecutorService getRetryTimer() {
+		if (null == sRetryTimer) {
+			sRetryTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+				public Thread newThread(Runnable runnable) {
+					Thread timer = new Thread(runnable, "Catchoom retry timer");
+					timer.setDaemon(true);
+					return timer;
+				}
+			});
+		}
+		return sRetryTimer;
+	}
+
+	/**
+	 * Creates an engine with {@link #DEFAULT_POOL_SIZE} workers, a queue of
+	 * {@link #DEFAULT_QUEUE_CAPACITY} requests and the
+	 * {@link RejectionPolicy#DISCARD_OLDEST} policy.
+	 */
+	public CatchoomRequestEngine() {
+		this(DEFAULT_POOL_SIZE, DEFAULT_QUEUE_CAPACITY, RejectionPolicy.DISCARD_OLDEST);
+	}
+
+	/**
+	 * Creates an engine.
+	 * @param poolSize Number of requests executed concurrently.
+	 * @param queueCapacity Number of requests that can wait for a free worker.
+	 * @param rejectionPolicy What to do when the queue is full.
+	 */
+	public CatchoomRequestEngine(int poolSize, int queueCapacity, RejectionPolicy rejectionPolicy) {
+		if (poolSize < 1) {
+			throw new IllegalArgumentException("Pool size must be at least 1");
+		}
+		if (queueCapacity < 1) {
+			throw new IllegalArgumentException("Queue capacity must be at least 1");
+		}
+		if (null == rejectionPolicy) {
+			throw new IllegalArgumentException("Rejection policy may not be null");
+		}
+		mRejectionPolicy = rejectionPolicy;
+		mQueue = new ArrayBlockingQueue<Runnable>(queueCapacity);
+		mExecutor = new ThreadPoolExecutor(poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+				mQueue, new WorkerFactory(), new RejectionHandler());
+	}
+
+	/**
+	 * Gets the policy applied when the queue is full.
+	 * @return The rejection policy.
+	 */
+	public RejectionPolicy getRejectionPolicy() {
+		return mRejectionPolicy;
+	}
+
+	/**
+	 * Gets the number of requests waiting for a free worker.
+	 * @return The queued request count.
+	 */
+	public int getQueuedRequestCount() {
+		return mQueue.size();
+	}
+
+	/**
+	 * Stops accepting requests. Queued requests are still executed, requests
+	 * waiting to be retried are rejected once their delay elapses.
+	 */
+	public void shutdown() {
+		mExecutor.shutdown();
+	}
+
+	/**
+	 * Queues a request for execution.
+	 * @param request The request to perform.
+	 * @param listener The listener that will receive its outcome.
+	 */
+	void submit(CatchoomRequest request, Listener listener) {
+		mExecutor.execute(new Job(request, listener));
+	}
+
+	/**
+	 * Runnable binding a request with the listener of its outcome.
+	 */
+	private final class Job implements Runnable {
+
+		private final CatchoomRequest mRequest;
+		private final Listener mListener;
+
+		Job(CatchoomRequest request, Listener listener) {
+			mRequest = request;
+			mListener = listener;
+			request.setDeferRetries();
+		}
+
+		public void run() {
+			Object response = null;
+			boolean deferred = false;
+			try {
+				response = mRequest.perform();
+				deferred = deferRetry();
+			} finally {
+				if (!deferred) {
+					finish(response);
+				}
+			}
+		}
+
+		void reject() {
+			mListener.onRequestRejected(mRequest);
+			mRequest.onFinished();
+		}
+
+		private void finish(Object response) {
+			mListener.onRequestFinished(mRequest, response);
+			mRequest.onFinished();
+		}
+
+		/**
+		 * Schedules the request to be performed again if its last attempt
+		 * failed and the retry policy asked for a delay.
+		 * @return true if the retry is scheduled and the request has not
+		 * finished yet.
+		 */
+		private boolean deferRetry() {
+			long delay = mRequest.takeRetryDelay();
+			if (delay < 0) {
+				return false;
+			}
+			Runnable retry = new Runnable() {
+				public void run() {
+					if (mRequest.isAborted()) {
+						finish(null);
+					} else {
+						mExecutor.execute(Job.this);
+					}
+				}
+			};
+			if (!mRequest.setPendingRetry(retry)) {
+				// Aborted meanwhile
+				return false;
+			}
+			getRetryTimer().schedule(new Runnable() {
+				public void run() {
+					Runnable retry = mRequest.takePendingRetry();
+					if (null != retry) {
+						retry.run();
+					}
+				}
+			}, delay, TimeUnit.MILLISECONDS);
+			return true;
+		}
+	}
+
+	private final class RejectionHandler implements RejectedExecutionHandler {
+
+		public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+			if (!executor.isShutdown() && RejectionPolicy.DISCARD_OLDEST == mRejectionPolicy) {
+				Runnable oldest = mQueue.poll();
+				if (null != oldest) {
+					((Job) oldest).reject();
+				}
+				executor.execute(runnable);
+			} else {
+				((Job) runnable).reject();
+			}
+		}
+	}
+
+	private static final class WorkerFactory implements ThreadFactory {
+
+		private final AtomicInteger mCount = new AtomicInteger(1);
+
+		public Thread newThread(Runnable runnable) {
+			Thread worker = new Thread(runnable, "Catchoom worker #" + mCount.getAndIncrement());
+			worker.setDaemon(true);
+			return worker;
+		}
+	}
+}
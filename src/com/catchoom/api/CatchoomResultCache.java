@@ -0,0 +1,246 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * CatchoomResultCache keeps the results of recent searches indexed by a
+ * perceptual hash of their query image. A search whose image hash is within
+ * the configured Hamming distance of a cached one, in the same collection
+ * and with the same {@link CatchoomSearchOptions}, gets the cached results
+ * without reaching the server.
+ * <p>
+ * Entries expire after a fixed time and the least recently used ones are
+ * evicted when the cache exceeds its approximate memory budget, which
+ * accounts for the size of the metadata of each result. Hit and miss
+ * counters are provided to tune the thresholds.
+ * <p>
+ * Set the cache to your {@link Catchoom} object through
+ * {@link Catchoom#setResultCache(CatchoomResultCache)}.
+ * @author Catchoom
+ *
+ */
+public class CatchoomResultCache {
+
+	public static final int DEFAULT_MAX_DISTANCE = 6;
+	public static final long DEFAULT_TIME_TO_LIVE_MILLIS = 10000;
+	public static final int DEFAULT_MAX_BYTES = 64 * 1024;
+
+	// Rough memory footprint of an entry, and of each result item in it
+	// besides the characters of its id and metadata
+	private static final int ENTRY_BYTES = 96;
+	private static final int ITEM_BYTES = 128;
+
+	private final int mMaxDistance;
+	private final long mTimeToLiveNanos;
+	private final int mMaxBytes;
+	private final LinkedHashMap<Key, CachedResult> mEntries;
+	private int mBytes = 0;
+	private long mHitCount = 0;
+	private long mMissCount = 0;
+	private long mEvictionCount = 0;
+
+	/**
+	 * Creates a cache with the default distance, time to live and size.
+	 */
+	public CatchoomResultCache() {
+		this(DEFAULT_MAX_DISTANCE, DEFAULT_TIME_TO_LIVE_MILLIS, DEFAULT_MAX_BYTES);
+	}
+
+	/**
+	 * Creates a cache.
+	 * @param maxDistance Maximum Hamming distance, from 0 to 64, between the
+	 * hashes of two images considered the same.
+	 * @param timeToLiveMillis Time after which an entry expires.
+	 * @param maxBytes Approximate memory budget of the cache.
+	 */
+	public CatchoomResultCache(int maxDistance, long timeToLiveMillis, int maxBytes) {
+		if (maxDistance < 0 || maxDistance > 64) {
+			throw new IllegalArgumentException("Distance must be between 0 and 64");
+		}
+		if (timeToLiveMillis <= 0) {
+			throw new IllegalArgumentException("Time to live must be positive");
+		}
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("Memory budget must be positive");
+		}
+		mMaxDistance = maxDistance;
+		mTimeToLiveNanos = timeToLiveMillis * 1000000L;
+		mMaxBytes = maxBytes;
+		// Access ordered, so iteration starts with the least recently used
+		mEntries = new LinkedHashMap<Key, CachedResult>(16, 0.75f, true);
+	}
+
+	/**
+	 * Gets the number of searches answered from the cache.
+	 * @return The hit count.
+	 */
+	public synchronized long getHitCount() {
+		return mHitCount;
+	}
+
+	/**
+	 * Gets the number of searches that had to reach the server.
+	 * @return The miss count.
+	 */
+	public synchronized long getMissCount() {
+		return mMissCount;
+	}
+
+	/**
+	 * Gets the number of entries evicted to respect the memory budget.
+	 * Expired entries are not counted.
+	 * @return The eviction count.
+	 */
+	public synchronized long getEvictionCount() {
+		return mEvictionCount;
+	}
+
+	/**
+	 * Gets the number of cached searches.
+	 * @return The entry count.
+	 */
+	public synchronized int size() {
+		return mEntries.size();
+	}
+
+	/**
+	 * Removes all the entries. Counters are kept.
+	 */
+	public synchronized void clear() {
+		mEntries.clear();
+		mBytes = 0;
+	}
+
+	/**
+	 * Looks up the results of a near-duplicate image searched in the same
+	 * collection with the same options.
+	 * @param token The collection token.
+	 * @param options The search options.
+	 * @param hash The {@link CatchoomImageHash} of the query image.
+	 * @return A copy of the cached results, or null on a miss.
+	 */
+	synchronized ArrayList<CatchoomSearchResponseItem> get(String token, CatchoomSearchOptions options, long hash) {
+		long now = System.nanoTime();
+		Key closest = null;
+		int closestDistance = mMaxDistance + 1;
+
+		for (Iterator<Map.Entry<Key, CachedResult>> it = mEntries.entrySet().iterator(); it.hasNext();) {
+			Map.Entry<Key, CachedResult> mapEntry = it.next();
+			Key key = mapEntry.getKey();
+			if (now - mapEntry.getValue().mCreationTime > mTimeToLiveNanos) {
+				mBytes -= mapEntry.getValue().mBytes;
+				it.remove();
+				continue;
+			}
+			if (!key.mToken.equals(token) || !key.mOptions.equals(options)) {
+				continue;
+			}
+			int distance = CatchoomImageHash.distance(key.mHash, hash);
+			if (distance < closestDistance) {
+				closest = key;
+				closestDistance = distance;
+			}
+		}
+
+		if (null == closest) {
+			mMissCount++;
+			return null;
+		}
+
+		mHitCount++;
+		// Also marks the entry as the most recently used one
+		return new ArrayList<CatchoomSearchResponseItem>(mEntries.get(closest).mItems);
+	}
+
+	/**
+	 * Stores the results of a search.
+	 * @param token The collection token.
+	 * @param options The search options.
+	 * @param hash The {@link CatchoomImageHash} of the query image.
+	 * @param items The search results.
+	 */
+	synchronized void put(String token, CatchoomSearchOptions options, long hash,
+			ArrayList<CatchoomSearchResponseItem> items) {
+		CachedResult entry = new CachedResult(new ArrayList<CatchoomSearchResponseItem>(items),
+				System.nanoTime());
+		if (entry.mBytes > mMaxBytes) {
+			return;
+		}
+
+		CachedResult previous = mEntries.put(new Key(token, options, hash), entry);
+		if (null != previous) {
+			mBytes -= previous.mBytes;
+		}
+		mBytes += entry.mBytes;
+
+		Iterator<CachedResult> it = mEntries.values().iterator();
+		while (mBytes > mMaxBytes && it.hasNext()) {
+			mBytes -= it.next().mBytes;
+			it.remove();
+			mEvictionCount++;
+		}
+	}
+
+	private static final class Key {
+
+		private final String mToken;
+		private final CatchoomSearchOptions mOptions;
+		private final long mHash;
+
+		Key(String token, CatchoomSearchOptions options, long hash) {
+			mToken = token;
+			mOptions = options;
+			mHash = hash;
+		}
+
+		@Override
+		public boolean equals(Object o) {
+			if (!(o instanceof Key)) {
+				return false;
+			}
+			Key other = (Key) o;
+			return mHash == other.mHash && mToken.equals(other.mToken) && mOptions.equals(other.mOptions);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * (31 * mToken.hashCode() + mOptions.hashCode()) + (int) (mHash ^ (mHash >>> 32));
+		}
+	}
+
+	private static final class CachedResult {
+
+		private final ArrayList<CatchoomSearchResponseItem> mItems;
+		private final long mCreationTime;
+		private final int mBytes;
+
+		CachedResult(ArrayList<CatchoomSearchResponseItem> items, long creationTime) {
+			mItems = items;
+			mCreationTime = creationTime;
+			int bytes = ENTRY_BYTES;
+			for (CatchoomSearchResponseItem item : items) {
+				bytes += getItemBytes(item);
+			}
+			mBytes = bytes;
+		}
+
+		/**
+		 * Estimates the memory held by a result item from the metadata it
+		 * keeps as received, which dominates it for large metadata. Decoding
+		 * the metadata takes more.
+		 * @param item The result item.
+		 * @return The approximate size in bytes.
+		 */
+		private static int getItemBytes(CatchoomSearchResponseItem item) {
+			int chars = item.getId().length() + item.getMetadataView().toJSON().length();
+			return ITEM_BYTES + 2 * chars;
+		}
+	}
+}
@@ -0,0 +1,183 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.io.IOException;
+import java.util.Random;
+
+import javax.net.ssl.SSLPeerUnverifiedException;
+
+import org.apache.http.Header;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.impl.cookie.DateParseException;
+import org.apache.http.impl.cookie.DateUtils;
+
+/**
+ * CatchoomRetryPolicy decides which failed requests are sent again and how
+ * long to wait before each new attempt. Network errors, timeouts and the
+ * 408, 429, 500, 502, 503 and 504 responses are retried; any other error
+ * response fails at once. The wait doubles after each attempt up to a
+ * maximum, and a random jitter spreads the retries of different clients. A
+ * Retry-After header sent with a 429 or 503 response is honoured instead,
+ * unless it asks for a longer wait than the policy allows, in which case the
+ * error is delivered right away.
+ * <p>
+ * Retries send again the body already encoded for the first attempt, so the
+ * query image is not processed again.
+ * @author Catchoom
+ *
+ */
+public class CatchoomRetryPolicy {
+
+	public static final int DEFAULT_MAX_ATTEMPTS = 3;
+	public static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 500;
+	public static final long DEFAULT_MAX_BACKOFF_MILLIS = 8000;
+	public static final long DEFAULT_MAX_RETRY_AFTER_MILLIS = 30000;
+	
+	/** Policy used unless another one is set. */
+	public static final CatchoomRetryPolicy DEFAULT = new CatchoomRetryPolicy();
+	
+	/** Policy performing a single attempt. */
+	public static final CatchoomRetryPolicy NONE = new CatchoomRetryPolicy(1, DEFAULT_INITIAL_BACKOFF_MILLIS,
+			DEFAULT_MAX_BACKOFF_MILLIS, DEFAULT_MAX_RETRY_AFTER_MILLIS);
+	
+	private static final Random sJitter = new Random();
+	
+	private final int mMaxAttempts;
+	private final long mInitialBackoffMillis;
+	private final long mMaxBackoffMillis;
+	private final long mMaxRetryAfterMillis;
+	
+	/**
+	 * Creates a policy with the default attempts and waits.
+	 */
+	public CatchoomRetryPolicy() {
+		this(DEFAULT_MAX_ATTEMPTS, DEFAULT_INITIAL_BACKOFF_MILLIS, DEFAULT_MAX_BACKOFF_MILLIS,
+				DEFAULT_MAX_RETRY_AFTER_MILLIS);
+	}
+	
+	/**
+	 * Creates a policy.
+	 * @param maxAttempts Maximum number of times a request is sent, including
+	 * the first one.
+	 * @param initialBackoffMillis Wait before the first retry, doubled for
+	 * each following one.
+	 * @param maxBackoffMillis Maximum wait between two attempts.
+	 * @param maxRetryAfterMillis Longest Retry-After wait honoured. Requests
+	 * asked to wait longer are not retried.
+	 */
+	public CatchoomRetryPolicy(int maxAttempts, long initialBackoffMillis, long maxBackoffMillis,
+			long maxRetryAfterMillis) {
+		if (maxAttempts < 1) {
+			throw new IllegalArgumentException("At least one attempt must be allowed");
+		}
+		if (initialBackoffMillis < 0 || maxBackoffMillis < initialBackoffMillis) {
+			throw new IllegalArgumentException("Backoff must be positive and below its maximum");
+		}
+		if (maxRetryAfterMillis < 0) {
+			throw new IllegalArgumentException("Retry-After limit must be positive");
+		}
+		mMaxAttempts = maxAttempts;
+		mInitialBackoffMillis = initialBackoffMillis;
+		mMaxBackoffMillis = maxBackoffMillis;
+		mMaxRetryAfterMillis = maxRetryAfterMillis;
+	}
+	
+	public int getMaxAttempts() {
+		return mMaxAttempts;
+	}
+	
+	public long getInitialBackoffMillis() {
+		return mInitialBackoffMillis;
+	}
+	
+	public long getMaxBackoffMillis() {
+		return mMaxBackoffMillis;
+	}
+	
+	public long getMaxRetryAfterMillis() {
+		return mMaxRetryAfterMillis;
+	}
+	
+	/**
+	 * Checks if a response with the given status may succeed if sent again.
+	 * @param statusCode The HTTP status code of the response.
+	 * @return true for throttling, timeout and transient server errors.
+	 */
+	boolean isRetryable(int statusCode) {
+		switch (statusCode) {
+		case 408:
+		case 429:
+		case 500:
+		case 502:
+		case 503:
+		case 504:
+			return true;
+		default:
+			return false;
+		}
+	}
+	
+	/**
+	 * Checks if a request that failed with an exception may succeed if sent
+	 * again.
+	 * @param e The exception thrown while executing the request.
+	 * @return false for protocol and certificate errors, which will happen
+	 * again.
+	 */
+	boolean isRetryable(IOException e) {
+		return !(e instanceof ClientProtocolException) && !(e instanceof SSLPeerUnverifiedException);
+	}
+	
+	/**
+	 * Computes the wait before the next attempt.
+	 * @param attempt The number of the attempt that has just failed, from 1.
+	 * @param retryAfterMillis The wait asked by the server, or -1 if none.
+	 * @return The wait in milliseconds, or -1 if the request must not be
+	 * retried.
+	 */
+	long getDelay(int attempt, long retryAfterMillis) {
+		if (attempt >= mMaxAttempts) {
+			return -1;
+		}
+		if (retryAfterMillis >= 0) {
+			return retryAfterMillis <= mMaxRetryAfterMillis ? retryAfterMillis : -1;
+		}
+		long backoff = mInitialBackoffMillis << Math.min(attempt - 1, 30);
+		if (backoff > mMaxBackoffMillis || backoff < 0) {
+			backoff = mMaxBackoffMillis;
+		}
+		// Wait between half and the whole backoff
+		long half = backoff / 2;
+		synchronized (sJitter) {
+			return half + (long) (sJitter.nextDouble() * (backoff - half));
+		}
+	}
+	
+	/**
+	 * Parses a Retry-After header, given either as seconds or as a date.
+	 * @param header The header, may be null.
+	 * @return The wait in milliseconds, or -1 if the header is missing or
+	 * malformed.
+	 */
+	static long parseRetryAfter(Header header) {
+		if (null == header || null == header.getValue()) {
+			return -1;
+		}
+		String value = header.getValue().trim();
+		try {
+			long seconds = Long.parseLong(value);
+			return seconds >= 0 ? seconds * 1000 : -1;
+		} catch (NumberFormatException e) {
+			// Not seconds, try a date
+		}
+		try {
+			long wait = DateUtils.parseDate(value).getTime() - System.currentTimeMillis();
+			return Math.max(wait, 0);
+		} catch (DateParseException e) {
+			return -1;
+		}
+	}
+}
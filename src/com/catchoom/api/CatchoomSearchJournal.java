@@ -0,0 +1,478 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.UnsupportedEncodingException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import android.util.Log;
+
+/**
+ * CatchoomSearchJournal stores pending searches in an append-only file. Each
+ * record holds the collection token, the search options and the encoded query
+ * image, framed by its length and a CRC32 of its content. The file header
+ * keeps the offset of the first live record: removing records only moves it
+ * forward, and the file is compacted once most of it is dead.
+ * <p>
+ * Records are read through a memory mapping of the file, and their offsets
+ * are kept in a compact in-memory index. When opened, the journal scans the
+ * records from the head and truncates the file at the first one that is
+ * incomplete or corrupted, as left by a crash in the middle of an append.
+ * The file is kept below a size limit by evicting the oldest records.
+ * @author Catchoom
+ *
+ */
+final class CatchoomSearchJournal {
+
+	/**
+	 * A pending search read from the journal.
+	 */
+	static final class Record {
+		
+		final long mSequence;
+		final String mToken;
+		final CatchoomSearchOptions mOptions;
+		final ByteArrayOutputStream mImage;
+		
+		Record(long sequence, String token, CatchoomSearchOptions options, ByteArrayOutputStream image) {
+			mSequence = sequence;
+			mToken = token;
+			mOptions = options;
+			mImage = image;
+		}
+	}
+	
+	private static final int FILE_MAGIC = 0x43514a31; // "CQJ1"
+	private static final int VERSION = 1;
+	// Magic, version, head offset and its CRC
+	private static final int HEADER_SIZE = 20;
+	private static final int RECORD_MAGIC = 0x52454331; // "REC1"
+	// Magic, payload length and payload CRC
+	private static final int RECORD_HEADER_SIZE = 12;
+	private static final int MAX_PAYLOAD_SIZE = 16 * 1024 * 1024;
+	// Dead bytes tolerated before compacting
+	private static final long COMPACTION_THRESHOLD = 64 * 1024;
+	private static final int COPY_BUFFER_SIZE = 8192;
+	private static final String CHARSET = "UTF-8";
+	
+	private final File mFile;
+	private final long mMaxBytes;
+	private RandomAccessFile mRaf;
+	private FileChannel mChannel;
+	private long mHead;
+	private long mEnd;
+	// Record i of the index has sequence mBaseSequence + i, live from mStart
+	private long[] mOffsets = new long[16];
+	private int[] mLengths = new int[16];
+	private int mStart = 0;
+	private int mCount = 0;
+	private long mBaseSequence = 0;
+	private long mEvictionCount = 0;
+	
+	/**
+	 * Opens a journal, creating it if it does not exist and recovering the
+	 * records it holds.
+	 * @param file The journal file.
+	 * @param maxBytes Maximum size of the file.
+	 * @throws IOException If the file cannot be opened.
+	 */
+	CatchoomSearchJournal(File file, long maxBytes) throws IOException {
+		mFile = file;
+		mMaxBytes = maxBytes;
+		open();
+	}
+	
+	/**
+	 * Gets the sequence number of the oldest record.
+	 * @return The first sequence.
+	 */
+	synchronized long getFirstSequence() {
+		return mBaseSequence + mStart;
+	}
+	
+	/**
+	 * Gets the sequence number the next appended record will have.
+	 * @return The end sequence, exclusive.
+	 */
+	synchronized long getEndSequence() {
+		return mBaseSequence + mCount;
+	}
+	
+	synchronized int size() {
+		return mCount - mStart;
+	}
+	
+	synchronized long getSizeBytes() {
+		return mEnd;
+	}
+	
+	synchronized long getEvictionCount() {
+		return mEvictionCount;
+	}
+	
+	/**
+	 * Appends a search, evicting the oldest records if the file would exceed
+	 * its size limit.
+	 * @param token The collection token.
+	 * @param options The search options.
+	 * @param image The encoded query image.
+	 * @return The sequence of the record, or -1 if it is larger than the
+	 * whole journal may be.
+	 * @throws IOException If the record cannot be written.
+	 */
+	synchronized long append(String token, CatchoomSearchOptions options, ByteArrayOutputStream image)
+			throws IOException {
+		byte[] tokenBytes = encode(token);
+		int metaSize = 4 + 4 + 2 + tokenBytes.length;
+		long payloadSize = (long) metaSize + image.size();
+		long recordSize = RECORD_HEADER_SIZE + payloadSize;
+		if (payloadSize > MAX_PAYLOAD_SIZE || HEADER_SIZE + recordSize > mMaxBytes) {
+			return -1;
+		}
+		
+		if (mEnd + recordSize > mMaxBytes) {
+			// Evict the oldest records until the new one fits once compacted
+			int evicted = 0;
+			long live = mEnd - mHead;
+			while (mStart + evicted < mCount && HEADER_SIZE + live + recordSize > mMaxBytes) {
+				live -= RECORD_HEADER_SIZE + mLengths[mStart + evicted];
+				evicted++;
+			}
+			if (evicted > 0) {
+				Log.w(Catchoom.TAG, "Offline queue full, dropping the " + evicted + " oldest searches");
+				mEvictionCount += evicted;
+				removeFirst(evicted);
+			}
+			compact();
+		}
+		
+		ByteBuffer meta = ByteBuffer.allocate(RECORD_HEADER_SIZE + metaSize);
+		meta.putInt(RECORD_MAGIC);
+		meta.putInt((int) payloadSize);
+		meta.putInt(0);
+		meta.putInt(options.getMaxResults());
+		meta.putInt(options.getMinScore());
+		meta.putShort((short) tokenBytes.length);
+		meta.put(tokenBytes);
+		
+		CRC32 crc = new CRC32();
+		crc.update(meta.array(), RECORD_HEADER_SIZE, metaSize);
+		image.writeTo(new ChecksumOutput(crc));
+		meta.putInt(8, (int) crc.getValue());
+		meta.flip();
+		
+		long offset = mEnd;
+		writeFully(meta, offset);
+		image.writeTo(new PositionedOutput(offset + meta.limit()));
+		mChannel.force(false);
+		
+		mEnd = offset + recordSize;
+		return addToIndex(offset, (int) payloadSize);
+	}
+	
+	/**
+	 * Reads a record.
+	 * @param sequence The sequence of the record.
+	 * @return The record, or null if it has been removed.
+	 * @throws IOException If the record cannot be read.
+	 */
+	synchronized Record read(long sequence) throws IOException {
+		long index = sequence - mBaseSequence;
+		if (index < mStart || index >= mCount) {
+			return null;
+		}
+		long offset = mOffsets[(int) index];
+		int length = mLengths[(int) index];
+		MappedByteBuffer payload = mChannel.map(FileChannel.MapMode.READ_ONLY,
+				offset + RECORD_HEADER_SIZE, length);
+		
+		int maxResults = payload.getInt();
+		int minScore = payload.getInt();
+		byte[] tokenBytes = new byte[payload.getShort() & 0xffff];
+		payload.get(tokenBytes);
+		
+		ByteArrayOutputStream image = new ByteArrayOutputStream(payload.remaining());
+		byte[] buffer = new byte[Math.min(COPY_BUFFER_SIZE, Math.max(payload.remaining(), 1))];
+		while (payload.hasRemaining()) {
+			int count = Math.min(buffer.length, payload.remaining());
+			payload.get(buffer, 0, count);
+			image.write(buffer, 0, count);
+		}
+		return new Record(sequence, new String(tokenBytes, CHARSET),
+				new CatchoomSearchOptions(maxResults, minScore), image);
+	}
+	
+	/**
+	 * Removes the oldest records.
+	 * @param count The number of records to remove.
+	 * @throws IOException If the head cannot be moved.
+	 */
+	synchronized void removeFirst(int count) throws IOException {
+		count = Math.min(count, mCount - mStart);
+		if (count <= 0) {
+			return;
+		}
+		mStart += count;
+		mHead = mStart < mCount ? mOffsets[mStart] : mEnd;
+		writeHeader(mHead);
+		
+		if (mHead - HEADER_SIZE >= COMPACTION_THRESHOLD && mHead - HEADER_SIZE >= mEnd - mHead) {
+			compact();
+		}
+	}
+	
+	/**
+	 * Removes all the records.
+	 * @throws IOException If the journal cannot be reset.
+	 */
+	synchronized void clear() throws IOException {
+		removeFirst(mCount - mStart);
+		compact();
+	}
+	
+	/**
+	 * Closes the journal file.
+	 * @throws IOException If the file cannot be closed.
+	 */
+	synchronized void close() throws IOException {
+		mRaf.close();
+	}
+	
+	/**
+	 * Opens the file and rebuilds the index of the live records.
+	 */
+	private void open() throws IOException {
+		mRaf = new RandomAccessFile(mFile, "rw");
+		mChannel = mRaf.getChannel();
+		mStart = 0;
+		mCount = 0;
+		
+		long length = mChannel.size();
+		if (length < HEADER_SIZE || !readHeader()) {
+			if (length > 0) {
+				Log.w(Catchoom.TAG, "Offline queue journal header corrupted, discarding it");
+			}
+			mChannel.truncate(0);
+			mHead = HEADER_SIZE;
+			mEnd = HEADER_SIZE;
+			writeHeader(mHead);
+			return;
+		}
+		
+		long validEnd = mHead;
+		if (length > mHead) {
+			MappedByteBuffer journal = mChannel.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			CRC32 crc = new CRC32();
+			byte[] buffer = new byte[COPY_BUFFER_SIZE];
+			long offset = mHead;
+			while (offset + RECORD_HEADER_SIZE <= length) {
+				journal.position((int) offset);
+				int magic = journal.getInt();
+				int payloadSize = journal.getInt();
+				int expectedCrc = journal.getInt();
+				if (RECORD_MAGIC != magic || payloadSize < 10 || payloadSize > MAX_PAYLOAD_SIZE
+						|| offset + RECORD_HEADER_SIZE + payloadSize > length) {
+					break;
+				}
+				crc.reset();
+				for (int remaining = payloadSize; remaining > 0;) {
+					int count = Math.min(buffer.length, remaining);
+					journal.get(buffer, 0, count);
+					crc.update(buffer, 0, count);
+					remaining -= count;
+				}
+				if ((int) crc.getValue() != expectedCrc) {
+					break;
+				}
+				addToIndex(offset, payloadSize);
+				offset += RECORD_HEADER_SIZE + payloadSize;
+			}
+			validEnd = offset;
+		}
+		
+		if (validEnd < length) {
+			Log.w(Catchoom.TAG, "Offline queue journal truncated after an incomplete record");
+			mChannel.truncate(validEnd);
+			mChannel.force(false);
+		}
+		mEnd = validEnd;
+	}
+	
+	/**
+	 * Rewrites the journal without the removed records.
+	 */
+	private void compact() throws IOException {
+		if (mHead == HEADER_SIZE) {
+			return;
+		}
+		long shift = mHead - HEADER_SIZE;
+		if (mHead == mEnd) {
+			// Nothing live, just reset the file
+			mChannel.truncate(HEADER_SIZE);
+		} else {
+			File compacted = new File(mFile.getPath() + ".tmp");
+			RandomAccessFile raf = new RandomAccessFile(compacted, "rw");
+			try {
+				FileChannel channel = raf.getChannel();
+				channel.truncate(0);
+				ByteBuffer header = createHeader(HEADER_SIZE);
+				while (header.hasRemaining()) {
+					channel.write(header);
+				}
+				for (long position = mHead; position < mEnd;) {
+					position += mChannel.transferTo(position, mEnd - position, channel);
+				}
+				channel.force(true);
+			} finally {
+				raf.close();
+			}
+			mRaf.close();
+			boolean renamed = compacted.renameTo(mFile);
+			mRaf = new RandomAccessFile(mFile, "rw");
+			mChannel = mRaf.getChannel();
+			if (!renamed) {
+				compacted.delete();
+				throw new IOException("Unable to replace " + mFile);
+			}
+		}
+		
+		int live = mCount - mStart;
+		for (int i = 0; i < live; i++) {
+			mOffsets[i] = mOffsets[mStart + i] - shift;
+			mLengths[i] = mLengths[mStart + i];
+		}
+		mBaseSequence += mStart;
+		mStart = 0;
+		mCount = live;
+		mHead = HEADER_SIZE;
+		mEnd -= shift;
+		writeHeader(mHead);
+	}
+	
+	private long addToIndex(long offset, int length) {
+		if (mCount == mOffsets.length) {
+			int live = mCount - mStart;
+			int capacity = live * 2 > mOffsets.length ? mOffsets.length * 2 : mOffsets.length;
+			long[] offsets = new long[capacity];
+			int[] lengths = new int[capacity];
+			System.arraycopy(mOffsets, mStart, offsets, 0, live);
+			System.arraycopy(mLengths, mStart, lengths, 0, live);
+			mOffsets = offsets;
+			mLengths = lengths;
+			mBaseSequence += mStart;
+			mStart = 0;
+			mCount = live;
+		}
+		mOffsets[mCount] = offset;
+		mLengths[mCount] = length;
+		return mBaseSequence + mCount++;
+	}
+	
+	private boolean readHeader() throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		while (header.hasRemaining()) {
+			if (mChannel.read(header, header.position()) < 0) {
+				return false;
+			}
+		}
+		header.flip();
+		if (FILE_MAGIC != header.getInt() || VERSION != header.getInt()) {
+			return false;
+		}
+		long head = header.getLong();
+		CRC32 crc = new CRC32();
+		crc.update(header.array(), 8, 8);
+		if ((int) crc.getValue() != header.getInt() || head < HEADER_SIZE || head > mChannel.size()) {
+			return false;
+		}
+		mHead = head;
+		return true;
+	}
+	
+	private void writeHeader(long head) throws IOException {
+		writeFully(createHeader(head), 0);
+		mChannel.force(false);
+	}
+	
+	private static ByteBuffer createHeader(long head) {
+		ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+		header.putInt(FILE_MAGIC);
+		header.putInt(VERSION);
+		header.putLong(head);
+		CRC32 crc = new CRC32();
+		crc.update(header.array(), 8, 8);
+		header.putInt((int) crc.getValue());
+		header.flip();
+		return header;
+	}
+	
+	private void writeFully(ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining()) {
+			position += mChannel.write(buffer, position);
+		}
+	}
+	
+	private static byte[] encode(String token) throws UnsupportedEncodingException {
+		byte[] bytes = token.getBytes(CHARSET);
+		if (bytes.length > 0xffff) {
+			throw new IllegalArgumentException("Token too long");
+		}
+		return bytes;
+	}
+	
+	/**
+	 * Output stream updating a checksum with the bytes written to it.
+	 */
+	private static final class ChecksumOutput extends OutputStream {
+		
+		private final CRC32 mCrc;
+		
+		ChecksumOutput(CRC32 crc) {
+			mCrc = crc;
+		}
+		
+		@Override
+		public void write(int b) {
+			mCrc.update(b);
+		}
+		
+		@Override
+		public void write(byte[] buffer, int offset, int count) {
+			mCrc.update(buffer, offset, count);
+		}
+	}
+	
+	/**
+	 * Output stream writing to the journal from a given position.
+	 */
+	private final class PositionedOutput extends OutputStream {
+		
+		private long mPosition;
+		
+		PositionedOutput(long position) {
+			mPosition = position;
+		}
+		
+		@Override
+		public void write(int b) throws IOException {
+			write(new byte[] { (byte) b }, 0, 1);
+		}
+		
+		@Override
+		public void write(byte[] buffer, int offset, int count) throws IOException {
+			ByteBuffer bytes = ByteBuffer.wrap(buffer, offset, count);
+			writeFully(bytes, mPosition);
+			mPosition += count;
+		}
+	}
+}
@@ -0,0 +1,181 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.util.Arrays;
+
+/**
+ * CatchoomSearchMetrics describes where the time of a search went. It holds
+ * the duration of each stage, the sizes of the request and response bodies,
+ * whether the request reused a pooled connection and how many times it was
+ * sent. Stages that did not run, for instance the upload of a search answered
+ * from the {@link CatchoomResultCache}, have no duration.
+ * @author Catchoom
+ *
+ */
+public class CatchoomSearchMetrics {
+
+	/**
+	 * The stages of a search, in the order they run.
+	 */
+	public enum Stage {
+		/** Decoding the image file. */
+		DECODE,
+		/** Scaling the image, and hashing it if a result cache is set. */
+		SCALE,
+		/** Compressing the image to JPEG. */
+		ENCODE,
+		/** Sending the request body. */
+		UPLOAD,
+		/** Waiting for the server, from the end of the upload to the response headers. */
+		TIME_TO_FIRST_BYTE,
+		/** Reading and parsing the response. */
+		PARSE
+	}
+	
+	private final long[] mStageNanos = new long[Stage.values().length];
+	private long mRequestBytes = -1;
+	private long mResponseBytes = -1;
+	private boolean mConnectionReused = false;
+	private int mAttemptCount = 0;
+	private boolean mHedged = false;
+	private boolean mCacheHit = false;
+	private boolean mSucceeded = false;
+	private int mPictureSize = 0;
+	private int mPictureQuality = 0;
+	
+	CatchoomSearchMetrics() {
+		Arrays.fill(mStageNanos, -1);
+	}
+	
+	/**
+	 * Gets the duration of a stage. If the request was sent several times,
+	 * the network stages are those of the last attempt.
+	 * @param stage The stage.
+	 * @return The duration in nanoseconds, or -1 if the stage did not run.
+	 */
+	public long getStageNanos(Stage stage) {
+		return mStageNanos[stage.ordinal()];
+	}
+	
+	/**
+	 * Gets the size of the request body.
+	 * @return The size in bytes, or -1 if no request was sent.
+	 */
+	public long getRequestBytes() {
+		return mRequestBytes;
+	}
+	
+	/**
+	 * Gets the size of the response body.
+	 * @return The size in bytes, or -1 if no response was read.
+	 */
+	public long getResponseBytes() {
+		return mResponseBytes;
+	}
+	
+	/**
+	 * Checks if the request was sent over a connection already used by a
+	 * previous request.
+	 * @return true if the connection was reused.
+	 */
+	public boolean isConnectionReused() {
+		return mConnectionReused;
+	}
+	
+	/**
+	 * Gets the number of times the request was sent.
+	 * @return The attempt count, 0 if no request was sent.
+	 */
+	public int getAttemptCount() {
+		return mAttemptCount;
+	}
+	
+	/**
+	 * Gets the number of times the request was sent again after a failure.
+	 * @return The retry count.
+	 */
+	public int getRetryCount() {
+		return Math.max(mAttemptCount - 1, 0);
+	}
+	
+	/**
+	 * Checks if the response came from a hedge request, in which case the
+	 * network stages are not measured.
+	 * @return true if a hedge request answered first.
+	 */
+	public boolean isHedged() {
+		return mHedged;
+	}
+	
+	/**
+	 * Checks if the search was answered from the result cache.
+	 * @return true on a cache hit.
+	 */
+	public boolean isCacheHit() {
+		return mCacheHit;
+	}
+	
+	/**
+	 * Checks if the search delivered results.
+	 * @return true if the search succeeded.
+	 */
+	public boolean isSucceeded() {
+		return mSucceeded;
+	}
+	
+	/**
+	 * Gets the shortest edge the query image was scaled to.
+	 * @return The size in pixels.
+	 */
+	public int getPictureSize() {
+		return mPictureSize;
+	}
+	
+	/**
+	 * Gets the JPEG quality the query image was compressed with.
+	 * @return The quality, from 1 to 100.
+	 */
+	public int getPictureQuality() {
+		return mPictureQuality;
+	}
+	
+	void setStageNanos(Stage stage, long nanos) {
+		mStageNanos[stage.ordinal()] = nanos;
+	}
+	
+	void setRequestBytes(long requestBytes) {
+		mRequestBytes = requestBytes;
+	}
+	
+	void setResponseBytes(long responseBytes) {
+		mResponseBytes = responseBytes;
+	}
+	
+	void setConnectionReused(boolean connectionReused) {
+		mConnectionReused = connectionReused;
+	}
+	
+	void setAttemptCount(int attemptCount) {
+		mAttemptCount = attemptCount;
+	}
+	
+	void setHedged(boolean hedged) {
+		mHedged = hedged;
+	}
+	
+	void setCacheHit(boolean cacheHit) {
+		mCacheHit = cacheHit;
+	}
+	
+	void setSucceeded(boolean succeeded) {
+		mSucceeded = succeeded;
+	}
+	
+	void setPicture(int pictureSize, int pictureQuality) {
+		mPictureSize = pictureSize;
+		mPictureQuality = pictureQuality;
+	}
+}
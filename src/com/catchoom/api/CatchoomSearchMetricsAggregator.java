@@ -0,0 +1,112 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * CatchoomSearchMetricsAggregator keeps a {@link CatchoomLatencyHistogram} of
+ * the duration of each search stage, so their percentiles can be reported, and
+ * counts the searches, retries and reused connections. It is lock-free and
+ * can be read while searches are being recorded.
+ * @author Catchoom
+ *
+ */
+public class CatchoomSearchMetricsAggregator implements CatchoomSearchMetricsListener {
+
+	private final CatchoomLatencyHistogram[] mStages;
+	private final AtomicLong mSearchCount = new AtomicLong();
+	private final AtomicLong mRequestCount = new AtomicLong();
+	private final AtomicLong mRetryCount = new AtomicLong();
+	private final AtomicLong mReusedConnectionCount = new AtomicLong();
+	private final AtomicLong mCacheHitCount = new AtomicLong();
+	
+	public CatchoomSearchMetricsAggregator() {
+		CatchoomSearchMetrics.Stage[] stages = CatchoomSearchMetrics.Stage.values();
+		mStages = new CatchoomLatencyHistogram[stages.length];
+		for (int i = 0; i < stages.length; i++) {
+			mStages[i] = new CatchoomLatencyHistogram();
+		}
+	}
+	
+	public void onSearchMetrics(CatchoomSearchMetrics metrics) {
+		mSearchCount.incrementAndGet();
+		for (CatchoomSearchMetrics.Stage stage : CatchoomSearchMetrics.Stage.values()) {
+			long nanos = metrics.getStageNanos(stage);
+			if (nanos >= 0) {
+				mStages[stage.ordinal()].record(nanos / 1000);
+			}
+		}
+		if (metrics.getAttemptCount() > 0) {
+			mRequestCount.incrementAndGet();
+			mRetryCount.addAndGet(metrics.getRetryCount());
+			if (metrics.isConnectionReused()) {
+				mReusedConnectionCount.incrementAndGet();
+			}
+		}
+		if (metrics.isCacheHit()) {
+			mCacheHitCount.incrementAndGet();
+		}
+	}
+	
+	/**
+	 * Gets a percentile of the duration of a stage.
+	 * @param stage The stage.
+	 * @param percentile The percentile, from 0 to 100, for instance 50, 95 or
+	 * 99.
+	 * @return The duration in microseconds, within 25%, or -1 if the stage
+	 * has not run yet.
+	 */
+	public long getPercentileMicros(CatchoomSearchMetrics.Stage stage, double percentile) {
+		return mStages[stage.ordinal()].getPercentile(percentile);
+	}
+	
+	/**
+	 * Gets the histogram of the duration of a stage.
+	 * @param stage The stage.
+	 * @return The histogram, in microseconds.
+	 */
+	public CatchoomLatencyHistogram getHistogram(CatchoomSearchMetrics.Stage stage) {
+		return mStages[stage.ordinal()];
+	}
+	
+	public long getSearchCount() {
+		return mSearchCount.get();
+	}
+	
+	/**
+	 * Gets the number of searches that sent a request to the server.
+	 * @return The request count.
+	 */
+	public long getRequestCount() {
+		return mRequestCount.get();
+	}
+	
+	public long getRetryCount() {
+		return mRetryCount.get();
+	}
+	
+	public long getReusedConnectionCount() {
+		return mReusedConnectionCount.get();
+	}
+	
+	public long getCacheHitCount() {
+		return mCacheHitCount.get();
+	}
+	
+	/**
+	 * Forgets all the recorded metrics.
+	 */
+	public void reset() {
+		for (CatchoomLatencyHistogram histogram : mStages) {
+			histogram.reset();
+		}
+		mSearchCount.set(0);
+		mRequestCount.set(0);
+		mRetryCount.set(0);
+		mReusedConnectionCount.set(0);
+		mCacheHitCount.set(0);
+	}
+}
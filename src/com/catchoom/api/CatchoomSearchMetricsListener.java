@@ -0,0 +1,23 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+/**
+ * CatchoomSearchMetricsListener receives the {@link CatchoomSearchMetrics} of
+ * every search performed by a {@link Catchoom} object. It is called from a
+ * background thread right before the outcome of the search is delivered, so
+ * it must return quickly. A {@link CatchoomSearchMetricsAggregator} can be used
+ * to get percentiles of the stage durations.
+ * @author Catchoom
+ *
+ */
+public interface CatchoomSearchMetricsListener {
+
+	/**
+	 * Called once a search has finished.
+	 * @param metrics The metrics of the search.
+	 */
+	void onSearchMetrics(CatchoomSearchMetrics metrics);
+}
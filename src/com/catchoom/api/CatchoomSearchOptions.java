@@ -0,0 +1,68 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+/**
+ * CatchoomSearchOptions limits the results delivered by a search. Results are
+ * filtered while the server response is parsed, so the ones left out are never
+ * fully decoded.
+ * @author Catchoom
+ *
+ */
+public class CatchoomSearchOptions {
+	
+	/** Value of maxResults meaning that all the results are delivered. */
+	public static final int ALL_RESULTS = 0;
+	
+	/** Options delivering all the results, whatever their score. */
+	public static final CatchoomSearchOptions DEFAULT = new CatchoomSearchOptions(ALL_RESULTS, Integer.MIN_VALUE);
+	
+	private final int maxResults;
+	private final int minScore;
+	
+	/**
+	 * Creates search options.
+	 * @param maxResults Maximum number of results delivered, the ones with the
+	 * highest score, or {@link #ALL_RESULTS}.
+	 * @param minScore Minimum score of the results delivered.
+	 */
+	public CatchoomSearchOptions(int maxResults, int minScore) {
+		if (maxResults < 0) {
+			throw new IllegalArgumentException("Maximum number of results may not be negative");
+		}
+		this.maxResults = maxResults;
+		this.minScore = minScore;
+	}
+	
+	/**
+	 * Gets the maximum number of results delivered.
+	 * @return The maximum number of results, or {@link #ALL_RESULTS}.
+	 */
+	public int getMaxResults() {
+		return maxResults;
+	}
+	
+	/**
+	 * Gets the minimum score of the results delivered.
+	 * @return The minimum score.
+	 */
+	public int getMinScore() {
+		return minScore;
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (!(o instanceof CatchoomSearchOptions)) {
+			return false;
+		}
+		CatchoomSearchOptions other = (CatchoomSearchOptions) o;
+		return maxResults == other.maxResults && minScore == other.minScore;
+	}
+	
+	@Override
+	public int hashCode() {
+		return 31 * maxResults + minScore;
+	}
+}
@@ -4,10 +4,7 @@
 // All warranties and liabilities are disclaimed.
 package com.catchoom.api;
 
-import java.util.Iterator;
-
-import org.json.JSONException;
-import org.json.JSONObject;
+import java.io.IOException;
 
 import android.os.Bundle;
 
@@ -21,9 +18,10 @@ public class CatchoomSearchResponseItem {
 
 	private String itemId = "";
 	private int score = -1;
-	private Bundle metadata = null;
+	private CatchoomMetadata metadata = null;
+	private Bundle metadataBundle = null;
 	
-	CatchoomSearchResponseItem(String item_id, int score, Bundle metadata) {
+	CatchoomSearchResponseItem(String item_id, int score, CatchoomMetadata metadata) {
 		this.itemId = item_id;
 		this.score = score;
 		this.metadata = metadata;
@@ -46,46 +44,105 @@ public class CatchoomSearchResponseItem {
 	}
 	
 	/**
-	 * Gets the item's metadata as a {@link Bundle}.
+	 * Gets the item's metadata as a {@link Bundle}. Every value is stored as a
+	 * string; use {@link #getMetadataView()} to read numbers, booleans and
+	 * nested objects with their own type.
+	 * @return The item's metadata.
+	 */
+	public synchronized Bundle getMetadata() {
+		if (null == metadataBundle) {
+			Bundle bundle = new Bundle();
+			for (String key : metadata.keySet()) {
+				bundle.putString(key, metadata.getString(key));
+			}
+			metadataBundle = bundle;
+		}
+		return metadataBundle;
+	}
+	
+	/**
+	 * Gets the item's metadata as a {@link CatchoomMetadata}, decoded on the
+	 * first access and giving typed access to its values.
 	 * @return The item's metadata.
 	 */
-	public Bundle getMetadata() {
+	public CatchoomMetadata getMetadataView() {
 		return metadata;
 	}
 	
 	/**
-	 * Parse a {@link CatchoomSearchResponseItem} from a {@link JSONObject}.  
-	 * @param json The json to parse.
-	 * @return The {@link CatchoomSearchResponseItem} parsed.
+	 * Parse a {@link CatchoomSearchResponseItem} from the JSON object the
+	 * reader is positioned on. The whole object is consumed, but if the score
+	 * comes first and is too low the rest of the item is skipped undecoded.
+	 * @param reader The reader of the search response.
+	 * @param minScore The minimum score of the items wanted.
+	 * @return The {@link CatchoomSearchResponseItem} parsed, or null if it has
+	 * no id, no valid score, no metadata object or a score below minScore.
+	 * @throws IOException If the response cannot be read or is malformed.
 	 */
-	static CatchoomSearchResponseItem parseFromJSON(JSONObject json) {
+	static CatchoomSearchResponseItem parseFromJSON(CatchoomJsonReader reader, int minScore) throws IOException {
+		String parsedItemId = null;
+		int parsedScore = -1;
+		boolean hasScore = false;
+		boolean discarded = false;
+		String parsedMetadata = null;
 		
-		try {
+		reader.beginObject();
+		while (reader.hasNext()) {
+			String name = reader.nextName();
 			
-			if (json.has("item_id") && json.has("score")) {
-				String parsedItemId = json.getString("item_id");
-				int parsedScore = json.getInt("score");
-				
-				JSONObject rawMetadata = json.getJSONObject("metadata");
-				Bundle parsedMetadata = new Bundle();
-				
-				if (null != rawMetadata) {
-					Iterator<?> metadataKeys = rawMetadata.keys();
-					
-					while (metadataKeys.hasNext()) {
-						String key = (String) metadataKeys.next();
-						parsedMetadata.putString(key, rawMetadata.getString(key));
+			if (discarded) {
+				reader.skipValue();
+			} else if ("item_id".equals(name)) {
+				parsedItemId = readString(reader);
+			} else if ("score".equals(name)) {
+				CatchoomJsonReader.Token token = reader.peek();
+				if (CatchoomJsonReader.Token.NUMBER == token || CatchoomJsonReader.Token.STRING == token) {
+					try {
+						parsedScore = reader.nextInt();
+						hasScore = true;
+						discarded = parsedScore < minScore;
+					} catch (IOException e) {
+						// Not a number, the item will be skipped
+						hasScore = false;
 					}
+				} else {
+					reader.skipValue();
 				}
-			
-				return new CatchoomSearchResponseItem(parsedItemId, parsedScore, parsedMetadata);
+			} else if ("metadata".equals(name) && CatchoomJsonReader.Token.BEGIN_OBJECT == reader.peek()) {
+				// Kept as text, decoded when the application reads it
+				parsedMetadata = reader.nextRawValue();
 			} else {
-				return null;
+				reader.skipValue();
 			}
-		} catch (JSONException e) {
-			e.printStackTrace();
 		}
+		reader.endObject();
 		
-		return null;
+		if (null != parsedItemId && hasScore && null != parsedMetadata && !discarded) {
+			return new CatchoomSearchResponseItem(parsedItemId, parsedScore, new CatchoomMetadata(parsedMetadata));
+		} else {
+			return null;
+		}
+	}
+	
+	/**
+	 * Reads the next value as a string, the way {@link org.json.JSONObject#getString(String)}
+	 * converts it: nested arrays and objects are returned as JSON text.
+	 * @param reader The reader of the search response.
+	 * @return The string value.
+	 * @throws IOException If the response cannot be read or is malformed.
+	 */
+	private static String readString(CatchoomJsonReader reader) throws IOException {
+		switch (reader.peek()) {
+		case STRING:
+		case NUMBER:
+			return reader.nextString();
+		case BOOLEAN:
+			return String.valueOf(reader.nextBoolean());
+		case NULL:
+			reader.nextNull();
+			return "null";
+		default:
+			return reader.nextRawValue();
+		}
 	}
 }
@@ -0,0 +1,136 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.util.EntityUtils;
+
+/**
+ * CatchoomSearchResponseParser builds the {@link CatchoomSearchResponseItem}s
+ * of a search response in a single pass over the response stream.
+ * @author Catchoom
+ *
+ */
+final class CatchoomSearchResponseParser {
+	
+	private static final String DEFAULT_CHARSET = "UTF-8";
+	
+	private CatchoomSearchResponseParser() {
+	}
+	
+	/**
+	 * Parses the body of a successful search response. The entity content is
+	 * consumed and closed.
+	 * @param entity The response entity.
+	 * @param options The limits applied to the results.
+	 * @return The items found, without the ones lacking an id, a score or
+	 * their metadata, sorted by descending score.
+	 * @throws IOException If the response cannot be read or is malformed.
+	 */
+	static ArrayList<CatchoomSearchResponseItem> parse(HttpEntity entity, CatchoomSearchOptions options) throws IOException {
+		String charset = EntityUtils.getContentCharSet(entity);
+		if (null == charset) {
+			charset = DEFAULT_CHARSET;
+		}
+		
+		InputStream in = entity.getContent();
+		try {
+			return parse(new InputStreamReader(in, charset), options);
+		} finally {
+			in.close();
+		}
+	}
+	
+	/**
+	 * Parses a search response document. While the best results are kept in a
+	 * heap bounded by the maximum number of results, an item is only fully
+	 * parsed if its score can still get it in.
+	 * @param in The JSON document, an array of items.
+	 * @param options The limits applied to the results.
+	 * @return The items found, without the ones lacking an id, a score or
+	 * their metadata, sorted by descending score. Items with the same score
+	 * keep the server order.
+	 * @throws IOException If the document cannot be read or is malformed.
+	 */
+	static ArrayList<CatchoomSearchResponseItem> parse(Reader in, CatchoomSearchOptions options) throws IOException {
+		CatchoomJsonReader reader = new CatchoomJsonReader(in);
+		int maxResults = options.getMaxResults();
+		boolean bounded = CatchoomSearchOptions.ALL_RESULTS != maxResults;
+		PriorityQueue<RankedItem> best = new PriorityQueue<RankedItem>(bounded ? maxResults + 1 : 16, WORST_FIRST);
+		int index = 0;
+		
+		reader.beginArray();
+		while (reader.hasNext()) {
+			if (CatchoomJsonReader.Token.BEGIN_OBJECT != reader.peek()) {
+				reader.skipValue();
+				continue;
+			}
+			
+			int minScore = options.getMinScore();
+			if (bounded && best.size() == maxResults) {
+				// Only items beating the worst kept one can get in
+				int worstScore = best.peek().mItem.getScore();
+				if (worstScore < Integer.MAX_VALUE) {
+					minScore = Math.max(minScore, worstScore + 1);
+				}
+			}
+			
+			CatchoomSearchResponseItem parsedItem = CatchoomSearchResponseItem.parseFromJSON(reader, minScore);
+			if (null != parsedItem) {
+				best.add(new RankedItem(parsedItem, index++));
+				if (bounded && best.size() > maxResults) {
+					best.poll();
+				}
+			}
+		}
+		reader.endArray();
+		
+		ArrayList<RankedItem> ranked = new ArrayList<RankedItem>(best);
+		Collections.sort(ranked, Collections.reverseOrder(WORST_FIRST));
+		ArrayList<CatchoomSearchResponseItem> items = new ArrayList<CatchoomSearchResponseItem>(ranked.size());
+		for (RankedItem rankedItem : ranked) {
+			items.add(rankedItem.mItem);
+		}
+		return items;
+	}
+	
+	/**
+	 * Orders items by ascending score and, for the same score, by descending
+	 * position in the response.
+	 */
+	private static final Comparator<RankedItem> WORST_FIRST = new Comparator<RankedItem>() {
+		public int compare(RankedItem first, RankedItem second) {
+			int firstScore = first.mItem.getScore();
+			int secondScore = second.mItem.getScore();
+			if (firstScore != secondScore) {
+				return firstScore < secondScore ? -1 : 1;
+			}
+			return first.mIndex > second.mIndex ? -1 : (first.mIndex == second.mIndex ? 0 : 1);
+		}
+	};
+	
+	/**
+	 * Item together with its position in the response.
+	 */
+	private static final class RankedItem {
+		
+		private final CatchoomSearchResponseItem mItem;
+		private final int mIndex;
+		
+		RankedItem(CatchoomSearchResponseItem item, int index) {
+			mItem = item;
+			mIndex = index;
+		}
+	}
+}
@@ -0,0 +1,737 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.http.impl.EnglishReasonPhraseCatalog;
+
+import android.util.Log;
+
+/**
+ * CatchoomStandInServer is a lightweight HTTP server running in the same
+ * process that stands in for the Catchoom Recognition Server, so the client
+ * can be load tested without reaching production. It answers the
+ * <code>timestamp</code> and <code>search</code> requests with canned
+ * responses after checking their parameters, and can be set to delay its
+ * responses, fail, drop or garble a share of them or send large result
+ * lists.
+ * <p>
+ * Point your {@link Catchoom} object to it by passing {@link #getBaseUrl()}
+ * to {@link Catchoom#setBaseUrl(String)}.
+ * @author Catchoom
+ *
+ */
+public class CatchoomStandInServer {
+
+	/**
+	 * Distribution the response delays are drawn from.
+	 */
+	public interface LatencyDistribution {
+
+		/**
+		 * Draws the delay of a response.
+		 * @param random The random generator of the connection.
+		 * @return The delay in milliseconds.
+		 */
+		public long nextDelayMillis(Random random);
+	}
+
+	public static final int DEFAULT_RESULT_COUNT = 1;
+	public static final int DEFAULT_ERROR_STATUS = 503;
+
+	private static final String BASE_PATH = "/v0/";
+	private static final int MAX_LINE_LENGTH = 8192;
+	private static final int MAX_BODY_LENGTH = 16 * 1024 * 1024;
+	private static final String CHARSET = "UTF-8";
+	private static final byte[] MALFORMED_BODY = toBytes("<html><body>Stand-in gateway page</body></html>");
+
+	private final int mRequestedPort;
+	private final Set<Socket> mConnections = new HashSet<Socket>();
+	private final AtomicLong mRequestCount = new AtomicLong();
+	private final AtomicLong mSearchCount = new AtomicLong();
+	private final AtomicLong mErrorCount = new AtomicLong();
+	private final AtomicLong mDropCount = new AtomicLong();
+	private final AtomicLong mMalformedCount = new AtomicLong();
+	private final AtomicLong mBytesReceived = new AtomicLong();
+	private ServerSocket mServerSocket = null;
+	private ExecutorService mConnectionExecutor = null;
+	private volatile LatencyDistribution mTimestampLatency = fixedLatency(0);
+	private volatile LatencyDistribution mSearchLatency = fixedLatency(0);
+	private volatile double mErrorRate = 0;
+	private volatile int mErrorStatus = DEFAULT_ERROR_STATUS;
+	private volatile int mRetryAfterSeconds = -1;
+	private volatile double mDropRate = 0;
+	private volatile double mMalformedRate = 0;
+	private volatile byte[] mSearchResponse;
+
+	/**
+	 * Gets a distribution always giving the same delay.
+	 * @param millis The delay in milliseconds.
+	 * @return The distribution.
+	 */
+	public static LatencyDistribution fixedLatency(final long millis) {
+		if (millis < 0) {
+			throw new IllegalArgumentException("Delay may not be negative");
+		}
+		return new LatencyDistribution() {
+			public long nextDelayMillis(Random random) {
+				return millis;
+			}
+		};
+	}
+
+	/**
+	 * Gets a distribution giving delays evenly spread within a range.
+	 * @param minMillis The shortest delay in milliseconds.
+	 * @param maxMillis The longest delay in milliseconds.
+	 * @return The distribution.
+	 */
+	public static LatencyDistribution uniformLatency(final long minMillis, final long maxMillis) {
+		if (minMillis < 0 || maxMillis < minMillis) {
+			throw new IllegalArgumentException("Invalid delay range");
+		}
+		return new LatencyDistribution() {
+			public long nextDelayMillis(Random random) {
+				return minMillis + (long) (random.nextDouble() * (maxMillis - minMillis));
+			}
+		};
+	}
+
+	/**
+	 * Gets a log-normal distribution, whose long tail resembles the latencies
+	 * of a real server.
+	 * @param medianMillis The median delay in milliseconds.
+	 * @param sigma The standard deviation of the logarithm of the delay, 0.5
+	 * being a moderate tail and 1 a heavy one.
+	 * @return The distribution.
+	 */
+	public static LatencyDistribution logNormalLatency(final long medianMillis, final double sigma) {
+		if (medianMillis < 0 || sigma < 0) {
+			throw new IllegalArgumentException("Median and sigma may not be negative");
+		}
+		return new LatencyDistribution() {
+			public long nextDelayMillis(Random random) {
+				return Math.round(medianMillis * Math.exp(sigma * random.nextGaussian()));
+			}
+		};
+	}
+
+	/**
+	 * Creates a server listening on a free port of the loopback interface.
+	 */
+	public CatchoomStandInServer() {
+		this(0);
+	}
+
+	/**
+	 * Creates a server listening on the loopback interface.
+	 * @param port The port, or 0 to use any free one.
+	 */
+	public CatchoomStandInServer(int port) {
+		if (port < 0 || port > 65535) {
+			throw new IllegalArgumentException("Invalid port " + port);
+		}
+		mRequestedPort = port;
+		setResponseSize(DEFAULT_RESULT_COUNT, 0);
+	}
+
+	/**
+	 * Starts accepting connections.
+	 * @throws IOException If the port cannot be bound.
+	 */
+	public synchronized void start() throws IOException {
+		if (null != mServerSocket) {
+			throw new IllegalStateException("Server already started");
+		}
+		mServerSocket = new ServerSocket(mRequestedPort, 50, InetAddress.getByName("127.0.0.1"));
+		mConnectionExecutor = Executors.newCachedThreadPool(new ConnectionThreadFactory());
+
+		final ServerSocket serverSocket = mServerSocket;
+		final ExecutorService connectionExecutor = mConnectionExecutor;
+		Thread acceptor = new Thread(new Runnable() {
+			public void run() {
+				try {
+					while (true) {
+						final Socket socket = serverSocket.accept();
+						connectionExecutor.execute(new Runnable() {
+							public void run() {
+								serve(socket);
+							}
+						});
+					}
+				} catch (IOException e) {
+					// Server stopped
+				}
+			}
+		}, "Catchoom stand-in server");
+		acceptor.setDaemon(true);
+		acceptor.start();
+	}
+
+	/**
+	 * Stops accepting connections and closes the open ones.
+	 */
+	public synchronized void stop() {
+		if (null == mServerSocket) {
+			return;
+		}
+		closeQuietly(mServerSocket);
+		mServerSocket = null;
+		mConnectionExecutor.shutdown();
+		mConnectionExecutor = null;
+		synchronized (mConnections) {
+			for (Socket socket : mConnections) {
+				closeQuietly(socket);
+			}
+			mConnections.clear();
+		}
+	}
+
+	/**
+	 * Gets the port the server is listening on.
+	 * @return The port.
+	 */
+	public synchronized int getPort() {
+		if (null == mServerSocket) {
+			throw new IllegalStateException("Server not started");
+		}
+		return mServerSocket.getLocalPort();
+	}
+
+	/**
+	 * Gets the base URL to give to {@link Catchoom#setBaseUrl(String)}.
+	 * @return The base URL of the server.
+	 */
+	public String getBaseUrl() {
+		return "http://127.0.0.1:" + getPort() + BASE_PATH;
+	}
+
+	/**
+	 * Sets the delays of the responses. Responses are not delayed by default.
+	 * @param timestampLatency The distribution of the timestamp delays.
+	 * @param searchLatency The distribution of the search delays.
+	 */
+	public void setLatency(LatencyDistribution timestampLatency, LatencyDistribution searchLatency) {
+		if (null == timestampLatency || null == searchLatency) {
+			throw new IllegalArgumentException("Latency distributions may not be null");
+		}
+		mTimestampLatency = timestampLatency;
+		mSearchLatency = searchLatency;
+	}
+
+	/**
+	 * Sets the share of requests answered with an error, after their delay.
+	 * @param errorRate The share of requests failed, from 0 to 1.
+	 * @param status The HTTP status of the errors, such as 500 or 503.
+	 * @param retryAfterSeconds The time announced in the <code>Retry-After</code>
+	 * header of the 429 and 503 errors, or -1 to send no header.
+	 */
+	public void setErrorRate(double errorRate, int status, int retryAfterSeconds) {
+		if (errorRate < 0 || errorRate > 1) {
+			throw new IllegalArgumentException("Error rate must be between 0 and 1");
+		}
+		if (status < 400 || status > 599) {
+			throw new IllegalArgumentException("Invalid error status " + status);
+		}
+		mErrorStatus = status;
+		mRetryAfterSeconds = retryAfterSeconds;
+		mErrorRate = errorRate;
+	}
+
+	/**
+	 * Sets the share of requests whose connection is closed without any
+	 * response, as when the network drops.
+	 * @param dropRate The share of requests dropped, from 0 to 1.
+	 */
+	public void setDropRate(double dropRate) {
+		if (dropRate < 0 || dropRate > 1) {
+			throw new IllegalArgumentException("Drop rate must be between 0 and 1");
+		}
+		mDropRate = dropRate;
+	}
+
+	/**
+	 * Sets the share of requests answered with a 200 status and a body that
+	 * is not JSON, as a captive portal or a broken proxy would.
+	 * @param malformedRate The share of requests garbled, from 0 to 1.
+	 */
+	public void setMalformedRate(double malformedRate) {
+		if (malformedRate < 0 || malformedRate > 1) {
+			throw new IllegalArgumentException("Malformed rate must be between 0 and 1");
+		}
+		mMalformedRate = malformedRate;
+	}
+
+	/**
+	 * Sets the size of the search responses.
+	 * @param resultCount The number of items found by every search.
+	 * @param metadataBytes The approximate size of the metadata of each item.
+	 */
+	public void setResponseSize(int resultCount, int metadataBytes) {
+		if (resultCount < 0 || metadataBytes < 0) {
+			throw new IllegalArgumentException("Response size may not be negative");
+		}
+		StringBuilder padding = new StringBuilder(metadataBytes);
+		for (int i = 0; i < metadataBytes; i++) {
+			padding.append((char) ('a' + i % 26));
+		}
+		StringBuilder json = new StringBuilder();
+		json.append('[');
+		for (int i = 0; i < resultCount; i++) {
+			if (i > 0) {
+				json.append(',');
+			}
+			// Decreasing scores, as the real server sorts its results
+			json.append("{\"item_id\":\"stand-in-").append(i).append("\",\"score\":").append(Math.max(100 - i, 1))
+					.append(",\"metadata\":{\"name\":\"Stand-in item ").append(i)
+					.append("\",\"padding\":\"").append(padding).append("\"}}");
+		}
+		json.append(']');
+		mSearchResponse = toBytes(json.toString());
+	}
+
+	/**
+	 * Gets the number of requests received.
+	 * @return The request count.
+	 */
+	public long getRequestCount() {
+		return mRequestCount.get();
+	}
+
+	/**
+	 * Gets the number of search requests received.
+	 * @return The search count.
+	 */
+	public long getSearchCount() {
+		return mSearchCount.get();
+	}
+
+	/**
+	 * Gets the number of requests failed on purpose.
+	 * @return The injected error count.
+	 */
+	public long getErrorCount() {
+		return mErrorCount.get();
+	}
+
+	/**
+	 * Gets the number of requests dropped on purpose.
+	 * @return The dropped request count.
+	 */
+	public long getDropCount() {
+		return mDropCount.get();
+	}
+
+	/**
+	 * Gets the number of requests answered with a malformed body on purpose.
+	 * @return The malformed response count.
+	 */
+	public long getMalformedCount() {
+		return mMalformedCount.get();
+	}
+
+	/**
+	 * Gets the size of all the request bodies received.
+	 * @return The number of bytes received.
+	 */
+	public long getBytesReceived() {
+		return mBytesReceived.get();
+	}
+
+	/**
+	 * Serves the requests of a connection until it is closed.
+	 * @param socket The connection.
+	 */
+	private void serve(Socket socket) {
+		synchronized (mConnections) {
+			mConnections.add(socket);
+		}
+		Random random = new Random();
+		try {
+			socket.setTcpNoDelay(true);
+			InputStream in = new BufferedInputStream(socket.getInputStream());
+			OutputStream out = new BufferedOutputStream(socket.getOutputStream());
+			boolean keepAlive = true;
+			while (keepAlive) {
+				String requestLine = readLine(in);
+				if (null == requestLine) {
+					break;
+				}
+				if (0 == requestLine.length()) {
+					continue;
+				}
+				Map<String, String> headers = readHeaders(in);
+				byte[] body = readBody(in, headers);
+				keepAlive = requestLine.endsWith("HTTP/1.1") && !"close".equalsIgnoreCase(headers.get("connection"));
+				if (!respond(requestLine, headers, body, random, out, keepAlive)) {
+					break;
+				}
+			}
+		} catch (IOException e) {
+			// Connection closed by the client or the server stopped
+		} catch (InterruptedException e) {
+			// Server stopped
+		} finally {
+			closeQuietly(socket);
+			synchronized (mConnections) {
+				mConnections.remove(socket);
+			}
+		}
+	}
+
+	/**
+	 * Answers a request.
+	 * @return false if the connection was dropped on purpose.
+	 */
+	private boolean respond(String requestLine, Map<String, String> headers, byte[] body, Random random,
+			OutputStream out, boolean keepAlive) throws IOException, InterruptedException {
+		String[] parts = requestLine.split(" ");
+		String method = parts[0];
+		String path = parts.length > 1 ? parts[1] : "";
+		int queryStart = path.indexOf('?');
+		if (queryStart >= 0) {
+			path = path.substring(0, queryStart);
+		}
+		boolean search = path.endsWith("/search");
+		mRequestCount.incrementAndGet();
+		mBytesReceived.addAndGet(body.length);
+		if (search) {
+			mSearchCount.incrementAndGet();
+		}
+
+		long delay = (search ? mSearchLatency : mTimestampLatency).nextDelayMillis(random);
+		if (delay > 0) {
+			Thread.sleep(delay);
+		}
+
+		if (random.nextDouble() < mDropRate) {
+			mDropCount.incrementAndGet();
+			return false;
+		}
+		if (random.nextDouble() < mErrorRate) {
+			mErrorCount.incrementAndGet();
+			int status = mErrorStatus;
+			int retryAfter = 429 == status || 503 == status ? mRetryAfterSeconds : -1;
+			writeResponse(out, status, errorBody("Injected failure"), retryAfter, keepAlive);
+			return true;
+		}
+		if (random.nextDouble() < mMalformedRate) {
+			mMalformedCount.incrementAndGet();
+			writeResponse(out, 200, MALFORMED_BODY, -1, keepAlive);
+			return true;
+		}
+
+		if (!"POST".equals(method)) {
+			writeResponse(out, 405, errorBody("Method not allowed"), -1, keepAlive);
+		} else if (path.endsWith("/timestamp")) {
+			Map<String, String> form = parseForm(body);
+			if (isBlank(form.get("token"))) {
+				writeResponse(out, 400, errorBody("Token missing"), -1, keepAlive);
+			} else {
+				long timestamp = System.currentTimeMillis() / 1000;
+				writeResponse(out, 200, toBytes("{\"timestamp\":" + timestamp + "}"), -1, keepAlive);
+			}
+		} else if (search) {
+			Map<String, byte[]> fields = parseMultipart(headers.get("content-type"), body);
+			byte[] token = fields.get("token");
+			byte[] image = fields.get("image");
+			if (null == token || 0 == token.length) {
+				writeResponse(out, 400, errorBody("Token missing"), -1, keepAlive);
+			} else if (null == image || 0 == image.length) {
+				writeResponse(out, 400, errorBody("Image missing"), -1, keepAlive);
+			} else {
+				writeResponse(out, 200, mSearchResponse, -1, keepAlive);
+			}
+		} else {
+			writeResponse(out, 404, errorBody("Not found"), -1, keepAlive);
+		}
+		return true;
+	}
+
+	private static void writeResponse(OutputStream out, int status, byte[] body, int retryAfterSeconds,
+			boolean keepAlive) throws IOException {
+		StringBuilder head = new StringBuilder(160);
+		head.append("HTTP/1.1 ").append(status).append(' ')
+				.append(EnglishReasonPhraseCatalog.INSTANCE.getReason(status, null)).append("\r\n");
+		head.append("Content-Type: application/json; charset=utf-8\r\n");
+		head.append("Content-Length: ").append(body.length).append("\r\n");
+		if (retryAfterSeconds >= 0) {
+			head.append("Retry-After: ").append(retryAfterSeconds).append("\r\n");
+		}
+		head.append("Connection: ").append(keepAlive ? "keep-alive" : "close").append("\r\n\r\n");
+		out.write(head.toString().getBytes("ISO-8859-1"));
+		out.write(body);
+		out.flush();
+	}
+
+	private static byte[] errorBody(String message) {
+		return toBytes("{\"message\":\"" + message + "\"}");
+	}
+
+	/**
+	 * Reads a line ending with LF or CRLF.
+	 * @return The line without its end, or null if the stream ended first.
+	 */
+	private static String readLine(InputStream in) throws IOException {
+		StringBuilder line = new StringBuilder(64);
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b < 0) {
+				if (0 == line.length()) {
+					return null;
+				}
+				throw new EOFException("Unexpected end of request");
+			}
+			if (line.length() == MAX_LINE_LENGTH) {
+				throw new IOException("Request line too long");
+			}
+			line.append((char) b);
+		}
+		int length = line.length();
+		if (length > 0 && '\r' == line.charAt(length - 1)) {
+			line.setLength(length - 1);
+		}
+		return line.toString();
+	}
+
+	/**
+	 * Reads the request headers.
+	 * @return The header values by lower case name.
+	 */
+	private static Map<String, String> readHeaders(InputStream in) throws IOException {
+		Map<String, String> headers = new HashMap<String, String>();
+		String line;
+		while (null != (line = readLine(in)) && line.length() > 0) {
+			int colon = line.indexOf(':');
+			if (colon > 0) {
+				headers.put(line.substring(0, colon).trim().toLowerCase(), line.substring(colon + 1).trim());
+			}
+		}
+		return headers;
+	}
+
+	private static byte[] readBody(InputStream in, Map<String, String> headers) throws IOException {
+		if ("chunked".equalsIgnoreCase(headers.get("transfer-encoding"))) {
+			ByteArrayOutputStream body = new ByteArrayOutputStream();
+			while (true) {
+				String sizeLine = readLine(in);
+				if (null == sizeLine) {
+					throw new EOFException("Unexpected end of request");
+				}
+				int extension = sizeLine.indexOf(';');
+				int size;
+				try {
+					size = Integer.parseInt((extension >= 0 ? sizeLine.substring(0, extension) : sizeLine).trim(), 16);
+				} catch (NumberFormatException e) {
+					throw new IOException("Invalid chunk size " + sizeLine);
+				}
+				if (0 == size) {
+					// Skip the trailers
+					readHeaders(in);
+					return body.toByteArray();
+				}
+				if (size < 0 || body.size() + size > MAX_BODY_LENGTH) {
+					throw new IOException("Request body too large");
+				}
+				byte[] chunk = new byte[size];
+				readFully(in, chunk);
+				body.write(chunk, 0, size);
+				readLine(in);
+			}
+		}
+
+		String contentLength = headers.get("content-length");
+		if (null == contentLength) {
+			return new byte[0];
+		}
+		int length;
+		try {
+			length = Integer.parseInt(contentLength);
+		} catch (NumberFormatException e) {
+			throw new IOException("Invalid content length " + contentLength);
+		}
+		if (length < 0 || length > MAX_BODY_LENGTH) {
+			throw new IOException("Invalid content length " + length);
+		}
+		byte[] body = new byte[length];
+		readFully(in, body);
+		return body;
+	}
+
+	private static void readFully(InputStream in, byte[] buffer) throws IOException {
+		int offset = 0;
+		while (offset < buffer.length) {
+			int count = in.read(buffer, offset, buffer.length - offset);
+			if (count < 0) {
+				throw new EOFException("Unexpected end of request");
+			}
+			offset += count;
+		}
+	}
+
+	/**
+	 * Parses a URL encoded form.
+	 * @return The field values by name.
+	 */
+	private static Map<String, String> parseForm(byte[] body) throws UnsupportedEncodingException {
+		Map<String, String> fields = new HashMap<String, String>();
+		for (String pair : new String(body, "ISO-8859-1").split("&")) {
+			int equals = pair.indexOf('=');
+			if (equals > 0) {
+				fields.put(URLDecoder.decode(pair.substring(0, equals), CHARSET),
+						URLDecoder.decode(pair.substring(equals + 1), CHARSET));
+			}
+		}
+		return fields;
+	}
+
+	/**
+	 * Parses a multipart/form-data body.
+	 * @param contentType The content type of the request, holding the boundary.
+	 * @return The contents of the parts by field name, empty if the body is
+	 * not a multipart one.
+	 */
+	private static Map<String, byte[]> parseMultipart(String contentType, byte[] body) throws IOException {
+		Map<String, byte[]> fields = new HashMap<String, byte[]>();
+		String boundary = getParameter(contentType, "boundary");
+		if (null == boundary) {
+			return fields;
+		}
+		byte[] delimiter = ("--" + boundary).getBytes("ISO-8859-1");
+
+		int position = indexOf(body, delimiter, 0);
+		while (position >= 0) {
+			int partStart = position + delimiter.length;
+			// The closing delimiter is followed by two dashes
+			if (partStart + 1 < body.length && '-' == body[partStart] && '-' == body[partStart + 1]) {
+				break;
+			}
+			int headersEnd = indexOf(body, new byte[] { '\r', '\n', '\r', '\n' }, partStart);
+			int next = indexOf(body, delimiter, partStart);
+			if (headersEnd < 0 || next < 0 || headersEnd > next) {
+				break;
+			}
+			String partHeaders = new String(body, partStart, headersEnd - partStart, "ISO-8859-1");
+			String name = getParameter(partHeaders, "name");
+			if (null != name) {
+				int contentStart = headersEnd + 4;
+				// The CRLF before the next delimiter belongs to it
+				int contentEnd = Math.max(contentStart, next - 2);
+				byte[] content = new byte[contentEnd - contentStart];
+				System.arraycopy(body, contentStart, content, 0, content.length);
+				fields.put(name, content);
+			}
+			position = next;
+		}
+		return fields;
+	}
+
+	/**
+	 * Gets a parameter of a header value, such as the boundary of a content
+	 * type or the name of a content disposition.
+	 */
+	private static String getParameter(String value, String parameter) {
+		if (null == value) {
+			return null;
+		}
+		String key = parameter + "=";
+		int start = 0;
+		while ((start = value.indexOf(key, start)) >= 0) {
+			char previous = start > 0 ? value.charAt(start - 1) : ';';
+			if (';' == previous || ' ' == previous || '\t' == previous) {
+				start += key.length();
+				int end;
+				if (start < value.length() && '"' == value.charAt(start)) {
+					start++;
+					end = value.indexOf('"', start);
+				} else {
+					end = value.indexOf(';', start);
+					int lineEnd = value.indexOf('\r', start);
+					if (lineEnd >= 0 && (end < 0 || lineEnd < end)) {
+						end = lineEnd;
+					}
+				}
+				return (end < 0 ? value.substring(start) : value.substring(start, end)).trim();
+			}
+			start += key.length();
+		}
+		return null;
+	}
+
+	private static int indexOf(byte[] data, byte[] pattern, int from) {
+		int last = data.length - pattern.length;
+		outer:
+		for (int i = from; i <= last; i++) {
+			for (int j = 0; j < pattern.length; j++) {
+				if (data[i + j] != pattern[j]) {
+					continue outer;
+				}
+			}
+			return i;
+		}
+		return -1;
+	}
+
+	private static boolean isBlank(String value) {
+		return null == value || 0 == value.trim().length();
+	}
+
+	private static byte[] toBytes(String text) {
+		try {
+			return text.getBytes(CHARSET);
+		} catch (UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static void closeQuietly(ServerSocket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			Log.w(Catchoom.TAG, "Unable to close the stand-in server", e);
+		}
+	}
+
+	private static void closeQuietly(Socket socket) {
+		try {
+			socket.close();
+		} catch (IOException e) {
+			// Already closed
+		}
+	}
+
+	private static final class ConnectionThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger mThreadCount = new AtomicInteger();
+
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "Catchoom stand-in connection #" + mThreadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,658 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import java.io.ByteArrayOutputStream;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * CatchoomYuvEncoder turns camera preview frames into query images without
+ * going through a {@link android.graphics.Bitmap}. A frame is cropped and
+ * downsampled, averaging the pixels of each output pixel, straight from its
+ * luma and chroma planes, and the result is compressed by a baseline JPEG
+ * encoder with 4:2:0 chroma subsampling, the layout the planes already have.
+ * <p>
+ * It only uses plain Java, so it runs on the JVM as well. The planes and the
+ * encoder buffers are reused from frame to frame.
+ * @author Catchoom
+ *
+ */
+final class CatchoomYuvEncoder {
+
+	/** Value of {@link android.graphics.ImageFormat#NV21}, the camera default. */
+	static final int NV21 = 17;
+	/** Value of <code>android.graphics.ImageFormat.YV12</code>, added in Android 2.3. */
+	static final int YV12 = 0x32315659;
+
+	// Planes kept for the next frames
+	private static final int MAX_POOLED_PLANES = 4;
+	private static final List<Planes> sPlanesPool = new ArrayList<Planes>(MAX_POOLED_PLANES);
+
+	// Each pipeline stage encodes with its own tables and buffers
+	private static final ThreadLocal<CatchoomYuvEncoder> sEncoder = new ThreadLocal<CatchoomYuvEncoder>() {
+		@Override
+		protected CatchoomYuvEncoder initialValue() {
+			return new CatchoomYuvEncoder();
+		}
+	};
+
+	/**
+	 * Downsampled planes of a frame: full resolution luma and chroma of half
+	 * the width and height.
+	 */
+	static final class Planes {
+
+		private int mWidth = 0;
+		private int mHeight = 0;
+		private int mChromaWidth = 0;
+		private int mChromaHeight = 0;
+		private byte[] mY = new byte[0];
+		private byte[] mCb = new byte[0];
+		private byte[] mCr = new byte[0];
+		// Start of the source column of each output column
+		private int[] mColumns = new int[0];
+
+		int getWidth() {
+			return mWidth;
+		}
+
+		int getHeight() {
+			return mHeight;
+		}
+
+		private void resize(int width, int height) {
+			mWidth = width;
+			mHeight = height;
+			mChromaWidth = (width + 1) / 2;
+			mChromaHeight = (height + 1) / 2;
+			if (mY.length < width * height) {
+				mY = new byte[width * height];
+			}
+			int chromaLength = mChromaWidth * mChromaHeight;
+			if (mCb.length < chromaLength) {
+				mCb = new byte[chromaLength];
+				mCr = new byte[chromaLength];
+			}
+			if (mColumns.length < width + 1) {
+				mColumns = new int[width + 1];
+			}
+		}
+	}
+
+	/**
+	 * Gets planes to downsample a frame into, reused if possible.
+	 * @return The planes.
+	 */
+	static Planes obtainPlanes() {
+		synchronized (sPlanesPool) {
+			int count = sPlanesPool.size();
+			if (count > 0) {
+				return sPlanesPool.remove(count - 1);
+			}
+		}
+		return new Planes();
+	}
+
+	/**
+	 * Gives planes that are no longer used back for the next frames.
+	 * @param planes The planes.
+	 */
+	static void releasePlanes(Planes planes) {
+		synchronized (sPlanesPool) {
+			if (sPlanesPool.size() < MAX_POOLED_PLANES) {
+				sPlanesPool.add(planes);
+			}
+		}
+	}
+
+	/**
+	 * Crops a frame and scales it to the given shortest edge.
+	 * @param frame The frame data.
+	 * @param width The frame width, even.
+	 * @param height The frame height, even.
+	 * @param format The frame format, {@link #NV21} or {@link #YV12}.
+	 * @param cropLeft Left edge of the area kept, rounded down to even.
+	 * @param cropTop Top edge of the area kept, rounded down to even.
+	 * @param cropWidth Width of the area kept.
+	 * @param cropHeight Height of the area kept.
+	 * @param pictureSize Shortest edge of the output.
+	 * @param planes The planes receiving the output.
+	 */
+	static void downsample(byte[] frame, int width, int height, int format, int cropLeft, int cropTop,
+			int cropWidth, int cropHeight, int pictureSize, Planes planes) {
+		if (width < 2 || height < 2 || 0 != (width & 1) || 0 != (height & 1)) {
+			throw new IllegalArgumentException("Frame size must be even, not " + width + "x" + height);
+		}
+		cropLeft &= ~1;
+		cropTop &= ~1;
+		if (cropLeft < 0 || cropTop < 0 || cropWidth < 2 || cropHeight < 2
+				|| cropLeft + cropWidth > width || cropTop + cropHeight > height) {
+			throw new IllegalArgumentException("Crop area out of the frame");
+		}
+		if (pictureSize < 1) {
+			throw new IllegalArgumentException("Picture size must be positive");
+		}
+
+		int lumaStride;
+		int chromaStride;
+		int vOffset;
+		int uOffset;
+		int chromaStep;
+		int frameLength;
+		if (NV21 == format) {
+			// Luma plane followed by interleaved V and U samples
+			lumaStride = width;
+			chromaStride = width;
+			vOffset = width * height;
+			uOffset = vOffset + 1;
+			chromaStep = 2;
+			frameLength = width * height * 3 / 2;
+		} else if (YV12 == format) {
+			// Luma plane followed by the V and U planes, rows aligned to 16 bytes
+			lumaStride = (width + 15) & ~15;
+			chromaStride = (lumaStride / 2 + 15) & ~15;
+			vOffset = lumaStride * height;
+			uOffset = vOffset + chromaStride * height / 2;
+			chromaStep = 1;
+			frameLength = uOffset + chromaStride * height / 2;
+		} else {
+			throw new IllegalArgumentException("Unsupported frame format " + format);
+		}
+		if (null == frame || frame.length < frameLength) {
+			throw new IllegalArgumentException("Frame data too short for " + width + "x" + height);
+		}
+
+		int outputWidth;
+		int outputHeight;
+		if (cropWidth < cropHeight) {
+			outputWidth = pictureSize;
+			outputHeight = Math.max(Math.round((float) cropHeight * pictureSize / cropWidth), 1);
+		} else {
+			outputHeight = pictureSize;
+			outputWidth = Math.max(Math.round((float) cropWidth * pictureSize / cropHeight), 1);
+		}
+		planes.resize(outputWidth, outputHeight);
+
+		resample(frame, cropTop * lumaStride + cropLeft, lumaStride, 1, cropWidth, cropHeight,
+				planes.mY, planes.mWidth, planes.mHeight, planes.mColumns);
+		int chromaOrigin = (cropTop / 2) * chromaStride + (cropLeft / 2) * chromaStep;
+		resample(frame, uOffset + chromaOrigin, chromaStride, chromaStep, cropWidth / 2, cropHeight / 2,
+				planes.mCb, planes.mChromaWidth, planes.mChromaHeight, planes.mColumns);
+		resample(frame, vOffset + chromaOrigin, chromaStride, chromaStep, cropWidth / 2, cropHeight / 2,
+				planes.mCr, planes.mChromaWidth, planes.mChromaHeight, planes.mColumns);
+	}
+
+	/**
+	 * Computes the perceptual hash of downsampled planes, as
+	 * {@link CatchoomImageUtil#hashPicture(android.graphics.Bitmap)} does for
+	 * a bitmap.
+	 * @param planes The planes.
+	 * @return The {@link CatchoomImageHash} of the image.
+	 */
+	static long hash(Planes planes) {
+		int width = CatchoomImageHash.HASH_WIDTH;
+		int height = CatchoomImageHash.HASH_HEIGHT;
+		byte[] thumbnail = new byte[width * height];
+		resample(planes.mY, 0, planes.mWidth, 1, planes.mWidth, planes.mHeight, thumbnail, width, height,
+				new int[width + 1]);
+		int[] pixels = new int[width * height];
+		for (int i = 0; i < pixels.length; i++) {
+			int luma = thumbnail[i] & 0xff;
+			pixels[i] = 0xff000000 | luma << 16 | luma << 8 | luma;
+		}
+		return CatchoomImageHash.computeHash(pixels);
+	}
+
+	/**
+	 * Compresses downsampled planes as JPEG.
+	 * @param planes The planes.
+	 * @param quality The JPEG quality, from 1 to 100.
+	 * @return The encoded image.
+	 */
+	static ByteArrayOutputStream encode(Planes planes, int quality) {
+		if (quality < 1 || quality > 100) {
+			throw new IllegalArgumentException("Quality must be between 1 and 100");
+		}
+		return sEncoder.get().encodePlanes(planes, quality);
+	}
+
+	/**
+	 * Scales a plane, each output sample being the average of the source
+	 * samples it covers.
+	 */
+	private static void resample(byte[] source, int offset, int stride, int step, int sourceWidth,
+			int sourceHeight, byte[] output, int outputWidth, int outputHeight, int[] columns) {
+		for (int x = 0; x <= outputWidth; x++) {
+			columns[x] = (int) ((long) x * sourceWidth / outputWidth);
+		}
+
+		int index = 0;
+		for (int y = 0; y < outputHeight; y++) {
+			int top = (int) ((long) y * sourceHeight / outputHeight);
+			int bottom = Math.max((int) ((long) (y + 1) * sourceHeight / outputHeight), top + 1);
+			for (int x = 0; x < outputWidth; x++) {
+				int left = columns[x];
+				int right = Math.max(columns[x + 1], left + 1);
+				int sum = 0;
+				for (int row = top; row < bottom; row++) {
+					int position = offset + row * stride + left * step;
+					for (int column = left; column < right; column++) {
+						sum += source[position] & 0xff;
+						position += step;
+					}
+				}
+				int count = (bottom - top) * (right - left);
+				output[index++] = (byte) ((sum + count / 2) / count);
+			}
+		}
+	}
+
+	// Baseline JPEG tables, from Annex K of the specification
+
+	private static final int[] LUMINANCE_QUANTIZATION = {
+		16, 11, 10, 16, 24, 40, 51, 61,
+		12, 12, 14, 19, 26, 58, 60, 55,
+		14, 13, 16, 24, 40, 57, 69, 56,
+		14, 17, 22, 29, 51, 87, 80, 62,
+		18, 22, 37, 56, 68, 109, 103, 77,
+		24, 35, 55, 64, 81, 104, 113, 92,
+		49, 64, 78, 87, 103, 121, 120, 101,
+		72, 92, 95, 98, 112, 100, 103, 99 };
+
+	private static final int[] CHROMINANCE_QUANTIZATION = {
+		17, 18, 24, 47, 99, 99, 99, 99,
+		18, 21, 26, 66, 99, 99, 99, 99,
+		24, 26, 56, 99, 99, 99, 99, 99,
+		47, 66, 99, 99, 99, 99, 99, 99,
+		99, 99, 99, 99, 99, 99, 99, 99,
+		99, 99, 99, 99, 99, 99, 99, 99,
+		99, 99, 99, 99, 99, 99, 99, 99,
+		99, 99, 99, 99, 99, 99, 99, 99 };
+
+	// Zigzag position of each coefficient, in natural order
+	private static final int[] ZIGZAG = {
+		0, 1, 5, 6, 14, 15, 27, 28,
+		2, 4, 7, 13, 16, 26, 29, 42,
+		3, 8, 12, 17, 25, 30, 41, 43,
+		9, 11, 18, 24, 31, 40, 44, 53,
+		10, 19, 23, 32, 39, 45, 52, 54,
+		20, 22, 33, 38, 46, 51, 55, 60,
+		21, 34, 37, 47, 50, 56, 59, 61,
+		35, 36, 48, 49, 57, 58, 62, 63 };
+
+	// Scale factors of the AAN discrete cosine transform
+	private static final double[] AAN_SCALES = {
+		1.0, 1.387039845, 1.306562965, 1.175875602, 1.0, 0.785694958, 0.541196100, 0.275899379 };
+
+	private static final int[] DC_LUMINANCE_COUNTS = { 0, 1, 5, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0, 0, 0 };
+	private static final int[] DC_LUMINANCE_VALUES = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+	private static final int[] DC_CHROMINANCE_COUNTS = { 0, 3, 1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0, 0, 0, 0 };
+	private static final int[] DC_CHROMINANCE_VALUES = { 0, 1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11 };
+
+	private static final int[] AC_LUMINANCE_COUNTS = { 0, 2, 1, 3, 3, 2, 4, 3, 5, 5, 4, 4, 0, 0, 1, 0x7d };
+	private static final int[] AC_LUMINANCE_VALUES = {
+		0x01, 0x02, 0x03, 0x00, 0x04, 0x11, 0x05, 0x12, 0x21, 0x31, 0x41, 0x06, 0x13, 0x51, 0x61, 0x07,
+		0x22, 0x71, 0x14, 0x32, 0x81, 0x91, 0xa1, 0x08, 0x23, 0x42, 0xb1, 0xc1, 0x15, 0x52, 0xd1, 0xf0,
+		0x24, 0x33, 0x62, 0x72, 0x82, 0x09, 0x0a, 0x16, 0x17, 0x18, 0x19, 0x1a, 0x25, 0x26, 0x27, 0x28,
+		0x29, 0x2a, 0x34, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48, 0x49,
+		0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68, 0x69,
+		0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x83, 0x84, 0x85, 0x86, 0x87, 0x88, 0x89,
+		0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5, 0xa6, 0xa7,
+		0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3, 0xc4, 0xc5,
+		0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda, 0xe1, 0xe2,
+		0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf1, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+		0xf9, 0xfa };
+
+	private static final int[] AC_CHROMINANCE_COUNTS = { 0, 2, 1, 2, 4, 4, 3, 4, 7, 5, 4, 4, 0, 1, 2, 0x77 };
+	private static final int[] AC_CHROMINANCE_VALUES = {
+		0x00, 0x01, 0x02, 0x03, 0x11, 0x04, 0x05, 0x21, 0x31, 0x06, 0x12, 0x41, 0x51, 0x07, 0x61, 0x71,
+		0x13, 0x22, 0x32, 0x81, 0x08, 0x14, 0x42, 0x91, 0xa1, 0xb1, 0xc1, 0x09, 0x23, 0x33, 0x52, 0xf0,
+		0x15, 0x62, 0x72, 0xd1, 0x0a, 0x16, 0x24, 0x34, 0xe1, 0x25, 0xf1, 0x17, 0x18, 0x19, 0x1a, 0x26,
+		0x27, 0x28, 0x29, 0x2a, 0x35, 0x36, 0x37, 0x38, 0x39, 0x3a, 0x43, 0x44, 0x45, 0x46, 0x47, 0x48,
+		0x49, 0x4a, 0x53, 0x54, 0x55, 0x56, 0x57, 0x58, 0x59, 0x5a, 0x63, 0x64, 0x65, 0x66, 0x67, 0x68,
+		0x69, 0x6a, 0x73, 0x74, 0x75, 0x76, 0x77, 0x78, 0x79, 0x7a, 0x82, 0x83, 0x84, 0x85, 0x86, 0x87,
+		0x88, 0x89, 0x8a, 0x92, 0x93, 0x94, 0x95, 0x96, 0x97, 0x98, 0x99, 0x9a, 0xa2, 0xa3, 0xa4, 0xa5,
+		0xa6, 0xa7, 0xa8, 0xa9, 0xaa, 0xb2, 0xb3, 0xb4, 0xb5, 0xb6, 0xb7, 0xb8, 0xb9, 0xba, 0xc2, 0xc3,
+		0xc4, 0xc5, 0xc6, 0xc7, 0xc8, 0xc9, 0xca, 0xd2, 0xd3, 0xd4, 0xd5, 0xd6, 0xd7, 0xd8, 0xd9, 0xda,
+		0xe2, 0xe3, 0xe4, 0xe5, 0xe6, 0xe7, 0xe8, 0xe9, 0xea, 0xf2, 0xf3, 0xf4, 0xf5, 0xf6, 0xf7, 0xf8,
+		0xf9, 0xfa };
+
+	private static final HuffmanTable DC_LUMINANCE = new HuffmanTable(DC_LUMINANCE_COUNTS, DC_LUMINANCE_VALUES);
+	private static final HuffmanTable DC_CHROMINANCE = new HuffmanTable(DC_CHROMINANCE_COUNTS, DC_CHROMINANCE_VALUES);
+	private static final HuffmanTable AC_LUMINANCE = new HuffmanTable(AC_LUMINANCE_COUNTS, AC_LUMINANCE_VALUES);
+	private static final HuffmanTable AC_CHROMINANCE = new HuffmanTable(AC_CHROMINANCE_COUNTS, AC_CHROMINANCE_VALUES);
+
+	private final int[] mLuminanceTable = new int[64];
+	private final int[] mChrominanceTable = new int[64];
+	private final float[] mLuminanceDivisors = new float[64];
+	private final float[] mChrominanceDivisors = new float[64];
+	private final float[] mBlock = new float[64];
+	private final int[] mCoefficients = new int[64];
+	private int mQuality = -1;
+	private byte[] mOutput = new byte[16 * 1024];
+	private int mLength = 0;
+	private int mBitBuffer = 0;
+	private int mBitCount = 0;
+
+	private CatchoomYuvEncoder() {
+	}
+
+	private ByteArrayOutputStream encodePlanes(Planes planes, int quality) {
+		if (quality != mQuality) {
+			setQuality(quality);
+		}
+		mLength = 0;
+		mBitBuffer = 0;
+		mBitCount = 0;
+
+		writeHeaders(planes.mWidth, planes.mHeight);
+		int luminanceDc = 0;
+		int blueDc = 0;
+		int redDc = 0;
+		for (int y = 0; y < planes.mHeight; y += 16) {
+			for (int x = 0; x < planes.mWidth; x += 16) {
+				// Four luma blocks and one block of each chroma plane
+				for (int block = 0; block < 4; block++) {
+					loadBlock(planes.mY, planes.mWidth, planes.mHeight, x + (block & 1) * 8, y + (block >> 1) * 8);
+					luminanceDc = encodeBlock(mLuminanceDivisors, luminanceDc, DC_LUMINANCE, AC_LUMINANCE);
+				}
+				loadBlock(planes.mCb, planes.mChromaWidth, planes.mChromaHeight, x / 2, y / 2);
+				blueDc = encodeBlock(mChrominanceDivisors, blueDc, DC_CHROMINANCE, AC_CHROMINANCE);
+				loadBlock(planes.mCr, planes.mChromaWidth, planes.mChromaHeight, x / 2, y / 2);
+				redDc = encodeBlock(mChrominanceDivisors, redDc, DC_CHROMINANCE, AC_CHROMINANCE);
+			}
+		}
+		if (mBitCount > 0) {
+			// Pad the last byte with ones
+			writeBits((1 << (8 - mBitCount)) - 1, 8 - mBitCount);
+		}
+		writeMarker(0xd9);
+
+		ByteArrayOutputStream outputStream = new ByteArrayOutputStream(mLength);
+		outputStream.write(mOutput, 0, mLength);
+		return outputStream;
+	}
+
+	/**
+	 * Scales the quantization tables the way the IJG library does.
+	 */
+	private void setQuality(int quality) {
+		int scale = quality < 50 ? 5000 / quality : 200 - quality * 2;
+		for (int i = 0; i < 64; i++) {
+			mLuminanceTable[ZIGZAG[i]] = Math.max(1, Math.min(255, (LUMINANCE_QUANTIZATION[i] * scale + 50) / 100));
+			mChrominanceTable[ZIGZAG[i]] = Math.max(1, Math.min(255, (CHROMINANCE_QUANTIZATION[i] * scale + 50) / 100));
+		}
+		// Quantization folded into the output scaling of the transform
+		for (int row = 0; row < 8; row++) {
+			for (int column = 0; column < 8; column++) {
+				int i = row * 8 + column;
+				double factor = AAN_SCALES[row] * AAN_SCALES[column] * 8;
+				mLuminanceDivisors[i] = (float) (1.0 / (mLuminanceTable[ZIGZAG[i]] * factor));
+				mChrominanceDivisors[i] = (float) (1.0 / (mChrominanceTable[ZIGZAG[i]] * factor));
+			}
+		}
+		mQuality = quality;
+	}
+
+	/**
+	 * Loads an 8x8 block, repeating the last row and column past the edges.
+	 */
+	private void loadBlock(byte[] plane, int width, int height, int left, int top) {
+		float[] block = mBlock;
+		for (int row = 0; row < 8; row++) {
+			int start = Math.min(top + row, height - 1) * width;
+			for (int column = 0; column < 8; column++) {
+				block[row * 8 + column] = (plane[start + Math.min(left + column, width - 1)] & 0xff) - 128;
+			}
+		}
+	}
+
+	/**
+	 * Transforms, quantizes and writes the loaded block.
+	 * @return The DC coefficient of the block.
+	 */
+	private int encodeBlock(float[] divisors, int previousDc, HuffmanTable dcTable, HuffmanTable acTable) {
+		float[] data = mBlock;
+		forwardDct(data, 0, 1);
+		forwardDct(data, 0, 8);
+
+		int[] coefficients = mCoefficients;
+		for (int i = 0; i < 64; i++) {
+			float value = data[i] * divisors[i];
+			coefficients[ZIGZAG[i]] = (int) (value > 0 ? value + 0.5f : value - 0.5f);
+		}
+
+		int dc = coefficients[0];
+		writeValue(dc - previousDc, dcTable, 0);
+
+		int last = 63;
+		while (last > 0 && 0 == coefficients[last]) {
+			last--;
+		}
+		int zeros = 0;
+		for (int i = 1; i <= last; i++) {
+			int coefficient = coefficients[i];
+			if (0 == coefficient) {
+				zeros++;
+				continue;
+			}
+			while (zeros >= 16) {
+				// Run of sixteen zeros
+				writeBits(acTable.mCodes[0xf0], acTable.mLengths[0xf0]);
+				zeros -= 16;
+			}
+			writeValue(coefficient, acTable, zeros << 4);
+			zeros = 0;
+		}
+		if (last < 63) {
+			// End of block
+			writeBits(acTable.mCodes[0], acTable.mLengths[0]);
+		}
+		return dc;
+	}
+
+	/**
+	 * Applies the AAN transform to the rows, or the columns, of a block.
+	 * @param step 1 to transform the rows, 8 to transform the columns.
+	 */
+	private static void forwardDct(float[] data, int offset, int step) {
+		int lineStep = 1 == step ? 8 : 1;
+		for (int line = 0; line < 8; line++) {
+			int p = offset + line * lineStep;
+			float d0 = data[p];
+			float d1 = data[p + step];
+			float d2 = data[p + 2 * step];
+			float d3 = data[p + 3 * step];
+			float d4 = data[p + 4 * step];
+			float d5 = data[p + 5 * step];
+			float d6 = data[p + 6 * step];
+			float d7 = data[p + 7 * step];
+
+			float tmp0 = d0 + d7;
+			float tmp7 = d0 - d7;
+			float tmp1 = d1 + d6;
+			float tmp6 = d1 - d6;
+			float tmp2 = d2 + d5;
+			float tmp5 = d2 - d5;
+			float tmp3 = d3 + d4;
+			float tmp4 = d3 - d4;
+
+			// Even part
+			float tmp10 = tmp0 + tmp3;
+			float tmp13 = tmp0 - tmp3;
+			float tmp11 = tmp1 + tmp2;
+			float tmp12 = tmp1 - tmp2;
+			data[p] = tmp10 + tmp11;
+			data[p + 4 * step] = tmp10 - tmp11;
+			float z1 = (tmp12 + tmp13) * 0.707106781f;
+			data[p + 2 * step] = tmp13 + z1;
+			data[p + 6 * step] = tmp13 - z1;
+
+			// Odd part
+			tmp10 = tmp4 + tmp5;
+			tmp11 = tmp5 + tmp6;
+			tmp12 = tmp6 + tmp7;
+			float z5 = (tmp10 - tmp12) * 0.382683433f;
+			float z2 = 0.541196100f * tmp10 + z5;
+			float z4 = 1.306562965f * tmp12 + z5;
+			float z3 = tmp11 * 0.707106781f;
+			float z11 = tmp7 + z3;
+			float z13 = tmp7 - z3;
+			data[p + 5 * step] = z13 + z2;
+			data[p + 3 * step] = z13 - z2;
+			data[p + step] = z11 + z4;
+			data[p + 7 * step] = z11 - z4;
+		}
+	}
+
+	/**
+	 * Writes a coefficient as the code of its size, preceded by a run of
+	 * zeros for AC coefficients, followed by its bits.
+	 */
+	private void writeValue(int value, HuffmanTable table, int run) {
+		int magnitude = value < 0 ? -value : value;
+		int size = 32 - Integer.numberOfLeadingZeros(magnitude);
+		int symbol = run | size;
+		writeBits(table.mCodes[symbol], table.mLengths[symbol]);
+		if (size > 0) {
+			// Negative values are sent as their one's complement
+			writeBits(value < 0 ? value - 1 : value, size);
+		}
+	}
+
+	private void writeBits(int bits, int count) {
+		mBitBuffer = (mBitBuffer << count) | (bits & ((1 << count) - 1));
+		mBitCount += count;
+		while (mBitCount >= 8) {
+			int b = (mBitBuffer >> (mBitCount - 8)) & 0xff;
+			writeByte(b);
+			if (0xff == b) {
+				// Stuffed, so that it is not taken for a marker
+				writeByte(0);
+			}
+			mBitCount -= 8;
+		}
+		mBitBuffer &= (1 << mBitCount) - 1;
+	}
+
+	private void writeHeaders(int width, int height) {
+		writeMarker(0xd8);
+
+		writeMarker(0xe0);
+		writeShort(16);
+		writeByte('J');
+		writeByte('F');
+		writeByte('I');
+		writeByte('F');
+		writeByte(0);
+		writeShort(0x0101);
+		writeByte(0);
+		writeShort(1);
+		writeShort(1);
+		writeShort(0);
+
+		writeMarker(0xdb);
+		writeShort(2 + 2 * 65);
+		writeByte(0);
+		for (int i = 0; i < 64; i++) {
+			writeByte(mLuminanceTable[i]);
+		}
+		writeByte(1);
+		for (int i = 0; i < 64; i++) {
+			writeByte(mChrominanceTable[i]);
+		}
+
+		// Luma sampled 2x2 against the chroma
+		writeMarker(0xc0);
+		writeShort(17);
+		writeByte(8);
+		writeShort(height);
+		writeShort(width);
+		writeByte(3);
+		writeByte(1);
+		writeByte(0x22);
+		writeByte(0);
+		writeByte(2);
+		writeByte(0x11);
+		writeByte(1);
+		writeByte(3);
+		writeByte(0x11);
+		writeByte(1);
+
+		writeMarker(0xc4);
+		writeShort(2 + 4 * 17 + DC_LUMINANCE_VALUES.length + AC_LUMINANCE_VALUES.length
+				+ DC_CHROMINANCE_VALUES.length + AC_CHROMINANCE_VALUES.length);
+		writeHuffmanTable(0x00, DC_LUMINANCE_COUNTS, DC_LUMINANCE_VALUES);
+		writeHuffmanTable(0x10, AC_LUMINANCE_COUNTS, AC_LUMINANCE_VALUES);
+		writeHuffmanTable(0x01, DC_CHROMINANCE_COUNTS, DC_CHROMINANCE_VALUES);
+		writeHuffmanTable(0x11, AC_CHROMINANCE_COUNTS, AC_CHROMINANCE_VALUES);
+
+		writeMarker(0xda);
+		writeShort(12);
+		writeByte(3);
+		writeByte(1);
+		writeByte(0x00);
+		writeByte(2);
+		writeByte(0x11);
+		writeByte(3);
+		writeByte(0x11);
+		writeByte(0);
+		writeByte(63);
+		writeByte(0);
+	}
+
+	private void writeHuffmanTable(int id, int[] counts, int[] values) {
+		writeByte(id);
+		for (int count : counts) {
+			writeByte(count);
+		}
+		for (int value : values) {
+			writeByte(value);
+		}
+	}
+
+	private void writeMarker(int marker) {
+		writeByte(0xff);
+		writeByte(marker);
+	}
+
+	private void writeShort(int value) {
+		writeByte(value >> 8);
+		writeByte(value);
+	}
+
+	private void writeByte(int value) {
+		if (mLength == mOutput.length) {
+			byte[] output = new byte[mOutput.length * 2];
+			System.arraycopy(mOutput, 0, output, 0, mLength);
+			mOutput = output;
+		}
+		mOutput[mLength++] = (byte) value;
+	}
+
+	/**
+	 * Codes of a Huffman table, indexed by symbol.
+	 */
+	private static final class HuffmanTable {
+
+		private final int[] mCodes = new int[256];
+		private final int[] mLengths = new int[256];
+
+		HuffmanTable(int[] counts, int[] values) {
+			int code = 0;
+			int k = 0;
+			for (int length = 1; length <= 16; length++) {
+				for (int i = 0; i < counts[length - 1]; i++) {
+					mCodes[values[k]] = code;
+					mLengths[values[k]] = length;
+					code++;
+					k++;
+				}
+				code <<= 1;
+			}
+		}
+	}
+}
@@ -38,6 +38,14 @@ import org.apache.http.entity.mime.content.ContentBody;
  */
 public class FormBodyPart {
 
+    // Reused to build the generated field values
+    private static final ThreadLocal<StringBuilder> FIELD_BUFFER = new ThreadLocal<StringBuilder>() {
+        @Override
+        protected StringBuilder initialValue() {
+            return new StringBuilder(128);
+        }
+    };
+
     private final String name;
     private final Header header;
 
@@ -80,7 +88,8 @@ public class FormBodyPart {
     }
 
     protected void generateContentDisp(final ContentBody body) {
-        StringBuilder buffer = new StringBuilder();
+        StringBuilder buffer = FIELD_BUFFER.get();
+        buffer.setLength(0);
         buffer.append("form-data; name=\"");
         buffer.append(getName());
         buffer.append("\"");
@@ -93,7 +102,8 @@ public class FormBodyPart {
     }
 
     protected void generateContentType(final ContentBody body) {
-        StringBuilder buffer = new StringBuilder();
+        StringBuilder buffer = FIELD_BUFFER.get();
+        buffer.setLength(0);
         buffer.append(body.getMimeType()); // MimeType cannot be null
         if (body.getCharset() != null) { // charset may legitimately be null
             buffer.append("; charset=");
@@ -29,53 +29,84 @@ package org.apache.http.entity.mime;
 
 import java.util.ArrayList;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Iterator;
-import java.util.LinkedList;
 import java.util.List;
-import java.util.Locale;
-import java.util.Map;
+import java.util.NoSuchElementException;
 
 /**
  * The header of an entity (see RFC 2045).
+ * <p>
+ * Fields are kept in insertion order in a small array, as a part rarely has
+ * more than the three fields generated by {@link FormBodyPart}. Names are
+ * matched case-insensitively without allocating; the well-known MIME field
+ * names are interned so they are usually matched by identity.
  */
 public class Header implements Iterable<MinimalField> {
 
-    private final List<MinimalField> fields;
-    private final Map<String, List<MinimalField>> fieldMap;
+    private static final String[] WELL_KNOWN_NAMES = {
+        MIME.CONTENT_DISPOSITION, MIME.CONTENT_TYPE, MIME.CONTENT_TRANSFER_ENC
+    };
+
+    private static final int INITIAL_CAPACITY = 4;
+
+    private MinimalField[] fields;
+    private int count;
+    // Incremented on every change, so cached encodings can tell they are stale
+    private int modCount;
 
     public Header() {
         super();
-        this.fields = new LinkedList<MinimalField>();
-        this.fieldMap = new HashMap<String, List<MinimalField>>();
+        this.fields = new MinimalField[INITIAL_CAPACITY];
+        this.count = 0;
+    }
+
+    /**
+     * Returns the shared instance of a well-known field name, or the name
+     * itself if it is not a well-known one.
+     */
+    static String internName(final String name) {
+        for (String wellKnown: WELL_KNOWN_NAMES) {
+            if (wellKnown.equals(name)) {
+                return wellKnown;
+            }
+        }
+        return name;
+    }
+
+    private static boolean matches(final MinimalField field, final String name) {
+        String fieldName = field.getName();
+        return fieldName == name || fieldName.equalsIgnoreCase(name);
     }
 
     public void addField(final MinimalField field) {
         if (field == null) {
             return;
         }
-        String key = field.getName().toLowerCase(Locale.US);
-        List<MinimalField> values = this.fieldMap.get(key);
-        if (values == null) {
-            values = new LinkedList<MinimalField>();
-            this.fieldMap.put(key, values);
+        if (this.count == this.fields.length) {
+            MinimalField[] grown = new MinimalField[this.count * 2];
+            System.arraycopy(this.fields, 0, grown, 0, this.count);
+            this.fields = grown;
         }
-        values.add(field);
-        this.fields.add(field);
+        this.fields[this.count++] = field;
+        this.modCount++;
     }
 
     public List<MinimalField> getFields() {
-        return new ArrayList<MinimalField>(this.fields);
+        List<MinimalField> list = new ArrayList<MinimalField>(this.count);
+        for (int i = 0; i < this.count; i++) {
+            list.add(this.fields[i]);
+        }
+        return list;
     }
 
     public MinimalField getField(final String name) {
         if (name == null) {
             return null;
         }
-        String key = name.toLowerCase(Locale.US);
-        List<MinimalField> list = this.fieldMap.get(key);
-        if (list != null && !list.isEmpty()) {
-            return list.get(0);
+        for (int i = 0; i < this.count; i++) {
+            if (matches(this.fields[i], name)) {
+                return this.fields[i];
+            }
         }
         return null;
     }
@@ -84,62 +115,106 @@ public class Header implements Iterable<MinimalField> {
         if (name == null) {
             return null;
         }
-        String key = name.toLowerCase(Locale.US);
-        List<MinimalField> list = this.fieldMap.get(key);
-        if (list == null || list.isEmpty()) {
+        List<MinimalField> list = null;
+        for (int i = 0; i < this.count; i++) {
+            if (matches(this.fields[i], name)) {
+                if (list == null) {
+                    list = new ArrayList<MinimalField>(2);
+                }
+                list.add(this.fields[i]);
+            }
+        }
+        if (list == null) {
             return Collections.emptyList();
-        } else {
-            return new ArrayList<MinimalField>(list);
         }
+        return list;
     }
 
     public int removeFields(final String name) {
         if (name == null) {
             return 0;
         }
-        String key = name.toLowerCase(Locale.US);
-        List<MinimalField> removed = fieldMap.remove(key);
-        if (removed == null || removed.isEmpty()) {
-            return 0;
+        int kept = 0;
+        for (int i = 0; i < this.count; i++) {
+            if (!matches(this.fields[i], name)) {
+                this.fields[kept++] = this.fields[i];
+            }
+        }
+        int removed = this.count - kept;
+        for (int i = kept; i < this.count; i++) {
+            this.fields[i] = null;
+        }
+        this.count = kept;
+        if (removed > 0) {
+            this.modCount++;
         }
-        this.fields.removeAll(removed);
-        return removed.size();
+        return removed;
     }
 
     public void setField(final MinimalField field) {
         if (field == null) {
             return;
         }
-        String key = field.getName().toLowerCase(Locale.US);
-        List<MinimalField> list = fieldMap.get(key);
-        if (list == null || list.isEmpty()) {
+        String name = field.getName();
+        int first = -1;
+        for (int i = 0; i < this.count; i++) {
+            if (matches(this.fields[i], name)) {
+                first = i;
+                break;
+            }
+        }
+        if (first == -1) {
             addField(field);
             return;
         }
-        list.clear();
-        list.add(field);
-        int firstOccurrence = -1;
-        int index = 0;
-        for (Iterator<MinimalField> it = this.fields.iterator(); it.hasNext(); index++) {
-            MinimalField f = it.next();
-            if (f.getName().equalsIgnoreCase(field.getName())) {
-                it.remove();
-                if (firstOccurrence == -1) {
-                    firstOccurrence = index;
-                }
+        // Replace the first occurrence and drop the others
+        this.fields[first] = field;
+        int kept = first + 1;
+        for (int i = first + 1; i < this.count; i++) {
+            if (!matches(this.fields[i], name)) {
+                this.fields[kept++] = this.fields[i];
             }
         }
-        this.fields.add(firstOccurrence, field);
+        for (int i = kept; i < this.count; i++) {
+            this.fields[i] = null;
+        }
+        this.count = kept;
+        this.modCount++;
+    }
+
+    /**
+     * Returns the number of changes made to the fields so far.
+     */
+    int getModCount() {
+        return this.modCount;
     }
 
     public Iterator<MinimalField> iterator() {
-        return Collections.unmodifiableList(fields).iterator();
+        return new Iterator<MinimalField>() {
+
+            private int next = 0;
+
+            public boolean hasNext() {
+                return this.next < count;
+            }
+
+            public MinimalField next() {
+                if (this.next >= count) {
+                    throw new NoSuchElementException();
+                }
+                return fields[this.next++];
+            }
+
+            public void remove() {
+                throw new UnsupportedOperationException();
+            }
+
+        };
     }
 
     @Override
     public String toString() {
-        return this.fields.toString();
+        return getFields().toString();
     }
 
 }
-
@@ -29,10 +29,14 @@ package org.apache.http.entity.mime;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
 import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -63,14 +67,12 @@ public class HttpMultipart {
 
     private static void writeBytes(
             final String s, final Charset charset, final OutputStream out) throws IOException {
-        ByteArrayBuffer b = encode(charset, s);
-        writeBytes(b, out);
+        FIELD_ENCODER.get().write(s, charset, out);
     }
 
     private static void writeBytes(
             final String s, final OutputStream out) throws IOException {
-        ByteArrayBuffer b = encode(MIME.DEFAULT_CHARSET, s);
-        writeBytes(b, out);
+        FIELD_ENCODER.get().write(s, MIME.DEFAULT_CHARSET, out);
     }
 
     private static void writeField(
@@ -93,6 +95,15 @@ public class HttpMultipart {
     private static final ByteArrayBuffer CR_LF = encode(MIME.DEFAULT_CHARSET, "\r\n");
     private static final ByteArrayBuffer TWO_DASHES = encode(MIME.DEFAULT_CHARSET, "--");
 
+    private static final int SCRATCH_SIZE = 256;
+
+    private static final ThreadLocal<FieldEncoder> FIELD_ENCODER = new ThreadLocal<FieldEncoder>() {
+        @Override
+        protected FieldEncoder initialValue() {
+            return new FieldEncoder();
+        }
+    };
+
 
     private final String subType;
     private final Charset charset;
@@ -101,6 +112,12 @@ public class HttpMultipart {
 
     private final HttpMultipartMode mode;
 
+    // Encoded delimiters and part headers, see #getFraming()
+    private byte[][] framing;
+    // The parts and header changes the framing was compiled from
+    private FormBodyPart[] framedParts;
+    private int[] framedModCounts;
+
     /**
      * Creates an instance with the specified settings.
      *
@@ -162,22 +179,78 @@ public class HttpMultipart {
         if (part == null) {
             return;
         }
-        this.parts.add(part);
+        synchronized (this) {
+            this.parts.add(part);
+            this.framing = null;
+        }
     }
 
     public String getBoundary() {
         return this.boundary;
     }
 
-    private void doWriteTo(
-        final HttpMultipartMode mode,
-        final OutputStream out,
-        boolean writeContent) throws IOException {
+    /**
+     * Returns the framing of the current parts, compiling it if the parts or
+     * their headers changed since it was last compiled. Segment <code>i</code>
+     * precedes the content of part <code>i</code> and the last segment follows
+     * the content of the last part, so the entity is written by interleaving
+     * them.
+     */
+    private synchronized byte[][] getFraming() {
+        byte[][] framing = this.framing;
+        if (framing == null || !isFramingCurrent()) {
+            try {
+                framing = compileFraming(this.mode);
+            } catch (IOException ex) {
+                // Should never happen, the framing is written to memory
+                throw new IllegalStateException(ex.getMessage());
+            }
+            int count = this.parts.size();
+            FormBodyPart[] framedParts = new FormBodyPart[count];
+            int[] framedModCounts = new int[count];
+            for (int i = 0; i < count; i++) {
+                framedParts[i] = this.parts.get(i);
+                framedModCounts[i] = framedParts[i].getHeader().getModCount();
+            }
+            this.framing = framing;
+            this.framedParts = framedParts;
+            this.framedModCounts = framedModCounts;
+        }
+        return framing;
+    }
+
+    /**
+     * Checks that the parts, which may be changed through
+     * {@link #getBodyParts()}, and their headers are the ones the framing was
+     * compiled from.
+     */
+    private boolean isFramingCurrent() {
+        int count = this.parts.size();
+        if (count != this.framedParts.length) {
+            return false;
+        }
+        for (int i = 0; i < count; i++) {
+            FormBodyPart part = this.parts.get(i);
+            if (part != this.framedParts[i]
+                    || part.getHeader().getModCount() != this.framedModCounts[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
 
-        ByteArrayBuffer boundary = encode(this.charset, getBoundary());
+    private byte[][] compileFraming(final HttpMultipartMode mode) throws IOException {
+        byte[][] framing = new byte[this.parts.size() + 1][];
+        ByteArrayOutputStream out = FIELD_ENCODER.get().framingBuffer;
+        out.reset();
+        int index = 0;
         for (FormBodyPart part: this.parts) {
+            if (index > 0) {
+                // Closes the content of the previous part
+                writeBytes(CR_LF, out);
+            }
             writeBytes(TWO_DASHES, out);
-            writeBytes(boundary, out);
+            writeBytes(getBoundary(), this.charset, out);
             writeBytes(CR_LF, out);
 
             Header header = part.getHeader();
@@ -202,15 +275,18 @@ public class HttpMultipart {
             }
             writeBytes(CR_LF, out);
 
-            if (writeContent) {
-                part.getBody().writeTo(out);
-            }
+            framing[index++] = out.toByteArray();
+            out.reset();
+        }
+        if (index > 0) {
             writeBytes(CR_LF, out);
         }
         writeBytes(TWO_DASHES, out);
-        writeBytes(boundary, out);
+        writeBytes(getBoundary(), this.charset, out);
         writeBytes(TWO_DASHES, out);
         writeBytes(CR_LF, out);
+        framing[index] = out.toByteArray();
+        return framing;
     }
 
     /**
@@ -221,7 +297,35 @@ public class HttpMultipart {
      * @see #getMode()
      */
     public void writeTo(final OutputStream out) throws IOException {
-        doWriteTo(this.mode, out, true);
+        byte[][] framing = getFraming();
+        int index = 0;
+        for (FormBodyPart part: this.parts) {
+            out.write(framing[index++]);
+            part.getBody().writeTo(out);
+        }
+        out.write(framing[index]);
+    }
+
+    /**
+     * Returns a new stream reading the content in the multipart/form
+     * encoding, the same content written by {@link #writeTo(OutputStream)}.
+     * The stream is pulled on demand: the part bodies are only read when the
+     * stream reaches them. It can be called again to re-read the content as
+     * long as all the bodies are repeatable.
+     *
+     * @since 4.1
+     */
+    public InputStream getContent() throws IOException {
+        byte[][] framing;
+        ContentBody[] bodies;
+        synchronized (this) {
+            framing = getFraming();
+            bodies = new ContentBody[this.parts.size()];
+            for (int i = 0; i < bodies.length; i++) {
+                bodies[i] = this.parts.get(i).getBody();
+            }
+        }
+        return new MultipartInputStream(framing, bodies);
     }
 
     /**
@@ -230,9 +334,9 @@ public class HttpMultipart {
      * from one another). If any of the @{link BodyPart}s contained in this object
      * is of a streaming entity of unknown length the total length is also unknown.
      * <p/>
-     * This method buffers only a small amount of data in order to determine the
-     * total length of the entire entity. The content of individual parts is not
-     * buffered.
+     * The delimiters and headers of the parts are encoded once and kept until
+     * a part is added, so the length is computed without serializing the
+     * entity. The content of individual parts is not buffered.
      *
      * @return total length of the multipart entity if known, <code>-1</code>
      *   otherwise.
@@ -248,14 +352,87 @@ public class HttpMultipart {
                 return -1;
             }
         }
-        ByteArrayOutputStream out = new ByteArrayOutputStream();
-        try {
-            doWriteTo(this.mode, out, false);
-            byte[] extra = out.toByteArray();
-            return contentLen + extra.length;
-        } catch (IOException ex) {
-            // Should never happen
-            return -1;
+        for (byte[] segment: getFraming()) {
+            contentLen += segment.length;
+        }
+        return contentLen;
+    }
+
+    /**
+     * Encodes header fields straight into a reused scratch buffer. Strings
+     * made only of ASCII characters, which is the common case for the
+     * boundary and the field names and values, are copied byte by byte when
+     * the charset is a superset of ASCII; any other string goes through a
+     * {@link CharsetEncoder} cached for the last charset used. One instance is
+     * kept per thread, so encoding a field allocates nothing.
+     */
+    private static final class FieldEncoder {
+
+        private final byte[] scratch = new byte[SCRATCH_SIZE];
+        private final ByteBuffer scratchBuffer = ByteBuffer.wrap(this.scratch);
+        private final ByteArrayOutputStream framingBuffer = new ByteArrayOutputStream(SCRATCH_SIZE);
+        private Charset charset;
+        private CharsetEncoder encoder;
+        private boolean asciiCompatible;
+
+        void write(final String s, final Charset charset, final OutputStream out) throws IOException {
+            if (charset != this.charset) {
+                String name = charset.name();
+                this.charset = charset;
+                this.encoder = null;
+                this.asciiCompatible = name.equals("US-ASCII")
+                        || name.equals("ISO-8859-1") || name.equals("UTF-8");
+            }
+            if (this.asciiCompatible && isAscii(s)) {
+                writeAscii(s, out);
+            } else {
+                writeEncoded(s, out);
+            }
+        }
+
+        private void writeAscii(final String s, final OutputStream out) throws IOException {
+            int len = s.length();
+            int pos = 0;
+            while (pos < len) {
+                int count = Math.min(len - pos, this.scratch.length);
+                for (int i = 0; i < count; i++) {
+                    this.scratch[i] = (byte) s.charAt(pos + i);
+                }
+                out.write(this.scratch, 0, count);
+                pos += count;
+            }
+        }
+
+        private void writeEncoded(final String s, final OutputStream out) throws IOException {
+            if (this.encoder == null) {
+                // Same replacement behaviour as Charset#encode
+                this.encoder = this.charset.newEncoder()
+                        .onMalformedInput(CodingErrorAction.REPLACE)
+                        .onUnmappableCharacter(CodingErrorAction.REPLACE);
+            }
+            CharsetEncoder encoder = this.encoder;
+            encoder.reset();
+            CharBuffer chars = CharBuffer.wrap(s);
+            CoderResult result;
+            do {
+                this.scratchBuffer.clear();
+                result = encoder.encode(chars, this.scratchBuffer, true);
+                out.write(this.scratch, 0, this.scratchBuffer.position());
+            } while (result.isOverflow());
+            do {
+                this.scratchBuffer.clear();
+                result = encoder.flush(this.scratchBuffer);
+                out.write(this.scratch, 0, this.scratchBuffer.position());
+            } while (result.isOverflow());
+        }
+
+        private static boolean isAscii(final String s) {
+            for (int i = 0; i < s.length(); i++) {
+                if (s.charAt(i) >= 0x80) {
+                    return false;
+                }
+            }
+            return true;
         }
     }
 
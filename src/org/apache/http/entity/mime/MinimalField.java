@@ -39,7 +39,7 @@ public class MinimalField {
 
     MinimalField(final String name, final String value) {
         super();
-        this.name = name;
+        this.name = Header.internName(name);
         this.value = value;
     }
 
@@ -174,9 +174,13 @@ public class MultipartEntity implements HttpEntity {
         }
     }
 
+    /**
+     * Returns a stream over the encoded entity. The part bodies are read as
+     * the stream reaches them, so the entity is never buffered as a whole.
+     * A repeatable entity can be read again by calling this method again.
+     */
     public InputStream getContent() throws IOException, UnsupportedOperationException {
-        throw new UnsupportedOperationException(
-                    "Multipart form entity does not implement #getContent()");
+        return this.multipart.getContent();
     }
 
     public void writeTo(final OutputStream outstream) throws IOException {
@@ -0,0 +1,154 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.http.entity.mime;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import org.apache.http.entity.mime.content.ContentBody;
+import org.apache.http.entity.mime.content.RepeatableContentBody;
+
+/**
+ * Pull-based view of the content of a {@link HttpMultipart}. The encoded
+ * framing segments are read from memory and the part bodies are opened one
+ * at a time as the stream reaches them. Bodies implementing
+ * {@link RepeatableContentBody} are streamed; any other body is buffered on
+ * its own when reached, so the entity as a whole is never buffered.
+ *
+ * @since 4.1
+ */
+class MultipartInputStream extends InputStream {
+
+    private final byte[][] framing;
+    private final ContentBody[] bodies;
+
+    // Even steps read framing segments, odd steps read part bodies
+    private int step;
+    private InputStream current;
+    private boolean closed;
+
+    /**
+     * @param framing the framing segments, one more than the bodies
+     * @param bodies the part bodies
+     */
+    MultipartInputStream(final byte[][] framing, final ContentBody[] bodies) {
+        super();
+        this.framing = framing;
+        this.bodies = bodies;
+        this.step = -1;
+    }
+
+    /**
+     * Moves to the next segment or body.
+     *
+     * @return {@code false} once the end of the entity is reached
+     */
+    private boolean advance() throws IOException {
+        if (this.current != null) {
+            this.current.close();
+            this.current = null;
+        }
+        this.step++;
+        if (this.step > 2 * this.bodies.length) {
+            return false;
+        }
+        if (this.step % 2 == 0) {
+            this.current = new ByteArrayInputStream(this.framing[this.step / 2]);
+        } else {
+            this.current = openBody(this.bodies[this.step / 2]);
+        }
+        return true;
+    }
+
+    private static InputStream openBody(final ContentBody body) throws IOException {
+        if (body instanceof RepeatableContentBody) {
+            return ((RepeatableContentBody) body).openStream();
+        }
+        long length = body.getContentLength();
+        ByteArrayOutputStream buffer = new ByteArrayOutputStream(
+                length > 0 && length < Integer.MAX_VALUE ? (int) length : 4096);
+        body.writeTo(buffer);
+        return new ByteArrayInputStream(buffer.toByteArray());
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        while (this.current != null || advance()) {
+            int b = this.current.read();
+            if (b != -1) {
+                return b;
+            }
+            if (!advance()) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int read(final byte[] b, final int off, final int len) throws IOException {
+        if (this.closed) {
+            throw new IOException("Stream closed");
+        }
+        if (len == 0) {
+            return 0;
+        }
+        while (this.current != null || advance()) {
+            int l = this.current.read(b, off, len);
+            if (l > 0) {
+                return l;
+            }
+            if (!advance()) {
+                break;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return this.current != null ? this.current.available() : 0;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!this.closed) {
+            this.closed = true;
+            if (this.current != null) {
+                this.current.close();
+                this.current = null;
+            }
+        }
+    }
+
+}
@@ -26,7 +26,9 @@
  */
 package org.apache.http.entity.mime.content;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 
 import org.apache.http.entity.mime.MIME;
@@ -37,7 +39,7 @@ import org.apache.http.entity.mime.content.AbstractContentBody;
  *
  * @since 4.1
  */
-public class ByteArrayBody extends AbstractContentBody {
+public class ByteArrayBody extends AbstractContentBody implements RepeatableContentBody {
 
     /**
      * The contents of the file contained in this part.
@@ -79,6 +81,10 @@ public class ByteArrayBody extends AbstractContentBody {
         return filename;
     }
 
+    public InputStream openStream() {
+        return new ByteArrayInputStream(data);
+    }
+
     public void writeTo(final OutputStream out) throws IOException {
         out.write(data);
     }
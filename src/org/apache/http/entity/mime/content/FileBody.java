@@ -29,9 +29,13 @@ package org.apache.http.entity.mime.content;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
 
 import org.apache.http.entity.mime.MIME;
 
@@ -39,12 +43,29 @@ import org.apache.http.entity.mime.MIME;
  *
  * @since 4.0
  */
-public class FileBody extends AbstractContentBody {
+public class FileBody extends AbstractContentBody implements RepeatableContentBody {
+
+    /**
+     * Files of at least this size are memory mapped, and written to the
+     * channel when it stops accepting transfers or copied to the stream when
+     * it is not a channel.
+     */
+    public static final int DEFAULT_MAP_THRESHOLD = 64 * 1024;
+
+    /**
+     * Minimum size of the chunks copied from a mapped file to a stream that
+     * is not a channel. Reading from memory is cheap, so the larger chunk
+     * only cuts the number of writes.
+     */
+    public static final int DEFAULT_MAPPED_CHUNK_SIZE = 64 * 1024;
 
     private final File file;
     private final String filename;
     private final String charset;
 
+    private int bufferSize = TransferBuffers.DEFAULT_BUFFER_SIZE;
+    private long mapThreshold = DEFAULT_MAP_THRESHOLD;
+
     /**
      * @since 4.1
      */
@@ -85,16 +106,90 @@ public class FileBody extends AbstractContentBody {
         return new FileInputStream(this.file);
     }
 
+    public InputStream openStream() throws IOException {
+        return getInputStream();
+    }
+
+    /**
+     * Sets the size of the chunks copied to output streams that are not
+     * channels. Chunks copied from a mapped file are at least
+     * {@link #DEFAULT_MAPPED_CHUNK_SIZE} long. The buffer is reused between
+     * writes on the same thread.
+     *
+     * @since 4.1
+     */
+    public void setBufferSize(final int bufferSize) {
+        TransferBuffers.checkBufferSize(bufferSize);
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @since 4.1
+     */
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
+    /**
+     * Sets the minimum size of the rest of a file that is memory mapped,
+     * and written to the channel when it stops accepting transfers or copied
+     * to the stream when it is not a channel. Smaller rests are read.
+     *
+     * @since 4.1
+     */
+    public void setMapThreshold(final long mapThreshold) {
+        if (mapThreshold < 0) {
+            throw new IllegalArgumentException("Map threshold may not be negative");
+        }
+        this.mapThreshold = mapThreshold;
+    }
+
+    /**
+     * @since 4.1
+     */
+    public long getMapThreshold() {
+        return this.mapThreshold;
+    }
+
+    /**
+     * Writes the file to the stream. If the stream is backed by a channel
+     * the file is transferred with {@link FileChannel#transferTo}, which lets
+     * the system avoid copying it through the heap, and a large rest the
+     * channel does not take is memory mapped and written to it. Otherwise,
+     * as a stream only takes byte arrays, a large file is memory mapped and
+     * copied in chunks of at least {@link #DEFAULT_MAPPED_CHUNK_SIZE}, and a
+     * small one is read in chunks of the configured buffer size.
+     */
     public void writeTo(final OutputStream out) throws IOException {
         if (out == null) {
             throw new IllegalArgumentException("Output stream may not be null");
         }
-        InputStream in = new FileInputStream(this.file);
+        FileInputStream in = new FileInputStream(this.file);
         try {
-            byte[] tmp = new byte[4096];
-            int l;
-            while ((l = in.read(tmp)) != -1) {
-                out.write(tmp, 0, l);
+            FileChannel channel = in.getChannel();
+            WritableByteChannel target = null;
+            if (out instanceof FileOutputStream) {
+                target = ((FileOutputStream) out).getChannel();
+            } else if (out instanceof WritableByteChannel) {
+                target = (WritableByteChannel) out;
+            }
+
+            long size = channel.size();
+            long position = 0;
+            if (target != null) {
+                position = transfer(channel, size, target);
+            }
+            long remaining = size - position;
+            if (remaining > 0 && remaining >= this.mapThreshold && remaining <= Integer.MAX_VALUE) {
+                if (target != null) {
+                    position = writeMapped(channel, position, remaining, target);
+                } else {
+                    position = copyMapped(channel, position, remaining, out);
+                }
+            }
+            if (position < size) {
+                channel.position(position);
+                copy(in, out);
             }
             out.flush();
         } finally {
@@ -102,6 +197,55 @@ public class FileBody extends AbstractContentBody {
         }
     }
 
+    private static long transfer(
+            final FileChannel channel, final long size, final WritableByteChannel target) throws IOException {
+        long position = 0;
+        while (position < size) {
+            long transferred = channel.transferTo(position, size - position, target);
+            if (transferred <= 0) {
+                // The channel does not accept more now, copy the rest
+                break;
+            }
+            position += transferred;
+        }
+        return position;
+    }
+
+    private static long writeMapped(
+            final FileChannel channel, final long position, final long length,
+            final WritableByteChannel target) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        while (mapped.hasRemaining()) {
+            if (target.write(mapped) <= 0) {
+                // Not accepting more either, copy the rest
+                break;
+            }
+        }
+        return position + mapped.position();
+    }
+
+    private long copyMapped(
+            final FileChannel channel, final long position, final long length,
+            final OutputStream out) throws IOException {
+        MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+        int chunkSize = Math.max(this.bufferSize, DEFAULT_MAPPED_CHUNK_SIZE);
+        byte[] tmp = TransferBuffers.get(chunkSize);
+        while (mapped.hasRemaining()) {
+            int l = Math.min(chunkSize, mapped.remaining());
+            mapped.get(tmp, 0, l);
+            out.write(tmp, 0, l);
+        }
+        return position + length;
+    }
+
+    private void copy(final InputStream in, final OutputStream out) throws IOException {
+        byte[] tmp = TransferBuffers.get(this.bufferSize);
+        int l;
+        while ((l = in.read(tmp, 0, this.bufferSize)) != -1) {
+            out.write(tmp, 0, l);
+        }
+    }
+
     public String getTransferEncoding() {
         return MIME.ENC_BINARY;
     }
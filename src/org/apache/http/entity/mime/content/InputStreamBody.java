@@ -42,6 +42,8 @@ public class InputStreamBody extends AbstractContentBody {
     private final InputStream in;
     private final String filename;
 
+    private int bufferSize = TransferBuffers.DEFAULT_BUFFER_SIZE;
+
     public InputStreamBody(final InputStream in, final String mimeType, final String filename) {
         super(mimeType);
         if (in == null) {
@@ -59,14 +61,32 @@ public class InputStreamBody extends AbstractContentBody {
         return this.in;
     }
 
+    /**
+     * Sets the size of the chunks copied from the input stream. The buffer is
+     * reused between writes on the same thread.
+     *
+     * @since 4.1
+     */
+    public void setBufferSize(final int bufferSize) {
+        TransferBuffers.checkBufferSize(bufferSize);
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * @since 4.1
+     */
+    public int getBufferSize() {
+        return this.bufferSize;
+    }
+
     public void writeTo(final OutputStream out) throws IOException {
         if (out == null) {
             throw new IllegalArgumentException("Output stream may not be null");
         }
         try {
-            byte[] tmp = new byte[4096];
+            byte[] tmp = TransferBuffers.get(this.bufferSize);
             int l;
-            while ((l = this.in.read(tmp)) != -1) {
+            while ((l = this.in.read(tmp, 0, this.bufferSize)) != -1) {
                 out.write(tmp, 0, l);
             }
             out.flush();
@@ -42,7 +42,7 @@ import org.apache.http.entity.mime.MIME;
  *
  * @since 4.0
  */
-public class StringBody extends AbstractContentBody {
+public class StringBody extends AbstractContentBody implements RepeatableContentBody {
 
     private final byte[] content;
     private final Charset charset;
@@ -132,16 +132,15 @@ public class StringBody extends AbstractContentBody {
                 this.charset);
     }
 
+    public InputStream openStream() {
+        return new ByteArrayInputStream(this.content);
+    }
+
     public void writeTo(final OutputStream out) throws IOException {
         if (out == null) {
             throw new IllegalArgumentException("Output stream may not be null");
         }
-        InputStream in = new ByteArrayInputStream(this.content);
-        byte[] tmp = new byte[4096];
-        int l;
-        while ((l = in.read(tmp)) != -1) {
-            out.write(tmp, 0, l);
-        }
+        out.write(this.content);
         out.flush();
     }
 
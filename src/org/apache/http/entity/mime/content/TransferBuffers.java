@@ -0,0 +1,65 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+package org.apache.http.entity.mime.content;
+
+/**
+ * Per-thread scratch buffers used by the content bodies to copy their
+ * content to an output stream, so that writing a body does not allocate a
+ * new buffer each time.
+ *
+ * @since 4.1
+ */
+final class TransferBuffers {
+
+    static final int DEFAULT_BUFFER_SIZE = 8192;
+
+    private static final ThreadLocal<byte[]> BUFFER = new ThreadLocal<byte[]>();
+
+    private TransferBuffers() {
+    }
+
+    /**
+     * Returns the buffer of the calling thread, growing it if it is smaller
+     * than the requested size. The buffer may be larger than requested.
+     */
+    static byte[] get(final int size) {
+        byte[] buffer = BUFFER.get();
+        if (buffer == null || buffer.length < size) {
+            buffer = new byte[size];
+            BUFFER.set(buffer);
+        }
+        return buffer;
+    }
+
+    static void checkBufferSize(final int size) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("Buffer size must be positive");
+        }
+    }
+
+}
@@ -0,0 +1,13 @@
+/*
+ * Stand-in for the Android class, whose android.jar version only throws
+ * on the desktop JVM. Used by the unit tests alone.
+ */
+package android.content;
+
+public abstract class BroadcastReceiver {
+
+    public BroadcastReceiver() {
+    }
+
+    public abstract void onReceive(Context context, Intent intent);
+}
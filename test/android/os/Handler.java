@@ -0,0 +1,27 @@
+/*
+ * Stand-in for the Android class, whose android.jar version only throws
+ * on the desktop JVM. Used by the unit tests alone.
+ */
+package android.os;
+
+public class Handler {
+
+    private final Looper mLooper;
+
+    public Handler() {
+        this(Looper.getMainLooper());
+    }
+
+    public Handler(Looper looper) {
+        mLooper = looper;
+    }
+
+    public final Looper getLooper() {
+        return mLooper;
+    }
+
+    public final boolean post(Runnable r) {
+        mLooper.post(r);
+        return true;
+    }
+}
@@ -0,0 +1,45 @@
+/*
+ * Stand-in for the Android class, whose android.jar version only throws
+ * on the desktop JVM. Used by the unit tests alone.
+ */
+package android.os;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+public final class Looper {
+
+    private static final Looper sMainLooper = new Looper("main");
+
+    private final ExecutorService mExecutor;
+    private volatile Thread mThread;
+
+    private Looper(final String name) {
+        // A single thread runs the messages in order, as the main thread does
+        mExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                mThread = thread;
+                return thread;
+            }
+        });
+    }
+
+    public static Looper getMainLooper() {
+        return sMainLooper;
+    }
+
+    public static Looper myLooper() {
+        return Thread.currentThread() == sMainLooper.mThread ? sMainLooper : null;
+    }
+
+    public Thread getThread() {
+        return mThread;
+    }
+
+    void post(Runnable runnable) {
+        mExecutor.execute(runnable);
+    }
+}
@@ -0,0 +1,146 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ * Checks the in flight and pending slots of {@link CatchoomFrameScheduler}
+ * and which outcomes it delivers, with frames that record their callbacks.
+ * @author Catchoom
+ *
+ */
+public class CatchoomFrameSchedulerTest {
+
+	private final List<String> mEvents = new ArrayList<String>();
+	private final CatchoomFrameScheduler mScheduler = new CatchoomFrameScheduler(2);
+	
+	@Test
+	public void testFramesStartWhileSlotsAreFree() {
+		mScheduler.submit(new TestFrame("f1"));
+		mScheduler.submit(new TestFrame("f2"));
+		
+		assertEquals(Arrays.asList("start f1", "start f2"), mEvents);
+	}
+	
+	@Test
+	public void testNewerFrameReplacesThePendingOne() {
+		mScheduler.submit(new TestFrame("f1"));
+		mScheduler.submit(new TestFrame("f2"));
+		mScheduler.submit(new TestFrame("f3"));
+		mScheduler.submit(new TestFrame("f4"));
+		
+		// f3 waited in the pending slot and is dropped, never started
+		assertEquals(Arrays.asList("start f1", "start f2", "drop f3"), mEvents);
+	}
+	
+	@Test
+	public void testFinishedFrameStartsThePendingOne() {
+		TestFrame first = new TestFrame("f1");
+		mScheduler.submit(first);
+		mScheduler.submit(new TestFrame("f2"));
+		mScheduler.submit(new TestFrame("f3"));
+		
+		assertTrue(mScheduler.finish(first, false));
+		
+		assertEquals(Arrays.asList("start f1", "start f2", "start f3"), mEvents);
+	}
+	
+	@Test
+	public void testSuccessAbortsTheOlderFramesInFlight() {
+		TestFrame first = new TestFrame("f1");
+		TestFrame second = new TestFrame("f2");
+		mScheduler.submit(first);
+		mScheduler.submit(second);
+		mScheduler.submit(new TestFrame("f3"));
+		
+		assertTrue(mScheduler.finish(second, true));
+		
+		// f1 is aborted, which frees its slot for the pending frame
+		assertEquals(Arrays.asList("start f1", "start f2", "abort f1", "start f3"), mEvents);
+		// The outcome of the aborted frame is not delivered
+		assertFalse(mScheduler.finish(first, false));
+	}
+	
+	@Test
+	public void testSuccessKeepsTheNewerFramesInFlight() {
+		TestFrame first = new TestFrame("f1");
+		TestFrame second = new TestFrame("f2");
+		mScheduler.submit(first);
+		mScheduler.submit(second);
+		
+		assertTrue(mScheduler.finish(first, true));
+		assertTrue(mScheduler.finish(second, true));
+		
+		assertEquals(Arrays.asList("start f1", "start f2"), mEvents);
+	}
+	
+	@Test
+	public void testFailureAbortsNothing() {
+		TestFrame first = new TestFrame("f1");
+		TestFrame second = new TestFrame("f2");
+		mScheduler.submit(first);
+		mScheduler.submit(second);
+		
+		assertTrue(mScheduler.finish(second, false));
+		assertTrue(mScheduler.finish(first, true));
+		
+		assertEquals(Arrays.asList("start f1", "start f2"), mEvents);
+	}
+	
+	@Test
+	public void testCancelAllDropsPendingAndAbortsInFlight() {
+		TestFrame first = new TestFrame("f1");
+		mScheduler.submit(first);
+		mScheduler.submit(new TestFrame("f2"));
+		mScheduler.submit(new TestFrame("f3"));
+		
+		mScheduler.cancelAll();
+		
+		assertEquals(Arrays.asList("start f1", "start f2", "drop f3", "abort f1", "abort f2"), mEvents);
+		assertFalse(mScheduler.finish(first, true));
+		
+		// The slots are free again
+		mScheduler.submit(new TestFrame("f4"));
+		assertEquals("start f4", mEvents.get(mEvents.size() - 1));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testNoSlotIsRejected() {
+		new CatchoomFrameScheduler(0);
+	}
+	
+	private class TestFrame extends CatchoomFrameScheduler.Frame {
+		
+		private final String mName;
+		
+		TestFrame(String name) {
+			mName = name;
+		}
+		
+		@Override
+		void start() {
+			mEvents.add("start " + mName);
+		}
+		
+		@Override
+		void abort() {
+			mEvents.add("abort " + mName);
+		}
+		
+		@Override
+		void drop() {
+			mEvents.add("drop " + mName);
+		}
+	}
+}
@@ -0,0 +1,170 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks hedged searches against a {@link CatchoomStandInServer} that
+ * answers the first searches it gets slowly.
+ * @author Catchoom
+ *
+ */
+public class CatchoomHedgedSearchTest {
+
+	private static final String TOKEN = "collection-token";
+	private static final int FRAME_WIDTH = 64;
+	private static final int FRAME_HEIGHT = 48;
+	private static final int SEARCHES = 3;
+	private static final long HEDGE_DELAY_MILLIS = 100;
+	private static final long SLOW_MILLIS = 5000;
+	private static final long TIMEOUT_MILLIS = 10000;
+	// Delivered when the response handler gets a null error
+	private static final Object FAILED = new Object();
+	
+	private final BlockingQueue<Object> mResponses = new LinkedBlockingQueue<Object>();
+	private CatchoomStandInServer mServer;
+	private CatchoomConnectionPool mConnectionPool;
+	private CatchoomRequestEngine mRequestEngine;
+	private CatchoomPipeline<Catchoom.SearchJob> mSearchPipeline;
+	private CatchoomHedgingPolicy mHedgingPolicy;
+	private Catchoom mCatchoom;
+	
+	@Before
+	public void setUp() throws IOException {
+		mServer = new CatchoomStandInServer();
+		mServer.start();
+		// Room for every search and its hedge
+		mConnectionPool = new CatchoomConnectionPool(2 * SEARCHES, 2 * SEARCHES,
+				CatchoomConnectionPool.DEFAULT_CONNECT_TIMEOUT_MILLIS,
+				CatchoomConnectionPool.DEFAULT_SOCKET_TIMEOUT_MILLIS,
+				CatchoomConnectionPool.DEFAULT_KEEP_ALIVE_MILLIS);
+		mRequestEngine = new CatchoomRequestEngine(SEARCHES, 16, CatchoomRequestEngine.RejectionPolicy.REJECT_NEWEST);
+		mSearchPipeline = Catchoom.createSearchPipeline("Hedged search test", SEARCHES);
+		mHedgingPolicy = new CatchoomHedgingPolicy(HEDGE_DELAY_MILLIS);
+		
+		mCatchoom = new Catchoom(mRequestEngine, mConnectionPool);
+		mCatchoom.setBaseUrl(mServer.getBaseUrl());
+		mCatchoom.setSearchPipeline(mSearchPipeline);
+		mCatchoom.setRetryPolicy(CatchoomRetryPolicy.NONE);
+		mCatchoom.setHedgingPolicy(mHedgingPolicy);
+		mCatchoom.setResponseHandler(new CatchoomResponseHandler() {
+			public void requestCompletedResponse(int requestCode, Object responseData) {
+				mResponses.add(responseData);
+			}
+			
+			public void requestFailedResponse(CatchoomErrorResponseItem responseError) {
+				mResponses.add(null != responseError ? responseError : FAILED);
+			}
+		});
+	}
+	
+	@After
+	public void tearDown() {
+		mRequestEngine.shutdown();
+		mSearchPipeline.shutdown();
+		mConnectionPool.shutdown();
+		mServer.stop();
+	}
+	
+	@Test
+	public void testFastSearchIsNotHedged() throws Exception {
+		search();
+		
+		assertTrue(awaitResponse() instanceof ArrayList);
+		assertEquals(0, mHedgingPolicy.getHedgeCount());
+		assertEquals(1, mServer.getSearchCount());
+		assertEquals(1, mHedgingPolicy.getLatencies().getCount());
+	}
+	
+	@Test
+	public void testHedgeAnswersForSlowSearchAndAbortsIt() throws Exception {
+		mServer.setLatency(CatchoomStandInServer.fixedLatency(0), slowFirst(1, 200));
+		
+		long start = System.currentTimeMillis();
+		search();
+		Object response = awaitResponse();
+		long elapsed = System.currentTimeMillis() - start;
+		
+		assertTrue("Unexpected response " + response, response instanceof ArrayList);
+		// The worker waits for the original request, so the response is only
+		// delivered this soon if the hedge aborted it
+		assertTrue("Delivered after " + elapsed + " ms", elapsed < SLOW_MILLIS / 2);
+		assertEquals(1, mHedgingPolicy.getHedgeCount());
+		assertEquals(1, mHedgingPolicy.getHedgeWinCount());
+		assertEquals(2, mServer.getSearchCount());
+		
+		// The original request had been waiting for the hedging delay and the
+		// hedge latency, not just the hedge latency
+		CatchoomLatencyHistogram latencies = mHedgingPolicy.getLatencies();
+		assertEquals(1, latencies.getCount());
+		assertTrue("Recorded " + latencies.getPercentile(100) + " ms",
+				latencies.getPercentile(100) >= HEDGE_DELAY_MILLIS + 200);
+	}
+	
+	@Test
+	public void testHedgesOfConcurrentSlowSearchesAreSentOnTime() throws Exception {
+		mServer.setLatency(CatchoomStandInServer.fixedLatency(0), slowFirst(SEARCHES, 1000));
+		
+		long start = System.currentTimeMillis();
+		for (int i = 0; i < SEARCHES; i++) {
+			search();
+		}
+		for (int i = 0; i < SEARCHES; i++) {
+			assertTrue(awaitResponse() instanceof ArrayList);
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		
+		// Every hedge is sent after the hedging delay, none waits for the
+		// others to be answered
+		assertTrue("Delivered after " + elapsed + " ms", elapsed < 1800);
+		assertEquals(SEARCHES, mHedgingPolicy.getHedgeCount());
+		assertEquals(SEARCHES, mHedgingPolicy.getHedgeWinCount());
+	}
+	
+	/**
+	 * Builds a latency distribution delaying the first searches past the test
+	 * timeout and the following ones by a given time.
+	 * @param slowCount Number of slow searches.
+	 * @param millis The delay of the following searches.
+	 * @return The latency distribution.
+	 */
+	private static CatchoomStandInServer.LatencyDistribution slowFirst(final int slowCount, final long millis) {
+		return new CatchoomStandInServer.LatencyDistribution() {
+			private final AtomicInteger mCount = new AtomicInteger();
+			
+			public long nextDelayMillis(Random random) {
+				return mCount.getAndIncrement() < slowCount ? SLOW_MILLIS : millis;
+			}
+		};
+	}
+	
+	private void search() {
+		byte[] frame = new byte[FRAME_WIDTH * FRAME_HEIGHT * 3 / 2];
+		Arrays.fill(frame, (byte) 128);
+		mCatchoom.search(TOKEN, frame, FRAME_WIDTH, FRAME_HEIGHT, CatchoomYuvEncoder.NV21);
+	}
+	
+	private Object awaitResponse() throws InterruptedException {
+		Object response = mResponses.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		assertNotNull("No response delivered", response);
+		return response;
+	}
+}
@@ -0,0 +1,107 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ * Checks the delays and counters of {@link CatchoomHedgingPolicy}.
+ * @author Catchoom
+ *
+ */
+public class CatchoomHedgingPolicyTest {
+
+	@Test
+	public void testNoHedgingBeforeTheMinimumSamples() {
+		CatchoomHedgingPolicy policy = new CatchoomHedgingPolicy();
+		for (int i = 1; i < CatchoomHedgingPolicy.DEFAULT_MIN_SAMPLES; i++) {
+			policy.recordLatency(10);
+			assertEquals(-1, policy.getDelayMillis());
+		}
+		
+		policy.recordLatency(10);
+		assertEquals(11, policy.getDelayMillis());
+	}
+	
+	@Test
+	public void testDefaultDelayIsThe95thPercentile() {
+		CatchoomHedgingPolicy policy = new CatchoomHedgingPolicy();
+		for (int i = 0; i < 95; i++) {
+			policy.recordLatency(10);
+		}
+		for (int i = 0; i < 5; i++) {
+			policy.recordLatency(1000);
+		}
+		// 10 is in the bucket from 10 to 11
+		assertEquals(11, policy.getDelayMillis());
+		
+		// One more slow search pushes the 95th percentile to the bucket of
+		// 1000, from 896 to 1023
+		policy.recordLatency(1000);
+		assertEquals(1023, policy.getDelayMillis());
+	}
+	
+	@Test
+	public void testCustomPercentileAndMinimumSamples() {
+		CatchoomHedgingPolicy policy = new CatchoomHedgingPolicy(50, 3);
+		policy.recordLatency(10);
+		policy.recordLatency(20);
+		assertEquals(-1, policy.getDelayMillis());
+		
+		policy.recordLatency(300);
+		// 20 is in the bucket from 20 to 23
+		assertEquals(23, policy.getDelayMillis());
+	}
+	
+	@Test
+	public void testFixedDelayIgnoresTheLatencies() {
+		CatchoomHedgingPolicy policy = new CatchoomHedgingPolicy(250);
+		assertEquals(250, policy.getDelayMillis());
+		
+		for (int i = 0; i < 100; i++) {
+			policy.recordLatency(5);
+		}
+		assertEquals(250, policy.getDelayMillis());
+		assertEquals(100, policy.getLatencies().getCount());
+	}
+	
+	@Test
+	public void testZeroFixedDelayHedgesStraightAway() {
+		assertEquals(0, new CatchoomHedgingPolicy(0).getDelayMillis());
+	}
+	
+	@Test
+	public void testHedgeAndWinCounters() {
+		CatchoomHedgingPolicy policy = new CatchoomHedgingPolicy(100);
+		assertEquals(0, policy.getHedgeWinRate(), 0);
+		
+		policy.recordHedge();
+		policy.recordHedge();
+		policy.recordHedge();
+		policy.recordHedge();
+		policy.recordHedgeWin();
+		
+		assertEquals(4, policy.getHedgeCount());
+		assertEquals(1, policy.getHedgeWinCount());
+		assertEquals(0.25, policy.getHedgeWinRate(), 0);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testNegativeFixedDelayIsRejected() {
+		new CatchoomHedgingPolicy(-1);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testZeroPercentileIsRejected() {
+		new CatchoomHedgingPolicy(0, 20);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testZeroMinimumSamplesIsRejected() {
+		new CatchoomHedgingPolicy(95, 0);
+	}
+}
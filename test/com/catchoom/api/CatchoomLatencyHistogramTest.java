@@ -0,0 +1,114 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Checks the buckets and percentiles of {@link CatchoomLatencyHistogram}.
+ * @author Catchoom
+ *
+ */
+public class CatchoomLatencyHistogramTest {
+
+	@Test
+	public void testEmptyHistogramHasNoPercentile() {
+		CatchoomLatencyHistogram histogram = new CatchoomLatencyHistogram();
+		
+		assertEquals(0, histogram.getCount());
+		assertEquals(-1, histogram.getPercentile(50));
+	}
+	
+	@Test
+	public void testSmallValuesAreExact() {
+		CatchoomLatencyHistogram histogram = new CatchoomLatencyHistogram();
+		for (long value = 0; value < 8; value++) {
+			histogram.record(value);
+		}
+		
+		assertEquals(8, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(0));
+		assertEquals(1, histogram.getPercentile(25));
+		assertEquals(3, histogram.getPercentile(50));
+		assertEquals(5, histogram.getPercentile(75));
+	}
+	
+	@Test
+	public void testNegativeValuesCountAsZero() {
+		CatchoomLatencyHistogram histogram = new CatchoomLatencyHistogram();
+		histogram.record(-5);
+		
+		assertEquals(1, histogram.getCount());
+		assertEquals(0, histogram.getPercentile(100));
+	}
+	
+	@Test
+	public void testBucketsBoundValuesWithinAQuarter() {
+		Random random = new Random(42);
+		for (int i = 0; i < 10000; i++) {
+			long value = 1 + (long) Math.exp(random.nextDouble() * Math.log(1e9));
+			CatchoomLatencyHistogram histogram = new CatchoomLatencyHistogram();
+			histogram.record(value);
+			
+			long bound = histogram.getPercentile(100);
+			assertTrue(value + " reported as " + bound, bound >= value && bound <= value * 1.25);
+		}
+	}
+	
+	@Test
+	public void testPercentilesPickTheBucketOfTheirRank() {
+		CatchoomLatencyHistogram histogram = new CatchoomLatencyHistogram();
+		for (long value = 1; value <= 100; value++) {
+			histogram.record(value);
+		}
+		
+		// 50 is in the bucket from 48 to 55, 95 in the one from 80 to 95 and
+		// 100 in the one from 96 to 111
+		assertEquals(55, histogram.getPercentile(50));
+		assertEquals(95, histogram.getPercentile(95));
+		assertEquals(111, histogram.getPercentile(100));
+		assertEquals(1, histogram.getPercentile(0));
+	}
+	
+	@Test
+	public void testHugeValuesFallInTheLastBucket() {
+		CatchoomLatencyHistogram histogram = new CatchoomLatencyHistogram();
+		histogram.record(1L << 45);
+		histogram.record(Long.MAX_VALUE);
+		
+		assertEquals(2, histogram.getCount());
+		assertEquals(histogram.getPercentile(0), histogram.getPercentile(100));
+		assertTrue(histogram.getPercentile(100) >= 1L << 40);
+	}
+	
+	@Test
+	public void testAddAndReset() {
+		CatchoomLatencyHistogram first = new CatchoomLatencyHistogram();
+		CatchoomLatencyHistogram second = new CatchoomLatencyHistogram();
+		first.record(1);
+		second.record(2);
+		second.record(3);
+		
+		first.add(second);
+		
+		assertEquals(3, first.getCount());
+		assertEquals(3, first.getPercentile(100));
+		assertEquals(2, second.getCount());
+		
+		first.reset();
+		assertEquals(0, first.getCount());
+		assertEquals(-1, first.getPercentile(100));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testPercentileAboveHundredIsRejected() {
+		new CatchoomLatencyHistogram().getPercentile(100.5);
+	}
+}
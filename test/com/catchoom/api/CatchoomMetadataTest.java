@@ -0,0 +1,70 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.Arrays;
+
+import org.json.JSONObject;
+import org.junit.Test;
+
+/**
+ * Checks that {@link CatchoomMetadata} reads values as strings the way the
+ * org.json parser it replaced did.
+ * @author Catchoom
+ *
+ */
+public class CatchoomMetadataTest {
+
+	// The nested objects have a single key, as org.json does not keep the
+	// order of the keys
+	private static final String JSON = "{"
+			+ "\"text\":\"a \\\"quoted\\\" 1.0\","
+			+ "\"integer\":1,"
+			+ "\"decimal\":1.50,"
+			+ "\"negative\":-2,"
+			+ "\"exponent\":1e2,"
+			+ "\"huge\":12345678901234567890,"
+			+ "\"flag\":true,"
+			+ "\"nothing\":null,"
+			+ "\"object\":{\"whole\":1.0},"
+			+ "\"exponentObject\":{\"exponent\":2.5E1},"
+			+ "\"nameObject\":{\"name\":\"v1.0\"},"
+			+ "\"deepObject\":{\"deep\":{\"x\":-3.00}},"
+			+ "\"array\":[1,1.0,0.25,\"2.0\",[3.0],{\"y\":4.10}]"
+			+ "}";
+	
+	@Test
+	public void testStringsMatchOrgJson() throws Exception {
+		JSONObject expected = new JSONObject(JSON);
+		CatchoomMetadata metadata = new CatchoomMetadata(JSON);
+		
+		for (String key : metadata.keySet()) {
+			assertEquals(key, expected.getString(key), metadata.getString(key));
+		}
+	}
+	
+	@Test
+	public void testNestedWholeNumbersLoseTheirFraction() {
+		CatchoomMetadata metadata = new CatchoomMetadata(JSON);
+		
+		assertEquals("{\"whole\":1}", metadata.getString("object"));
+		assertEquals("{\"exponent\":25}", metadata.getString("exponentObject"));
+		assertEquals("{\"name\":\"v1.0\"}", metadata.getString("nameObject"));
+		assertEquals("{\"deep\":{\"x\":-3}}", metadata.getString("deepObject"));
+		assertEquals("[1,1,0.25,\"2.0\",[3],{\"y\":4.1}]", metadata.getString("array"));
+	}
+	
+	@Test
+	public void testTypedValuesKeepTheirText() {
+		CatchoomMetadata metadata = new CatchoomMetadata(JSON);
+		
+		assertEquals(1.5, metadata.getDouble("decimal", 0), 0);
+		assertEquals(100, metadata.getLong("exponent", 0));
+		assertEquals(1.0, metadata.getMetadata("object").getDouble("whole", 0), 0);
+		assertEquals(Arrays.<Object>asList(1L, 1.0, 0.25, "2.0"), metadata.getList("array").subList(0, 4));
+	}
+}
@@ -0,0 +1,212 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks that only the searches that cannot reach the server are stored in
+ * the {@link CatchoomOfflineQueue}, and that a stored search whose response
+ * cannot be read or is refused leaves the queue instead of blocking it,
+ * while one answered with a transient error stays.
+ * @author Catchoom
+ *
+ */
+public class CatchoomOfflineQueueTest {
+
+	private static final String TOKEN = "collection-token";
+	private static final int FRAME_WIDTH = 64;
+	private static final int FRAME_HEIGHT = 48;
+	private static final long TIMEOUT_MILLIS = 10000;
+	// Delivered when the response handler gets a null error
+	private static final Object FAILED = new Object();
+	
+	private final BlockingQueue<Object> mResponses = new LinkedBlockingQueue<Object>();
+	private CatchoomStandInServer mServer;
+	private CatchoomConnectionPool mConnectionPool;
+	private CatchoomRequestEngine mRequestEngine;
+	private File mJournalFile;
+	private CatchoomOfflineQueue mQueue;
+	private Catchoom mCatchoom;
+	
+	@Before
+	public void setUp() throws IOException {
+		mServer = new CatchoomStandInServer();
+		mServer.start();
+		mConnectionPool = new CatchoomConnectionPool();
+		mRequestEngine = new CatchoomRequestEngine(2, 16, CatchoomRequestEngine.RejectionPolicy.REJECT_NEWEST);
+		mJournalFile = File.createTempFile("catchoom-offline", ".journal");
+		mJournalFile.delete();
+		mQueue = new CatchoomOfflineQueue(mJournalFile, 1024 * 1024);
+		
+		mCatchoom = new Catchoom(mRequestEngine, mConnectionPool);
+		mCatchoom.setRetryPolicy(CatchoomRetryPolicy.NONE);
+		mCatchoom.setOfflineQueue(mQueue);
+		mCatchoom.setResponseHandler(new CatchoomResponseHandler() {
+			public void requestCompletedResponse(int requestCode, Object responseData) {
+				mResponses.add(responseData);
+			}
+			
+			public void requestFailedResponse(CatchoomErrorResponseItem responseError) {
+				mResponses.add(null != responseError ? responseError : FAILED);
+			}
+		});
+	}
+	
+	@After
+	public void tearDown() {
+		mCatchoom.setOfflineQueue(null);
+		mRequestEngine.shutdown();
+		mConnectionPool.shutdown();
+		mServer.stop();
+		mJournalFile.delete();
+	}
+	
+	@Test
+	public void testUnreachableSearchIsQueued() throws Exception {
+		queueSearch();
+		
+		// Still unreachable, the search stays without any callback
+		mQueue.drain();
+		assertNull(mResponses.poll(500, TimeUnit.MILLISECONDS));
+		assertEquals(1, mQueue.size());
+	}
+	
+	@Test
+	public void testQueuedSearchIsPerformedOnceReachable() throws Exception {
+		queueSearch();
+		
+		mCatchoom.setBaseUrl(mServer.getBaseUrl());
+		Object response = awaitDrain();
+		
+		assertTrue("Unexpected response " + response, response instanceof ArrayList);
+		assertEquals(0, mQueue.size());
+	}
+	
+	@Test
+	public void testMalformedResponseIsNotQueued() throws Exception {
+		mServer.setMalformedRate(1);
+		mCatchoom.setBaseUrl(mServer.getBaseUrl());
+		
+		search();
+		
+		assertSame(FAILED, awaitResponse());
+		assertEquals(1, mServer.getMalformedCount());
+		assertEquals(0, mQueue.size());
+	}
+	
+	@Test
+	public void testQueuedSearchWithMalformedResponseIsCompleted() throws Exception {
+		queueSearch();
+		
+		mServer.setMalformedRate(1);
+		mCatchoom.setBaseUrl(mServer.getBaseUrl());
+		Object response = awaitDrain();
+		
+		assertSame(FAILED, response);
+		assertEquals(0, mQueue.size());
+		
+		// Not sent again
+		mQueue.drain();
+		assertNull(mResponses.poll(500, TimeUnit.MILLISECONDS));
+		assertEquals(1, mServer.getSearchCount());
+	}
+	
+	@Test
+	public void testQueuedSearchWithTransientErrorStays() throws Exception {
+		queueSearch();
+		
+		mServer.setErrorRate(1, 503, -1);
+		mCatchoom.setBaseUrl(mServer.getBaseUrl());
+		mQueue.drain();
+		
+		// Answered, but the server asked to send it again later
+		assertNull(mResponses.poll(1000, TimeUnit.MILLISECONDS));
+		assertEquals(1, mServer.getErrorCount());
+		assertEquals(1, mQueue.size());
+		
+		mServer.setErrorRate(0, 503, -1);
+		Object response = awaitDrain();
+		
+		assertTrue("Unexpected response " + response, response instanceof ArrayList);
+		assertEquals(0, mQueue.size());
+	}
+	
+	@Test
+	public void testQueuedSearchWithClientErrorIsCompleted() throws Exception {
+		queueSearch();
+		
+		mServer.setErrorRate(1, 400, -1);
+		mCatchoom.setBaseUrl(mServer.getBaseUrl());
+		Object response = awaitDrain();
+		
+		assertTrue("Unexpected response " + response, response instanceof CatchoomErrorResponseItem);
+		assertEquals(400, ((CatchoomErrorResponseItem) response).getErrorCode());
+		assertEquals(0, mQueue.size());
+	}
+	
+	/**
+	 * Performs a search against a port nobody listens on, which must be
+	 * stored in the offline queue.
+	 */
+	private void queueSearch() throws Exception {
+		ServerSocket socket = new ServerSocket(0);
+		int closedPort = socket.getLocalPort();
+		socket.close();
+		mCatchoom.setBaseUrl("http://127.0.0.1:" + closedPort + "/v0/");
+		
+		search();
+		
+		Object response = awaitResponse();
+		assertTrue("Unexpected response " + response, response instanceof CatchoomErrorResponseItem);
+		assertEquals(CatchoomErrorResponseItem.REQUEST_QUEUED, ((CatchoomErrorResponseItem) response).getErrorCode());
+		assertEquals(1, mQueue.size());
+	}
+	
+	private void search() {
+		byte[] frame = new byte[FRAME_WIDTH * FRAME_HEIGHT * 3 / 2];
+		Arrays.fill(frame, (byte) 128);
+		mCatchoom.search(TOKEN, frame, FRAME_WIDTH, FRAME_HEIGHT, CatchoomYuvEncoder.NV21);
+	}
+	
+	private Object awaitResponse() throws InterruptedException {
+		Object response = mResponses.poll(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+		assertNotNull("No response delivered", response);
+		return response;
+	}
+	
+	/**
+	 * Drains the queue until the stored search gets a response, as a drain
+	 * requested while the previous one is in progress is ignored.
+	 */
+	private Object awaitDrain() throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		while (System.currentTimeMillis() < deadline) {
+			mQueue.drain();
+			Object response = mResponses.poll(100, TimeUnit.MILLISECONDS);
+			if (null != response) {
+				return response;
+			}
+		}
+		throw new AssertionError("The queued search was never performed");
+	}
+}
@@ -0,0 +1,278 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks the backpressure of {@link CatchoomPipeline} and which jobs it
+ * drops, with stages that record the jobs and block until released.
+ * @author Catchoom
+ *
+ */
+public class CatchoomPipelineTest {
+
+	private static final long TIMEOUT_MILLIS = 10000;
+	// Long enough for the workers to go as far as they can
+	private static final long SETTLE_MILLIS = 200;
+	
+	private final CountDownLatch mRelease = new CountDownLatch(1);
+	private final List<String> mConsumed = new ArrayList<String>();
+	private final List<String> mDropped = new ArrayList<String>();
+	private final List<String> mFailed = new ArrayList<String>();
+	private final CatchoomPipeline.Listener<String> mListener = new CatchoomPipeline.Listener<String>() {
+		public void onJobDropped(String job) {
+			record(mDropped, job);
+		}
+		
+		public void onJobFailed(String job, Exception e) {
+			record(mFailed, job);
+		}
+	};
+	private CatchoomPipeline<String> mPipeline;
+	
+	@After
+	public void tearDown() {
+		mRelease.countDown();
+		if (null != mPipeline) {
+			mPipeline.shutdown();
+		}
+	}
+	
+	@Test
+	public void testJobsGoThroughEveryStageInOrder() throws Exception {
+		final List<String> trace = new ArrayList<String>();
+		List<CatchoomPipeline.Stage<String>> stages = new ArrayList<CatchoomPipeline.Stage<String>>();
+		for (int i = 1; i <= 3; i++) {
+			final int index = i;
+			stages.add(new CatchoomPipeline.Stage<String>() {
+				public void process(String job) {
+					record(trace, job + index);
+				}
+			});
+		}
+		stages.add(consumer());
+		mPipeline = new CatchoomPipeline<String>("Test", stages, 1, 10, mListener);
+		
+		for (int i = 0; i < 5; i++) {
+			mPipeline.submit("j" + i);
+		}
+		
+		awaitSize(mConsumed, 5);
+		assertEquals(Arrays.asList("j0", "j1", "j2", "j3", "j4"), snapshot(mConsumed));
+		List<String> steps = snapshot(trace);
+		for (int i = 0; i < 5; i++) {
+			assertTrue(steps.indexOf("j" + i + "1") < steps.indexOf("j" + i + "2"));
+			assertTrue(steps.indexOf("j" + i + "2") < steps.indexOf("j" + i + "3"));
+		}
+	}
+	
+	@Test
+	public void testSlowStageHoldsBackTheStagesBeforeIt() throws Exception {
+		final AtomicInteger firstStageCount = new AtomicInteger();
+		List<CatchoomPipeline.Stage<String>> stages = new ArrayList<CatchoomPipeline.Stage<String>>();
+		stages.add(new CatchoomPipeline.Stage<String>() {
+			public void process(String job) {
+				firstStageCount.incrementAndGet();
+			}
+		});
+		stages.add(blocking());
+		stages.add(consumer());
+		mPipeline = new CatchoomPipeline<String>("Test", stages, 1, 10, mListener);
+		
+		for (int i = 0; i < 10; i++) {
+			mPipeline.submit("j" + i);
+		}
+		Thread.sleep(SETTLE_MILLIS);
+		
+		// One job blocked in the second stage, one waiting in front of it and
+		// one blocked on the full queue, the rest waiting for the first stage
+		assertEquals(3, firstStageCount.get());
+		
+		mRelease.countDown();
+		awaitSize(mConsumed, 10);
+		assertEquals(10, firstStageCount.get());
+		assertTrue(snapshot(mDropped).isEmpty());
+	}
+	
+	@Test
+	public void testJobsPastTheLastStageAreBoundedUntilReleased() throws Exception {
+		List<CatchoomPipeline.Stage<String>> stages = new ArrayList<CatchoomPipeline.Stage<String>>();
+		stages.add(consumer());
+		mPipeline = new CatchoomPipeline<String>("Test", stages, 1, 2, mListener);
+		
+		for (int i = 0; i < 4; i++) {
+			mPipeline.submit("j" + i);
+		}
+		awaitSize(mConsumed, 2);
+		Thread.sleep(SETTLE_MILLIS);
+		assertEquals(Arrays.asList("j0", "j1"), snapshot(mConsumed));
+		
+		mPipeline.release();
+		awaitSize(mConsumed, 3);
+		Thread.sleep(SETTLE_MILLIS);
+		assertEquals(Arrays.asList("j0", "j1", "j2"), snapshot(mConsumed));
+		
+		mPipeline.release();
+		awaitSize(mConsumed, 4);
+	}
+	
+	@Test
+	public void testSubmittedJobsAreNeverDropped() throws Exception {
+		mPipeline = createBlockedPipeline();
+		
+		for (int i = 1; i <= 20; i++) {
+			mPipeline.submit("j" + i);
+		}
+		
+		mRelease.countDown();
+		awaitSize(mConsumed, 21);
+		assertTrue(snapshot(mDropped).isEmpty());
+	}
+	
+	@Test
+	public void testOnlyTheLatestScannedJobsWait() throws Exception {
+		mPipeline = createBlockedPipeline();
+		
+		mPipeline.submit("search");
+		mPipeline.submitLatest("frame1");
+		mPipeline.submitLatest("frame2");
+		mPipeline.submitLatest("frame3");
+		
+		// The search is kept, the older frames are dropped as newer ones come
+		assertEquals(Arrays.asList("frame1", "frame2"), snapshot(mDropped));
+		
+		mRelease.countDown();
+		awaitSize(mConsumed, 3);
+		assertEquals(Arrays.asList("j0", "search", "frame3"), snapshot(mConsumed));
+	}
+	
+	@Test
+	public void testScannedJobTakenByTheFirstStageIsNotDropped() throws Exception {
+		List<CatchoomPipeline.Stage<String>> stages = new ArrayList<CatchoomPipeline.Stage<String>>();
+		stages.add(blocking());
+		stages.add(consumer());
+		mPipeline = new CatchoomPipeline<String>("Test", stages, 1, 10, mListener);
+		
+		mPipeline.submitLatest("frame1");
+		Thread.sleep(SETTLE_MILLIS);
+		mPipeline.submitLatest("frame2");
+		
+		assertTrue(snapshot(mDropped).isEmpty());
+		mRelease.countDown();
+		awaitSize(mConsumed, 2);
+	}
+	
+	@Test
+	public void testFailedJobLetsTheNextOneThrough() throws Exception {
+		List<CatchoomPipeline.Stage<String>> stages = new ArrayList<CatchoomPipeline.Stage<String>>();
+		stages.add(new CatchoomPipeline.Stage<String>() {
+			public void process(String job) throws Exception {
+				if (job.startsWith("bad")) {
+					throw new Exception("Expected by the test");
+				}
+				record(mConsumed, job);
+			}
+		});
+		mPipeline = new CatchoomPipeline<String>("Test", stages, 1, 1, mListener);
+		
+		mPipeline.submit("bad1");
+		mPipeline.submit("bad2");
+		mPipeline.submit("good");
+		
+		// Failures give their slot back, the successful job keeps it
+		awaitSize(mConsumed, 1);
+		assertEquals(Arrays.asList("bad1", "bad2"), snapshot(mFailed));
+	}
+	
+	@Test
+	public void testShutdownDropsTheWaitingJobs() throws Exception {
+		List<CatchoomPipeline.Stage<String>> stages = new ArrayList<CatchoomPipeline.Stage<String>>();
+		stages.add(consumer());
+		mPipeline = new CatchoomPipeline<String>("Test", stages, 1, 1, mListener);
+		mPipeline.submit("j0");
+		awaitSize(mConsumed, 1);
+		// Waiting for j0 to be released, and waiting for the stage
+		mPipeline.submit("j1");
+		mPipeline.submitLatest("frame1");
+		Thread.sleep(SETTLE_MILLIS);
+		
+		mPipeline.shutdown();
+		
+		awaitSize(mDropped, 2);
+		assertTrue(snapshot(mDropped).containsAll(Arrays.asList("j1", "frame1")));
+		assertEquals(Arrays.asList("j0"), snapshot(mConsumed));
+	}
+	
+	/**
+	 * Creates a pipeline whose first stage is blocked on the job "j0".
+	 */
+	private CatchoomPipeline<String> createBlockedPipeline() throws InterruptedException {
+		final CountDownLatch started = new CountDownLatch(1);
+		List<CatchoomPipeline.Stage<String>> stages = new ArrayList<CatchoomPipeline.Stage<String>>();
+		stages.add(new CatchoomPipeline.Stage<String>() {
+			public void process(String job) throws InterruptedException {
+				started.countDown();
+				mRelease.await();
+			}
+		});
+		stages.add(consumer());
+		CatchoomPipeline<String> pipeline = new CatchoomPipeline<String>("Test", stages, 1, 100, mListener);
+		pipeline.submit("j0");
+		assertTrue(started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		return pipeline;
+	}
+	
+	private CatchoomPipeline.Stage<String> blocking() {
+		return new CatchoomPipeline.Stage<String>() {
+			public void process(String job) throws InterruptedException {
+				mRelease.await();
+			}
+		};
+	}
+	
+	private CatchoomPipeline.Stage<String> consumer() {
+		return new CatchoomPipeline.Stage<String>() {
+			public void process(String job) {
+				record(mConsumed, job);
+			}
+		};
+	}
+	
+	private static void record(List<String> list, String job) {
+		synchronized (list) {
+			list.add(job);
+			list.notifyAll();
+		}
+	}
+	
+	private static List<String> snapshot(List<String> list) {
+		synchronized (list) {
+			return new ArrayList<String>(list);
+		}
+	}
+	
+	private static void awaitSize(List<String> list, int size) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		synchronized (list) {
+			while (list.size() < size) {
+				long remaining = deadline - System.currentTimeMillis();
+				assertTrue("Got only " + list, remaining > 0);
+				list.wait(remaining);
+			}
+		}
+	}
+}
@@ -0,0 +1,257 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+/**
+ * Checks the bounds and rejection policies of {@link CatchoomRequestEngine}
+ * with requests that block until released.
+ * @author Catchoom
+ *
+ */
+public class CatchoomRequestEngineTest {
+
+	private static final long TIMEOUT_MILLIS = 10000;
+	
+	private final CountDownLatch mRelease = new CountDownLatch(1);
+	private final AtomicInteger mRunning = new AtomicInteger();
+	private final AtomicInteger mMaxRunning = new AtomicInteger();
+	// Outcomes in the order the listener and the requests got them
+	private final List<String> mEvents = new ArrayList<String>();
+	private final CatchoomRequestEngine.Listener mListener = new CatchoomRequestEngine.Listener() {
+		public void onRequestFinished(CatchoomRequest request, Object response) {
+			record("finished " + request + " " + response);
+		}
+		
+		public void onRequestRejected(CatchoomRequest request) {
+			record("rejected " + request);
+		}
+	};
+	private CatchoomRequestEngine mEngine;
+	
+	@After
+	public void tearDown() {
+		mRelease.countDown();
+		if (null != mEngine) {
+			mEngine.shutdown();
+		}
+	}
+	
+	@Test
+	public void testWorkersAndQueueAreBounded() throws Exception {
+		mEngine = new CatchoomRequestEngine(2, 3, CatchoomRequestEngine.RejectionPolicy.REJECT_NEWEST);
+		CountDownLatch started = new CountDownLatch(2);
+		List<TestRequest> requests = new ArrayList<TestRequest>();
+		for (int i = 0; i < 5; i++) {
+			TestRequest request = new TestRequest("r" + i, started);
+			requests.add(request);
+			mEngine.submit(request, mListener);
+		}
+		
+		assertTrue(started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		assertEquals(3, mEngine.getQueuedRequestCount());
+		assertEquals(2, mRunning.get());
+		
+		mRelease.countDown();
+		awaitEvents(10);
+		assertEquals(2, mMaxRunning.get());
+		assertEquals(0, mEngine.getQueuedRequestCount());
+		for (TestRequest request : requests) {
+			assertTrue(getEvents().contains("finished " + request + " response " + request));
+		}
+	}
+	
+	@Test
+	public void testRejectNewestKeepsTheQueuedRequests() throws Exception {
+		mEngine = new CatchoomRequestEngine(1, 2, CatchoomRequestEngine.RejectionPolicy.REJECT_NEWEST);
+		fillEngine();
+		
+		mEngine.submit(new TestRequest("newest", null), mListener);
+		
+		// Rejected straight away, before anything ran
+		assertEquals(Arrays.asList("rejected newest", "done newest"), getEvents());
+		
+		mRelease.countDown();
+		awaitEvents(8);
+		assertEquals(Arrays.asList("rejected newest", "done newest",
+				"finished running response running", "done running",
+				"finished queued0 response queued0", "done queued0",
+				"finished queued1 response queued1", "done queued1"), getEvents());
+	}
+	
+	@Test
+	public void testDiscardOldestMakesRoomForTheNewRequest() throws Exception {
+		mEngine = new CatchoomRequestEngine(1, 2, CatchoomRequestEngine.RejectionPolicy.DISCARD_OLDEST);
+		fillEngine();
+		
+		mEngine.submit(new TestRequest("newest", null), mListener);
+		
+		// The oldest queued request is dropped and told so before it finishes
+		assertEquals(Arrays.asList("rejected queued0", "done queued0"), getEvents());
+		assertEquals(2, mEngine.getQueuedRequestCount());
+		
+		mRelease.countDown();
+		awaitEvents(8);
+		assertEquals(Arrays.asList("rejected queued0", "done queued0",
+				"finished running response running", "done running",
+				"finished queued1 response queued1", "done queued1",
+				"finished newest response newest", "done newest"), getEvents());
+	}
+	
+	@Test
+	public void testFinishedWhenTheRequestThrows() throws Exception {
+		mEngine = new CatchoomRequestEngine(1, 1, CatchoomRequestEngine.RejectionPolicy.REJECT_NEWEST);
+		mRelease.countDown();
+		
+		mEngine.submit(new TestRequest("failing", null) {
+			@Override
+			Object perform() {
+				throw new IllegalStateException("Expected by the test");
+			}
+		}, mListener);
+		awaitEvents(2);
+		assertEquals(Arrays.asList("finished failing null", "done failing"), getEvents());
+		
+		// The worker is replaced, the engine goes on
+		mEngine.submit(new TestRequest("next", null), mListener);
+		awaitEvents(4);
+		assertEquals("finished next response next", getEvents().get(2));
+	}
+	
+	@Test
+	public void testShutdownRejectsNewRequests() throws Exception {
+		mEngine = new CatchoomRequestEngine(1, 1, CatchoomRequestEngine.RejectionPolicy.DISCARD_OLDEST);
+		mEngine.shutdown();
+		
+		mEngine.submit(new TestRequest("late", null), mListener);
+		
+		assertEquals(Arrays.asList("rejected late", "done late"), getEvents());
+	}
+	
+	@Test
+	public void testDefaultEngineIsShared() {
+		CatchoomRequestEngine engine = CatchoomRequestEngine.getDefault();
+		
+		assertSame(engine, CatchoomRequestEngine.getDefault());
+		assertEquals(CatchoomRequestEngine.RejectionPolicy.DISCARD_OLDEST, engine.getRejectionPolicy());
+	}
+	
+	@Test
+	public void testInvalidBoundsAreRejected() {
+		assertInvalid(0, 1, CatchoomRequestEngine.RejectionPolicy.REJECT_NEWEST);
+		assertInvalid(1, 0, CatchoomRequestEngine.RejectionPolicy.REJECT_NEWEST);
+		assertInvalid(1, 1, null);
+	}
+	
+	/**
+	 * Occupies the single worker and the two queue slots of the engine.
+	 */
+	private void fillEngine() throws InterruptedException {
+		CountDownLatch started = new CountDownLatch(1);
+		mEngine.submit(new TestRequest("running", started), mListener);
+		assertTrue(started.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+		mEngine.submit(new TestRequest("queued0", null), mListener);
+		mEngine.submit(new TestRequest("queued1", null), mListener);
+		assertEquals(2, mEngine.getQueuedRequestCount());
+		assertTrue(getEvents().isEmpty());
+	}
+	
+	private static void assertInvalid(int poolSize, int queueCapacity,
+			CatchoomRequestEngine.RejectionPolicy rejectionPolicy) {
+		try {
+			new CatchoomRequestEngine(poolSize, queueCapacity, rejectionPolicy);
+			fail("Engine created with " + poolSize + " workers and " + queueCapacity + " slots");
+		} catch (IllegalArgumentException e) {
+			// Expected
+		}
+	}
+	
+	private void record(String event) {
+		synchronized (mEvents) {
+			mEvents.add(event);
+			mEvents.notifyAll();
+		}
+	}
+	
+	private List<String> getEvents() {
+		synchronized (mEvents) {
+			return new ArrayList<String>(mEvents);
+		}
+	}
+	
+	private void awaitEvents(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+		synchronized (mEvents) {
+			while (mEvents.size() < count) {
+				long remaining = deadline - System.currentTimeMillis();
+				assertTrue("Got only " + mEvents, remaining > 0);
+				mEvents.wait(remaining);
+			}
+		}
+	}
+	
+	/**
+	 * Request blocking until the test releases it, answering its own name.
+	 */
+	private class TestRequest extends CatchoomRequest {
+		
+		private final String mName;
+		private final CountDownLatch mStarted;
+		
+		TestRequest(String name, CountDownLatch started) {
+			mName = name;
+			mStarted = started;
+		}
+		
+		@Override
+		int getRequestCode() {
+			return Catchoom.Request.SEARCH_REQUEST;
+		}
+		
+		@Override
+		Object perform() {
+			int running = mRunning.incrementAndGet();
+			int max;
+			while ((max = mMaxRunning.get()) < running && !mMaxRunning.compareAndSet(max, running)) {
+				// Another worker raised it first
+			}
+			if (null != mStarted) {
+				mStarted.countDown();
+			}
+			try {
+				mRelease.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+			} finally {
+				mRunning.decrementAndGet();
+			}
+			return "response " + mName;
+		}
+		
+		@Override
+		void onFinished() {
+			record("done " + mName);
+		}
+		
+		@Override
+		public String toString() {
+			return mName;
+		}
+	}
+}
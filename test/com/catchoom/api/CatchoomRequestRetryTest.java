@@ -0,0 +1,290 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.entity.UrlEncodedFormEntity;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.message.BasicNameValuePair;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Checks the retries of {@link CatchoomRequest}, on its own and run by a
+ * {@link CatchoomRequestEngine}, against the faults injected by a
+ * {@link CatchoomStandInServer}.
+ * @author Catchoom
+ *
+ */
+public class CatchoomRequestRetryTest {
+
+	// Queued when a request finishes without a response
+	private static final Object NO_RESPONSE = new Object();
+	
+	private CatchoomStandInServer mServer;
+	private CatchoomConnectionPool mConnectionPool;
+	
+	@Before
+	public void setUp() throws IOException {
+		mServer = new CatchoomStandInServer();
+		mServer.start();
+		mConnectionPool = new CatchoomConnectionPool();
+	}
+	
+	@After
+	public void tearDown() {
+		mConnectionPool.shutdown();
+		mServer.stop();
+	}
+	
+	@Test
+	public void testTransientErrorsAreRetriedUpToTheMaximumAttempts() throws IOException {
+		mServer.setErrorRate(1, 503, -1);
+		TestRequest request = new TestRequest();
+		
+		HttpResponse response = execute(request, "token", new CatchoomRetryPolicy(3, 10, 100, 1000));
+		
+		assertEquals(503, response.getStatusLine().getStatusCode());
+		assertEquals(3, request.getAttemptCount());
+		assertEquals(3, mServer.getRequestCount());
+		assertEquals(3, mServer.getErrorCount());
+	}
+	
+	@Test
+	public void testRetryAfterIsHonoured() throws IOException {
+		mServer.setErrorRate(1, 503, 1);
+		TestRequest request = new TestRequest();
+		
+		long start = System.currentTimeMillis();
+		HttpResponse response = execute(request, "token", new CatchoomRetryPolicy(2, 10, 100, 5000));
+		long elapsed = System.currentTimeMillis() - start;
+		
+		assertEquals(503, response.getStatusLine().getStatusCode());
+		assertEquals(2, mServer.getRequestCount());
+		assertTrue("Retried after " + elapsed + " ms instead of the second asked", elapsed >= 1000);
+	}
+	
+	@Test
+	public void testRetryAfterBeyondTheLimitIsNotRetried() throws IOException {
+		mServer.setErrorRate(1, 503, 10);
+		TestRequest request = new TestRequest();
+		
+		HttpResponse response = execute(request, "token", new CatchoomRetryPolicy(3, 10, 100, 1000));
+		
+		assertEquals(503, response.getStatusLine().getStatusCode());
+		assertEquals(1, request.getAttemptCount());
+		assertEquals(1, mServer.getRequestCount());
+	}
+	
+	@Test
+	public void testDroppedConnectionsAreRetriedWithBackoff() {
+		mServer.setDropRate(1);
+		TestRequest request = new TestRequest();
+		
+		long start = System.currentTimeMillis();
+		try {
+			execute(request, "token", new CatchoomRetryPolicy(3, 100, 1000, 1000));
+			fail("The dropped request succeeded");
+		} catch (IOException e) {
+			// Expected
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		
+		// Each attempt reaches the server once, the client sends nothing more
+		assertEquals(3, request.getAttemptCount());
+		assertEquals(3, mServer.getRequestCount());
+		assertEquals(3, mServer.getDropCount());
+		// At least half of the 100 and 200 ms backoffs
+		assertTrue("Retried after " + elapsed + " ms without backing off", elapsed >= 150);
+	}
+	
+	@Test
+	public void testNoRetryPolicySendsOnce() throws IOException {
+		mServer.setErrorRate(1, 503, 0);
+		TestRequest request = new TestRequest();
+		
+		HttpResponse response = execute(request, "token", CatchoomRetryPolicy.NONE);
+		
+		assertEquals(503, response.getStatusLine().getStatusCode());
+		assertEquals(1, request.getAttemptCount());
+		assertEquals(1, mServer.getRequestCount());
+	}
+	
+	@Test
+	public void testClientErrorsAreNotRetried() throws IOException {
+		TestRequest request = new TestRequest();
+		
+		HttpResponse response = execute(request, "", CatchoomRetryPolicy.DEFAULT);
+		
+		assertEquals(400, response.getStatusLine().getStatusCode());
+		assertEquals(1, request.getAttemptCount());
+		assertEquals(1, mServer.getRequestCount());
+	}
+	
+	@Test
+	public void testAbortCancelsThePendingRetry() throws Exception {
+		mServer.setErrorRate(1, 503, 10);
+		final TestRequest request = new TestRequest();
+		Thread aborter = new Thread() {
+			@Override
+			public void run() {
+				try {
+					Thread.sleep(200);
+				} catch (InterruptedException e) {
+					return;
+				}
+				request.abort();
+			}
+		};
+		
+		aborter.start();
+		long start = System.currentTimeMillis();
+		try {
+			execute(request, "token", new CatchoomRetryPolicy(2, 10, 100, 30000));
+			fail("The aborted request succeeded");
+		} catch (IOException e) {
+			// Expected
+		}
+		long elapsed = System.currentTimeMillis() - start;
+		aborter.join();
+		
+		assertEquals(1, mServer.getRequestCount());
+		assertTrue("Abort returned after " + elapsed + " ms", elapsed < 5000);
+	}
+	
+	@Test
+	public void testRetryWaitDoesNotHoldTheWorker() throws Exception {
+		mServer.setErrorRate(1, 503, 1);
+		CatchoomRequestEngine engine = new CatchoomRequestEngine(1, 4,
+				CatchoomRequestEngine.RejectionPolicy.REJECT_NEWEST);
+		BlockingQueue<Object> responses = new LinkedBlockingQueue<Object>();
+		try {
+			long start = System.currentTimeMillis();
+			EngineRequest backingOff = new EngineRequest(new CatchoomRetryPolicy(2, 10, 100, 5000));
+			engine.submit(backingOff, new QueueListener(responses));
+			engine.submit(new TestRequest(), new QueueListener(responses));
+			
+			// The second request gets the only worker while the first one waits
+			assertSame(NO_RESPONSE, responses.poll(5000, TimeUnit.MILLISECONDS));
+			long elapsed = System.currentTimeMillis() - start;
+			assertTrue("Ran after " + elapsed + " ms", elapsed < 900);
+			
+			assertEquals(Integer.valueOf(503), responses.poll(5000, TimeUnit.MILLISECONDS));
+			elapsed = System.currentTimeMillis() - start;
+			assertTrue("Retried after " + elapsed + " ms instead of the second asked", elapsed >= 1000);
+			assertEquals(2, backingOff.getAttemptCount());
+			assertEquals(2, mServer.getRequestCount());
+		} finally {
+			engine.shutdown();
+		}
+	}
+	
+	@Test
+	public void testAbortFinishesTheDeferredRetry() throws Exception {
+		mServer.setErrorRate(1, 503, 10);
+		CatchoomRequestEngine engine = new CatchoomRequestEngine(1, 4,
+				CatchoomRequestEngine.RejectionPolicy.REJECT_NEWEST);
+		BlockingQueue<Object> responses = new LinkedBlockingQueue<Object>();
+		try {
+			EngineRequest request = new EngineRequest(new CatchoomRetryPolicy(2, 10, 100, 30000));
+			engine.submit(request, new QueueListener(responses));
+			assertNull(responses.poll(500, TimeUnit.MILLISECONDS));
+			assertEquals(1, mServer.getRequestCount());
+			
+			long start = System.currentTimeMillis();
+			request.abort();
+			Object response = responses.poll(5000, TimeUnit.MILLISECONDS);
+			long elapsed = System.currentTimeMillis() - start;
+			
+			assertSame(NO_RESPONSE, response);
+			assertTrue("Finished after " + elapsed + " ms", elapsed < 1000);
+			assertEquals(1, mServer.getRequestCount());
+		} finally {
+			engine.shutdown();
+		}
+	}
+	
+	private HttpResponse execute(TestRequest request, String token, CatchoomRetryPolicy retryPolicy)
+			throws IOException {
+		List<NameValuePair> form = new ArrayList<NameValuePair>(1);
+		form.add(new BasicNameValuePair("token", token));
+		HttpPost post = new HttpPost(mServer.getBaseUrl() + "timestamp");
+		post.setEntity(new UrlEncodedFormEntity(form, "UTF-8"));
+		HttpResponse response = request.execute(mConnectionPool.getHttpClient(), post, retryPolicy);
+		response.getEntity().consumeContent();
+		return response;
+	}
+	
+	/**
+	 * Listener queueing the outcomes, {@link #NO_RESPONSE} for null ones.
+	 */
+	private static class QueueListener implements CatchoomRequestEngine.Listener {
+		
+		private final BlockingQueue<Object> mResponses;
+		
+		QueueListener(BlockingQueue<Object> responses) {
+			mResponses = responses;
+		}
+		
+		public void onRequestFinished(CatchoomRequest request, Object response) {
+			mResponses.add(null != response ? response : NO_RESPONSE);
+		}
+		
+		public void onRequestRejected(CatchoomRequest request) {
+			fail("Request rejected");
+		}
+	}
+	
+	/**
+	 * Request answering the status of the server response, or null if it
+	 * got none.
+	 */
+	private class EngineRequest extends TestRequest {
+		
+		private final CatchoomRetryPolicy mRetryPolicy;
+		
+		EngineRequest(CatchoomRetryPolicy retryPolicy) {
+			mRetryPolicy = retryPolicy;
+		}
+		
+		@Override
+		Object perform() {
+			try {
+				HttpResponse response = CatchoomRequestRetryTest.this.execute(this, "token", mRetryPolicy);
+				return Integer.valueOf(response.getStatusLine().getStatusCode());
+			} catch (IOException e) {
+				return null;
+			}
+		}
+	}
+	
+	private static class TestRequest extends CatchoomRequest {
+		
+		@Override
+		int getRequestCode() {
+			return Catchoom.Request.CONNECT_REQUEST;
+		}
+		
+		@Override
+		Object perform() {
+			return null;
+		}
+	}
+}
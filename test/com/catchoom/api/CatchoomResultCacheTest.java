@@ -0,0 +1,219 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+/**
+ * Checks the lookups, eviction and expiry of {@link CatchoomResultCache} and
+ * the {@link CatchoomImageHash} it relies on.
+ * @author Catchoom
+ *
+ */
+public class CatchoomResultCacheTest {
+
+	private static final String TOKEN = "collection-token";
+	private static final CatchoomSearchOptions OPTIONS = CatchoomSearchOptions.DEFAULT;
+	// Hashes at least 8 bits away from each other
+	private static final long[] HASHES = { 0L, 0xffL, 0xff00L, 0xff0000L, 0xff000000L };
+	// Entry with a single result with a one character id and no metadata
+	private static final int SMALL_ENTRY_BYTES = 96 + 128 + 2 * 3;
+	
+	@Test
+	public void testNearDuplicatesWithinTheDistanceHit() {
+		CatchoomResultCache cache = new CatchoomResultCache(6, 10000, 64 * 1024);
+		cache.put(TOKEN, OPTIONS, 0L, results("a"));
+		
+		assertEquals("a", getId(cache, 0x3fL));
+		assertNull(cache.get(TOKEN, OPTIONS, 0x7fL));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+	
+	@Test
+	public void testClosestEntryWins() {
+		CatchoomResultCache cache = new CatchoomResultCache(6, 10000, 64 * 1024);
+		cache.put(TOKEN, OPTIONS, 0L, results("far"));
+		cache.put(TOKEN, OPTIONS, 0xfL, results("near"));
+		
+		assertEquals("near", getId(cache, 0x7L));
+		assertEquals("far", getId(cache, 0x1L));
+	}
+	
+	@Test
+	public void testOtherCollectionsAndOptionsMiss() {
+		CatchoomResultCache cache = new CatchoomResultCache();
+		cache.put(TOKEN, OPTIONS, 0L, results("a"));
+		
+		assertNull(cache.get("other-token", OPTIONS, 0L));
+		assertNull(cache.get(TOKEN, new CatchoomSearchOptions(1, 0), 0L));
+		assertEquals("a", getId(cache, 0L));
+		// Options are compared by value
+		assertEquals("a", getId(cache, 0L, new CatchoomSearchOptions(CatchoomSearchOptions.ALL_RESULTS,
+				Integer.MIN_VALUE)));
+	}
+	
+	@Test
+	public void testResultsAreCopied() {
+		CatchoomResultCache cache = new CatchoomResultCache();
+		ArrayList<CatchoomSearchResponseItem> items = results("a");
+		cache.put(TOKEN, OPTIONS, 0L, items);
+		items.clear();
+		
+		ArrayList<CatchoomSearchResponseItem> cached = cache.get(TOKEN, OPTIONS, 0L);
+		assertEquals(1, cached.size());
+		cached.clear();
+		assertEquals("a", getId(cache, 0L));
+	}
+	
+	@Test
+	public void testEntriesExpire() throws Exception {
+		CatchoomResultCache cache = new CatchoomResultCache(6, 50, 64 * 1024);
+		cache.put(TOKEN, OPTIONS, 0L, results("a"));
+		assertEquals("a", getId(cache, 0L));
+		
+		Thread.sleep(100);
+		
+		assertNull(cache.get(TOKEN, OPTIONS, 0L));
+		assertEquals(0, cache.size());
+		// Expiry is not an eviction
+		assertEquals(0, cache.getEvictionCount());
+	}
+	
+	@Test
+	public void testLeastRecentlyUsedEntryIsEvicted() {
+		CatchoomResultCache cache = new CatchoomResultCache(6, 10000, 4 * SMALL_ENTRY_BYTES);
+		for (int i = 0; i < 4; i++) {
+			cache.put(TOKEN, OPTIONS, HASHES[i], results(String.valueOf(i)));
+		}
+		assertEquals(4, cache.size());
+		
+		// Reading the first entry makes the second one the least recently used
+		assertEquals("0", getId(cache, HASHES[0]));
+		cache.put(TOKEN, OPTIONS, HASHES[4], results("4"));
+		
+		assertEquals(4, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertNull(cache.get(TOKEN, OPTIONS, HASHES[1]));
+		assertEquals("0", getId(cache, HASHES[0]));
+		assertEquals("4", getId(cache, HASHES[4]));
+	}
+	
+	@Test
+	public void testLargeMetadataCountsAgainstTheBudget() {
+		CatchoomResultCache cache = new CatchoomResultCache(6, 10000, 4096);
+		// About 2 KB each, as the metadata is kept as 1000 characters
+		cache.put(TOKEN, OPTIONS, HASHES[0], results(item("0", 1000)));
+		cache.put(TOKEN, OPTIONS, HASHES[1], results(item("1", 1000)));
+		
+		assertEquals(1, cache.size());
+		assertEquals(1, cache.getEvictionCount());
+		assertEquals("1", getId(cache, HASHES[1]));
+	}
+	
+	@Test
+	public void testEntryLargerThanTheBudgetIsNotStored() {
+		CatchoomResultCache cache = new CatchoomResultCache(6, 10000, 4096);
+		cache.put(TOKEN, OPTIONS, HASHES[0], results("small"));
+		cache.put(TOKEN, OPTIONS, HASHES[1], results(item("huge", 3000)));
+		
+		assertEquals(1, cache.size());
+		assertEquals(0, cache.getEvictionCount());
+		assertNull(cache.get(TOKEN, OPTIONS, HASHES[1]));
+	}
+	
+	@Test
+	public void testReplacedEntryFreesItsBytes() {
+		CatchoomResultCache cache = new CatchoomResultCache(6, 10000, 2 * SMALL_ENTRY_BYTES);
+		for (int i = 0; i < 10; i++) {
+			cache.put(TOKEN, OPTIONS, HASHES[0], results(String.valueOf(i)));
+		}
+		cache.put(TOKEN, OPTIONS, HASHES[1], results("b"));
+		
+		assertEquals(2, cache.size());
+		assertEquals(0, cache.getEvictionCount());
+		assertEquals("9", getId(cache, HASHES[0]));
+	}
+	
+	@Test
+	public void testClearKeepsTheCounters() {
+		CatchoomResultCache cache = new CatchoomResultCache();
+		cache.put(TOKEN, OPTIONS, 0L, results("a"));
+		assertNotNull(cache.get(TOKEN, OPTIONS, 0L));
+		assertNull(cache.get(TOKEN, OPTIONS, -1L));
+		
+		cache.clear();
+		
+		assertEquals(0, cache.size());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(1, cache.getMissCount());
+	}
+	
+	@Test
+	public void testHashSetsABitPerBrighterPixel() {
+		int[] flat = new int[CatchoomImageHash.HASH_WIDTH * CatchoomImageHash.HASH_HEIGHT];
+		Arrays.fill(flat, 0xff808080);
+		int[] darkening = new int[flat.length];
+		for (int i = 0; i < darkening.length; i++) {
+			int gray = 255 - (i % CatchoomImageHash.HASH_WIDTH) * 16;
+			darkening[i] = 0xff000000 | gray << 16 | gray << 8 | gray;
+		}
+		
+		assertEquals(0L, CatchoomImageHash.computeHash(flat));
+		assertEquals(-1L, CatchoomImageHash.computeHash(darkening));
+		assertEquals(64, CatchoomImageHash.distance(0L, -1L));
+		assertEquals(3, CatchoomImageHash.distance(0x10L, 0x17L));
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testHashNeedsAWholeImage() {
+		CatchoomImageHash.computeHash(new int[CatchoomImageHash.HASH_WIDTH]);
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testDistanceAbove64IsRejected() {
+		new CatchoomResultCache(65, 10000, 1024);
+	}
+	
+	private static String getId(CatchoomResultCache cache, long hash) {
+		return getId(cache, hash, OPTIONS);
+	}
+	
+	private static String getId(CatchoomResultCache cache, long hash, CatchoomSearchOptions options) {
+		ArrayList<CatchoomSearchResponseItem> items = cache.get(TOKEN, options, hash);
+		assertNotNull("Missed " + Long.toHexString(hash), items);
+		return items.get(0).getId();
+	}
+	
+	private static ArrayList<CatchoomSearchResponseItem> results(String id) {
+		return results(new CatchoomSearchResponseItem(id, 90, new CatchoomMetadata("{}")));
+	}
+	
+	private static ArrayList<CatchoomSearchResponseItem> results(CatchoomSearchResponseItem item) {
+		ArrayList<CatchoomSearchResponseItem> items = new ArrayList<CatchoomSearchResponseItem>(1);
+		items.add(item);
+		return items;
+	}
+	
+	/**
+	 * Creates a result whose metadata is kept as the given number of
+	 * characters.
+	 */
+	private static CatchoomSearchResponseItem item(String id, int metadataChars) {
+		StringBuilder json = new StringBuilder("{\"a\":\"");
+		while (json.length() < metadataChars - 2) {
+			json.append('x');
+		}
+		json.append("\"}");
+		return new CatchoomSearchResponseItem(id, 90, new CatchoomMetadata(json.toString()));
+	}
+}
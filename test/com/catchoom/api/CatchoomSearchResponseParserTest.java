@@ -0,0 +1,71 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import static org.junit.Assert.assertEquals;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+/**
+ * Checks which items {@link CatchoomSearchResponseParser} keeps from a search
+ * response, and in which order.
+ * @author Catchoom
+ *
+ */
+public class CatchoomSearchResponseParserTest {
+
+	@Test
+	public void testItemsWithoutMetadataObjectAreSkipped() throws IOException {
+		ArrayList<CatchoomSearchResponseItem> items = parse("["
+				+ "{\"item_id\":\"kept\",\"score\":90,\"metadata\":{\"name\":\"a\"}},"
+				+ "{\"item_id\":\"missing\",\"score\":80},"
+				+ "{\"item_id\":\"null\",\"score\":70,\"metadata\":null},"
+				+ "{\"item_id\":\"text\",\"score\":60,\"metadata\":\"name\"},"
+				+ "{\"item_id\":\"empty\",\"score\":50,\"metadata\":{}}"
+				+ "]", CatchoomSearchOptions.DEFAULT);
+		
+		assertEquals(2, items.size());
+		assertEquals("kept", items.get(0).getId());
+		assertEquals("a", items.get(0).getMetadataView().getString("name"));
+		assertEquals("empty", items.get(1).getId());
+	}
+	
+	@Test
+	public void testItemsWithoutIdOrScoreAreSkipped() throws IOException {
+		ArrayList<CatchoomSearchResponseItem> items = parse("["
+				+ "{\"score\":90,\"metadata\":{}},"
+				+ "{\"item_id\":\"no score\",\"metadata\":{}},"
+				+ "{\"item_id\":\"bad score\",\"score\":\"high\",\"metadata\":{}},"
+				+ "{\"item_id\":\"kept\",\"score\":\"40\",\"metadata\":{}}"
+				+ "]", CatchoomSearchOptions.DEFAULT);
+		
+		assertEquals(1, items.size());
+		assertEquals("kept", items.get(0).getId());
+		assertEquals(40, items.get(0).getScore());
+	}
+	
+	@Test
+	public void testBestItemsAreKeptInScoreOrder() throws IOException {
+		ArrayList<CatchoomSearchResponseItem> items = parse("["
+				+ "{\"item_id\":\"c\",\"score\":30,\"metadata\":{}},"
+				+ "{\"item_id\":\"a\",\"score\":90,\"metadata\":{}},"
+				+ "{\"item_id\":\"d\",\"score\":10,\"metadata\":{}},"
+				+ "{\"item_id\":\"b\",\"score\":60,\"metadata\":{}}"
+				+ "]", new CatchoomSearchOptions(2, 20));
+		
+		assertEquals(2, items.size());
+		assertEquals("a", items.get(0).getId());
+		assertEquals("b", items.get(1).getId());
+	}
+	
+	private static ArrayList<CatchoomSearchResponseItem> parse(String json, CatchoomSearchOptions options)
+			throws IOException {
+		return CatchoomSearchResponseParser.parse(new StringReader(json), options);
+	}
+}
@@ -0,0 +1,185 @@
+// (c) Catchoom Technologies S.L.
+// Licensed under the MIT license.
+// https://raw.github.com/catchoom/android-sdk/master/LICENSE
+// All warranties and liabilities are disclaimed.
+package com.catchoom.api;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+/**
+ * Checks that the frames downsampled and compressed by
+ * {@link CatchoomYuvEncoder} decode as JPEG images of the expected size and
+ * colours.
+ * @author Catchoom
+ *
+ */
+public class CatchoomYuvEncoderTest {
+
+	// Full range BT.601 YCbCr of pure red and pure blue, as JPEG stores them
+	private static final int[] RED = { 76, 85, 255 };
+	private static final int[] BLUE = { 29, 255, 107 };
+	private static final int[] GREY = { 128, 128, 128 };
+	private static final int COLOUR_TOLERANCE = 40;
+	
+	@Test
+	public void testNv21FrameIsScaledToThePictureSize() throws IOException {
+		byte[] frame = createFrame(CatchoomYuvEncoder.NV21, 640, 480, GREY, GREY);
+		
+		BufferedImage image = encode(frame, 640, 480, CatchoomYuvEncoder.NV21, 0, 0, 640, 480, 240);
+		
+		assertEquals(320, image.getWidth());
+		assertEquals(240, image.getHeight());
+		assertColour(GREY, image.getRGB(160, 120));
+	}
+	
+	@Test
+	public void testYv12FrameWithPaddedRowsIsScaledToThePictureSize() throws IOException {
+		// 360 is not a multiple of 16, so the luma and chroma rows are padded
+		byte[] frame = createFrame(CatchoomYuvEncoder.YV12, 360, 240, GREY, GREY);
+		
+		BufferedImage image = encode(frame, 360, 240, CatchoomYuvEncoder.YV12, 0, 0, 360, 240, 120);
+		
+		assertEquals(180, image.getWidth());
+		assertEquals(120, image.getHeight());
+		assertColour(GREY, image.getRGB(90, 60));
+	}
+	
+	@Test
+	public void testPortraitCropIsScaledOnItsShortestEdge() throws IOException {
+		byte[] frame = createFrame(CatchoomYuvEncoder.NV21, 640, 480, GREY, GREY);
+		
+		BufferedImage image = encode(frame, 640, 480, CatchoomYuvEncoder.NV21, 220, 40, 200, 400, 100);
+		
+		assertEquals(100, image.getWidth());
+		assertEquals(200, image.getHeight());
+	}
+	
+	@Test
+	public void testSizeNotMultipleOfTheBlockSizeIsKept() throws IOException {
+		byte[] frame = createFrame(CatchoomYuvEncoder.NV21, 100, 60, GREY, GREY);
+		
+		BufferedImage image = encode(frame, 100, 60, CatchoomYuvEncoder.NV21, 0, 0, 100, 60, 50);
+		
+		assertEquals(83, image.getWidth());
+		assertEquals(50, image.getHeight());
+		assertColour(GREY, image.getRGB(82, 49));
+	}
+	
+	@Test
+	public void testNv21ChromaIsDecodedInPlace() throws IOException {
+		byte[] frame = createFrame(CatchoomYuvEncoder.NV21, 320, 240, RED, BLUE);
+		
+		BufferedImage image = encode(frame, 320, 240, CatchoomYuvEncoder.NV21, 0, 0, 320, 240, 120);
+		
+		assertColour(RED, image.getRGB(40, 60));
+		assertColour(BLUE, image.getRGB(120, 60));
+	}
+	
+	@Test
+	public void testYv12ChromaIsDecodedInPlace() throws IOException {
+		byte[] frame = createFrame(CatchoomYuvEncoder.YV12, 360, 240, RED, BLUE);
+		
+		BufferedImage image = encode(frame, 360, 240, CatchoomYuvEncoder.YV12, 0, 0, 360, 240, 120);
+		
+		assertColour(RED, image.getRGB(45, 60));
+		assertColour(BLUE, image.getRGB(135, 60));
+	}
+	
+	@Test
+	public void testCropKeepsOnlyTheSelectedArea() throws IOException {
+		byte[] frame = createFrame(CatchoomYuvEncoder.NV21, 320, 240, RED, BLUE);
+		
+		// The right half of the frame only
+		BufferedImage image = encode(frame, 320, 240, CatchoomYuvEncoder.NV21, 160, 0, 160, 240, 80);
+		
+		assertEquals(80, image.getWidth());
+		assertEquals(120, image.getHeight());
+		assertColour(BLUE, image.getRGB(0, 0));
+		assertColour(BLUE, image.getRGB(79, 119));
+	}
+	
+	private static BufferedImage encode(byte[] frame, int width, int height, int format, int cropLeft,
+			int cropTop, int cropWidth, int cropHeight, int pictureSize) throws IOException {
+		CatchoomYuvEncoder.Planes planes = CatchoomYuvEncoder.obtainPlanes();
+		try {
+			CatchoomYuvEncoder.downsample(frame, width, height, format, cropLeft, cropTop, cropWidth,
+					cropHeight, pictureSize, planes);
+			byte[] jpeg = CatchoomYuvEncoder.encode(planes, 90).toByteArray();
+			BufferedImage image = ImageIO.read(new ByteArrayInputStream(jpeg));
+			assertNotNull("The encoded image could not be decoded", image);
+			return image;
+		} finally {
+			CatchoomYuvEncoder.releasePlanes(planes);
+		}
+	}
+	
+	/**
+	 * Creates a frame whose left half has one colour and right half another.
+	 * @param left The Y, Cb and Cr of the left half.
+	 * @param right The Y, Cb and Cr of the right half.
+	 */
+	private static byte[] createFrame(int format, int width, int height, int[] left, int[] right) {
+		int lumaStride;
+		int chromaStride;
+		int vOffset;
+		int uOffset;
+		int chromaStep;
+		if (CatchoomYuvEncoder.NV21 == format) {
+			lumaStride = width;
+			chromaStride = width;
+			vOffset = width * height;
+			uOffset = vOffset + 1;
+			chromaStep = 2;
+		} else {
+			lumaStride = (width + 15) & ~15;
+			chromaStride = (lumaStride / 2 + 15) & ~15;
+			vOffset = lumaStride * height;
+			uOffset = vOffset + chromaStride * height / 2;
+			chromaStep = 1;
+		}
+		byte[] frame = new byte[Math.max(uOffset, vOffset) + chromaStride * height / 2];
+		for (int y = 0; y < height; y++) {
+			for (int x = 0; x < width; x++) {
+				int[] colour = x < width / 2 ? left : right;
+				frame[y * lumaStride + x] = (byte) colour[0];
+				if (0 == (y & 1) && 0 == (x & 1)) {
+					int chroma = (y / 2) * chromaStride + (x / 2) * chromaStep;
+					frame[uOffset + chroma] = (byte) colour[1];
+					frame[vOffset + chroma] = (byte) colour[2];
+				}
+			}
+		}
+		return frame;
+	}
+	
+	private static void assertColour(int[] expected, int rgb) {
+		int y = expected[0];
+		int cb = expected[1] - 128;
+		int cr = expected[2] - 128;
+		int red = clamp(Math.round(y + 1.402f * cr));
+		int green = clamp(Math.round(y - 0.344136f * cb - 0.714136f * cr));
+		int blue = clamp(Math.round(y + 1.772f * cb));
+		int actualRed = (rgb >> 16) & 0xff;
+		int actualGreen = (rgb >> 8) & 0xff;
+		int actualBlue = rgb & 0xff;
+		assertTrue("Expected (" + red + ", " + green + ", " + blue + ") but decoded (" + actualRed + ", "
+				+ actualGreen + ", " + actualBlue + ")",
+				Math.abs(red - actualRed) <= COLOUR_TOLERANCE
+				&& Math.abs(green - actualGreen) <= COLOUR_TOLERANCE
+				&& Math.abs(blue - actualBlue) <= COLOUR_TOLERANCE);
+	}
+	
+	private static int clamp(int value) {
+		return Math.min(Math.max(value, 0), 255);
+	}
+}
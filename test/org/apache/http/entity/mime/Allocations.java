@@ -0,0 +1,75 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+
+package org.apache.http.entity.mime;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.junit.Assume;
+
+/**
+ * Measures the heap memory allocated by the current thread, on the JVMs that
+ * can tell it.
+ */
+final class Allocations {
+
+    private static final com.sun.management.ThreadMXBean THREADS;
+
+    static {
+        ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+        com.sun.management.ThreadMXBean measuring = null;
+        if (threads instanceof com.sun.management.ThreadMXBean) {
+            measuring = (com.sun.management.ThreadMXBean) threads;
+            if (measuring.isThreadAllocatedMemorySupported()) {
+                measuring.setThreadAllocatedMemoryEnabled(true);
+            } else {
+                measuring = null;
+            }
+        }
+        THREADS = measuring;
+    }
+
+    private Allocations() {
+    }
+
+    /**
+     * Skips the calling test if allocations cannot be measured.
+     */
+    static void assumeMeasurable() {
+        Assume.assumeTrue(THREADS != null);
+    }
+
+    /**
+     * Returns the bytes allocated by the current thread so far.
+     */
+    static long allocatedBytes() {
+        return THREADS.getThreadAllocatedBytes(Thread.currentThread().getId());
+    }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+
+package org.apache.http.entity.mime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+public class HeaderTest {
+
+    private static final int WARM_UP_ROUNDS = 2000;
+    private static final int ROUNDS = 100000;
+
+    @Test
+    public void testWellKnownNamesAreShared() {
+        MinimalField field = new MinimalField(new String(MIME.CONTENT_TYPE), "text/plain");
+        assertSame(MIME.CONTENT_TYPE, field.getName());
+    }
+
+    @Test
+    public void testLookupIgnoresCase() {
+        Header header = new Header();
+        header.addField(new MinimalField(MIME.CONTENT_TYPE, "text/plain"));
+        header.addField(new MinimalField("X-Custom", "first"));
+        header.addField(new MinimalField("x-custom", "second"));
+
+        assertEquals("text/plain", header.getField("content-type").getBody());
+        assertEquals("first", header.getField("X-CUSTOM").getBody());
+        assertEquals(2, header.getFields("X-Custom").size());
+        assertNull(header.getField("Content-Length"));
+    }
+
+    @Test
+    public void testSetFieldReplacesAllOccurrences() {
+        Header header = new Header();
+        header.addField(new MinimalField("X-Custom", "first"));
+        header.addField(new MinimalField(MIME.CONTENT_TYPE, "text/plain"));
+        header.addField(new MinimalField("X-Custom", "second"));
+        header.setField(new MinimalField("x-custom", "third"));
+
+        assertEquals(2, header.getFields().size());
+        assertEquals("third", header.getFields().get(0).getBody());
+        assertEquals(MIME.CONTENT_TYPE, header.getFields().get(1).getName());
+    }
+
+    @Test
+    public void testGrowsBeyondInitialCapacity() {
+        Header header = new Header();
+        for (int i = 0; i < 10; i++) {
+            header.addField(new MinimalField("X-Field-" + i, Integer.toString(i)));
+        }
+        assertEquals(10, header.getFields().size());
+        assertEquals("9", header.getField("x-field-9").getBody());
+        assertEquals(1, header.removeFields("X-Field-3"));
+        assertEquals(9, header.getFields().size());
+    }
+
+    @Test
+    public void testLookupsDoNotAllocate() {
+        Allocations.assumeMeasurable();
+        FormBodyPart part = new FormBodyPart("image",
+                new org.apache.http.entity.mime.content.ByteArrayBody(new byte[1], "query.jpg"));
+        Header header = part.getHeader();
+        int found = 0;
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            found += lookUp(header);
+        }
+
+        long start = Allocations.allocatedBytes();
+        for (int i = 0; i < ROUNDS; i++) {
+            found += lookUp(header);
+        }
+        long allocated = Allocations.allocatedBytes() - start;
+
+        assertEquals(2 * (WARM_UP_ROUNDS + ROUNDS), found);
+        assertTrue("Looking up the fields allocated " + allocated + " bytes", allocated < ROUNDS);
+    }
+
+    private static int lookUp(final Header header) {
+        int found = 0;
+        if (header.getField(MIME.CONTENT_DISPOSITION) != null) {
+            found++;
+        }
+        // Not the shared instance, compared ignoring case
+        if (header.getField("content-type") != null) {
+            found++;
+        }
+        return found;
+    }
+
+}
@@ -0,0 +1,197 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+
+package org.apache.http.entity.mime;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+
+import org.apache.http.entity.mime.content.ByteArrayBody;
+import org.apache.http.entity.mime.content.StringBody;
+import org.junit.Test;
+
+public class HttpMultipartTest {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final int WARM_UP_ROUNDS = 2000;
+    private static final int ROUNDS = 10000;
+
+    private static final OutputStream NULL_OUTPUT = new OutputStream() {
+        @Override
+        public void write(final int b) {
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+        }
+    };
+
+    private static HttpMultipart createMultipart(final HttpMultipartMode mode) throws IOException {
+        HttpMultipart multipart = new HttpMultipart("form-data", UTF_8, "boundary", mode);
+        multipart.addBodyPart(new FormBodyPart("token", new StringBody("0123456789abcdef")));
+        multipart.addBodyPart(new FormBodyPart("image",
+                new ByteArrayBody(new byte[1024], "image/jpeg", "query.jpg")));
+        return multipart;
+    }
+
+    private static String write(final HttpMultipart multipart) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        multipart.writeTo(out);
+        return new String(out.toByteArray(), "UTF-8");
+    }
+
+    @Test
+    public void testStrictFramingWritesAllFields() throws Exception {
+        HttpMultipart multipart = new HttpMultipart("form-data", UTF_8, "boundary", HttpMultipartMode.STRICT);
+        multipart.addBodyPart(new FormBodyPart("field", new StringBody("value")));
+
+        String expected = "--boundary\r\n"
+                + "Content-Disposition: form-data; name=\"field\"\r\n"
+                + "Content-Type: text/plain; charset=US-ASCII\r\n"
+                + "Content-Transfer-Encoding: 8bit\r\n"
+                + "\r\n"
+                + "value\r\n"
+                + "--boundary--\r\n";
+        assertEquals(expected, write(multipart));
+        assertEquals(expected.length(), multipart.getTotalLength());
+    }
+
+    @Test
+    public void testBrowserCompatibleFramingEncodesNonAsciiNames() throws Exception {
+        HttpMultipart multipart = new HttpMultipart("form-data", UTF_8, "boundary",
+                HttpMultipartMode.BROWSER_COMPATIBLE);
+        multipart.addBodyPart(new FormBodyPart("imagé", new ByteArrayBody(new byte[] { 'x' }, "fotó.jpg")));
+
+        String expected = "--boundary\r\n"
+                + "Content-Disposition: form-data; name=\"imagé\"; filename=\"fotó.jpg\"\r\n"
+                + "Content-Type: application/octet-stream\r\n"
+                + "\r\n"
+                + "x\r\n"
+                + "--boundary--\r\n";
+        assertEquals(expected, write(multipart));
+        assertEquals(expected.getBytes("UTF-8").length, multipart.getTotalLength());
+    }
+
+    @Test
+    public void testCompilingFramingOnlyAllocatesTheSegments() throws Exception {
+        Allocations.assumeMeasurable();
+        HttpMultipart[] multiparts = new HttpMultipart[WARM_UP_ROUNDS + ROUNDS];
+        for (int i = 0; i < multiparts.length; i++) {
+            multiparts[i] = createMultipart(HttpMultipartMode.STRICT);
+        }
+        long framingLength = multiparts[0].getTotalLength() - 16 - 1024;
+        for (int i = 1; i < WARM_UP_ROUNDS; i++) {
+            multiparts[i].getTotalLength();
+        }
+
+        long start = Allocations.allocatedBytes();
+        for (int i = WARM_UP_ROUNDS; i < multiparts.length; i++) {
+            multiparts[i].getTotalLength();
+        }
+        long perCompilation = (Allocations.allocatedBytes() - start) / ROUNDS;
+
+        // The three segments, the array holding them and the iterators over
+        // the parts and their headers, but no encoded copy of each field
+        assertTrue("Compiling the framing allocated " + perCompilation + " bytes for "
+                + framingLength + " bytes of framing", perCompilation <= framingLength + 256);
+    }
+
+    @Test
+    public void testFramingFollowsFieldsAddedAfterTheLength() throws Exception {
+        HttpMultipart multipart = new HttpMultipart("form-data", UTF_8, "boundary", HttpMultipartMode.STRICT);
+        FormBodyPart part = new FormBodyPart("field", new StringBody("value"));
+        multipart.addBodyPart(part);
+        long length = multipart.getTotalLength();
+
+        part.addField("X-Extra", "1");
+
+        String written = write(multipart);
+        assertTrue(written, written.contains("X-Extra: 1\r\n"));
+        assertEquals(length + "X-Extra: 1\r\n".length(), multipart.getTotalLength());
+        assertEquals(written.length(), multipart.getTotalLength());
+    }
+
+    @Test
+    public void testFramingFollowsHeaderChangesAfterTheLength() throws Exception {
+        HttpMultipart multipart = new HttpMultipart("form-data", UTF_8, "boundary", HttpMultipartMode.STRICT);
+        FormBodyPart part = new FormBodyPart("field", new StringBody("value"));
+        multipart.addBodyPart(part);
+        multipart.getTotalLength();
+
+        part.getHeader().setField(new MinimalField(MIME.CONTENT_TYPE, "text/csv"));
+        part.getHeader().removeFields(MIME.CONTENT_TRANSFER_ENC);
+
+        String expected = "--boundary\r\n"
+                + "Content-Disposition: form-data; name=\"field\"\r\n"
+                + "Content-Type: text/csv\r\n"
+                + "\r\n"
+                + "value\r\n"
+                + "--boundary--\r\n";
+        assertEquals(expected.length(), multipart.getTotalLength());
+        assertEquals(expected, write(multipart));
+    }
+
+    @Test
+    public void testFramingFollowsPartsReplacedAfterTheLength() throws Exception {
+        HttpMultipart multipart = new HttpMultipart("form-data", UTF_8, "boundary", HttpMultipartMode.STRICT);
+        multipart.addBodyPart(new FormBodyPart("field", new StringBody("value")));
+        multipart.getTotalLength();
+
+        multipart.getBodyParts().set(0, new FormBodyPart("other", new StringBody("value")));
+
+        String written = write(multipart);
+        assertTrue(written, written.contains("name=\"other\""));
+        assertEquals(written.length(), multipart.getTotalLength());
+    }
+
+    @Test
+    public void testWritingFramedMultipartDoesNotAllocate() throws Exception {
+        Allocations.assumeMeasurable();
+        HttpMultipart multipart = createMultipart(HttpMultipartMode.BROWSER_COMPATIBLE);
+        multipart.getTotalLength();
+        for (int i = 0; i < WARM_UP_ROUNDS; i++) {
+            multipart.writeTo(NULL_OUTPUT);
+        }
+
+        long start = Allocations.allocatedBytes();
+        for (int i = 0; i < ROUNDS; i++) {
+            multipart.writeTo(NULL_OUTPUT);
+        }
+        long perWrite = (Allocations.allocatedBytes() - start) / ROUNDS;
+
+        // At most the iterator over the parts
+        assertTrue("Writing the multipart allocated " + perWrite + " bytes", perWrite <= 32);
+    }
+
+}
@@ -0,0 +1,233 @@
+/*
+ * ====================================================================
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ * ====================================================================
+ *
+ * This software consists of voluntary contributions made by many
+ * individuals on behalf of the Apache Software Foundation.  For more
+ * information on the Apache Software Foundation, please see
+ * <http://www.apache.org/>.
+ *
+ */
+
+
+package org.apache.http.entity.mime.content;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+public class FileBodyTest {
+
+    private static final int FILE_SIZE = 200 * 1024;
+
+    private byte[] content;
+    private File file;
+
+    /**
+     * A stream backed by a channel that refuses the first transfer, as a
+     * full non-blocking channel would, and counts the bytes written to it
+     * as arrays.
+     */
+    private static class ChannelStream extends OutputStream implements WritableByteChannel {
+
+        private final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private boolean refused = false;
+        private int arrayBytes = 0;
+
+        public int write(final ByteBuffer src) {
+            if (!this.refused) {
+                this.refused = true;
+                return 0;
+            }
+            int count = src.remaining();
+            byte[] bytes = new byte[count];
+            src.get(bytes);
+            this.written.write(bytes, 0, count);
+            return count;
+        }
+
+        @Override
+        public void write(final int b) {
+            this.written.write(b);
+            this.arrayBytes++;
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) {
+            this.written.write(b, off, len);
+            this.arrayBytes += len;
+        }
+
+        public boolean isOpen() {
+            return true;
+        }
+    }
+
+    /**
+     * A plain stream, as the socket streams of HttpClient are, recording the
+     * largest write.
+     */
+    private static class ChunkStream extends ByteArrayOutputStream {
+
+        private int largestWrite = 0;
+
+        @Override
+        public synchronized void write(final byte[] b, final int off, final int len) {
+            super.write(b, off, len);
+            this.largestWrite = Math.max(this.largestWrite, len);
+        }
+    }
+
+    @Before
+    public void setUp() throws IOException {
+        this.content = new byte[FILE_SIZE];
+        for (int i = 0; i < this.content.length; i++) {
+            this.content[i] = (byte) (i * 31);
+        }
+        this.file = File.createTempFile("filebody", ".bin");
+        FileOutputStream out = new FileOutputStream(this.file);
+        try {
+            out.write(this.content);
+        } finally {
+            out.close();
+        }
+    }
+
+    @After
+    public void tearDown() {
+        this.file.delete();
+    }
+
+    @Test
+    public void testWritesToStream() throws Exception {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        FileBody body = new FileBody(this.file);
+        body.setBufferSize(4096);
+
+        body.writeTo(out);
+
+        assertArrayEquals(this.content, out.toByteArray());
+    }
+
+    @Test
+    public void testLargeFileIsCopiedToStreamInMappedChunks() throws Exception {
+        ChunkStream out = new ChunkStream();
+        FileBody body = new FileBody(this.file);
+        body.setBufferSize(4096);
+
+        body.writeTo(out);
+
+        assertArrayEquals(this.content, out.toByteArray());
+        assertEquals(FileBody.DEFAULT_MAPPED_CHUNK_SIZE, out.largestWrite);
+    }
+
+    @Test
+    public void testSmallFileIsReadToStreamInBufferChunks() throws Exception {
+        ChunkStream out = new ChunkStream();
+        FileBody body = new FileBody(this.file);
+        body.setBufferSize(4096);
+        body.setMapThreshold(FILE_SIZE + 1);
+
+        body.writeTo(out);
+
+        assertArrayEquals(this.content, out.toByteArray());
+        assertEquals(4096, out.largestWrite);
+    }
+
+    @Test
+    public void testTransfersToFileChannel() throws Exception {
+        File copy = File.createTempFile("filebody", ".copy");
+        try {
+            FileOutputStream out = new FileOutputStream(copy);
+            try {
+                new FileBody(this.file).writeTo(out);
+            } finally {
+                out.close();
+            }
+            assertArrayEquals(this.content, read(copy));
+        } finally {
+            copy.delete();
+        }
+    }
+
+    @Test
+    public void testMappedRestIsWrittenToTheChannel() throws Exception {
+        ChannelStream out = new ChannelStream();
+
+        new FileBody(this.file).writeTo(out);
+
+        assertArrayEquals(this.content, out.written.toByteArray());
+        assertEquals("Bytes copied through arrays", 0, out.arrayBytes);
+    }
+
+    @Test
+    public void testRestBelowTheThresholdIsCopied() throws Exception {
+        ChannelStream out = new ChannelStream();
+        FileBody body = new FileBody(this.file);
+        body.setMapThreshold(FILE_SIZE + 1);
+
+        body.writeTo(out);
+
+        assertArrayEquals(this.content, out.written.toByteArray());
+        assertEquals(FILE_SIZE, out.arrayBytes);
+    }
+
+    @Test
+    public void testNegativeMapThresholdIsRejected() {
+        FileBody body = new FileBody(this.file);
+        try {
+            body.setMapThreshold(-1);
+            fail("Negative map threshold accepted");
+        } catch (IllegalArgumentException ex) {
+            assertEquals(FileBody.DEFAULT_MAP_THRESHOLD, body.getMapThreshold());
+        }
+    }
+
+    private static byte[] read(final File file) throws IOException {
+        byte[] data = new byte[(int) file.length()];
+        FileInputStream in = new FileInputStream(file);
+        try {
+            int offset = 0;
+            while (offset < data.length) {
+                int l = in.read(data, offset, data.length - offset);
+                if (l == -1) {
+                    break;
+                }
+                offset += l;
+            }
+        } finally {
+            in.close();
+        }
+        return data;
+    }
+
+}